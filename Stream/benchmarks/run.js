@@ -0,0 +1,63 @@
+// Runs the compiled Headless.elm in node and prints the results.
+//
+//   node --stack-size=7800 run.js <benchmark.js> [results.json]
+//
+// Deep trees recurse deeply in the Elm code, hence the larger stack.
+// Debug.log writes to console.log; it is silenced while the benchmarks run,
+// logging every decoded box would otherwise dominate the fromJson numbers.
+// Exits with code 1, without measuring, when treeDimensions does not agree with
+// the drawing, see Suite.layoutMismatches.
+'use strict';
+
+const fs = require('fs');
+const path = require('path');
+
+const input = path.resolve(process.argv[2] || 'target/benchmark.js');
+const output = process.argv[3];
+
+const scope = {};
+new Function(fs.readFileSync(input, 'utf8')).call(scope);
+
+const log = console.log;
+console.log = function () {};
+
+const app = scope.Elm.Headless.init();
+app.ports.report.subscribe(function (report) {
+	console.log = log;
+	if (report.failed) {
+		log('treeDimensions differs from the drawing:');
+		report.failed.forEach(function (f) { log('  ' + f); });
+		process.exitCode = 1;
+		return;
+	}
+	print(report, '');
+	if (output) {
+		fs.writeFileSync(output, JSON.stringify(report, null, 2));
+		log('results written to ' + output);
+	}
+});
+
+function print(report, indent) {
+	if (report.group) {
+		log(indent + report.name);
+		report.group.forEach(function (r) { print(r, indent + '  '); });
+	} else if (report.series) {
+		log(indent + report.name);
+		report.series.forEach(function (s) { log(indent + '  ' + pad(s.name, 8) + result(s.result)); });
+	} else {
+		log(indent + pad(report.name, 10) + result(report.result));
+	}
+}
+
+function result(r) {
+	if (r.error)
+		return 'failed: ' + r.error;
+	return pad(r.runsPerSecond.toLocaleString('en-US'), 14, true) + ' runs/s  (fit ' + (r.goodnessOfFit * 100).toFixed(1) + '%)';
+}
+
+function pad(s, n, left) {
+	s = String(s);
+	while (s.length < n)
+		s = left ? ' ' + s : s + ' ';
+	return s;
+}
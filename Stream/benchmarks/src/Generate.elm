@@ -0,0 +1,156 @@
+module Generate exposing (Generated, generate, nested)
+
+{--
+
+  Deterministic flowcharts of a given size, used as input for the benchmarks
+
+  The tree starts like Tree.State.init: Start (0), an Empty box (2) and End (1).
+   The generated boxes follow the Empty box and get ids from 10 upwards in steps
+   of 10, so the last id is the deepest box a search has to reach. Every fifth
+   box is an If, every fifth a While, the rest are statements; bodies are only
+   nested three levels deep.
+
+  `nested` is a small flowchart with the shapes the generated ones lack: ForEach,
+   empty branches and bodies, an If in a While in an If, text over several lines.
+
+--}
+
+import Set
+import Tree.Core exposing (BasicTree(..), Id, Tree)
+import Tree.State as State
+
+
+type alias Generated =
+    { model : State.Model
+
+    -- Ids of boxes the edit benchmarks work on
+    , emptyId : Id
+    , firstId : Id
+    , lastId : Id
+    }
+
+
+generate : Int -> Generated
+generate size =
+    let
+        ( boxes, nextId ) =
+            block size 0 10 { id = 1, basicTree = End }
+    in
+    { model =
+        { flowchartName = "benchmark " ++ String.fromInt size
+        , tree = { id = 0, basicTree = Start { id = 2, basicTree = Empty boxes } }
+        , currentId = nextId
+        , highlightedBox = Nothing
+        , precondition = { nodeType = State.PreConditionNode, content = "n >= 0", visible = True }
+        , postcondition = { nodeType = State.PostConditionNode, content = "", visible = False }
+        , collapsed = Set.empty
+        , detail = Nothing
+        }
+    , emptyId = 2
+    , firstId = 10
+    , lastId = nextId - 10
+    }
+
+
+{-| A sequence of `size` boxes followed by `rest`, with the id that is free afterwards
+-}
+block : Int -> Int -> Id -> Tree -> ( Tree, Id )
+block size depth id rest =
+    let
+        bodySize =
+            if depth < 3 then
+                min 6 ((size - 1) // 3)
+
+            else
+                0
+
+        content =
+            "x := x + " ++ String.fromInt id
+    in
+    if size <= 0 then
+        ( rest, id )
+
+    else if bodySize > 0 && modBy 5 (id // 10) == 3 then
+        let
+            ( falseBranch, id1 ) =
+                block bodySize (depth + 1) (id + 10) { id = id + 1, basicTree = Void }
+
+            ( trueBranch, id2 ) =
+                block bodySize (depth + 1) id1 { id = id + 2, basicTree = Void }
+
+            ( next, id3 ) =
+                block (size - 1 - 2 * bodySize) depth id2 rest
+        in
+        ( { id = id, basicTree = If ("x < " ++ String.fromInt id) falseBranch trueBranch next }, id3 )
+
+    else if bodySize > 0 && modBy 5 (id // 10) == 4 then
+        let
+            ( body, id1 ) =
+                block bodySize (depth + 1) (id + 10) { id = id + 1, basicTree = Void }
+
+            ( next, id2 ) =
+                block (size - 1 - bodySize) depth id1 rest
+        in
+        ( { id = id, basicTree = While ("x < " ++ String.fromInt id) body next }, id2 )
+
+    else
+        let
+            ( next, id1 ) =
+                block (size - 1) depth (id + 10) rest
+        in
+        ( { id = id, basicTree = Statement content next }, id1 )
+
+
+nested : State.Model
+nested =
+    let
+        box id basicTree =
+            { id = id, basicTree = basicTree }
+
+        void id =
+            box id Void
+
+        -- ForEach whose body is an Empty box
+        forEach =
+            box 90 (ForEach "c in s" (box 91 (Empty (void 92))) (box 1 End))
+
+        wrapped =
+            box 80 (Statement "a statement long enough for its text to be wrapped over more than one line of the box" forEach)
+
+        -- Empty true branch; the false branch nests a ForEach in an If in a While
+        deep =
+            box 60
+                (If "p"
+                    (box 61
+                        (While "q"
+                            (box 62
+                                (If "r"
+                                    (void 63)
+                                    (box 64 (ForEach "x in xs" (box 65 (Statement "y += x" (void 66))) (void 67)))
+                                    (void 68)
+                                )
+                            )
+                            (void 69)
+                        )
+                    )
+                    (void 70)
+                    wrapped
+                )
+
+        -- Both branches empty
+        empty =
+            box 40 (If "a = b" (void 41) (void 42) deep)
+
+        -- Empty loop body
+        loop =
+            box 20 (While "i < n" (void 21) empty)
+    in
+    { flowchartName = "nested"
+    , tree = box 0 (Start (box 2 (Empty (box 10 (Statement "n := 10\nsum := 0" loop)))))
+    , currentId = 100
+    , highlightedBox = Nothing
+    , precondition = { nodeType = State.PreConditionNode, content = "n >= 0", visible = True }
+    , postcondition = { nodeType = State.PostConditionNode, content = "sum >= 0", visible = True }
+    , collapsed = Set.empty
+    , detail = Nothing
+    }
@@ -0,0 +1,121 @@
+port module Headless exposing (main)
+
+{--
+
+  Runs the suite without a browser, see run.js
+
+  The benchmark is stepped until it is done, after which the results are sent
+   through the report port as JSON. When the layout check of Suite fails, only
+   its failures are sent, and nothing is measured.
+
+--}
+
+import Benchmark exposing (Benchmark)
+import Benchmark.Reporting as Reporting exposing (Report(..))
+import Benchmark.Status as Status exposing (Status(..))
+import Json.Encode as Encode
+import Process
+import Suite
+import Task
+import Trend.Linear as Trend exposing (Quick, Trend)
+
+
+port report : Encode.Value -> Cmd msg
+
+
+type Msg
+    = Stepped Benchmark
+
+
+main : Program () Benchmark Msg
+main =
+    Platform.worker
+        { init = \_ -> ( Suite.suite, start )
+        , update = update
+        , subscriptions = \_ -> Sub.none
+        }
+
+
+start : Cmd Msg
+start =
+    case Suite.layoutMismatches of
+        [] ->
+            next Suite.suite
+
+        failed ->
+            report (Encode.object [ ( "failed", Encode.list Encode.string failed ) ])
+
+
+update : Msg -> Benchmark -> ( Benchmark, Cmd Msg )
+update (Stepped benchmark) _ =
+    if Benchmark.done benchmark then
+        ( benchmark, report (encodeReport (Reporting.fromBenchmark benchmark)) )
+
+    else
+        ( benchmark, next benchmark )
+
+
+next : Benchmark -> Cmd Msg
+next benchmark =
+    -- Sleeping lets run.js print progress between the steps
+    case Benchmark.step benchmark of
+        Just task ->
+            Process.sleep 0
+                |> Task.andThen (always task)
+                |> Task.perform Stepped
+
+        Nothing ->
+            Cmd.none
+
+
+encodeReport : Report -> Encode.Value
+encodeReport r =
+    case r of
+        Single name status ->
+            Encode.object
+                [ ( "name", Encode.string name )
+                , ( "result", encodeStatus status )
+                ]
+
+        Series name series ->
+            Encode.object
+                [ ( "name", Encode.string name )
+                , ( "series"
+                  , Encode.list
+                        (\( label, status ) ->
+                            Encode.object
+                                [ ( "name", Encode.string label )
+                                , ( "result", encodeStatus status )
+                                ]
+                        )
+                        series
+                  )
+                ]
+
+        Group name reports ->
+            Encode.object
+                [ ( "name", Encode.string name )
+                , ( "group", Encode.list encodeReport reports )
+                ]
+
+
+encodeStatus : Status -> Encode.Value
+encodeStatus status =
+    case status of
+        Success _ trend ->
+            Encode.object
+                [ ( "runsPerSecond", Encode.int (runsPerSecond trend) )
+                , ( "goodnessOfFit", Encode.float (Trend.goodnessOfFit trend) )
+                ]
+
+        Failure error ->
+            Encode.object [ ( "error", Encode.string (Debug.toString error) ) ]
+
+        _ ->
+            Encode.object [ ( "error", Encode.string "not finished" ) ]
+
+
+runsPerSecond : Trend Quick -> Int
+runsPerSecond trend =
+    Trend.predictX (Trend.line trend) 1000
+        |> floor
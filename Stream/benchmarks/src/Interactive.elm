@@ -0,0 +1,16 @@
+module Interactive exposing (main)
+
+{--
+
+  Runs the suite in the browser with the runner of elm-explorations/benchmark:
+   elm make src/Interactive.elm --output=index.html
+
+--}
+
+import Benchmark.Runner exposing (BenchmarkProgram, program)
+import Suite
+
+
+main : BenchmarkProgram
+main =
+    program Suite.suite
@@ -0,0 +1,153 @@
+module Suite exposing (layoutMismatches, suite)
+
+{--
+
+  The benchmarks shared by the headless and the browser runner
+
+  Every benchmark runs on the generated trees of `sizes` boxes. The edit functions
+   are all given the id of the last generated box, so the search through the
+   tree is part of what is measured.
+
+  Before the benchmarks, the headless runner checks that treeDimensions agrees
+   with the drawing it stands for, see layoutMismatches.
+
+--}
+
+import Benchmark exposing (Benchmark, describe, scale)
+import Generate exposing (Generated)
+import Set
+import Tree.Core exposing (BasicTree(..), Id, Tree, treeToJava)
+import Tree.Draw exposing (Dimensions, drawTree, drawnDimensions, noMetrics, treeDimensions)
+import Tree.State as State exposing (ChangeTree(..), NodeType(..))
+
+
+sizes : List Int
+sizes =
+    [ 10, 100, 1000, 5000 ]
+
+
+suite : Benchmark
+suite =
+    let
+        generated =
+            List.map (\size -> ( size, Generate.generate size )) sizes
+
+        json =
+            List.map (\( size, g ) -> ( size, State.toJson g.model )) generated
+
+        measured =
+            List.map (\( size, g ) -> ( size, ( g, Tuple.second (treeDimensions noMetrics g.model) ) )) generated
+    in
+    describe "Stream"
+        [ describe "Save"
+            [ scaled "toJson" (\g -> State.toJson g.model) generated
+            , scaled "fromJson" State.fromJson json
+            ]
+        , describe "Core"
+            [ scaled "treeToJava" (\g -> treeToJava 1 g.model.tree) generated
+            ]
+        , describe "Draw"
+            [ scaled "drawTree" (\g -> drawTree g.model g.model.tree) generated
+            , scaled "treeDimensions" (\g -> treeDimensions noMetrics g.model) generated
+            , scaled "treeDimensions memoised" (\( g, metrics ) -> treeDimensions metrics g.model) measured
+            ]
+        , describe "State"
+            [ scaled "updateContent" (\g -> State.updateContent "y := 0" g.lastId g.model) generated
+            , scaled "fillEmpty" (\g -> State.fillEmpty g.model.currentId StatementNode g.emptyId g.model.tree) generated
+            , scaled "changeTree NewBelow" (edit NewBelow) generated
+            , scaled "changeTree Delete" (edit Delete) generated
+            ]
+        ]
+
+
+edit : ChangeTree -> Generated -> Tree.Core.Tree
+edit operation g =
+    State.changeTree g.model.currentId operation g.lastId g.model.tree
+
+
+scaled : String -> (a -> b) -> List ( Int, a ) -> Benchmark
+scaled name function inputs =
+    scale name
+        (List.map (\( size, input ) -> ( String.fromInt size, \_ -> function input )) inputs)
+
+
+
+{-| The flows on which treeDimensions differs from the size of the drawing, in the editor or read-only,
+with both sizes. Every generated tree and Generate.nested is checked as it is, with every If, While and
+ForEach collapsed, at the levels of detail 0 to 2, and with the conditions the other way around
+-}
+layoutMismatches : List String
+layoutMismatches =
+    let
+        bases =
+            ( "nested", Generate.nested )
+                :: List.map (\size -> ( String.fromInt size, (Generate.generate size).model )) [ 10, 100, 1000 ]
+
+        variants ( name, model ) =
+            [ ( name, model )
+            , ( name ++ " collapsed", { model | collapsed = Set.fromList (compoundIds model.tree) } )
+            , ( name ++ " conditions swapped"
+              , { model
+                    | precondition = toggled model.precondition
+                    , postcondition = toggled model.postcondition
+                }
+              )
+            ]
+                ++ List.map (\level -> ( name ++ " detail " ++ String.fromInt level, State.setDetail level model )) [ 0, 1, 2 ]
+
+        mismatch ( name, model ) =
+            let
+                measured =
+                    Tuple.first (treeDimensions noMetrics model)
+
+                ( edited, static ) =
+                    drawnDimensions model
+            in
+            if same measured edited && same measured static then
+                Nothing
+
+            else
+                Just (name ++ ": measured " ++ showSize measured ++ ", drawn " ++ showSize edited ++ " in the editor and " ++ showSize static ++ " read-only")
+    in
+    List.filterMap mismatch (List.concatMap variants bases)
+
+
+toggled : State.Condition -> State.Condition
+toggled condition =
+    { condition | visible = not condition.visible }
+
+
+compoundIds : Tree -> List Id
+compoundIds node =
+    case node.basicTree of
+        Start child ->
+            compoundIds child
+
+        Empty child ->
+            compoundIds child
+
+        Statement _ child ->
+            compoundIds child
+
+        If _ child1 child2 child3 ->
+            node.id :: compoundIds child1 ++ compoundIds child2 ++ compoundIds child3
+
+        While _ child1 child2 ->
+            node.id :: compoundIds child1 ++ compoundIds child2
+
+        ForEach _ child1 child2 ->
+            node.id :: compoundIds child1 ++ compoundIds child2
+
+        _ ->
+            []
+
+
+same : Dimensions -> Dimensions -> Bool
+same a b =
+    -- The layout pass adds up the same distances, though not always in the same order
+    abs (a.width - b.width) < 0.001 && abs (a.height - b.height) < 0.001
+
+
+showSize : Dimensions -> String
+showSize size =
+    String.fromFloat size.width ++ "x" ++ String.fromFloat size.height
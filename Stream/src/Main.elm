@@ -12,7 +12,10 @@ import Html
 import Html.Styled exposing (..)
 import Html.Styled.Attributes exposing (css)
 import Html.Styled.Events exposing (onClick)
+import Ports
+import Process
 import Save exposing (..)
+import Task
 import Tree.Draw as Draw exposing (..)
 import Tree.State as State exposing (..)
 
@@ -24,29 +27,63 @@ main =
 
 type alias Model =
     { state : State.Model
+
+    -- Last size sent through the layout port
+    , layout : Maybe Draw.Dimensions
+
+    -- Text measured by the last layout pass
+    , metrics : Draw.Metrics
+
+    -- Stored flow that could not be read; kept, and not overwritten by checkpoints, until the student edits
+    , unreadable : Maybe Unreadable
+    }
+
+
+type alias Unreadable =
+    { json : String
+    , error : String
     }
 
 
 init : String -> ( Model, Cmd Msg )
-init model =
+init json =
     let
-        initModel = 
-            case State.fromJson model of
-               Just newModel ->
-                   newModel
-
-               Nothing ->
-                   State.init
+        ( initModel, unreadable ) =
+            readStored json
     in
     ( { state = initModel
+      , layout = Nothing
+      , metrics = Draw.noMetrics
+      , unreadable = unreadable
       }
-    , Cmd.none
+      -- Port messages sent during init are lost, so publish the first layout on the next tick
+    , Task.perform (always PublishLayout) (Process.sleep 0)
     )
 
 
+{-| The stored flow, or a new one with the reason the stored one could not be read.
+Nothing stored yet is not an error.
+-}
+readStored : String -> ( State.Model, Maybe Unreadable )
+readStored json =
+    if String.isEmpty (String.trim json) then
+        ( State.init, Nothing )
+
+    else
+        case State.decode json of
+            Ok newModel ->
+                ( newModel, Nothing )
+
+            Err error ->
+                ( State.init, Just { json = json, error = error } )
+
+
 type Msg
     = Tree State.Msg
     | Save Save.Msg
+    | PublishLayout
+    | Restore String
+    | SetDetail Int
 
 
 update : Msg -> Model -> ( Model, Cmd Msg )
@@ -56,24 +93,151 @@ update msg model =
             let
                 ( treeModel, treeCmd ) =
                     State.update treeMsg model.state
+
+                held =
+                    model.unreadable /= Nothing && not (isEdit treeMsg)
+
+                sent =
+                    if held then
+                        withoutCheckpoint treeMsg (Cmd.map Tree treeCmd)
+
+                    else
+                        Cmd.map Tree treeCmd
             in
-            ( { model | state = treeModel }
-            , Cmd.map Tree treeCmd
+            ( { model
+                | state = treeModel
+                , unreadable =
+                    if held then
+                        model.unreadable
+
+                    else
+                        Nothing
+              }
+            , case State.traceEvent treeMsg of
+                Just event ->
+                    Cmd.batch [ sent, Ports.trace event ]
+
+                Nothing ->
+                    sent
             )
+                |> publishLayout (not (highlightOnly treeMsg) && treeModel /= model.state)
 
         Save saveMsg ->
             let
                 ( saveModel, saveCmd ) =
                     Save.update saveMsg model.state
             in
-            ( { model | state = saveModel }
-            , Cmd.map Save saveCmd
+            ( { model | state = { saveModel | detail = model.state.detail } }
+            , case ( saveMsg, model.unreadable ) of
+                ( Save.Checkpoint, Just _ ) ->
+                    Cmd.none
+
+                _ ->
+                    Cmd.map Save saveCmd
             )
+                |> publishLayout (saveModel /= model.state)
+
+        PublishLayout ->
+            ( model, Cmd.none )
+                |> publishLayout True
+
+        Restore json ->
+            let
+                ( newState, unreadable ) =
+                    readStored json
+
+                restored =
+                    { newState | detail = model.state.detail }
+            in
+            ( { model | state = restored, unreadable = unreadable }, Cmd.none )
+                |> publishLayout (restored /= model.state)
+
+        SetDetail level ->
+            ( { model | state = State.setDetail level model.state }, Cmd.none )
+                |> publishLayout True
+
+
+{-| Whether the student changes the flow itself, which is what may replace a stored flow that could not be read.
+Hovering, keys and collapsing do not.
+-}
+isEdit : State.Msg -> Bool
+isEdit treeMsg =
+    case treeMsg of
+        UpdateName _ ->
+            True
+
+        UpdateContent _ _ ->
+            True
+
+        FillEmpty _ _ ->
+            True
+
+        ChangeTree _ _ ->
+            True
+
+        ConditionHide _ ->
+            True
+
+        ConditionShow _ ->
+            True
+
+        _ ->
+            False
+
+
+{-| The command of a message that is not an edit, without its checkpoint.
+Of those only KeyDown sends something else, and it sends no checkpoint.
+-}
+withoutCheckpoint : State.Msg -> Cmd Msg -> Cmd Msg
+withoutCheckpoint treeMsg cmd =
+    case treeMsg of
+        KeyDown _ _ ->
+            cmd
+
+        _ ->
+            Cmd.none
+
+
+highlightOnly : State.Msg -> Bool
+highlightOnly treeMsg =
+    -- The layout pass leaves the mouse-over menu out, so hovering cannot change the size
+    case treeMsg of
+        HighlightBox _ ->
+            True
+
+        DehighlightBox _ ->
+            True
+
+        _ ->
+            False
+
+
+publishLayout : Bool -> ( Model, Cmd Msg ) -> ( Model, Cmd Msg )
+publishLayout changed ( model, cmd ) =
+    -- Only runs the layout pass when the state changed, and only sends when the size did
+    if changed then
+        let
+            ( dimensions, metrics ) =
+                Draw.treeDimensions model.metrics model.state
+        in
+        if model.layout == Just dimensions then
+            ( { model | metrics = metrics }, cmd )
+
+        else
+            ( { model | layout = Just dimensions, metrics = metrics }
+            , Cmd.batch [ cmd, Ports.layout dimensions ]
+            )
+
+    else
+        ( model, cmd )
 
 
 subscriptions : Model -> Sub Msg
 subscriptions model =
-    Sub.none
+    Sub.batch
+        [ Ports.restore Restore
+        , Ports.detail SetDetail
+        ]
 
 
 view : Model -> Html.Html Msg
@@ -89,7 +253,8 @@ view model =
     div
         [ css [ overflowY auto ]
         ]
-        [ div
+        [ unreadableView model.unreadable
+        , div
             [ css
                 [ position absolute
                 , zIndex (int -1)
@@ -105,6 +270,30 @@ view model =
         |> toUnstyled
 
 
+unreadableView : Maybe Unreadable -> Html Msg
+unreadableView unreadable =
+    case unreadable of
+        Just { error } ->
+            div
+                [ css
+                    [ position relative
+                    , zIndex (int 1)
+                    , padding (px 8)
+                    , backgroundColor (hex "fdecea")
+                    , color (hex "611a15")
+                    , whiteSpace preWrap
+                    ]
+                ]
+                [ text "The stored flowchart could not be read, and is kept as it was until you make a change here:\n"
+
+                -- The decoder's reason quotes the JSON it failed on, which can be the whole flow
+                , text (String.left 400 error)
+                ]
+
+        Nothing ->
+            text ""
+
+
 
 -- Show a encoded and then decoded model at the right of the original flowchart
 -- For debugging purposes only
@@ -1,4 +1,4 @@
-port module Ports exposing (downloadToast, checkpoint)
+port module Ports exposing (downloadToast, checkpoint, detail, layout, restore, trace)
 
 {--
 
@@ -8,6 +8,40 @@ port module Ports exposing (downloadToast, checkpoint)
 
 --}
 
+import Json.Encode as Encode
+
 
 port downloadToast : String -> Cmd msg
-port checkpoint : String -> Cmd msg
\ No newline at end of file
+
+
+-- The encoded model; the host only serializes it when it needs the text
+
+
+port checkpoint : Encode.Value -> Cmd msg
+
+
+-- Size of the drawing, so the host can size its frame without measuring the DOM
+
+
+port layout : { width : Float, height : Float } -> Cmd msg
+
+
+
+-- State pushed in by a host that keeps the app running, instead of initialising it again
+
+
+port restore : (String -> msg) -> Sub msg
+
+
+
+-- Edits as compact events, see Tree.State.traceEvent; the host timestamps, samples and buffers them
+
+
+port trace : Encode.Value -> Cmd msg
+
+
+
+-- Level of detail from the host: If, While and ForEach boxes this many levels deep are drawn as summaries; below 0 draws everything
+
+
+port detail : (Int -> msg) -> Sub msg
@@ -0,0 +1,80 @@
+module ReadOnly exposing (Model, Msg(..), init, main, subscriptions, update, view)
+
+{--
+
+  Read-only entry point: draws a flowchart without text areas, menus or event handlers
+   Built separately to readonly.js, so viewing a flowchart does not load the editor
+
+--}
+
+import Browser exposing (element)
+import Html exposing (Html, div)
+import Html.Attributes exposing (style)
+import Ports
+import Process
+import Task
+import Tree.Draw as Draw
+import Tree.State as State
+
+
+main : Program String Model Msg
+main =
+    Browser.element { init = init, view = view, update = update, subscriptions = subscriptions }
+
+
+type alias Model =
+    State.Model
+
+
+init : String -> ( Model, Cmd Msg )
+init flow =
+    ( Maybe.withDefault State.init (State.fromJson flow)
+      -- Port messages sent during init are lost, so publish the layout on the next tick
+    , Task.perform (always PublishLayout) (Process.sleep 0)
+    )
+
+
+type Msg
+    = PublishLayout
+    | Restore String
+    | SetDetail Int
+
+
+update : Msg -> Model -> ( Model, Cmd Msg )
+update msg model =
+    case msg of
+        PublishLayout ->
+            ( model, Ports.layout (Draw.staticDimensions model) )
+
+        Restore json ->
+            case State.fromJson json of
+                Just newModel ->
+                    let
+                        restored =
+                            { newModel | detail = model.detail }
+                    in
+                    ( restored, Ports.layout (Draw.staticDimensions restored) )
+
+                Nothing ->
+                    ( model, Cmd.none )
+
+        SetDetail level ->
+            let
+                newModel =
+                    State.setDetail level model
+            in
+            ( newModel, Ports.layout (Draw.staticDimensions newModel) )
+
+
+subscriptions : Model -> Sub Msg
+subscriptions model =
+    Sub.batch
+        [ Ports.restore Restore
+        , Ports.detail SetDetail
+        ]
+
+
+view : Model -> Html Msg
+view model =
+    div [ style "position" "absolute" ]
+        [ Draw.staticTree model ]
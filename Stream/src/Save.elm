@@ -42,7 +42,7 @@ update msg model =
     case msg of
         Checkpoint ->
             ( model
-            , checkpoint <| State.toJson model
+            , checkpoint <| State.toValue model
             )
 
         GenerateJavaComments ->
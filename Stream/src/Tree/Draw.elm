@@ -1,8 +1,9 @@
-module Tree.Draw exposing (treeWithConditions)
+module Tree.Draw exposing (Dimensions, Metrics, drawTree, drawnDimensions, noMetrics, staticDimensions, staticTree, treeDimensions, treeWithConditions)
 
 {--
 
   Module containing helper functions to draw a tree as described in Core.elm
+   The editor and the read-only view share the geometry, see Mode
 
 --}
 
@@ -13,10 +14,13 @@ import Collage.Render exposing (svg)
 import Collage.Text as Text exposing (Shape(..), Text, fromString, weight)
 import Color exposing (Color, black, blue, darkGray, red, rgb255, rgba, white)
 import Css exposing (auto, backgroundColor, borderColor, center, fontFamilies, left, overflow, pct, resize, textAlign)
+import Dict exposing (Dict)
+import Html
 import Html.Styled exposing (Html, div, fromUnstyled, input, textarea, toUnstyled)
 import Html.Styled.Attributes exposing (autofocus, cols, css, maxlength, placeholder, rows, style, type_, value, wrap)
 import Html.Styled.Events exposing (onInput)
 import Json.Decode as Json exposing (map)
+import Set
 import Tree.Core exposing (..)
 import Tree.State exposing (..)
 
@@ -106,8 +110,9 @@ labelText string =
         |> rendered
 
 
-multilineEditableTextBox : Id -> NodeType -> String -> Int -> Int -> Int -> ( Html Msg, Float, Float )
-multilineEditableTextBox id nodeType content minBoxWidth minBoxHeight maxBoxWidth =
+textGrid : String -> Int -> Int -> Int -> ( Int, Int )
+textGrid content minBoxWidth minBoxHeight maxBoxWidth =
+    -- Columns and rows of a text box
     let
         characterWidth c =
             case c of
@@ -152,10 +157,19 @@ multilineEditableTextBox id nodeType content minBoxWidth minBoxHeight maxBoxWidt
             boxDimensions
                 -- Note: read the string backwards, so newlines indicate the *beginning* of a new line
                 (List.reverse <| String.toList content)
+    in
+    ( max minBoxWidth wc, max minBoxHeight hc )
 
-        ( w, h ) =
-            ( max minBoxWidth wc, max minBoxHeight hc )
 
+gridSize : ( Int, Int ) -> ( Float, Float )
+gridSize ( w, h ) =
+    -- Offset the height so the bottom of the letters won't fall off
+    ( toFloat w, toFloat h + 0.15 )
+
+
+editableTextArea : Id -> NodeType -> String -> ( Int, Int ) -> Html Msg
+editableTextArea id nodeType content ( w, h ) =
+    let
         ( placeholderLabel, textAligning ) =
             case nodeType of
                 StatementNode ->
@@ -198,8 +212,125 @@ multilineEditableTextBox id nodeType content minBoxWidth minBoxHeight maxBoxWidt
                 ]
                 []
     in
-    -- Offset the height so the bottom of the letters won't fall off
-    ( htmlTextArea, toFloat w, (toFloat h) + 0.15 )
+    htmlTextArea
+
+
+staticTextArea : Id -> NodeType -> String -> ( Int, Int ) -> ( Float, Float ) -> Collage msg
+staticTextArea _ nodeType content ( columns, _ ) ( w, h ) =
+    -- The content as plain text, on the grid the editor's text area would have
+    let
+        centered =
+            case nodeType of
+                StatementNode ->
+                    False
+
+                PreConditionNode ->
+                    False
+
+                PostConditionNode ->
+                    False
+
+                _ ->
+                    True
+
+        textLine string =
+            fromString string
+                |> Text.typeface Text.Monospace
+                |> Text.size 13
+                |> rendered
+                |> (if centered then
+                        identity
+
+                    else
+                        align Layout.left
+                   )
+
+        textLines =
+            content
+                |> String.replace "\t" "    "
+                |> String.lines
+                |> List.concatMap (chunks (max 1 (columns - 1)))
+                |> List.map textLine
+                |> vertical
+    in
+    if centered then
+        spacer w h
+            |> imposeAt top (textLines |> align top |> shift ( 0, -2 ))
+
+    else
+        spacer w h
+            |> imposeAt topLeft (textLines |> align topLeft |> shift ( 4, -2 ))
+
+
+chunks : Int -> String -> List String
+chunks size string =
+    -- Hard wrap, like the text area does
+    if String.length string <= size then
+        [ string ]
+
+    else
+        String.left size string :: chunks size (String.dropLeft size string)
+
+
+
+{--
+
+  What a drawing does besides drawing. The editor puts text areas, menus and hitboxes on the boxes;
+   the read-only view puts plain text and leaves the same room, so both have the same geometry
+   collapsed tells whether an If, While or ForEach at a nesting depth is drawn as a summary box
+
+--}
+
+
+type alias Mode msg =
+    { textArea : Id -> NodeType -> String -> ( Int, Int ) -> ( Float, Float ) -> Collage msg
+    , nameField : String -> ( Float, Float ) -> Collage msg
+    , overlay : Tree -> Collage msg -> Collage msg
+    , separateBelow : Tree -> Collage msg -> Collage msg
+    , fillEmpty : NodeType -> Id -> Collage msg -> Collage msg
+    , hideCondition : NodeType -> Collage msg -> Collage msg
+    , collapsed : Int -> Id -> Bool
+    , expand : Id -> Collage msg -> Collage msg
+    }
+
+
+editMode : Model -> Mode Msg
+editMode model =
+    { textArea = \id nodeType content grid size -> html size (toUnstyled (editableTextArea id nodeType content grid))
+    , nameField = \flowchartName size -> html size (toUnstyled (nameInput flowchartName))
+    , overlay = addOverlayMenu model.highlightedBox
+    , separateBelow = addSeparateBelowPlus model
+    , fillEmpty = \nodeType id option -> option |> onClick (FillEmpty nodeType id)
+    , hideCondition = \nodeType note -> note |> imposeAt topRight (deleteBox |> onClick (ConditionHide nodeType))
+    , collapsed = isCollapsed model
+    , expand =
+        \id summary ->
+            -- Only what the student folded away unfolds; the host's level of detail stays
+            if Set.member id model.collapsed then
+                summary |> onClick (ToggleCollapse id)
+
+            else
+                summary
+    }
+
+
+staticMode : Model -> Mode msg
+staticMode model =
+    { textArea = staticTextArea
+    , nameField = staticName
+    , overlay = always hitboxRoom
+    , separateBelow = always hitboxRoom
+    , fillEmpty = \_ _ option -> option
+    , hideCondition = \_ note -> note |> imposeAt topRight (spacer (width deleteBox) (height deleteBox))
+    , collapsed = isCollapsed model
+    , expand = \_ summary -> summary
+    }
+
+
+hitboxRoom : Collage msg -> Collage msg
+hitboxRoom nodeBox =
+    -- The envelope addHitbox gives, without the mouse events
+    stack [ nodeBox, spacer (width nodeBox + unit * 2) (height nodeBox + unit * 2) ]
 
 
 
@@ -210,7 +341,7 @@ multilineEditableTextBox id nodeType content minBoxWidth minBoxHeight maxBoxWidt
 --}
 
 
-stubBox : String -> Collage Msg
+stubBox : String -> Collage msg
 stubBox stubText =
     -- Creates a collage node for "Start" and "End"
     -- Prints given string (presumably "Start" or "End")
@@ -234,8 +365,8 @@ stubBox stubText =
         |> name stubText
 
 
-emptyBox : Id -> Collage Msg
-emptyBox idEmpty =
+emptyBox : Mode msg -> Id -> Collage msg
+emptyBox mode idEmpty =
     let
         menuGap =
             spacer unit unit
@@ -243,13 +374,13 @@ emptyBox idEmpty =
         options =
             List.intersperse menuGap
                 [ boxNonEditable "statement" StatementNode
-                    |> onClick (FillEmpty StatementNode idEmpty)
+                    |> mode.fillEmpty StatementNode idEmpty
                 , boxNonEditable "if" IfNode
-                    |> onClick (FillEmpty IfNode idEmpty)
+                    |> mode.fillEmpty IfNode idEmpty
                 , boxNonEditable "while" WhileNode
-                    |> onClick (FillEmpty WhileNode idEmpty)
+                    |> mode.fillEmpty WhileNode idEmpty
                 , boxNonEditable "forEach" ForEachNode
-                    |> onClick (FillEmpty ForEachNode idEmpty)
+                    |> mode.fillEmpty ForEachNode idEmpty
                 ]
                 |> horizontal
                 |> Layout.center
@@ -267,7 +398,7 @@ emptyBox idEmpty =
     [ options, shape ] |> stack
 
 
-boxNonEditable : String -> NodeType -> Collage Msg
+boxNonEditable : String -> NodeType -> Collage msg
 boxNonEditable label nodeType =
     let
         text =
@@ -299,7 +430,7 @@ boxNonEditable label nodeType =
     [ text, shape ] |> stack
 
 
-voidBox : Collage Msg
+voidBox : Collage msg
 voidBox =
     spacer 0 0
 
@@ -313,8 +444,8 @@ statementBoxShape w h =
             )
 
 
-statementBoxEditable : Id -> String -> Collage Msg
-statementBoxEditable id label =
+statementBox : Mode msg -> Id -> String -> Collage msg
+statementBox mode id label =
     let
         maxWidth =
             22
@@ -322,15 +453,17 @@ statementBoxEditable id label =
         ( minW, minH ) =
             ( 10, 1 )
 
-        ( htmlTextArea, wta, hta ) =
-            multilineEditableTextBox id StatementNode label minW minH maxWidth
+        grid =
+            textGrid label minW minH maxWidth
+
+        ( wta, hta ) =
+            gridSize grid
 
         ( w, h ) =
             ( max minW wta * 9, max minH hta * 13 )
 
         htmlBox =
-            html ( w, h * 1.3 ) <|
-                toUnstyled htmlTextArea
+            mode.textArea id StatementNode label grid ( w, h * 1.3 )
     in
     [ htmlBox
     , statementBoxShape w h
@@ -358,8 +491,8 @@ ifBoxShape w h =
         |> Layout.center
 
 
-ifBoxEditable : Id -> String -> Collage Msg
-ifBoxEditable id label =
+ifBox : Mode msg -> Id -> String -> Collage msg
+ifBox mode id label =
     let
         maxWidth =
             23
@@ -367,15 +500,17 @@ ifBoxEditable id label =
         ( minW, minH ) =
             ( 10, 1 )
 
-        ( htmlTextArea, wta, hta ) =
-            multilineEditableTextBox id IfNode label minW minH maxWidth
+        grid =
+            textGrid label minW minH maxWidth
+
+        ( wta, hta ) =
+            gridSize grid
 
         ( w, h ) =
             ( max minW wta * 9, max minH hta * 7.8 + 10 )
 
         htmlBox =
-            html ( w, h * 2 ) <|
-                toUnstyled htmlTextArea
+            mode.textArea id IfNode label grid ( w, h * 2 )
     in
     stack
         [ htmlBox
@@ -384,12 +519,12 @@ ifBoxEditable id label =
         ]
 
 
-ifHelper : Model -> Tree -> String -> Tree -> Tree -> Tree -> Collage Msg
-ifHelper model node text child1 child2 child3 =
+ifHelper : Mode msg -> Int -> Tree -> String -> Tree -> Tree -> Tree -> Collage msg
+ifHelper mode depth node text child1 child2 child3 =
     let
         ( leftPiece, rightPiece ) =
-            ( drawTree model child1
-            , drawTree model child2
+            ( drawNode mode (depth + 1) child1
+            , drawNode mode (depth + 1) child2
             )
 
         maxHeight =
@@ -458,15 +593,10 @@ ifHelper model node text child1 child2 child3 =
             midLength
                 |> line
                 |> traced defaultLineStyle
-                |> addSeparateBelowPlus model node
+                |> mode.separateBelow node
 
         decoratedTextBox =
-            ifBoxEditable node.id text
-                |> addOverlayMenu model.highlightedBox node
-                |> imposeAt topLeft
-                    (labelText "if"
-                        |> align Layout.left
-                    )
+            decoratedIfBox mode node text
     in
     [ topArrows
     , midPiece
@@ -476,6 +606,16 @@ ifHelper model node text child1 child2 child3 =
         |> at top decoratedTextBox
 
 
+decoratedIfBox : Mode msg -> Tree -> String -> Collage msg
+decoratedIfBox mode node text =
+    ifBox mode node.id text
+        |> mode.overlay node
+        |> imposeAt topLeft
+            (labelText "if"
+                |> align Layout.left
+            )
+
+
 
 {--
 
@@ -484,7 +624,7 @@ The While and the ForEach have the same structure, so I generalised them to 'loo
 --}
 
 
-loopBoxShape : NodeType -> Float -> Float -> Collage Msg
+loopBoxShape : NodeType -> Float -> Float -> Collage msg
 loopBoxShape nodeType w h =
     let
         boxColor =
@@ -514,8 +654,8 @@ loopBoxShape nodeType w h =
         |> Layout.center
 
 
-loopBoxEditable : NodeType -> Id -> String -> Collage Msg
-loopBoxEditable nodeType id label =
+loopBox : Mode msg -> NodeType -> Id -> String -> Collage msg
+loopBox mode nodeType id label =
     let
         maxCharacters =
             25
@@ -523,15 +663,17 @@ loopBoxEditable nodeType id label =
         ( minW, minH ) =
             ( 10, 1 )
 
-        ( htmlTextArea, wta, hta ) =
-            multilineEditableTextBox id nodeType label minW minH maxCharacters
+        grid =
+            textGrid label minW minH maxCharacters
+
+        ( wta, hta ) =
+            gridSize grid
 
         ( w, h ) =
             ( max minW wta * 9, max minH hta * 7.8 + 5 )
 
         htmlBox =
-            html ( w, h * 2 ) <|
-                toUnstyled htmlTextArea
+            mode.textArea id nodeType label grid ( w, h * 2 )
     in
     [ htmlBox
     , loopBoxShape nodeType w h
@@ -539,29 +681,34 @@ loopBoxEditable nodeType id label =
         |> stack
 
 
-loopHelper : NodeType -> Model -> Tree -> String -> Tree -> Tree -> Collage Msg
-loopHelper nodeType model node text child1 child2 =
-    let
-        ( typeLabel, ( leftTag, bottomTag ) ) =
-            case nodeType of
-                WhileNode ->
-                    -- The spaces in the tags are an ugly fix, I'm sorry
-                    ( "while", ( "false   ", "   true" ) )
+loopLabels : NodeType -> ( String, ( String, String ) )
+loopLabels nodeType =
+    case nodeType of
+        WhileNode ->
+            -- The spaces in the tags are an ugly fix, I'm sorry
+            ( "while", ( "false   ", "   true" ) )
 
-                ForEachNode ->
-                    ( "for each", ( "done   ", "  repeat" ) )
+        ForEachNode ->
+            ( "for each", ( "done   ", "  repeat" ) )
+
+        a ->
+            Debug.log ("Tried to create loopHelper with non-loop type: " ++ Debug.toString a ++ " continueing without change.") ( "report", ( "this", "please" ) )
 
-                a ->
-                    Debug.log ("Tried to create loopHelper with non-loop type: " ++ Debug.toString a ++ " continueing without change.") ( "report", ( "this", "please" ) )
+
+loopHelper : Mode msg -> Int -> NodeType -> Tree -> String -> Tree -> Tree -> Collage msg
+loopHelper mode depth nodeType node text child1 child2 =
+    let
+        ( typeLabel, ( leftTag, bottomTag ) ) =
+            loopLabels nodeType
 
         decoratedLoopBox =
-            loopBoxEditable nodeType node.id text
+            loopBox mode nodeType node.id text
                 |> imposeAt right
                     (arrowTriangle
                         |> rotate (pi * 3 / 2)
                         |> align Layout.left
                     )
-                |> addOverlayMenu model.highlightedBox node
+                |> mode.overlay node
                 |> imposeAt topLeft
                     (labelText typeLabel
                         |> align bottom
@@ -575,12 +722,12 @@ loopHelper nodeType model node text child1 child2 =
                         |> align topLeft
                     )
 
-        widthInner =
-            max (width decoratedLoopBox + 4 * unit) (width <| drawTree model child1)
+        body =
+            drawNode mode (depth + 1) child1
 
         inner =
             [ arrow (height decoratedLoopBox / 2)
-            , drawTree model child1
+            , body
             ]
                 |> vertical
 
@@ -615,7 +762,7 @@ loopHelper nodeType model node text child1 child2 =
             -- Funfact: using a shape instead of a line creates a blinking hitbox
             , line 1
                 |> traced invisible
-                |> addSeparateBelowPlus model node
+                |> mode.separateBelow node
             ]
                 |> vertical
     in
@@ -628,34 +775,121 @@ loopHelper nodeType model node text child1 child2 =
 
 
 
+{--
+
+  Collapsed subtrees: the If, While or ForEach box itself, and below it one box that says how many
+   boxes its branches hold. Large flows stay readable, and the collage only has the boxes that show
+
+--}
+
+
+collapsedHelper : Mode msg -> Tree -> Collage msg -> List Tree -> Collage msg
+collapsedHelper mode node decoratedBox inside =
+    [ decoratedBox
+    , line (2 * unit)
+        |> traced defaultLineStyle
+        |> rotate (pi / 2)
+    , summaryBox (boxCount 0 inside)
+        |> mode.expand node.id
+        |> mode.separateBelow node
+    ]
+        |> vertical
+
+
+summaryBox : Int -> Collage msg
+summaryBox count =
+    let
+        text =
+            fromString
+                (String.fromInt count
+                    ++ (if count == 1 then
+                            " box"
+
+                        else
+                            " boxes"
+                       )
+                )
+                |> rendered
+
+        ( w, h ) =
+            ( max (width text) 60, height text )
+
+        shape =
+            rectangle (w + 2 * unit) (h + 2 * unit)
+                |> styled
+                    ( uniform (rgb255 240 240 240)
+                    , dash thin (uniform darkGray)
+                    )
+    in
+    [ text, shape ] |> stack
+
+
+boxCount : Int -> List Tree -> Int
+boxCount count trees =
+    -- Statement, If, While and ForEach boxes in the given sequences; a worklist, so deep nesting needs no stack
+    case trees of
+        [] ->
+            count
+
+        tree :: rest ->
+            case tree.basicTree of
+                Statement _ next ->
+                    boxCount (count + 1) (next :: rest)
+
+                If _ child1 child2 next ->
+                    boxCount (count + 1) (child1 :: child2 :: next :: rest)
+
+                While _ body next ->
+                    boxCount (count + 1) (body :: next :: rest)
+
+                ForEach _ body next ->
+                    boxCount (count + 1) (body :: next :: rest)
+
+                Start next ->
+                    boxCount count (next :: rest)
+
+                Empty next ->
+                    boxCount count (next :: rest)
+
+                _ ->
+                    boxCount count rest
+
+
+
 {--
 
   Draw the tree using earlier given shape functions
+   depth is the number of If, While and ForEach boxes the node is in
 
 --}
 
 
 drawTree : Model -> Tree -> Collage Msg
-drawTree model node =
+drawTree model =
+    drawNode (editMode model) 0
+
+
+drawNode : Mode msg -> Int -> Tree -> Collage msg
+drawNode mode depth node =
     case node.basicTree of
         Start child ->
             [ stubBox "Start"
-                |> addOverlayMenu model.highlightedBox node
+                |> mode.overlay node
                 |> addBottomArrow 0 child.basicTree
-            , drawTree model child
+            , drawNode mode depth child
             ]
                 |> vertical
 
         End ->
             -- TODO simplify, remove vertical
             stubBox "End"
-                |> addOverlayMenu model.highlightedBox node
+                |> mode.overlay node
 
         Empty child ->
-            [ emptyBox node.id
-                |> addOverlayMenu model.highlightedBox node
+            [ emptyBox mode node.id
+                |> mode.overlay node
                 |> addBottomArrow 0 child.basicTree
-            , drawTree model child
+            , drawNode mode depth child
             ]
                 |> vertical
 
@@ -663,33 +897,57 @@ drawTree model node =
             voidBox
 
         Statement text child ->
-            [ statementBoxEditable node.id text
-                |> addOverlayMenu model.highlightedBox node
+            [ statementBox mode node.id text
+                |> mode.overlay node
                 |> addBottomArrow 0 child.basicTree
-            , drawTree model child
+            , drawNode mode depth child
             ]
                 |> vertical
 
         If text child1 child2 child3 ->
-            [ ifHelper model node text child1 child2 child3
+            [ (if mode.collapsed depth node.id then
+                collapsedHelper mode node (decoratedIfBox mode node text) [ child1, child2 ]
+
+               else
+                ifHelper mode depth node text child1 child2 child3
+              )
                 |> addBottomArrow 0 child3.basicTree
-            , drawTree model child3
+            , drawNode mode depth child3
             ]
                 |> vertical
 
         While text child1 child2 ->
-            [ loopHelper WhileNode model node text child1 child2
-            , drawTree model child2
+            [ loopNode mode depth WhileNode node text child1 child2
+            , drawNode mode depth child2
             ]
                 |> vertical
 
         ForEach text child1 child2 ->
-            [ loopHelper ForEachNode model node text child1 child2
-            , drawTree model child2
+            [ loopNode mode depth ForEachNode node text child1 child2
+            , drawNode mode depth child2
             ]
                 |> vertical
 
 
+loopNode : Mode msg -> Int -> NodeType -> Tree -> String -> Tree -> Tree -> Collage msg
+loopNode mode depth nodeType node text child1 child2 =
+    if mode.collapsed depth node.id then
+        collapsedHelper mode
+            node
+            (loopBox mode nodeType node.id text
+                |> mode.overlay node
+                |> imposeAt topLeft
+                    (labelText (Tuple.first (loopLabels nodeType))
+                        |> align bottom
+                    )
+            )
+            [ child1 ]
+            |> addBottomArrow 0 child2.basicTree
+
+    else
+        loopHelper mode depth nodeType node text child1 child2
+
+
 
 {--
 
@@ -738,6 +996,17 @@ deleteBox =
         |> stack
 
 
+collapseBox : Collage msg
+collapseBox =
+    -- Folds the branches of an If, While or ForEach away, or unfolds them
+    [ rectangle unit (unit * 0.3)
+        |> filled (uniform white)
+    , circle (width whitePlus / 2 + 3)
+        |> filled (uniform darkGray)
+    ]
+        |> stack
+
+
 addHighlightOverlay : Tree -> Collage Msg -> Collage Msg
 addHighlightOverlay node nodeBox =
     let
@@ -761,6 +1030,13 @@ addHighlightOverlay node nodeBox =
                     (plusBox
                         |> onClick (ChangeTree NewBelow node.id)
                     )
+
+        collapseButton shape =
+            shape
+                |> imposeAt topLeft
+                    (collapseBox
+                        |> onClick (ToggleCollapse node.id)
+                    )
     in
     case node.basicTree of
         Start _ ->
@@ -787,6 +1063,7 @@ addHighlightOverlay node nodeBox =
                         |> onClick (ChangeTree NewFalse node.id)
                     )
                 |> deleteButton
+                |> collapseButton
 
         While _ _ _ ->
             nodeBox
@@ -796,6 +1073,7 @@ addHighlightOverlay node nodeBox =
                         |> onClick (ChangeTree NewTrue node.id)
                     )
                 |> deleteButton
+                |> collapseButton
 
         ForEach _ _ _ ->
             nodeBox
@@ -805,6 +1083,7 @@ addHighlightOverlay node nodeBox =
                         |> onClick (ChangeTree NewTrue node.id)
                     )
                 |> deleteButton
+                |> collapseButton
 
         _ ->
             nodeBox
@@ -899,32 +1178,14 @@ addSeparateBelowPlus model node nodeBox =
 --}
 
 
-flowchartNameBox : String -> Collage Msg
-flowchartNameBox flowchartName =
+flowchartNameBox : Mode msg -> String -> Collage msg
+flowchartNameBox mode flowchartName =
     let
-        -- TODO rewrite to allow multiple lines
-        htmlInputField =
-            input
-                [ autofocus True
-                , placeholder "Flowchart name"
-                , value flowchartName
-                , maxlength 20
-                , onInput UpdateName
-                , css
-                    [ Css.width (pct 100)
-                    , fontFamilies [ "monaco", "monofur", "monospace" ]
-                    , backgroundColor (Css.rgba 0 0 0 0)
-                    , borderColor (Css.rgba 0 0 0 0)
-                    , textAlign Css.center
-                    ]
-                ]
-                []
-
         ( w, h ) =
             ( unit * 16, unit * 2 )
 
         htmlBox =
-            html ( w, h ) <| toUnstyled htmlInputField
+            mode.nameField flowchartName ( w, h )
 
         flowchartNameBoxShape =
             rectangle (w + 2 * unit) (4 * unit)
@@ -940,6 +1201,36 @@ flowchartNameBox flowchartName =
         |> name "flowchartNameBox"
 
 
+nameInput : String -> Html Msg
+nameInput flowchartName =
+    -- TODO rewrite to allow multiple lines
+    input
+        [ autofocus True
+        , placeholder "Flowchart name"
+        , value flowchartName
+        , maxlength 20
+        , onInput UpdateName
+        , css
+            [ Css.width (pct 100)
+            , fontFamilies [ "monaco", "monofur", "monospace" ]
+            , backgroundColor (Css.rgba 0 0 0 0)
+            , borderColor (Css.rgba 0 0 0 0)
+            , textAlign Css.center
+            ]
+        ]
+        []
+
+
+staticName : String -> ( Float, Float ) -> Collage msg
+staticName flowchartName ( w, h ) =
+    [ fromString flowchartName
+        |> Text.typeface Text.Monospace
+        |> rendered
+    , spacer w h
+    ]
+        |> stack
+
+
 
 {--
 
@@ -955,14 +1246,17 @@ stackTwo front back =
     [ front, back ] |> stack
 
 
-noteBox : Id -> String -> Collage Msg
-noteBox id label =
+noteBox : Mode msg -> Id -> String -> Collage msg
+noteBox mode id label =
     let
         ( minW, minH ) =
             ( 30, 4 )
 
-        ( htmlTextArea, wta, hta ) =
-            multilineEditableTextBox id nodeType label minW minH minW
+        grid =
+            textGrid label minW minH minW
+
+        ( wta, hta ) =
+            gridSize grid
 
         ( w, h ) =
             ( max minW wta * 5, max minH hta * 7.8 + 15 )
@@ -1011,15 +1305,15 @@ noteBox id label =
                 |> impose text
 
         text =
-            html ( w * 2, h * 2 ) (toUnstyled htmlTextArea)
+            mode.textArea id nodeType label grid ( w * 2, h * 2 )
                 |> align topLeft
     in
     shape
         |> name conditionType
 
 
-addConditions : Model -> Collage Msg -> Collage Msg
-addConditions model tree =
+addConditions : Mode msg -> Model -> Collage msg -> Collage msg
+addConditions mode model tree =
     let
         correctionCoordinates name =
             case locate name base tree of
@@ -1033,8 +1327,8 @@ addConditions model tree =
             if visible then
                 col
                     |> stackTwo
-                        (noteBox 4 model.precondition.content
-                            |> imposeAt topRight (deleteBox |> onClick (ConditionHide PreConditionNode))
+                        (noteBox mode 4 model.precondition.content
+                            |> mode.hideCondition PreConditionNode
                             |> align Layout.left
                         )
                     |> connect [ ( "Start", Layout.right ), ( "Precondition", Layout.left ) ] (dash verythin (uniform black))
@@ -1048,10 +1342,10 @@ addConditions model tree =
                     |> shift (correctionCoordinates "End")
                     |> shift ( 0, 2.6 * unit )
                     |> stackTwo
-                        (noteBox 5 model.postcondition.content
+                        (noteBox mode 5 model.postcondition.content
                             |> align bottomLeft
                             |> shift ( 0, -3 * unit )
-                            |> imposeAt topRight (deleteBox |> onClick (ConditionHide PostConditionNode))
+                            |> mode.hideCondition PostConditionNode
                         )
                     |> connect [ ( "End", Layout.right ), ( "Postcondition", Layout.left ) ] (dash verythin (uniform black))
 
@@ -1061,7 +1355,7 @@ addConditions model tree =
     tree
         |> shift ( 6.5 * unit, -2.6 * unit )
         |> stackTwo
-            (flowchartNameBox model.flowchartName
+            (flowchartNameBox mode model.flowchartName
                 |> align right
             )
         |> connect [ ( "Start", Layout.left ), ( "flowchartNameBox", Layout.right ) ] (dash verythin (uniform black))
@@ -1083,20 +1377,723 @@ addConditions model tree =
 --}
 
 
-completeTree : Model -> Collage Msg
-completeTree model =
-    drawTree model model.tree
+completeTree : Mode msg -> Model -> Collage msg
+completeTree mode model =
+    drawNode mode 0 model.tree
         |> at top gap
         |> at Layout.right gap
+        |> addConditions mode model
 
 
 treeWithConditions : Model -> List (Html.Styled.Attribute Msg) -> Html Msg
 treeWithConditions model msgAttributeHtmlList =
     div msgAttributeHtmlList
-        [ completeTree model
-            |> addConditions model
+        [ completeTree (editMode model) model
             |> svg
             |> fromUnstyled
 
         --, text ("Debug info, model.tree: " ++ toStringRec model.tree)
         ]
+
+
+staticTree : Model -> Html.Html msg
+staticTree model =
+    completeTree (staticMode model) model
+        |> svg
+
+
+
+{--
+
+  Layout pass: the size of the complete drawing, without drawing it
+   The geometry functions follow drawNode box for box, on envelopes only: the distances from the origin
+   to each side, combined the way Collage.Layout combines collages
+   The character grids of the text boxes (see textGrid) are memoised in Metrics by their text, so only a box
+   whose text changed is measured again. Boxes and labels without text are measured once, on the collage
+   The mouse-over menu is left out, so highlighting a box does not change the size
+   A change to drawNode needs the same change here; the benchmark runner fails when the two differ, see drawnDimensions
+
+--}
+
+
+type alias Dimensions =
+    { width : Float
+    , height : Float
+    }
+
+
+type alias Geometry =
+    { up : Float
+    , down : Float
+    , left : Float
+    , right : Float
+    }
+
+
+{-| Character grids by text, kept between layout passes
+-}
+type Metrics
+    = Metrics (Dict String ( Int, Int ))
+
+
+noMetrics : Metrics
+noMetrics =
+    Metrics Dict.empty
+
+
+type alias Measure =
+    -- The grids of the last pass, and those this pass used; the rest is dropped, so the memo stays as large as the flow
+    { old : Dict String ( Int, Int )
+    , new : Dict String ( Int, Int )
+    }
+
+
+treeDimensions : Metrics -> Model -> ( Dimensions, Metrics )
+treeDimensions (Metrics metrics) model =
+    let
+        ( geometry, measure ) =
+            completeGeometry model { old = metrics, new = Dict.empty }
+    in
+    ( { width = geometry.left + geometry.right
+      , height = geometry.up + geometry.down
+      }
+    , Metrics measure.new
+    )
+
+
+staticDimensions : Model -> Dimensions
+staticDimensions model =
+    Tuple.first (treeDimensions noMetrics model)
+
+
+{-| The size of completeTree measured on the drawing itself, as the editor and as the read-only view draw it.
+Slow; treeDimensions must agree with both, which the benchmark suite checks
+-}
+drawnDimensions : Model -> ( Dimensions, Dimensions )
+drawnDimensions model =
+    let
+        -- The layout pass leaves the mouse-over menu out
+        unhighlighted =
+            { model | highlightedBox = Nothing }
+
+        dimensionsOf collage =
+            let
+                drawn =
+                    geometryOf collage
+            in
+            { width = drawn.left + drawn.right
+            , height = drawn.up + drawn.down
+            }
+    in
+    ( dimensionsOf (completeTree (editMode unhighlighted) unhighlighted)
+    , dimensionsOf (completeTree (staticMode model) model)
+    )
+
+
+measureGrid : String -> Int -> Int -> Int -> Measure -> ( ( Int, Int ), Measure )
+measureGrid content minBoxWidth minBoxHeight maxBoxWidth measure =
+    let
+        key =
+            String.fromInt minBoxWidth ++ "," ++ String.fromInt minBoxHeight ++ "," ++ String.fromInt maxBoxWidth ++ ":" ++ content
+
+        grid =
+            case Dict.get key measure.new of
+                Just known ->
+                    known
+
+                Nothing ->
+                    case Dict.get key measure.old of
+                        Just known ->
+                            known
+
+                        Nothing ->
+                            textGrid content minBoxWidth minBoxHeight maxBoxWidth
+    in
+    ( grid, { measure | new = Dict.insert key grid measure.new } )
+
+
+
+-- Envelopes and how Collage.Layout combines them
+
+
+geometryOf : Collage msg -> Geometry
+geometryOf collage =
+    { up = envelope Up collage
+    , down = envelope Down collage
+    , left = envelope Left collage
+    , right = envelope Right collage
+    }
+
+
+sized : Float -> Float -> Geometry
+sized w h =
+    -- spacer, or any shape centered on its origin
+    { up = h / 2, down = h / 2, left = w / 2, right = w / 2 }
+
+
+shifted : ( Float, Float ) -> Geometry -> Geometry
+shifted ( x, y ) g =
+    { up = g.up + y, down = g.down - y, left = g.left - x, right = g.right + x }
+
+
+enclose : Geometry -> Geometry -> Geometry
+enclose a b =
+    -- stack
+    { up = max a.up b.up, down = max a.down b.down, left = max a.left b.left, right = max a.right b.right }
+
+
+topOf : Geometry -> ( Float, Float )
+topOf g =
+    ( (g.right - g.left) / 2, g.up )
+
+
+topLeftOf : Geometry -> ( Float, Float )
+topLeftOf g =
+    ( -g.left, g.up )
+
+
+topRightOf : Geometry -> ( Float, Float )
+topRightOf g =
+    ( g.right, g.up )
+
+
+leftOf : Geometry -> ( Float, Float )
+leftOf g =
+    ( -g.left, (g.up - g.down) / 2 )
+
+
+rightOf : Geometry -> ( Float, Float )
+rightOf g =
+    ( g.right, (g.up - g.down) / 2 )
+
+
+bottomOf : Geometry -> ( Float, Float )
+bottomOf g =
+    ( (g.right - g.left) / 2, -g.down )
+
+
+bottomLeftOf : Geometry -> ( Float, Float )
+bottomLeftOf g =
+    ( -g.left, -g.down )
+
+
+bottomRightOf : Geometry -> ( Float, Float )
+bottomRightOf g =
+    ( g.right, -g.down )
+
+
+centerOf : Geometry -> ( Float, Float )
+centerOf g =
+    ( (g.right - g.left) / 2, (g.up - g.down) / 2 )
+
+
+aligned : (Geometry -> ( Float, Float )) -> Geometry -> Geometry
+aligned anchor g =
+    let
+        ( x, y ) =
+            anchor g
+    in
+    shifted ( -x, -y ) g
+
+
+placedAt : (Geometry -> ( Float, Float )) -> Geometry -> Geometry -> Geometry
+placedAt anchor fore back =
+    -- imposeAt and at
+    enclose (shifted (anchor back) fore) back
+
+
+verticalGeometry : List Geometry -> Geometry
+verticalGeometry parts =
+    Tuple.first (downwards parts)
+
+
+downwards : List Geometry -> ( Geometry, Float )
+downwards parts =
+    -- vertical, and where the origin of the last part ended up
+    case parts of
+        [] ->
+            ( sized 0 0, 0 )
+
+        first :: rest ->
+            List.foldl
+                (\g ( acc, y, previous ) ->
+                    let
+                        y1 =
+                            y - previous.down - g.up
+                    in
+                    ( enclose acc (shifted ( 0, y1 ) g), y1, g )
+                )
+                ( first, 0, first )
+                rest
+                |> (\( acc, y, _ ) -> ( acc, y ))
+
+
+horizontalGeometry : List Geometry -> Geometry
+horizontalGeometry parts =
+    case parts of
+        [] ->
+            sized 0 0
+
+        first :: rest ->
+            List.foldl
+                (\g ( acc, x, previous ) ->
+                    let
+                        x1 =
+                            x + previous.right + g.left
+                    in
+                    ( enclose acc (shifted ( x1, 0 ) g), x1, g )
+                )
+                ( first, 0, first )
+                rest
+                |> (\( acc, _, _ ) -> acc)
+
+
+
+-- The boxes, as drawNode draws them
+
+
+startGeometry : Geometry
+startGeometry =
+    geometryOf (stubBox "Start")
+
+
+endGeometry : Geometry
+endGeometry =
+    geometryOf (stubBox "End")
+
+
+emptyGeometry : Geometry
+emptyGeometry =
+    geometryOf (emptyBox (staticMode init) 0)
+
+
+triangleGeometry : Geometry
+triangleGeometry =
+    geometryOf arrowTriangle
+
+
+sideTriangleGeometry : Geometry
+sideTriangleGeometry =
+    geometryOf (arrowTriangle |> rotate (pi * 3 / 2))
+
+
+ifLabelGeometry : Geometry
+ifLabelGeometry =
+    geometryOf (labelText "if")
+
+
+trueLabelGeometry : Geometry
+trueLabelGeometry =
+    geometryOf (labelText "true")
+
+
+falseLabelGeometry : Geometry
+falseLabelGeometry =
+    geometryOf (labelText "false")
+
+
+type alias LoopLabelGeometry =
+    { typeLabel : Geometry
+    , leftTag : Geometry
+    , bottomTag : Geometry
+    }
+
+
+loopLabelGeometry : NodeType -> LoopLabelGeometry
+loopLabelGeometry nodeType =
+    let
+        ( typeLabel, ( leftTag, bottomTag ) ) =
+            loopLabels nodeType
+    in
+    { typeLabel = geometryOf (labelText typeLabel)
+    , leftTag = geometryOf (labelText leftTag)
+    , bottomTag = geometryOf (labelText bottomTag)
+    }
+
+
+whileLabelGeometry : LoopLabelGeometry
+whileLabelGeometry =
+    loopLabelGeometry WhileNode
+
+
+forEachLabelGeometry : LoopLabelGeometry
+forEachLabelGeometry =
+    loopLabelGeometry ForEachNode
+
+
+flowchartNameGeometry : Geometry
+flowchartNameGeometry =
+    -- the name field has the same size whatever the name
+    geometryOf (flowchartNameBox (staticMode init) "")
+
+
+hitboxGeometry : Geometry -> Geometry
+hitboxGeometry g =
+    enclose g (sized (g.left + g.right + unit * 2) (g.up + g.down + unit * 2))
+
+
+arrowGeometry : Float -> Geometry
+arrowGeometry length =
+    placedAt bottomOf (aligned bottomOf triangleGeometry) (sized 0 (max length (unit * 3)))
+
+
+bottomArrowGeometry : Float -> Tree -> Geometry -> Geometry
+bottomArrowGeometry reqLength child g =
+    let
+        length =
+            max reqLength (unit * 3)
+
+        tail =
+            case child.basicTree of
+                Void ->
+                    sized 0 length
+
+                _ ->
+                    arrowGeometry length
+    in
+    enclose (aligned bottomOf g) (aligned topOf tail)
+
+
+statementGeometry : String -> Measure -> ( Geometry, Measure )
+statementGeometry label measure =
+    let
+        ( grid, measured ) =
+            measureGrid label 10 1 22 measure
+
+        ( wta, hta ) =
+            gridSize grid
+
+        ( w, h ) =
+            ( max 10 wta * 9, max 1 hta * 13 )
+    in
+    ( enclose (sized w (h * 1.3)) (sized (w + 2 * unit) (h + 3 * unit)), measured )
+
+
+decoratedIfGeometry : String -> Measure -> ( Geometry, Measure )
+decoratedIfGeometry label measure =
+    let
+        ( grid, measured ) =
+            measureGrid label 10 1 23 measure
+
+        ( wta, hta ) =
+            gridSize grid
+
+        ( w, h ) =
+            ( max 10 wta * 9, max 1 hta * 7.8 + 10 )
+
+        textBox =
+            enclose (shifted ( 0, -7 ) (sized w (h * 2))) (sized (w + unit * 4) (h * 2))
+    in
+    ( hitboxGeometry textBox
+        |> placedAt topLeftOf (aligned leftOf ifLabelGeometry)
+    , measured
+    )
+
+
+loopBoxGeometry : String -> Measure -> ( Geometry, Measure )
+loopBoxGeometry label measure =
+    let
+        ( grid, measured ) =
+            measureGrid label 10 1 25 measure
+
+        ( wta, hta ) =
+            gridSize grid
+
+        ( w, h ) =
+            ( max 10 wta * 9, max 1 hta * 7.8 + 5 )
+    in
+    ( enclose (sized w (h * 2)) (sized (w + unit) (h * 2.5)), measured )
+
+
+{-| The boxes of a sequence and where the origin of the last one is, as drawNode stacks them
+-}
+sequenceGeometry : Model -> Int -> Tree -> Measure -> ( ( Geometry, Float ), Measure )
+sequenceGeometry model depth first measure =
+    let
+        ( parts, measured ) =
+            partsGeometry model depth first [] measure
+    in
+    ( downwards parts, measured )
+
+
+partsGeometry : Model -> Int -> Tree -> List Geometry -> Measure -> ( List Geometry, Measure )
+partsGeometry model depth node parts measure =
+    -- A loop over the sequence; only branches recurse
+    let
+        ( part, next, measured ) =
+            partGeometry model depth node measure
+    in
+    case next of
+        Just child ->
+            partsGeometry model depth child (part :: parts) measured
+
+        Nothing ->
+            ( List.reverse (part :: parts), measured )
+
+
+partGeometry : Model -> Int -> Tree -> Measure -> ( Geometry, Maybe Tree, Measure )
+partGeometry model depth node measure =
+    case node.basicTree of
+        Start child ->
+            ( bottomArrowGeometry 0 child (hitboxGeometry startGeometry), Just child, measure )
+
+        End ->
+            ( hitboxGeometry endGeometry, Nothing, measure )
+
+        Empty child ->
+            ( bottomArrowGeometry 0 child (hitboxGeometry emptyGeometry), Just child, measure )
+
+        Void ->
+            ( sized 0 0, Nothing, measure )
+
+        Statement text child ->
+            let
+                ( g, measured ) =
+                    statementGeometry text measure
+            in
+            ( bottomArrowGeometry 0 child (hitboxGeometry g), Just child, measured )
+
+        If text child1 child2 child3 ->
+            let
+                ( g, measured ) =
+                    if isCollapsed model depth node.id then
+                        decoratedIfGeometry text measure
+                            |> Tuple.mapFirst (collapsedGeometry [ child1, child2 ])
+
+                    else
+                        ifGeometry model depth text child1 child2 measure
+            in
+            ( bottomArrowGeometry 0 child3 g, Just child3, measured )
+
+        While text child1 child2 ->
+            loopGeometry model depth whileLabelGeometry node text child1 child2 measure
+
+        ForEach text child1 child2 ->
+            loopGeometry model depth forEachLabelGeometry node text child1 child2 measure
+
+
+collapsedGeometry : List Tree -> Geometry -> Geometry
+collapsedGeometry inside decorated =
+    verticalGeometry
+        [ decorated
+        , sized 0 (2 * unit)
+        , hitboxGeometry (geometryOf (summaryBox (boxCount 0 inside)))
+        ]
+
+
+ifGeometry : Model -> Int -> String -> Tree -> Tree -> Measure -> ( Geometry, Measure )
+ifGeometry model depth text child1 child2 measure =
+    let
+        ( ( leftPiece, _ ), measured1 ) =
+            sequenceGeometry model (depth + 1) child1 measure
+
+        ( ( rightPiece, _ ), measured2 ) =
+            sequenceGeometry model (depth + 1) child2 measured1
+
+        ( decorated, measured ) =
+            decoratedIfGeometry text measured2
+
+        heightOf g =
+            g.up + g.down
+
+        maxHeight =
+            max (heightOf leftPiece) (heightOf rightPiece) + unit * 5
+
+        lineToBottom piece =
+            verticalGeometry [ piece, sized 0 (maxHeight - heightOf piece) ]
+
+        midLength =
+            max (rightPiece.left + leftPiece.right + unit * 2) (decorated.left + decorated.right + 6 * unit)
+
+        midPiece =
+            [ lineToBottom leftPiece
+            , sized (midLength - rightPiece.left - leftPiece.right) 0
+            , lineToBottom rightPiece
+            ]
+                |> List.map (aligned topOf)
+                |> horizontalGeometry
+                |> shifted ( -midLength / 2, 0 )
+
+        arm =
+            heightOf decorated / 2 + 2 * unit
+
+        topArrow child anchor g =
+            placedAt anchor
+                (case child.basicTree of
+                    Void ->
+                        sized 0 arm
+
+                    _ ->
+                        arrowGeometry arm
+                )
+                g
+                |> aligned topOf
+
+        bar =
+            sized midLength 0
+                |> placedAt topRightOf (aligned bottomRightOf trueLabelGeometry)
+                |> placedAt topLeftOf (aligned bottomLeftOf falseLabelGeometry)
+                |> aligned leftOf
+
+        spacerAbove =
+            -- beside Up
+            sized 0 arm
+
+        topArrows =
+            enclose spacerAbove (shifted ( 0, spacerAbove.up + bar.down ) bar)
+                |> topArrow child1 leftOf
+                |> aligned centerOf
+                |> topArrow child2 rightOf
+                |> aligned centerOf
+    in
+    ( verticalGeometry [ topArrows, midPiece, hitboxGeometry (sized midLength 0) ]
+        |> placedAt topOf decorated
+    , measured
+    )
+
+
+loopGeometry : Model -> Int -> LoopLabelGeometry -> Tree -> String -> Tree -> Tree -> Measure -> ( Geometry, Maybe Tree, Measure )
+loopGeometry model depth labels node text child1 child2 measure =
+    let
+        ( textBox, measured ) =
+            loopBoxGeometry text measure
+    in
+    if isCollapsed model depth node.id then
+        ( hitboxGeometry textBox
+            |> placedAt topLeftOf (aligned bottomOf labels.typeLabel)
+            |> collapsedGeometry [ child1 ]
+            |> bottomArrowGeometry 0 child2
+        , Just child2
+        , measured
+        )
+
+    else
+        let
+            decorated =
+                textBox
+                    |> placedAt rightOf (aligned leftOf sideTriangleGeometry)
+                    |> hitboxGeometry
+                    |> placedAt topLeftOf (aligned bottomOf labels.typeLabel)
+                    |> placedAt leftOf (aligned bottomRightOf labels.leftTag)
+                    |> placedAt bottomOf (aligned topLeftOf labels.bottomTag)
+
+            ( ( body, _ ), measuredBody ) =
+                sequenceGeometry model (depth + 1) child1 measured
+
+            inner =
+                verticalGeometry [ arrowGeometry ((decorated.up + decorated.down) / 2), body ]
+
+            outer =
+                max ((decorated.left + decorated.right) / 2 + 2 * unit)
+
+            superPathOne =
+                { up = inner.up + unit
+                , down = inner.down + 2 * unit
+                , left = outer (inner.left + unit)
+                , right = outer (inner.right + unit)
+                }
+
+            superPath =
+                verticalGeometry [ superPathOne, hitboxGeometry (sized 1 0) ]
+        in
+        ( enclose superPath inner
+            |> placedAt topOf decorated
+            |> bottomArrowGeometry 0 child2
+        , Just child2
+        , measuredBody
+        )
+
+
+completeGeometry : Model -> Measure -> ( Geometry, Measure )
+completeGeometry model measure =
+    -- completeTree and addConditions
+    let
+        ( ( drawn, lastY ), measured ) =
+            sequenceGeometry model 0 model.tree measure
+
+        gapGeometry =
+            sized unit unit
+
+        tree =
+            drawn
+                |> placedAt topOf gapGeometry
+                |> placedAt rightOf gapGeometry
+
+        mode =
+            staticMode model
+
+        withName =
+            enclose (aligned rightOf flowchartNameGeometry) (shifted ( 6.5 * unit, -2.6 * unit ) tree)
+                |> aligned rightOf
+
+        withPrecondition =
+            if model.precondition.visible then
+                enclose
+                    (noteBox mode 4 model.precondition.content
+                        |> mode.hideCondition PreConditionNode
+                        |> align Layout.left
+                        |> geometryOf
+                    )
+                    withName
+
+            else
+                withName
+
+        withPostcondition =
+            if model.postcondition.visible then
+                enclose
+                    (noteBox mode 5 model.postcondition.content
+                        |> align bottomLeft
+                        |> shift ( 0, -3 * unit )
+                        |> mode.hideCondition PostConditionNode
+                        |> geometryOf
+                    )
+                    (withPrecondition
+                        |> shifted ( 0, -(endY model.tree lastY) )
+                        |> shifted ( 0, 2.6 * unit )
+                    )
+
+            else
+                withPrecondition
+    in
+    ( withPostcondition
+        |> placedAt rightOf gapGeometry
+        |> placedAt rightOf gapGeometry
+        |> placedAt topOf gapGeometry
+    , measured
+    )
+
+
+endY : Tree -> Float -> Float
+endY tree lastY =
+    -- Where End is, for the postcondition; the last box of the outer sequence, as completeTree looks it up by name
+    if lastOf tree == End then
+        lastY
+
+    else
+        0
+
+
+lastOf : Tree -> BasicTree
+lastOf tree =
+    case tree.basicTree of
+        Start child ->
+            lastOf child
+
+        Empty child ->
+            lastOf child
+
+        Statement _ child ->
+            lastOf child
+
+        If _ _ _ child ->
+            lastOf child
+
+        While _ _ child ->
+            lastOf child
+
+        ForEach _ _ child ->
+            lastOf child
+
+        basicTree ->
+            basicTree
@@ -1,4 +1,4 @@
-module Tree.State exposing (ChangeTree(..), Condition, Model, Msg(..), NodeType(..), defaultModel, init, modelToJava, update, toJson, fromJson, treeDecoder)
+module Tree.State exposing (ChangeTree(..), Condition, Model, Msg(..), NodeType(..), changeTree, defaultModel, fillEmpty, init, isCollapsed, modelToJava, setDetail, traceEvent, update, updateContent, toJson, toValue, fromJson, decode, treeDecoder)
 
 {--
 
@@ -21,6 +21,7 @@ import Debug exposing (log)
 import Task exposing (attempt)
 import Tree.Core exposing (..)
 import Ports exposing (downloadToast, checkpoint)
+import Set exposing (Set)
 import Json.Decode as Decode exposing (..)
 import Json.Encode as Encode exposing (..)
 
@@ -34,6 +35,12 @@ type alias Model =
     , highlightedBox : Maybe Id
     , precondition : Condition
     , postcondition : Condition
+
+    -- If, While and ForEach boxes drawn as a summary instead of with their branches
+    , collapsed : Set Id
+
+    -- Nesting depth from which every If, While and ForEach is drawn as a summary; set by the host, not stored
+    , detail : Maybe Int
     }
 
 
@@ -54,6 +61,8 @@ init =
     , highlightedBox = Nothing
     , precondition = { nodeType = PreConditionNode, content = "", visible = False }
     , postcondition = { nodeType = PostConditionNode, content = "", visible = False }
+    , collapsed = Set.empty
+    , detail = Nothing
     }
 
 
@@ -102,6 +111,7 @@ type Msg
     | BlurResult (Result Dom.Error ())
     | ConditionHide NodeType
     | ConditionShow NodeType
+    | ToggleCollapse Id
     | Checkpoint
 
 
@@ -141,11 +151,37 @@ setVisibleContent bool condition =
     { condition | visible = bool }
 
 
+{-| The host's level of detail; below 0 draws everything
+-}
+setDetail : Int -> Model -> Model
+setDetail level model =
+    if level < 0 then
+        { model | detail = Nothing }
+
+    else
+        { model | detail = Just level }
+
+
+{-| Whether an If, While or ForEach at the given nesting depth is drawn as a summary:
+collapsed by the student, or deeper than the host's level of detail
+-}
+isCollapsed : Model -> Int -> Id -> Bool
+isCollapsed model depth id =
+    Set.member id model.collapsed
+        || (case model.detail of
+                Just level ->
+                    depth >= level
+
+                Nothing ->
+                    False
+           )
+
+
 update : Msg -> Model -> ( Model, Cmd Msg )
 update msg model =
     case msg of
         Checkpoint -> 
-            ( model, checkpoint <| toJson model) 
+            ( model, checkpoint <| toValue model) 
     
         UpdateName newName ->
             update Checkpoint ({ model | flowchartName = newName})
@@ -221,6 +257,18 @@ update msg model =
                     --Debug.log "ConditionShow on non-condition type!"
                     ( model, Cmd.none )
 
+        ToggleCollapse id ->
+            update Checkpoint
+                ( { model
+                    | collapsed =
+                        if Set.member id model.collapsed then
+                            Set.remove id model.collapsed
+
+                        else
+                            Set.insert id model.collapsed
+                  }
+                )
+
 
 
 {--
@@ -543,6 +591,72 @@ dehighlightBox oldId currentId =
             Debug.log ("!!!Dehighlighted box " ++ String.fromInt oldId ++ " while nothing was highlighted") Nothing
 
             
+{--
+
+  Tracing: edits as compact events for the trace port, [ kind, id, detail ]
+   The host adds the time. Hovering, keys and checkpoints are left out, and content only by its length
+
+--}
+
+
+traceEvent : Msg -> Maybe Encode.Value
+traceEvent msg =
+    let
+        event kind id detail =
+            Just (Encode.list identity [ Encode.string kind, Encode.int id, detail ])
+
+        conditionId nodeType =
+            if nodeType == PreConditionNode then
+                4
+
+            else
+                5
+    in
+    case msg of
+        UpdateName newName ->
+            event "name" 3 (Encode.int (String.length newName))
+
+        UpdateContent id newContent ->
+            event "content" id (Encode.int (String.length newContent))
+
+        FillEmpty nodeType id ->
+            event "fill" id (encodeNodeType nodeType)
+
+        ChangeTree operation id ->
+            event "change" id (encodeChangeTree operation)
+
+        ConditionShow nodeType ->
+            event "show" (conditionId nodeType) (encodeNodeType nodeType)
+
+        ConditionHide nodeType ->
+            event "hide" (conditionId nodeType) (encodeNodeType nodeType)
+
+        ToggleCollapse id ->
+            event "collapse" id Encode.null
+
+        _ ->
+            Nothing
+
+
+encodeChangeTree : ChangeTree -> Encode.Value
+encodeChangeTree operation =
+    case operation of
+        NewAbove ->
+            Encode.string "NewAbove"
+
+        NewBelow ->
+            Encode.string "NewBelow"
+
+        NewTrue ->
+            Encode.string "NewTrue"
+
+        NewFalse ->
+            Encode.string "NewFalse"
+
+        Delete ->
+            Encode.string "Delete"
+
+
 {--
 
   Encoding a Model
@@ -553,10 +667,15 @@ dehighlightBox oldId currentId =
 toJson : Model -> String
 toJson model =
     model
-        |> encodeEasterEgg
+        |> toValue
         |> Encode.encode 4
 
 
+toValue : Model -> Encode.Value
+toValue =
+    encodeEasterEgg
+
+
 
 -- Tiny little easter egg, for the smart kids
 
@@ -565,6 +684,7 @@ encodeEasterEgg : Model -> Encode.Value
 encodeEasterEgg model =
     Encode.object
         [ ( "_Easter_Egg", Encode.string "Nothing here" )
+        , ( "version", Encode.int schemaVersion )
         , ( "model", encodeModel model )
         ]
 
@@ -578,113 +698,77 @@ encodeModel model =
         , ( "highlightedBox", Encode.string "Nothing" )
         , ( "precondition", encodeCondition model.precondition )
         , ( "postcondition", encodeCondition model.postcondition )
+        , ( "collapsed", Encode.list Encode.int (Set.toList model.collapsed) )
         ]
 
 
+{-| A sequence is encoded as a list of its boxes, each box leading to the one after it.
+Only the branches of If, While and ForEach nest, so the depth of the JSON is the nesting
+of the flowchart rather than its length.
+-}
 encodeTree : Tree -> Encode.Value
 encodeTree tree =
-    Encode.object
-        [ ( "id", Encode.int tree.id )
-        , ( "basicTree", encodeBasicTree tree.basicTree )
-        ]
+    Encode.list identity (encodeSequence [] tree)
 
 
-encodeBasicTree : BasicTree -> Encode.Value
-encodeBasicTree basicTree =
+encodeSequence : List Encode.Value -> Tree -> List Encode.Value
+encodeSequence done tree =
     let
-        basicTreeCase =
-            case basicTree of
-                Start child ->
-                    [ ( "basicTreeType"
-                      , Encode.string "Start"
-                      )
-                    , ( "child"
-                      , encodeTree child
-                      )
-                    ]
-
-                End ->
-                    [ ( "basicTreeType"
-                      , Encode.string "End"
-                      )
-                    ]
-
-                Empty child ->
-                    [ ( "basicTreeType"
-                      , Encode.string "Empty"
-                      )
-                    , ( "child"
-                      , encodeTree child
-                      )
-                    ]
+        box basicTreeType fields =
+            Encode.object
+                (( "id", Encode.int tree.id )
+                    :: ( "basicTreeType", Encode.string basicTreeType )
+                    :: fields
+                )
+    in
+    case tree.basicTree of
+        Start next ->
+            encodeSequence (box "Start" [] :: done) next
 
-                Void ->
-                    [ ( "basicTreeType"
-                      , Encode.string "Void"
-                      )
-                    ]
+        End ->
+            List.reverse (box "End" [] :: done)
 
-                Statement content child ->
-                    [ ( "basicTreeType"
-                      , Encode.string "Statement"
-                      )
-                    , ( "content"
-                      , Encode.string content
-                      )
-                    , ( "child"
-                      , encodeTree child
-                      )
-                    ]
+        Empty next ->
+            encodeSequence (box "Empty" [] :: done) next
 
-                If content child1 child2 child3 ->
-                    [ ( "basicTreeType"
-                      , Encode.string "If"
-                      )
-                    , ( "content"
-                      , Encode.string content
-                      )
-                    , ( "child1"
-                      , encodeTree child1
-                      )
-                    , ( "child2"
-                      , encodeTree child2
-                      )
-                    , ( "child3"
-                      , encodeTree child3
-                      )
+        Void ->
+            List.reverse (box "Void" [] :: done)
+
+        Statement content next ->
+            encodeSequence
+                (box "Statement" [ ( "content", Encode.string content ) ] :: done)
+                next
+
+        If content falseBranch trueBranch next ->
+            encodeSequence
+                (box "If"
+                    [ ( "content", Encode.string content )
+                    , ( "then", encodeTree trueBranch )
+                    , ( "else", encodeTree falseBranch )
                     ]
+                    :: done
+                )
+                next
 
-                While content child1 child2 ->
-                    [ ( "basicTreeType"
-                      , Encode.string "While"
-                      )
-                    , ( "content"
-                      , Encode.string content
-                      )
-                    , ( "child1"
-                      , encodeTree child1
-                      )
-                    , ( "child2"
-                      , encodeTree child2
-                      )
+        While content body next ->
+            encodeSequence
+                (box "While"
+                    [ ( "content", Encode.string content )
+                    , ( "body", encodeTree body )
                     ]
+                    :: done
+                )
+                next
 
-                ForEach content child1 child2 ->
-                    [ ( "basicTreeType"
-                      , Encode.string "ForEach"
-                      )
-                    , ( "content"
-                      , Encode.string content
-                      )
-                    , ( "child1"
-                      , encodeTree child1
-                      )
-                    , ( "child2"
-                      , encodeTree child2
-                      )
+        ForEach content body next ->
+            encodeSequence
+                (box "ForEach"
+                    [ ( "content", Encode.string content )
+                    , ( "body", encodeTree body )
                     ]
-    in
-    Encode.object basicTreeCase
+                    :: done
+                )
+                next
 
 
 encodeCondition : Condition -> Encode.Value
@@ -731,25 +815,239 @@ encodeNodeType nodeType =
 
 fromJson : String -> Maybe Model
 fromJson json =
-    let
-        decodedResult =
-            Decode.decodeString easterEggDecoder json
-    in
-    case decodedResult of
-        Ok wrapper ->
+    case decode json of
+        Ok model ->
             Just <|
                 Debug.log
                     "Decoded model without problems"
-                    wrapper.model
+                    model
 
-        Err wrapper ->
+        Err error ->
             Debug.log
                 ("Some decoding went wrong: "
-                    ++ Debug.toString wrapper
+                    ++ error
                 )
                 Nothing
 
 
+{-| Like fromJson, with the reason when the text cannot be read
+-}
+decode : String -> Result String Model
+decode json =
+    Decode.decodeString Decode.value json
+        |> Result.mapError Decode.errorToString
+        |> Result.andThen
+            (\value ->
+                withErrors versionDecoder value
+                    |> Result.andThen (\version -> migrate version value)
+            )
+        |> Result.andThen (withErrors easterEggDecoder)
+        |> Result.map .model
+
+
+withErrors : Decoder a -> Encode.Value -> Result String a
+withErrors decoder value =
+    Decode.decodeValue decoder value
+        |> Result.mapError Decode.errorToString
+
+
+versionDecoder : Decoder Int
+versionDecoder =
+    -- Flowcharts stored before the version field are version 1
+    Decode.maybe (Decode.field "version" Decode.int)
+        |> Decode.map (Maybe.withDefault 1)
+
+
+
+{--
+
+  Schema versions
+
+  toJson writes schemaVersion in the wrapper. fromJson runs the migrators from the
+   stored version up to schemaVersion on the raw JSON before decoding, so the
+   decoders above only need to know the current shape.
+  When the JSON changes: bump schemaVersion, add a migrator from the previous
+   version and add the same step to nl.numworx.stream.flow.FlowMigrations.
+
+   1: no version field
+   2: version field in the wrapper
+   3: a sequence is a list of boxes instead of every box nesting the next
+   4: collapsed boxes in the model
+
+--}
+
+
+schemaVersion : Int
+schemaVersion =
+    4
+
+
+{-| Migrators from the given version to the next one
+-}
+migrators : List ( Int, Encode.Value -> Result String Encode.Value )
+migrators =
+    [ ( 1, setField "version" (Encode.int 2) )
+    , ( 2
+      , updateField "model" (updateField "tree" flattenTree)
+            >> Result.andThen (setField "version" (Encode.int 3))
+      )
+    , ( 3
+      , updateField "model" (setField "collapsed" (Encode.list Encode.int []))
+            >> Result.andThen (setField "version" (Encode.int 4))
+      )
+    ]
+
+
+migrate : Int -> Encode.Value -> Result String Encode.Value
+migrate version value =
+    if version == schemaVersion then
+        Ok value
+
+    else if version > schemaVersion then
+        Err ("Schema version " ++ String.fromInt version ++ " is newer than " ++ String.fromInt schemaVersion)
+
+    else
+        case List.filter (\( from, _ ) -> from == version) migrators of
+            ( _, migrator ) :: _ ->
+                migrator value
+                    |> Result.andThen (migrate (version + 1))
+
+            [] ->
+                Err ("No migrator for schema version " ++ String.fromInt version)
+
+
+setField : String -> Encode.Value -> Encode.Value -> Result String Encode.Value
+setField key newValue value =
+    Decode.decodeValue (Decode.keyValuePairs Decode.value) value
+        |> Result.mapError Decode.errorToString
+        |> Result.map
+            (\fields ->
+                Encode.object (List.filter (\( k, _ ) -> k /= key) fields ++ [ ( key, newValue ) ])
+            )
+
+
+updateField : String -> (Encode.Value -> Result String Encode.Value) -> Encode.Value -> Result String Encode.Value
+updateField key change value =
+    Decode.decodeValue (Decode.keyValuePairs Decode.value) value
+        |> Result.mapError Decode.errorToString
+        |> Result.andThen
+            (\fields ->
+                case List.filter (\( k, _ ) -> k == key) fields of
+                    ( _, old ) :: _ ->
+                        change old
+                            |> Result.map
+                                (\new ->
+                                    Encode.object
+                                        (List.map
+                                            (\( k, v ) ->
+                                                if k == key then
+                                                    ( k, new )
+
+                                                else
+                                                    ( k, v )
+                                            )
+                                            fields
+                                        )
+                                )
+
+                    [] ->
+                        Err ("No field " ++ key)
+            )
+
+
+{-| A box as version 2 stored it, with the boxes it holds still encoded
+-}
+type alias OldBox =
+    { id : Int
+    , basicTreeType : String
+    , content : Maybe String
+    , child : Maybe Encode.Value
+    , child1 : Maybe Encode.Value
+    , child2 : Maybe Encode.Value
+    , child3 : Maybe Encode.Value
+    }
+
+
+oldBoxDecoder : Decoder OldBox
+oldBoxDecoder =
+    let
+        maybeAt key decoder =
+            Decode.maybe (Decode.at [ "basicTree", key ] decoder)
+    in
+    Decode.map7 OldBox
+        (Decode.field "id" Decode.int)
+        (Decode.at [ "basicTree", "basicTreeType" ] Decode.string)
+        (maybeAt "content" Decode.string)
+        (maybeAt "child" Decode.value)
+        (maybeAt "child1" Decode.value)
+        (maybeAt "child2" Decode.value)
+        (maybeAt "child3" Decode.value)
+
+
+{-| Version 2 nested every box in the one before it. Walks a sequence in a loop, so only
+the branches recurse.
+-}
+flattenTree : Encode.Value -> Result String Encode.Value
+flattenTree tree =
+    flattenSequence [] tree
+        |> Result.map (Encode.list identity)
+
+
+flattenSequence : List Encode.Value -> Encode.Value -> Result String (List Encode.Value)
+flattenSequence done tree =
+    case Decode.decodeValue oldBoxDecoder tree of
+        Err error ->
+            Err (Decode.errorToString error)
+
+        Ok old ->
+            let
+                ( branches, next ) =
+                    case old.basicTreeType of
+                        "If" ->
+                            ( [ ( "then", old.child2 ), ( "else", old.child1 ) ], old.child3 )
+
+                        "While" ->
+                            ( [ ( "body", old.child1 ) ], old.child2 )
+
+                        "ForEach" ->
+                            ( [ ( "body", old.child1 ) ], old.child2 )
+
+                        _ ->
+                            ( [], old.child )
+
+                flattened =
+                    List.foldr
+                        (\( name, branch ) rest ->
+                            Result.map2 (\sequence fields -> ( name, sequence ) :: fields)
+                                (branch
+                                    |> Result.fromMaybe ("No " ++ name ++ " in box " ++ String.fromInt old.id)
+                                    |> Result.andThen flattenTree
+                                )
+                                rest
+                        )
+                        (Ok [])
+                        branches
+
+                box fields =
+                    Encode.object
+                        ([ ( "id", Encode.int old.id )
+                         , ( "basicTreeType", Encode.string old.basicTreeType )
+                         ]
+                            ++ (old.content |> Maybe.map (\text -> [ ( "content", Encode.string text ) ]) |> Maybe.withDefault [])
+                            ++ fields
+                        )
+            in
+            case ( flattened, next ) of
+                ( Err error, _ ) ->
+                    Err error
+
+                ( Ok fields, Just rest ) ->
+                    flattenSequence (box fields :: done) rest
+
+                ( Ok fields, Nothing ) ->
+                    Ok (List.reverse (box fields :: done))
+
+
 type alias EasterEgg =
     { easterEgg : String
     , model : Model
@@ -765,71 +1063,116 @@ easterEggDecoder =
 
 modelDecoder : Decoder Model
 modelDecoder =
-    Decode.map6 Model
+    Decode.map8 Model
         (Decode.field "flowchartName" Decode.string)
         (Decode.field "tree" (lazy treeDecoder))
         (Decode.field "currentId" Decode.int)
         (Decode.field "highlightedBox" <| Decode.succeed Nothing)
         (Decode.field "precondition" conditionDecoder)
         (Decode.field "postcondition" conditionDecoder)
+        (Decode.field "collapsed" (Decode.map Set.fromList (Decode.list Decode.int)))
+        (Decode.succeed Nothing)
+
+
+{-| A box of a sequence, waiting for the rest of the sequence
+-}
+type Link
+    = Link (Tree -> Tree)
+    | Last Tree
 
 
 treeDecoder : () -> Decoder Tree
 treeDecoder () =
-    Decode.map2 Tree
-        (Decode.field "id" Decode.int)
-        (Decode.field "basicTree" (lazy basicTreeDecoder))
+    Decode.list (lazy linkDecoder)
+        |> Decode.andThen
+            (\links ->
+                case chain links of
+                    Ok tree ->
+                        Decode.succeed tree
+
+                    Err error ->
+                        Decode.fail error
+            )
 
 
-basicTreeDecoder : () -> Decoder BasicTree
-basicTreeDecoder () =
+{-| Links the boxes of a sequence from the back, so no box waits on the stack for the
+rest of the sequence
+-}
+chain : List Link -> Result String Tree
+chain links =
+    List.foldr
+        (\link rest ->
+            case ( link, rest ) of
+                ( Last tree, Ok Nothing ) ->
+                    Ok (Just tree)
+
+                ( Link box, Ok (Just next) ) ->
+                    Ok (Just (box next))
+
+                ( Last _, Ok (Just _) ) ->
+                    Err "End or Void before the end of a sequence"
+
+                ( Link _, Ok Nothing ) ->
+                    Err "Sequence does not end with End or Void"
+
+                ( _, Err error ) ->
+                    Err error
+        )
+        (Ok Nothing)
+        links
+        |> Result.andThen (Result.fromMaybe "Empty sequence")
+
+
+linkDecoder : () -> Decoder Link
+linkDecoder () =
     let
-        basicTreeInfo : String -> Decoder BasicTree
-        basicTreeInfo tag =
+        content =
+            Decode.field "content" Decode.string
+
+        branch name =
+            Decode.field name (lazy treeDecoder)
+
+        basicTreeInfo : Id -> String -> Decoder Link
+        basicTreeInfo id tag =
+            let
+                link box =
+                    Link (\next -> Tree id (box next))
+            in
             case Debug.log "Now decoding: " tag of
                 "Start" ->
-                    Decode.map Start
-                        (Decode.field "child" (lazy treeDecoder))
+                    Decode.succeed (link Start)
 
                 "End" ->
-                    Decode.succeed End
+                    Decode.succeed (Last (Tree id End))
 
                 "Empty" ->
-                    Decode.map Empty
-                        (Decode.field "child" (lazy treeDecoder))
+                    Decode.succeed (link Empty)
 
                 "Void" ->
-                    Decode.succeed Void
+                    Decode.succeed (Last (Tree id Void))
 
                 "Statement" ->
-                    Decode.map2 Statement
-                        (Decode.field "content" Decode.string)
-                        (Decode.field "child" (lazy treeDecoder))
+                    Decode.map (\text -> link (Statement text)) content
 
                 "If" ->
-                    Decode.map4 If
-                        (Decode.field "content" Decode.string)
-                        (Decode.field "child1" (lazy treeDecoder))
-                        (Decode.field "child2" (lazy treeDecoder))
-                        (Decode.field "child3" (lazy treeDecoder))
+                    Decode.map3 (\text trueBranch falseBranch -> link (If text falseBranch trueBranch))
+                        content
+                        (branch "then")
+                        (branch "else")
 
                 "While" ->
-                    Decode.map3 While
-                        (Decode.field "content" Decode.string)
-                        (Decode.field "child1" (lazy treeDecoder))
-                        (Decode.field "child2" (lazy treeDecoder))
+                    Decode.map2 (\text body -> link (While text body)) content (branch "body")
 
                 "ForEach" ->
-                    Decode.map3 ForEach
-                        (Decode.field "content" Decode.string)
-                        (Decode.field "child1" (lazy treeDecoder))
-                        (Decode.field "child2" (lazy treeDecoder))
+                    Decode.map2 (\text body -> link (ForEach text body)) content (branch "body")
 
                 a ->
                     Decode.fail <| "Unknown basicTree: " ++ a
     in
-    Decode.field "basicTreeType" Decode.string
-        |> andThen basicTreeInfo
+    Decode.map2 Tuple.pair
+        (Decode.field "id" Decode.int)
+        (Decode.field "basicTreeType" Decode.string)
+        |> andThen (\( id, tag ) -> basicTreeInfo id tag)
 
 
 conditionDecoder : Decoder Condition
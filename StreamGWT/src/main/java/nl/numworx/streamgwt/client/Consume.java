@@ -1,12 +1,15 @@
 package nl.numworx.streamgwt.client;
 
+import jsinterop.annotations.JsFunction;
+
 /**
- * Looks like Consumer.
- * @see java.util.function.Consumer
+ * Receives the model from the checkpoint port as the JavaScript object Elm encoded.
+ * Being a JsFunction it is passed to the port as is; nothing is serialized.
  * @author velth101
  *
  */
+@JsFunction
 @FunctionalInterface
 public interface Consume {
-	public void accept(String data);
+	public void accept(Object model);
 }
@@ -0,0 +1,11 @@
+package nl.numworx.streamgwt.client;
+
+/**
+ * Receives the size of the drawing from the layout port.
+ * @see Consume
+ *
+ */
+@FunctionalInterface
+public interface Measure {
+	public void accept(double width, double height);
+}
@@ -0,0 +1,13 @@
+package nl.numworx.streamgwt.client;
+
+import jsinterop.annotations.JsPackage;
+import jsinterop.annotations.JsType;
+
+/**
+ * The browser's JSON object.
+ */
+@JsType(isNative = true, namespace = JsPackage.GLOBAL, name = "JSON")
+class NativeJson {
+
+	static native String stringify(Object value, Object replacer, int space);
+}
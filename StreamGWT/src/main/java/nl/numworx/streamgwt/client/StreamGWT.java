@@ -1,15 +1,23 @@
 package nl.numworx.streamgwt.client;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import com.google.gwt.core.client.Callback;
 import com.google.gwt.core.client.EntryPoint;
 import com.google.gwt.core.client.GWT;
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.core.client.RunAsyncCallback;
+import com.google.gwt.core.client.Scheduler;
+import com.google.gwt.core.client.ScriptInjector;
 import com.google.gwt.dom.client.Element;
-import com.google.gwt.dom.client.NodeList;
 import com.google.gwt.dom.client.Style;
+import com.google.gwt.dom.client.Style.Unit;
 import com.google.gwt.event.logical.shared.ResizeEvent;
 import com.google.gwt.event.logical.shared.ResizeHandler;
+import com.google.gwt.event.shared.HandlerRegistration;
 import com.google.gwt.user.client.Window;
 import com.google.gwt.user.client.ui.Composite;
 import com.google.gwt.user.client.ui.InlineHTML;
@@ -26,21 +34,152 @@ import nl.uu.fi.dwo.interaction.client.json.ObjectMap;
 public class StreamGWT extends Composite implements EntryPoint, InteractionStub, ResizeHandler {
 
 	protected static final String FLOW = "flowchart";
+	/** How far below the fold a widget starts loading. */
+	static final String ROOT_MARGIN = "200px";
+	/** Elm module of the editor, in main.js. */
+	static final String EDITOR = "Main";
+	/** Elm module of the viewer, in readonly.js: no text areas, menus or event handlers. */
+	static final String VIEWER = "ReadOnly";
+	/** Launch data: percentage of the sessions whose edits are traced. */
+	static final String TRACE_PERCENT = "tracePercent";
+	/** Launch data: nesting depth from which If, While and ForEach boxes are drawn as a summary. */
+	static final String DETAIL = "detail";
+	static final int TRACE_CAPACITY = 4096;
+	/** The widgets on the page, for {@link #diagnostics()}. */
+	private static final List<StreamGWT> ATTACHED = new ArrayList<>();
 	
-	private native static void install(String flow, Consume checkpoint)
-	/*-{		
-	 	$wnd.install( flow, function(data) { checkpoint.@nl.numworx.streamgwt.client.Consume::accept(Ljava/lang/String;)(data) } )
-	 }-*/
+	/**
+	 * Starts the Elm app of the module on the #elm node and subscribes to its ports.
+	 * Returns the handle for {@link #restore} and {@link #destroy}.
+	 */
+	private native static JavaScriptObject create(String module, String flow, Consume checkpoint, Measure layout, Consume trace)
+	/*-{
+		var node = $doc.getElementById('elm');
+		if (!node) {
+			node = $doc.createElement('div');
+			node.id = 'elm';
+			$doc.getElementById('outer').appendChild(node);
+		}
+		var handle = {
+			parent: node.parentNode,
+			checkpoint: checkpoint,
+			layout: function(size) { layout.@nl.numworx.streamgwt.client.Measure::accept(DD)(size.width, size.height) },
+			trace: trace && function(event) { event.unshift(Date.now()); trace(event) }
+		};
+		handle.app = $wnd.Elm[module].init({ node: node, flags: flow });
+		// the viewer never changes the flow and has no checkpoint port
+		if (handle.app.ports.checkpoint)
+			handle.app.ports.checkpoint.subscribe(handle.checkpoint);
+		handle.app.ports.layout.subscribe(handle.layout);
+		if (handle.trace && handle.app.ports.trace)
+			handle.app.ports.trace.subscribe(handle.trace);
+		return handle;
+	}-*/
+	;
+
+	/**
+	 * Runs the callback once the element comes within {@link #ROOT_MARGIN} of the viewport,
+	 * or right away when the browser has no IntersectionObserver. Returns the observer, if any.
+	 */
+	private native static JavaScriptObject whenVisible(Element element, Runnable callback)
+	/*-{
+		var run = $entry(function() { callback.@java.lang.Runnable::run()() });
+		if (!$wnd.IntersectionObserver) {
+			run();
+			return null;
+		}
+		var observer = new $wnd.IntersectionObserver(function(entries) {
+			for (var i = 0; i < entries.length; i++) {
+				if (entries[i].isIntersecting) {
+					observer.disconnect();
+					run();
+					return;
+				}
+			}
+		}, { rootMargin: @nl.numworx.streamgwt.client.StreamGWT::ROOT_MARGIN });
+		observer.observe(element);
+		return observer;
+	}-*/
+	;
+
+	private native static void disconnect(JavaScriptObject observer)
+	/*-{
+		observer.disconnect();
+	}-*/
+	;
+
+	private native static boolean elmLoaded(String module)
+	/*-{
+		return !!($wnd.Elm && $wnd.Elm[module]);
+	}-*/
+	;
+
+	/**
+	 * Lets <code>streamDiagnostics()</code> be called from the browser console.
+	 */
+	private native static void exportDiagnostics()
+	/*-{
+		$wnd.streamDiagnostics = $entry(function() {
+			return @nl.numworx.streamgwt.client.StreamGWT::diagnostics()();
+		});
+	}-*/
+	;
+
+	private native static void restore(JavaScriptObject handle, String flow)
+	/*-{
+		handle.app.ports.restore.send(flow);
+	}-*/
+	;
+
+	/**
+	 * Sets the level of detail; ports only listen once the app's init is done.
+	 */
+	private native static void detail(JavaScriptObject handle, int level)
+	/*-{
+		if (handle.app.ports.detail)
+			$wnd.setTimeout($entry(function() { handle.app.ports.detail.send(level); }), 0);
+	}-*/
+	;
+
+	/**
+	 * Elm has no way to stop an app; without its subscriptions and its DOM it stays idle.
+	 */
+	private native static void destroy(JavaScriptObject handle)
+	/*-{
+		if (handle.app.ports.checkpoint)
+			handle.app.ports.checkpoint.unsubscribe(handle.checkpoint);
+		handle.app.ports.layout.unsubscribe(handle.layout);
+		if (handle.trace && handle.app.ports.trace)
+			handle.app.ports.trace.unsubscribe(handle.trace);
+		while (handle.parent.firstChild)
+			handle.parent.removeChild(handle.parent.firstChild);
+	}-*/
 	;
 	
+	/** The flow as text; behind when {@link #flowVersion} is not {@link #version}. */
 	String flow = "";
+	/** Latest model from the checkpoint port, an opaque JavaScript object. */
+	private Object model;
+	private int version;
+	private int flowVersion;
 	int width;
 	int height;
 	private int width0;
 	private int height0;
 	private boolean pastHoogteAan, hasWidth;
+	private boolean zoomPending;
 	private int heightSVG;
 	private OpdrNavIF comRoot;
+	private JavaScriptObject app;
+	private JavaScriptObject observer;
+	private boolean loading;
+	private boolean readonly;
+	/** Level of detail for the app, below 0 when everything is drawn. */
+	private int detail = -1;
+	/** Edits of this session, or null when it is not traced. */
+	private TraceRing trace;
+	private HandlerRegistration resize;
+	private final long created = System.currentTimeMillis();
 	
 	public StreamGWT() {
 		InlineHTML html = new InlineHTML("<!-- Stream GWT -->");
@@ -49,69 +188,200 @@ public class StreamGWT extends Composite implements EntryPoint, InteractionStub,
 
 	@Override
 	public void onModuleLoad() {
+		exportDiagnostics();
 		RootPanel.get().add(this);
-		Window.addResizeHandler(this);
 		Stub.publish(this);
 	}
 
 	@Override
 	public HashMap<String, Object> getState() {
 		HashMap<String,Object> result = new HashMap<>();
-		result.put(FLOW, flow);
+		result.put(FLOW, getFlow());
 		return result;
 	}
 
 	@Override
 	public void setState(HashMap<String, Object> h) {
+		exportTrace();
 		if (h != null) {
 			ObjectMap map = JSONUtilities.wrapMap(h);
 			if (map.containsKey(FLOW)) {
 				flow = map.getString(FLOW);
+				model = null;
+				flowVersion = version;
 			}
 		}
-		install(flow, (data) -> { 
-			flow = data;
-			if (pastHoogteAan) pasAanH(data);
+		zoomPending = true;
+		// one app per widget: later states go through the restore port
+		if (app != null) {
+			restore(app, getFlow());
+			// a restore that changes the size answers through the layout port before this runs; one that
+			// keeps it sends nothing, and the zoom must not wait for the next unrelated layout
+			Scheduler.get().scheduleDeferred(() -> zoomPending = false);
+		} else if (!loading) {
+			// the app and its script wait until the widget is about to scroll into view
+			loading = true;
+			observer = whenVisible(RootPanel.get("outer").getElement(), this::load);
+		}
+	}
+
+	private void load() {
+		observer = null;
+		GWT.runAsync(StreamGWT.class, new RunAsyncCallback() {
+			@Override
+			public void onFailure(Throwable reason) {
+				GWT.log("loading Stream failed", reason);
+				loading = false;
+			}
+
+			@Override
+			public void onSuccess() {
+				if (elmLoaded(module())) {
+					start();
+					return;
+				}
+				final String script = readonly ? "readonly.js" : "main.js";
+				ScriptInjector.fromUrl(GWT.getHostPageBaseURL() + script)
+						.setWindow(ScriptInjector.TOP_WINDOW)
+						.setCallback(new Callback<Void, Exception>() {
+							@Override
+							public void onFailure(Exception reason) {
+								GWT.log("loading " + script + " failed", reason);
+								loading = false;
+							}
+
+							@Override
+							public void onSuccess(Void result) {
+								start();
+							}
+						}).inject();
+			}
 		});
-		if (!hasWidth) {
-			width0 = svgWidth().intValue();
+	}
+
+	/**
+	 * Called by the checkpoint port on every change; keeps the handle, serializes nothing.
+	 */
+	private void checkpoint(Object data) {
+		model = data;
+		version++;
+	}
+
+	/**
+	 * The flow as text, only serialized when a checkpoint came in since the last call.
+	 */
+	String getFlow() {
+		if (flowVersion != version) {
+			flow = NativeJson.stringify(model, null, 4);
+			flowVersion = version;
 		}
-		double zoom = width / (double) width0;
-		RootPanel.get("outer").getElement().getStyle().setProperty("zoom", Double.toString(zoom));
+		return flow;
+	}
 
-		
-		if (pastHoogteAan) 
-			pasAanH(flow);
-		else {
-			
+	private String module() {
+		return readonly ? VIEWER : EDITOR;
+	}
+
+	private void start() {
+		loading = false;
+		if (app == null && isAttached()) {
+			app = create(module(), getFlow(), this::checkpoint, this::layout, trace == null ? null : trace::add);
+			if (detail >= 0)
+				detail(app, detail);
 		}
 	}
 
-	private Number svgWidth() {
-		Element elem = RootPanel.get("outer").getElement();
-		NodeList<Element> list = elem.getElementsByTagName("svg");
-		if (list.getLength() > 0) {
-			elem = list.getItem(0);
-			try {
-				String w = width(elem);
-				return Double.valueOf(w);
-			} catch(Exception oops) { }
+	/**
+	 * Hands the traced edits to the host in one "trace" event: on unload, as the Swing page on Terminate,
+	 * and before a new state replaces the flow.
+	 */
+	private void exportTrace() {
+		if (trace == null || trace.isEmpty() || comRoot == null)
+			return;
+		HashMap h = new HashMap();
+		h.put("dropped", trace.getDropped());
+		h.put("events", trace.drain());
+		comRoot.fireEvent(new CBookEvent(this, "trace", h));
+	}
+
+	/**
+	 * One line per attached widget: its age, whether its app runs, and the flow it holds.
+	 */
+	static String diagnostics() {
+		long now = System.currentTimeMillis();
+		StringBuilder sb = new StringBuilder();
+		sb.append(ATTACHED.size()).append(" widgets");
+		for (StreamGWT w : ATTACHED) {
+			sb.append("\n  ").append(w.module()).append(' ').append((now - w.created) / 1000).append(" s ")
+					.append(w.app != null ? "running" : w.loading ? "loading" : "waiting")
+					.append(", flow ").append(w.flow.length()).append(" chars")
+					.append(w.flowVersion == w.version ? "" : " + unsaved edits")
+					.append(w.trace == null ? "" : ", tracing");
 		}
-		return width0;
+		return sb.toString();
 	}
-	
-	
-	private void pasAanH(String data) {
-		Element elem = RootPanel.get("outer").getElement();
-		NodeList<Element> list = elem.getElementsByTagName("svg");
-		if (list.getLength() > 0) {
-			elem = list.getItem(0);
-			try {
-				String h = height(elem);
-				heightSVG = Double.valueOf(h).intValue()+1;
-			} catch(Exception oops) {
+
+	@Override
+	protected void onLoad() {
+		super.onLoad();
+		ATTACHED.add(this);
+		resize = Window.addResizeHandler(this);
+	}
+
+	@Override
+	protected void onUnload() {
+		ATTACHED.remove(this);
+		if (resize != null) {
+			resize.removeHandler();
+			resize = null;
+		}
+		exportTrace();
+		if (observer != null) {
+			disconnect(observer);
+			observer = null;
+		}
+		loading = false;
+		if (app != null) {
+			destroy(app);
+			app = null;
+		}
+		super.onUnload();
+	}
+
+	/**
+	 * Called by the layout port whenever the size of the drawing changes.
+	 */
+	private void layout(double w, double h) {
+		heightSVG = (int) h + 1;
+		clearPlaceholder();
+		if (zoomPending && w > 0) {
+			zoomPending = false;
+			if (!hasWidth) {
+				width0 = (int) w;
 			}
+			double zoom = width / (double) width0;
+			RootPanel.get("outer").getElement().getStyle().setProperty("zoom", Double.toString(zoom));
 		}
+		if (pastHoogteAan) 
+			pasAanH();
+	}
+	
+	/**
+	 * Until the app draws, #outer keeps the size the widget will get, so nothing shifts when it loads.
+	 */
+	private void setPlaceholder() {
+		Style style = RootPanel.get("outer").getElement().getStyle();
+		style.setWidth(hasWidth ? width0 : width, Unit.PX);
+		style.setHeight(height, Unit.PX);
+	}
+
+	private void clearPlaceholder() {
+		Style style = RootPanel.get("outer").getElement().getStyle();
+		style.clearWidth();
+		style.clearHeight();
+	}
+
+	private void pasAanH() {
 		int zoomed = (heightSVG * width + width0-1) / width0;
 		if (zoomed > height0 && zoomed != height) {
 			HashMap h = new HashMap();
@@ -120,14 +390,6 @@ public class StreamGWT extends Composite implements EntryPoint, InteractionStub,
 		}
 	}
 
-	private native static String height(Element elem) /*-{
-		return elem.height.baseVal.valueAsString;
-	}-*/;
-
-	private native static String width(Element elem) /*-{
-	return elem.width.baseVal.valueAsString;
-	}-*/;
-
 	@Override
 	public int getScore() {
 		return 0;
@@ -191,19 +453,31 @@ public class StreamGWT extends Composite implements EntryPoint, InteractionStub,
 		this.width0 = this.width = width;
 		this.heightSVG = this.height0 = this.height = height;
 		ObjectMap map = JSONUtilities.wrapMap(launchData);
-		if (map.containsKey(FLOW))
+		if (map.containsKey(FLOW)) {
 			flow = map.getString(FLOW);
-		boolean readonly = map.getBoolean("readonly", false);
+			model = null;
+			flowVersion = version;
+		}
+		readonly = map.getBoolean("readonly", false);
 		RootPanel outer = RootPanel.get("outer");
 		outer.setStyleName("readonly", readonly);
 		pastHoogteAan = map.getBoolean("pasAanH", false);
 		boolean notitle = map.getBoolean("noTitle", false);
 		outer.setStyleName("noname", notitle);
 		hasWidth = map.getBoolean("hasWidth", false);
+		detail = map.getBoolean("hasDetail", false) && map.containsKey(DETAIL) ? Math.max(0, map.getInt(DETAIL)) : -1;
+		if (app != null)
+			detail(app, detail);
+		// sampled per session, so a traced session has all of its edits
+		int tracePercent = map.containsKey(TRACE_PERCENT) ? map.getInt(TRACE_PERCENT) : 0;
+		if (trace == null && tracePercent > 0 && Math.random() * 100 < tracePercent)
+			trace = new TraceRing(TRACE_CAPACITY);
 		if (hasWidth) {
 			width0 = map.getInt("width");
 		}
-		
+		if (app == null)
+			setPlaceholder();
+
 	}
 
 	@Override
@@ -3,6 +3,8 @@ package nl.numworx.streamgwt.client;
 import java.util.Collections;
 import java.util.HashMap;
 
+import com.google.gwt.user.client.ui.RootPanel;
+
 public class StreamGWTDebug extends StreamGWT {
 
 	public StreamGWTDebug() {
@@ -11,6 +13,8 @@ public class StreamGWTDebug extends StreamGWT {
 
 	@Override
 	public void onModuleLoad() {
+		// attached as by StreamGWT, so the app starts and follows window resizes
+		RootPanel.get().add(this);
 		String flow = "{}"; // tbs
 		HashMap<String, Object> launch = new HashMap<>();
 		launch.put(FLOW, flow);
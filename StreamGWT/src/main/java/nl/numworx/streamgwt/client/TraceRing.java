@@ -0,0 +1,58 @@
+package nl.numworx.streamgwt.client;
+
+import com.google.gwt.core.client.JavaScriptObject;
+
+/**
+ * Bounded ring of edit events from the trace port, kept as the JavaScript arrays they arrive in:
+ * <code>[time, kind, id, detail]</code>. When full, the oldest events are overwritten and counted as dropped.
+ */
+class TraceRing {
+
+	private final Object[] ring;
+	private int start;
+	private int size;
+	private int dropped;
+
+	TraceRing(int capacity) {
+		ring = new Object[capacity];
+	}
+
+	void add(Object event) {
+		if (size == ring.length) {
+			ring[start] = event;
+			start = (start + 1) % ring.length;
+			dropped++;
+		} else {
+			ring[(start + size++) % ring.length] = event;
+		}
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	int getDropped() {
+		return dropped;
+	}
+
+	/**
+	 * The events as a JSON array, oldest first, and empties the ring.
+	 */
+	String drain() {
+		JavaScriptObject events = JavaScriptObject.createArray();
+		for (int i = 0; i < size; i++) {
+			int j = (start + i) % ring.length;
+			push(events, ring[j]);
+			ring[j] = null;
+		}
+		start = 0;
+		size = 0;
+		return NativeJson.stringify(events, null, 0);
+	}
+
+	private native static void push(JavaScriptObject array, Object event)
+	/*-{
+		array.push(event);
+	}-*/
+	;
+}
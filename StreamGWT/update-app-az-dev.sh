@@ -16,6 +16,7 @@ SAS=$(echo $SAS|tr -d '"')
 azcopy copy Stream.css https://numworxacc.blob.core.windows.net/test/apps/?"$SAS"
 azcopy copy StreamWidget.html https://numworxacc.blob.core.windows.net/test/apps/?"$SAS"
 azcopy copy main.js https://numworxacc.blob.core.windows.net/test/apps/?"$SAS"
+azcopy copy readonly.js https://numworxacc.blob.core.windows.net/test/apps/?"$SAS"
 azcopy copy streamgwt https://numworxacc.blob.core.windows.net/test/apps/?"$SAS" --recursive=true
 
 
@@ -1,7 +1,7 @@
 #!/bin/sh
 
 cd target/StreamGWT
-S="Stream.css main.js StreamWidget.html" 
+S="Stream.css main.js readonly.js StreamWidget.html" 
 cp $S $HOME/Public/apps/
 S=streamgwt
 rm -rf $HOME/Public/apps/$S
@@ -1,7 +1,7 @@
 #!/bin/sh
 D=s3://test-dwo-nl/apps
 cd target/StreamGWT
-S="Stream.css main.js StreamWidget.html"
+S="Stream.css main.js readonly.js StreamWidget.html"
 for i in $S
 do aws --profile prod s3 cp --acl public-read  $i $D/
 done
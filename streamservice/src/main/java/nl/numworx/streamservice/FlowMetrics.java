@@ -0,0 +1,65 @@
+package nl.numworx.streamservice;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import nl.numworx.stream.flow.CompactFlow;
+import nl.numworx.stream.flow.Flow;
+import nl.numworx.stream.flow.Node;
+
+/**
+ * Size and shape of a flow, for reports over many stored flows. Counts only the boxes an author made;
+ * Start, End and the Empty and Void placeholders are left out.
+ */
+final class FlowMetrics {
+
+	private FlowMetrics() {
+	}
+
+	static Map<String, Object> measure(Flow flow) {
+		CompactFlow compact = CompactFlow.of(flow);
+		int[] counts = new int[Node.Type.values().length];
+		int textLength = 0;
+		// boxes come after the box they are in, so one pass finds every nesting depth
+		int[] depth = new int[compact.size()];
+		int maxDepth = 0;
+		int longest = 0;
+		int[] run = new int[compact.size()];
+		for (int i = 0; i < compact.size(); i++) {
+			Node.Type type = compact.getType(i);
+			counts[type.ordinal()]++;
+			textLength += compact.getContentLength(i);
+			boolean counted = type.hasContent();
+			int inside = depth[i] + (type == Node.Type.IF || type == Node.Type.WHILE || type == Node.Type.FOREACH ? 1 : 0);
+			maxDepth = Math.max(maxDepth, inside);
+			if (compact.getBody(i) != CompactFlow.NONE)
+				depth[compact.getBody(i)] = inside;
+			if (compact.getElse(i) != CompactFlow.NONE)
+				depth[compact.getElse(i)] = inside;
+			int next = compact.getNext(i);
+			if (counted)
+				run[i]++;
+			if (next != CompactFlow.NONE) {
+				depth[next] = depth[i];
+				run[next] = run[i];
+			}
+			longest = Math.max(longest, run[i]);
+		}
+		int ifs = counts[Node.Type.IF.ordinal()];
+		int loops = counts[Node.Type.WHILE.ordinal()] + counts[Node.Type.FOREACH.ordinal()];
+		Map<String, Object> json = new LinkedHashMap<>();
+		json.put("name", flow.getName());
+		json.put("boxes", counts[Node.Type.STATEMENT.ordinal()] + ifs + loops);
+		json.put("statements", counts[Node.Type.STATEMENT.ordinal()]);
+		json.put("ifs", ifs);
+		json.put("whiles", counts[Node.Type.WHILE.ordinal()]);
+		json.put("forEachs", counts[Node.Type.FOREACH.ordinal()]);
+		json.put("maxNesting", maxDepth);
+		json.put("longestSequence", longest);
+		json.put("cyclomatic", 1 + ifs + loops);
+		json.put("textLength", textLength);
+		json.put("precondition", flow.getPrecondition().isVisible());
+		json.put("postcondition", flow.getPostcondition().isVisible());
+		return json;
+	}
+}
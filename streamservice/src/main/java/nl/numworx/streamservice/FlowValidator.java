@@ -0,0 +1,114 @@
+package nl.numworx.streamservice;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import nl.numworx.stream.flow.Flow;
+import nl.numworx.stream.flow.Node;
+import nl.numworx.stream.run.CompileException;
+import nl.numworx.stream.run.FlowCompiler;
+
+/**
+ * Checks a stored flow the way the editor would have left it: one Start, ending in End, ids used once,
+ * and box texts that {@link FlowCompiler} accepts. Boxes left without text are warnings.
+ */
+final class FlowValidator {
+
+	static final class Problem {
+		final int box;
+		final boolean error;
+		final String message;
+
+		Problem(int box, boolean error, String message) {
+			this.box = box;
+			this.error = error;
+			this.message = message;
+		}
+
+		Map<String, Object> toJson() {
+			Map<String, Object> json = new LinkedHashMap<>();
+			json.put("box", box);
+			json.put("severity", error ? "error" : "warning");
+			json.put("message", message);
+			return json;
+		}
+	}
+
+	private final List<Problem> problems = new ArrayList<>();
+	private final Set<Integer> ids = new HashSet<>();
+
+	private FlowValidator() {
+	}
+
+	static Map<String, Object> validate(Flow flow) {
+		FlowValidator validator = new FlowValidator();
+		validator.check(flow);
+		boolean valid = true;
+		List<Object> problems = new ArrayList<>();
+		for (Problem p : validator.problems) {
+			valid &= !p.error;
+			problems.add(p.toJson());
+		}
+		Map<String, Object> json = new LinkedHashMap<>();
+		json.put("valid", valid);
+		json.put("problems", problems);
+		return json;
+	}
+
+	private void check(Flow flow) {
+		Node start = flow.getTree();
+		if (start == null || start.getType() != Node.Type.START) {
+			problems.add(new Problem(start == null ? -1 : start.getId(), true, "the flow does not begin with Start"));
+			return;
+		}
+		Node last = sequence(start.getNext(), true);
+		if (last == null || last.getType() != Node.Type.END)
+			problems.add(new Problem(last == null ? start.getId() : last.getId(), true, "the flow does not end with End"));
+		if (problems.stream().noneMatch(p -> p.error)) {
+			try {
+				FlowCompiler.compile(flow);
+			} catch (CompileException ce) {
+				problems.add(new Problem(ce.getNodeId(), true, ce.getMessage()));
+			}
+		}
+	}
+
+	/**
+	 * Checks the boxes of a sequence and those inside them. Returns the last box.
+	 */
+	private Node sequence(Node first, boolean top) {
+		Node last = null;
+		for (Node n = first; n != null; n = n.getNext()) {
+			last = n;
+			if (!ids.add(n.getId()))
+				problems.add(new Problem(n.getId(), true, "id " + n.getId() + " is used twice"));
+			switch (n.getType()) {
+			case START:
+				problems.add(new Problem(n.getId(), true, "Start inside the flow"));
+				break;
+			case END:
+				if (!top || n.getNext() != null)
+					problems.add(new Problem(n.getId(), true, "End before the end of the flow"));
+				break;
+			case STATEMENT:
+			case IF:
+			case WHILE:
+			case FOREACH:
+				if (n.getContent().trim().isEmpty())
+					problems.add(new Problem(n.getId(), false, "box without text"));
+				break;
+			default:
+				break;
+			}
+			if (n.getBody() != null)
+				sequence(n.getBody(), false);
+			if (n.getElse() != null)
+				sequence(n.getElse(), false);
+		}
+		return last;
+	}
+}
@@ -0,0 +1,85 @@
+package nl.numworx.streamservice;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies in microseconds, counted in buckets of one eighth of a power of two, so a percentile is
+ * off by at most 12.5%. Recording is lock free and takes no memory.
+ */
+final class LatencyHistogram {
+
+	/** Below this every microsecond has a bucket of its own. */
+	private static final int LINEAR = 8;
+	private static final int BUCKETS = (64 - 3) * LINEAR;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder total = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	void record(long nanos) {
+		long micros = Math.max(0, nanos / 1000);
+		counts.incrementAndGet(bucket(micros));
+		total.increment();
+		sum.add(micros);
+		max.accumulate(micros);
+	}
+
+	static int bucket(long micros) {
+		if (micros < LINEAR)
+			return (int) micros;
+		int exp = 63 - Long.numberOfLeadingZeros(micros);
+		int sub = (int) (micros >>> (exp - 3)) & (LINEAR - 1);
+		return (exp - 2) * LINEAR + sub;
+	}
+
+	/**
+	 * Largest value that falls in the bucket.
+	 */
+	static long upper(int bucket) {
+		if (bucket < LINEAR)
+			return bucket;
+		int exp = bucket / LINEAR + 2;
+		long sub = bucket % LINEAR;
+		return ((LINEAR + sub + 1) << (exp - 3)) - 1;
+	}
+
+	long count() {
+		return total.sum();
+	}
+
+	/**
+	 * Microseconds within which the given percentage of the requests finished.
+	 */
+	long percentile(double p) {
+		long n = 0;
+		for (int i = 0; i < BUCKETS; i++)
+			n += counts.get(i);
+		if (n == 0)
+			return 0;
+		long rank = (long) Math.ceil(p / 100 * n);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank)
+				return Math.min(upper(i), max.get());
+		}
+		return max.get();
+	}
+
+	Map<String, Object> toJson() {
+		Map<String, Object> json = new LinkedHashMap<>();
+		long n = count();
+		json.put("count", n);
+		json.put("meanMicros", n == 0 ? 0 : sum.sum() / n);
+		json.put("p50Micros", percentile(50));
+		json.put("p90Micros", percentile(90));
+		json.put("p99Micros", percentile(99));
+		json.put("maxMicros", max.get());
+		return json;
+	}
+}
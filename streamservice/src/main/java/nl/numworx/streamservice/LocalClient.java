@@ -0,0 +1,29 @@
+package nl.numworx.streamservice;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Calls a {@link StreamService} in the same JVM, without a socket. Requests take the same turns and
+ * count in the same statistics as requests over HTTP.
+ */
+public final class LocalClient {
+
+	private final StreamService service;
+
+	public LocalClient(StreamService service) {
+		this.service = service;
+	}
+
+	public StreamService.Response post(String path, String body) {
+		return post(path, Collections.emptyMap(), body);
+	}
+
+	public StreamService.Response post(String path, Map<String, String> query, String body) {
+		return service.call("POST", path, query, body);
+	}
+
+	public StreamService.Response get(String path) {
+		return service.call("GET", path, Collections.emptyMap(), "");
+	}
+}
@@ -0,0 +1,402 @@
+package nl.numworx.streamservice;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import nl.numworx.stream.flow.Flow;
+import nl.numworx.stream.flow.FlowJson;
+import nl.numworx.stream.flow.JavaGenerator;
+import nl.numworx.stream.flow.Json;
+import nl.numworx.stream.render.ThumbnailCache;
+
+/**
+ * Stream logic for a learning environment's backend: flows in, as <code>Tree.State.toJson</code> stores
+ * them, and checks, Java, metrics or thumbnails out.
+ * <p>
+ * Listens on the loopback interface only; every request runs on a virtual thread of its own. At most
+ * <code>maxConcurrent</code> requests are worked on and at most <code>maxWaiting</code> more wait, up to
+ * <code>queueMillis</code>, for a turn; the rest are turned away with 503 before their body is read, so the
+ * bodies held at once stay below <code>(maxConcurrent + maxWaiting) * MAX_BODY</code>. Every endpoint keeps
+ * a {@link LatencyHistogram}, shown by <code>GET /stats</code>. {@link LocalClient} calls the same endpoints
+ * without a socket.
+ * <pre>
+ * POST /validate            flow              {"valid": ..., "problems": [{"box", "severity", "message"}]}
+ * POST /java                flow              the Java outline, as text
+ * POST /metrics             flow              counts, nesting, longest sequence, cyclomatic number
+ * POST /thumbnail?width=&amp;height=   flow      PNG fitting the box
+ * POST /batch/validate      [flow, ...]       [{"result": ...} or {"error": ...}, ...]
+ * POST /batch/java, /batch/metrics            likewise
+ * GET  /stats
+ *
+ * java nl.numworx.streamservice.StreamService [--port n] [--concurrent n] [--waiting n] [--queue ms]
+ * </pre>
+ * A flow in a batch is an object, or a string holding one as in stored launch data. A flow that fails
+ * gets its error in its own place in the answer; the others are answered as usual.
+ */
+public final class StreamService implements Closeable {
+
+	public static final int DEFAULT_PORT = 8095;
+	static final int MAX_BODY = 16 << 20;
+	static final int MAX_BATCH = 1000;
+	private static final int THUMBNAIL_CACHE = 32 << 20;
+	private static final Logger LOG = Logger.getLogger(StreamService.class.getName());
+
+	/**
+	 * What an endpoint answers.
+	 */
+	public static final class Response {
+		private final int status;
+		private final String contentType;
+		private final byte[] body;
+
+		Response(int status, String contentType, byte[] body) {
+			this.status = status;
+			this.contentType = contentType;
+			this.body = body;
+		}
+
+		static Response json(int status, Object value) {
+			return new Response(status, "application/json; charset=utf-8",
+					Json.write(value, 0).getBytes(StandardCharsets.UTF_8));
+		}
+
+		static Response error(int status, String message) {
+			Map<String, Object> json = new LinkedHashMap<>();
+			json.put("error", message);
+			return json(status, json);
+		}
+
+		public int getStatus() {
+			return status;
+		}
+
+		public String getContentType() {
+			return contentType;
+		}
+
+		public byte[] getBody() {
+			return body;
+		}
+
+		public String getText() {
+			return new String(body, StandardCharsets.UTF_8);
+		}
+	}
+
+	/** The request could not be served as asked: answered with its status and message. */
+	@SuppressWarnings("serial")
+	static final class Refused extends RuntimeException {
+		final int status;
+
+		Refused(int status, String message) {
+			super(message);
+			this.status = status;
+		}
+	}
+
+	interface Endpoint {
+		Response handle(Map<String, String> query, String body);
+	}
+
+	private final Map<String, Endpoint> endpoints = new LinkedHashMap<>();
+	private final Map<String, LatencyHistogram> latencies = new LinkedHashMap<>();
+	private final Semaphore turns;
+	/** Requests worked on or waiting for a turn; taken without waiting, before the body is read. */
+	private final Semaphore admission;
+	private final int maxConcurrent;
+	private final int maxWaiting;
+	private final long queueMillis;
+	private final AtomicLong rejected = new AtomicLong();
+	private final ThumbnailCache thumbnails = new ThumbnailCache(THUMBNAIL_CACHE);
+	private HttpServer server;
+	private ExecutorService executor;
+
+	public StreamService(int maxConcurrent, long queueMillis) {
+		this(maxConcurrent, 4 * maxConcurrent, queueMillis);
+	}
+
+	public StreamService(int maxConcurrent, int maxWaiting, long queueMillis) {
+		this.maxConcurrent = maxConcurrent;
+		this.maxWaiting = maxWaiting;
+		this.queueMillis = queueMillis;
+		this.turns = new Semaphore(maxConcurrent, true);
+		this.admission = new Semaphore(maxConcurrent + maxWaiting);
+		endpoint("/validate", (query, body) -> Response.json(200, FlowValidator.validate(FlowJson.read(body))));
+		endpoint("/java", (query, body) -> text(new JavaGenerator().generate(FlowJson.read(body))));
+		endpoint("/metrics", (query, body) -> Response.json(200, FlowMetrics.measure(FlowJson.read(body))));
+		endpoint("/thumbnail", (query, body) -> new Response(200, "image/png",
+				thumbnails.get(body, size(query, "width", 320), size(query, "height", 240))));
+		endpoint("/batch/validate", (query, body) -> batch(body, FlowValidator::validate));
+		endpoint("/batch/java", (query, body) -> {
+			// one generator for the batch: flows of one course share many boxes
+			JavaGenerator shared = new JavaGenerator();
+			return batch(body, flow -> shared.generate(flow));
+		});
+		endpoint("/batch/metrics", (query, body) -> batch(body, FlowMetrics::measure));
+	}
+
+	public static void main(String[] args) throws IOException {
+		int port = DEFAULT_PORT;
+		int concurrent = Runtime.getRuntime().availableProcessors();
+		int waiting = -1;
+		long queue = 2000;
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "--port":
+				port = Integer.parseInt(args[++i]);
+				break;
+			case "--concurrent":
+				concurrent = Integer.parseInt(args[++i]);
+				break;
+			case "--waiting":
+				waiting = Integer.parseInt(args[++i]);
+				break;
+			case "--queue":
+				queue = Long.parseLong(args[++i]);
+				break;
+			default:
+				System.err.println("usage: StreamService [--port n] [--concurrent n] [--waiting n] [--queue ms]");
+				System.exit(2);
+			}
+		}
+		System.setProperty("java.awt.headless", "true");
+		StreamService service = waiting < 0 ? new StreamService(concurrent, queue) : new StreamService(concurrent, waiting, queue);
+		InetSocketAddress address = service.start(port);
+		Runtime.getRuntime().addShutdownHook(new Thread(service::close));
+		System.err.println("listening on http://" + address.getHostString() + ":" + address.getPort() + "/");
+	}
+
+	/**
+	 * Adds or replaces an endpoint; meant for setting up, before the service is called.
+	 */
+	void endpoint(String path, Endpoint endpoint) {
+		endpoints.put(path, endpoint);
+		latencies.put(path, new LatencyHistogram());
+	}
+
+	/**
+	 * Starts listening on the loopback interface; port 0 picks a free one. Returns the address.
+	 */
+	public synchronized InetSocketAddress start(int port) throws IOException {
+		if (server != null)
+			throw new IllegalStateException("already started");
+		executor = Executors.newVirtualThreadPerTaskExecutor();
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.setExecutor(executor);
+		server.createContext("/", this::exchange);
+		server.start();
+		return server.getAddress();
+	}
+
+	@Override
+	public synchronized void close() {
+		if (server == null)
+			return;
+		server.stop(1);
+		executor.shutdown();
+		server = null;
+	}
+
+	private void exchange(HttpExchange exchange) throws IOException {
+		String method = exchange.getRequestMethod();
+		String path = exchange.getRequestURI().getPath();
+		Response response = refuse(method, path);
+		if (response == null)
+			response = admission.tryAcquire() ? admitted(exchange, path) : busy();
+		if (response.getStatus() == 503)
+			exchange.getResponseHeaders().set("Retry-After", "1");
+		exchange.getResponseHeaders().set("Content-Type", response.getContentType());
+		exchange.sendResponseHeaders(response.getStatus(), response.getBody().length == 0 ? -1 : response.getBody().length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(response.getBody());
+		}
+	}
+
+	private Response admitted(HttpExchange exchange, String path) throws IOException {
+		try {
+			String body = read(exchange.getRequestBody());
+			return serve(path, query(exchange.getRequestURI().getRawQuery()), body);
+		} catch (Refused r) {
+			return Response.error(r.status, r.getMessage());
+		} finally {
+			admission.release();
+		}
+	}
+
+	/**
+	 * Serves one request, taking admission and waiting for a turn like a request over HTTP does.
+	 */
+	Response call(String method, String path, Map<String, String> query, String body) {
+		Response response = refuse(method, path);
+		if (response != null)
+			return response;
+		if (!admission.tryAcquire())
+			return busy();
+		try {
+			return serve(path, query, body);
+		} finally {
+			admission.release();
+		}
+	}
+
+	/**
+	 * The answer to a request that needs no endpoint: the statistics, or an unknown path or method.
+	 * Null when the request is for an endpoint.
+	 */
+	private Response refuse(String method, String path) {
+		if ("GET".equals(method) && "/stats".equals(path))
+			return Response.json(200, stats());
+		if (!endpoints.containsKey(path))
+			return Response.error(404, "no endpoint " + path);
+		if (!"POST".equals(method))
+			return Response.error(405, path + " takes POST");
+		return null;
+	}
+
+	private Response busy() {
+		rejected.incrementAndGet();
+		return Response.error(503, "busy");
+	}
+
+	/**
+	 * Waits for a turn and serves an admitted request.
+	 */
+	private Response serve(String path, Map<String, String> query, String body) {
+		try {
+			if (!turns.tryAcquire(queueMillis, TimeUnit.MILLISECONDS))
+				return busy();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return Response.error(503, "interrupted");
+		}
+		long start = System.nanoTime();
+		try {
+			return endpoints.get(path).handle(query, body);
+		} catch (Refused r) {
+			return Response.error(r.status, r.getMessage());
+		} catch (IllegalArgumentException | ClassCastException oops) {
+			return Response.error(400, String.valueOf(oops.getMessage()));
+		} catch (StackOverflowError deep) {
+			return Response.error(400, "flow nested too deeply");
+		} catch (RuntimeException oops) {
+			LOG.log(Level.WARNING, path, oops);
+			return Response.error(500, oops.toString());
+		} finally {
+			latencies.get(path).record(System.nanoTime() - start);
+			turns.release();
+		}
+	}
+
+	private static Response text(String text) {
+		return new Response(200, "text/plain; charset=utf-8", text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	static Response batch(String body, Function<Flow, Object> work) {
+		Object parsed = Json.parse(body);
+		if (!(parsed instanceof List))
+			throw new IllegalArgumentException("JSON array of flows expected");
+		List<?> flows = (List<?>) parsed;
+		if (flows.size() > MAX_BATCH)
+			throw new Refused(413, "more than " + MAX_BATCH + " flows in a batch");
+		List<Object> results = new ArrayList<>(flows.size());
+		for (Object element : flows) {
+			Map<String, Object> result = new LinkedHashMap<>();
+			try {
+				result.put("result", work.apply(flow(element)));
+			} catch (IllegalArgumentException | ClassCastException oops) {
+				result.put("error", String.valueOf(oops.getMessage()));
+			} catch (StackOverflowError deep) {
+				result.put("error", "flow nested too deeply");
+			} catch (RuntimeException oops) {
+				// one flow the code cannot handle should not cost the others their answers
+				LOG.log(Level.WARNING, "batch", oops);
+				result.put("error", oops.toString());
+			}
+			results.add(result);
+		}
+		return Response.json(200, results);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Flow flow(Object element) {
+		if (element instanceof String)
+			return FlowJson.read((String) element);
+		if (element instanceof Map)
+			return FlowJson.fromJson((Map<String, Object>) element);
+		throw new IllegalArgumentException("flow object or string expected");
+	}
+
+	private static int size(Map<String, String> query, String key, int otherwise) {
+		String value = query.get(key);
+		if (value == null)
+			return otherwise;
+		int size = Integer.parseInt(value);
+		if (size < 1 || size > 4096)
+			throw new IllegalArgumentException(key + " out of range: " + size);
+		return size;
+	}
+
+	private Map<String, Object> stats() {
+		Map<String, Object> json = new LinkedHashMap<>();
+		json.put("maxConcurrent", maxConcurrent);
+		json.put("maxWaiting", maxWaiting);
+		json.put("inFlight", maxConcurrent - turns.availablePermits());
+		json.put("waiting", turns.getQueueLength());
+		json.put("rejected", rejected.get());
+		json.put("thumbnailHits", thumbnails.getHits());
+		json.put("thumbnailMisses", thumbnails.getMisses());
+		Map<String, Object> endpoints = new LinkedHashMap<>();
+		for (Map.Entry<String, LatencyHistogram> e : latencies.entrySet())
+			endpoints.put(e.getKey(), e.getValue().toJson());
+		json.put("endpoints", endpoints);
+		return json;
+	}
+
+	private static String read(InputStream in) throws IOException {
+		try (InputStream body = in) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			for (int n; (n = body.read(buffer)) > 0;) {
+				out.write(buffer, 0, n);
+				if (out.size() > MAX_BODY)
+					throw new Refused(413, "request over " + MAX_BODY + " bytes");
+			}
+			return out.toString(StandardCharsets.UTF_8);
+		}
+	}
+
+	static Map<String, String> query(String raw) {
+		Map<String, String> query = new LinkedHashMap<>();
+		if (raw == null || raw.isEmpty())
+			return query;
+		for (String pair : raw.split("&")) {
+			int eq = pair.indexOf('=');
+			String key = eq < 0 ? pair : pair.substring(0, eq);
+			String value = eq < 0 ? "" : pair.substring(eq + 1);
+			query.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+		}
+		return query;
+	}
+}
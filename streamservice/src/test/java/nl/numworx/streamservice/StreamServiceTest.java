@@ -0,0 +1,238 @@
+package nl.numworx.streamservice;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import nl.numworx.stream.flow.Flow;
+import nl.numworx.stream.flow.FlowJson;
+import nl.numworx.stream.flow.Json;
+import nl.numworx.stream.flow.Node;
+
+/**
+ * Checks the endpoints of {@link StreamService} through a {@link LocalClient}: the answers, the errors,
+ * batches with flows that fail, and admission when the service is full. Needs the classes under test:
+ * <pre>
+ * java nl.numworx.streamservice.StreamServiceTest
+ * </pre>
+ * Prints every failed check and exits with code 1 when there is one.
+ */
+public class StreamServiceTest {
+
+	private static final Logger QUIET = Logger.getLogger(StreamService.class.getName());
+
+	private static int checks;
+	private static int failures;
+
+	public static void main(String[] args) throws Exception {
+		System.setProperty("java.awt.headless", "true");
+		QUIET.setLevel(Level.OFF);
+		StreamService service = new StreamService(2, 1000);
+		LocalClient client = new LocalClient(service);
+		endpoints(client);
+		errors(client);
+		batches(service, client);
+		admission();
+		System.err.println(checks + " checks, " + failures + " failed");
+		System.exit(failures > 0 ? 1 : 0);
+	}
+
+	private static void endpoints(LocalClient client) {
+		StreamService.Response r = client.post("/validate", json(sum()));
+		check("validate", 200, r.getStatus());
+		check("valid", true, object(r).get("valid"));
+		check("no problems", Collections.emptyList(), object(r).get("problems"));
+		r = client.post("/validate", json(Node.statement(10, "x := ", Node.end(1))));
+		check("invalid", false, object(r).get("valid"));
+		r = client.post("/java", json(sum()));
+		check("java", 200, r.getStatus());
+		check("java is text", "text/plain; charset=utf-8", r.getContentType());
+		check("java has the statement", true, r.getText().contains("s := 0; i := 0"));
+		r = client.post("/metrics", json(sum()));
+		check("metrics", 200, r.getStatus());
+		check("metrics is JSON", "application/json; charset=utf-8", r.getContentType());
+		Map<String, String> size = Map.of("width", "64", "height", "48");
+		r = client.post("/thumbnail", size, json(sum()));
+		check("thumbnail", 200, r.getStatus());
+		check("thumbnail is PNG", "image/png", r.getContentType());
+		check("PNG signature", true, r.getBody().length > 8 && r.getBody()[1] == 'P' && r.getBody()[2] == 'N' && r.getBody()[3] == 'G');
+		r = client.get("/stats");
+		check("stats", 200, r.getStatus());
+		check("stats count the requests", 2L, endpoint(r, "/validate").get("count"));
+	}
+
+	private static void errors(LocalClient client) {
+		check("not JSON", 400, client.post("/validate", "{").getStatus());
+		check("not a flow", 400, client.post("/validate", "{}").getStatus());
+		check("unknown endpoint", 404, client.post("/nothing", "").getStatus());
+		check("GET on an endpoint", 405, client.get("/validate").getStatus());
+		check("thumbnail too large", 400, client.post("/thumbnail", Map.of("width", "5000"), json(sum())).getStatus());
+		check("too deep for one flow", 400, client.post("/validate", deep(100_000)).getStatus());
+		StringBuilder many = new StringBuilder("[");
+		for (int i = 0; i <= StreamService.MAX_BATCH; i++)
+			many.append(i == 0 ? "" : ",").append("\"\"");
+		check("batch too large", 413, client.post("/batch/metrics", many.append(']').toString()).getStatus());
+		check("batch not an array", 400, client.post("/batch/metrics", "{}").getStatus());
+	}
+
+	private static void batches(StreamService service, LocalClient client) {
+		String batch = "[" + json(sum()) + ", " + Json.write(json(sum()), 0) + ", 42, " + deep(100_000) + "]";
+		StreamService.Response r = client.post("/batch/validate", batch);
+		check("batch", 200, r.getStatus());
+		List<?> results = (List<?>) Json.parse(r.getText());
+		check("a result per flow", 4, results.size());
+		check("flow as object", true, slot(results, 0).containsKey("result"));
+		check("flow as string", true, slot(results, 1).containsKey("result"));
+		check("not a flow", "flow object or string expected", slot(results, 2).get("error"));
+		check("too deep", "flow nested too deeply", slot(results, 3).get("error"));
+
+		// a flow the work itself fails on, as a bug in the validator would
+		service.endpoint("/batch/failing", (query, body) -> StreamService.batch(body, flow -> {
+			if (flow.getName().equals("b"))
+				throw new NullPointerException("box 12");
+			return flow.getName();
+		}));
+		batch = "[" + json(flow("a", sum())) + ", " + json(flow("b", sum())) + ", " + json(flow("c", sum())) + "]";
+		r = client.post("/batch/failing", batch);
+		check("batch with a failing flow", 200, r.getStatus());
+		results = (List<?>) Json.parse(r.getText());
+		check("before the failure", "a", slot(results, 0).get("result"));
+		check("the failure in its slot", "java.lang.NullPointerException: box 12", slot(results, 1).get("error"));
+		check("after the failure", "c", slot(results, 2).get("result"));
+	}
+
+	private static void admission() throws Exception {
+		// one at work, one waiting; the third is turned away at once
+		StreamService service = new StreamService(1, 1, 60_000);
+		LocalClient client = new LocalClient(service);
+		CountDownLatch release = new CountDownLatch(1);
+		service.endpoint("/hold", (query, body) -> {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return client.get("/stats");
+		});
+		ExecutorService threads = Executors.newCachedThreadPool();
+		try {
+			Future<StreamService.Response> working = threads.submit(() -> client.post("/hold", ""));
+			await(() -> stats(client).get("inFlight").equals(1L));
+			Future<StreamService.Response> waiting = threads.submit(() -> client.post("/hold", ""));
+			await(() -> stats(client).get("waiting").equals(1L));
+
+			long start = System.nanoTime();
+			StreamService.Response r = client.post("/validate", json(sum()));
+			check("full", 503, r.getStatus());
+			check("turned away without waiting", true, System.nanoTime() - start < 1_000_000_000L);
+			check("stats while full", 200, client.get("/stats").getStatus());
+
+			InetSocketAddress address = service.start(0);
+			try {
+				HttpURLConnection http = (HttpURLConnection) URI.create("http://" + address.getHostString() + ":" + address.getPort() + "/validate").toURL().openConnection();
+				http.setRequestMethod("POST");
+				http.setDoOutput(true);
+				try (OutputStream out = http.getOutputStream()) {
+					out.write(json(sum()).getBytes(StandardCharsets.UTF_8));
+				} catch (IOException closed) {
+					// the service may answer and close before the body is sent
+				}
+				check("full over HTTP", 503, http.getResponseCode());
+				check("retry after", "1", http.getHeaderField("Retry-After"));
+				http.disconnect();
+			} finally {
+				service.close();
+			}
+			check("rejected", 2L, stats(client).get("rejected"));
+
+			release.countDown();
+			check("working one served", 200, working.get().getStatus());
+			check("waiting one served", 200, waiting.get().getStatus());
+			check("admitted again", 200, client.post("/validate", json(sum())).getStatus());
+			check("nothing left in flight", 0L, stats(client).get("inFlight"));
+		} finally {
+			release.countDown();
+			threads.shutdown();
+		}
+	}
+
+	/** s := 0; i := 0; while i < 5: s += i */
+	private static Node sum() {
+		return Node.statement(10, "s := 0; i := 0", Node.whileNode(11, "i < 5",
+				Node.statement(12, "s += i; i += 1", Node.voidNode(13)), Node.end(1)));
+	}
+
+	private static Flow flow(String name, Node tree) {
+		return new Flow(name, Node.start(0, tree), 20, Flow.Condition.NONE, Flow.Condition.NONE);
+	}
+
+	private static String json(Node tree) {
+		return json(flow("test", tree));
+	}
+
+	private static String json(Flow flow) {
+		return FlowJson.write(flow);
+	}
+
+	/** A flow of whiles nested <code>depth</code> deep; as text, since a document that deep cannot be written. */
+	private static String deep(int depth) {
+		StringBuilder tree = new StringBuilder("[{\"id\": 0, \"basicTreeType\": \"Start\"}, ");
+		for (int i = 0; i < depth; i++)
+			tree.append("{\"id\": ").append(i + 3).append(", \"basicTreeType\": \"While\", \"content\": \"true\", \"body\": [");
+		tree.append("{\"id\": 2, \"basicTreeType\": \"Void\"}]}");
+		for (int i = 1; i < depth; i++)
+			tree.append(", {\"id\": ").append(depth + i + 2).append(", \"basicTreeType\": \"Void\"}]}");
+		tree.append(", {\"id\": 1, \"basicTreeType\": \"End\"}]");
+		Map<String, Object> document = FlowJson.toJson(flow("deep", sum()));
+		String shallow = Json.write(((Map<?, ?>) document.get("model")).get("tree"), 0);
+		return Json.write(document, 0).replace(shallow, tree);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> object(StreamService.Response r) {
+		return (Map<String, Object>) Json.parse(r.getText());
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> slot(List<?> results, int i) {
+		return (Map<String, Object>) results.get(i);
+	}
+
+	private static Map<String, Object> stats(LocalClient client) {
+		return object(client.get("/stats"));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> endpoint(StreamService.Response stats, String path) {
+		return (Map<String, Object>) ((Map<String, Object>) object(stats).get("endpoints")).get(path);
+	}
+
+	private static void await(Supplier<Boolean> condition) throws InterruptedException {
+		for (int i = 0; i < 500 && !condition.get(); i++)
+			Thread.sleep(10);
+		check("reached in time", true, condition.get());
+	}
+
+	private static void check(String what, Object expected, Object actual) {
+		checks++;
+		if (!Objects.equals(expected, actual)) {
+			failures++;
+			System.err.println("FAILED " + what + ": expected " + expected + ", got " + actual);
+		}
+	}
+}
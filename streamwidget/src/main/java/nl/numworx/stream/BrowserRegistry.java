@@ -0,0 +1,138 @@
+package nl.numworx.stream;
+
+import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.swing.SwingUtilities;
+
+import nl.numworx.swingbrowser.api.SwingBrowser;
+
+/**
+ * Every {@link HTMLBrowser} that has not been destroyed, with its engine.
+ * <p>
+ * A browser whose panel is dropped by the host without {@link HTMLBrowser#destroy()} is found here once
+ * it has been collected: its engine, kept in the {@link Resource} and not in the browser, is then closed
+ * with a warning. This is the phantom reference queue that <code>java.lang.ref.Cleaner</code> wraps.
+ */
+final class BrowserRegistry {
+
+	private static final Logger LOG = Logger.getLogger(BrowserRegistry.class.getName());
+	private static final ReferenceQueue<HTMLBrowser> QUEUE = new ReferenceQueue<>();
+	private static final Set<Tracked> LIVE = ConcurrentHashMap.newKeySet();
+	private static final AtomicInteger IDS = new AtomicInteger();
+	private static final AtomicInteger RECLAIMED = new AtomicInteger();
+
+	static {
+		Thread cleaner = new Thread(BrowserRegistry::reclaim, "stream-browser-cleaner");
+		cleaner.setDaemon(true);
+		cleaner.start();
+	}
+
+	/**
+	 * What a browser holds that must outlive it: must not refer back to the browser.
+	 */
+	static final class Resource {
+		final int id = IDS.incrementAndGet();
+		final long created = System.currentTimeMillis();
+		volatile SwingBrowser engine;
+		volatile String url;
+		private Tracked tracked;
+	}
+
+	private static final class Tracked extends PhantomReference<HTMLBrowser> {
+		final Resource resource;
+
+		Tracked(HTMLBrowser browser, Resource resource) {
+			super(browser, QUEUE);
+			this.resource = resource;
+		}
+	}
+
+	private BrowserRegistry() {
+	}
+
+	static Resource register(HTMLBrowser browser) {
+		Resource resource = new Resource();
+		resource.tracked = new Tracked(browser, resource);
+		LIVE.add(resource.tracked);
+		return resource;
+	}
+
+	static void unregister(Resource resource) {
+		LIVE.remove(resource.tracked);
+		resource.tracked.clear();
+	}
+
+	private static void reclaim() {
+		while (true) {
+			Tracked tracked;
+			try {
+				tracked = (Tracked) QUEUE.remove();
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (!LIVE.remove(tracked))
+				continue;
+			Resource resource = tracked.resource;
+			SwingBrowser engine = resource.engine;
+			if (engine == null)
+				continue;
+			resource.engine = null;
+			RECLAIMED.incrementAndGet();
+			LOG.warning("browser #" + resource.id + " was dropped without destroy(), closing its engine; last page "
+					+ resource.url);
+			SwingUtilities.invokeLater(() -> {
+				try {
+					engine.close();
+				} catch (IOException e) {
+					LOG.log(Level.SEVERE, "close browser #" + resource.id, e);
+				}
+			});
+		}
+	}
+
+	static int size() {
+		return LIVE.size();
+	}
+
+	static int openEngines() {
+		int n = 0;
+		for (Tracked tracked : LIVE)
+			if (tracked.resource.engine != null)
+				n++;
+		return n;
+	}
+
+	/**
+	 * Engines closed because their browser was collected without being destroyed.
+	 */
+	static int reclaimed() {
+		return RECLAIMED.get();
+	}
+
+	static String dump() {
+		List<Resource> resources = new ArrayList<>();
+		for (Tracked tracked : LIVE)
+			resources.add(tracked.resource);
+		resources.sort(Comparator.comparingInt(r -> r.id));
+		long now = System.currentTimeMillis();
+		StringBuilder sb = new StringBuilder();
+		sb.append(resources.size()).append(" browsers, ").append(openEngines()).append(" engines open, ")
+				.append(reclaimed()).append(" reclaimed");
+		for (Resource r : resources) {
+			sb.append(String.format(Locale.ROOT, "%n  #%d %6d s %-8s %s", r.id, (now - r.created) / 1000,
+					r.engine == null ? "released" : "open", r.url == null ? "-" : r.url));
+		}
+		return sb.toString();
+	}
+}
@@ -1,10 +1,25 @@
 package nl.numworx.stream;
 
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.HierarchyEvent;
+import java.awt.event.HierarchyListener;
 import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.swing.JComponent;
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 import nl.numworx.swingbrowser.api.ConsoleEvent;
 import nl.numworx.swingbrowser.api.SwingBrowser;
@@ -12,27 +27,167 @@ import nl.numworx.swingbrowser.api.SwingBrowserProvider;
 import nl.numworx.swingbrowser.scorm.ConsoleListener;
 import nl.numworx.swingbrowser.scorm.SCORM2004APIInterface;
 
+/**
+ * The page with the Elm app, and the SCORM API it talks to.
+ * <p>
+ * The browser engine is only made once the panel is showing; a page loaded before that is
+ * remembered and loaded then. An engine whose panel has been hidden for {@link #RELEASE_DELAY} ms
+ * is closed, so a hidden panel keeps no more than its flow string and the address of its page.
+ * The engine is made, loaded and closed on the event dispatch thread; only unloading a hidden page and
+ * waiting for its Terminate happen elsewhere.
+ * <p>
+ * The engine and Swing only know a {@link Forwarder}, and the engine's component is only in the panel
+ * while the panel is displayable, so nothing the engine holds leads back here. A panel the host drops
+ * without {@link #destroy()} is then collected, and the {@link BrowserRegistry} closes its engine.
+ */
 public class HTMLBrowser implements SCORM2004APIInterface, ConsoleListener {
     private static final SwingBrowserProvider BROWSER_PROVIDER = new SwingBrowserProvider();
+    private static volatile Supplier<SwingBrowser> engines = () -> BROWSER_PROVIDER.getFactory().newBrowser();
+    static final int RELEASE_DELAY = 30_000;
+    private static volatile int releaseDelay = RELEASE_DELAY;
+    /** Unloads hidden pages and waits for their Terminate, which the event dispatch thread should not. */
+    private static final ExecutorService RELEASER = Executors.newSingleThreadExecutor(task -> {
+    	Thread thread = new Thread(task, "stream-browser-release");
+    	thread.setDaemon(true);
+    	return thread;
+    });
 
     private static final Logger LOG = Logger.getLogger(HTMLBrowser.class.getName());
+    private final JPanel container = new JPanel(new BorderLayout());
+    private final Forwarder forwarder = new Forwarder(this);
+    private final Timer releaseTimer = new Timer(releaseDelay, forwarder);
+    private final BrowserRegistry.Resource resource = BrowserRegistry.register(this);
+    /** Only touched on the event dispatch thread. */
     private SwingBrowser browser;
+    /** The page the panel shows, loaded once the engine is there. */
+    private volatile String url;
     private volatile boolean inited;
     
 
     public HTMLBrowser() {
-    	browser = BROWSER_PROVIDER.getFactory().newBrowser();
-    	browser.setAPI(this);
-    	browser.addConsoleListener(this);
+    	releaseTimer.setRepeats(false);
+    	container.addHierarchyListener(forwarder);
     }
     
+	/**
+	 * Makes the engines of the browsers created from now on, in place of the embedded browser.
+	 */
+	static void setEngineFactory(Supplier<SwingBrowser> factory) {
+		engines = factory;
+	}
+
+	/**
+	 * How long the browsers created from now on keep the engine of a hidden panel, in place of {@link #RELEASE_DELAY} ms.
+	 */
+	static void setReleaseDelay(int millis) {
+		releaseDelay = millis;
+	}
+
+	/**
+	 * Stays the same component for the life of this object; the engine comes and goes inside it.
+	 */
 	public JComponent getBrowserPanel() {
-		return browser.asComponent();
+		return container;
+	}
+
+	/**
+	 * The browsers not destroyed yet: age, whether their engine is open, and the last page they loaded.
+	 */
+	public static String diagnostics() {
+		return BrowserRegistry.dump();
 	}
 
 	public void loadURL(final String url) {
-		  browser.loadURL(url);
+		this.url = url;
+		if (url != null)
+			resource.url = url;
+		onEventThread(() -> loadPage(url));
+	}
+
+	private void loadPage(String page) {
+		if (browser != null)
+			browser.loadURL(page);
+		else if (url != null && container.isShowing())
+			createBrowser();
+	}
+
+	/**
+	 * Runs the task now on the event dispatch thread, or queues it there from any other thread, so that
+	 * a caller unloading the page on the event dispatch thread can wait for Terminate right after.
+	 */
+	private static void onEventThread(Runnable task) {
+		if (SwingUtilities.isEventDispatchThread())
+			task.run();
+		else
+			SwingUtilities.invokeLater(task);
+	}
+
+	private void showingChanged() {
+		if (container.isShowing()) {
+			releaseTimer.stop();
+			if (browser == null && url != null)
+				createBrowser();
+		} else if (browser != null) {
+			releaseTimer.restart();
+		}
+	}
+
+	private void displayabilityChanged() {
+		if (browser == null)
+			return;
+		JComponent component = browser.asComponent();
+		if (!container.isDisplayable())
+			container.remove(component);
+		else if (component.getParent() != container)
+			container.add(component, BorderLayout.CENTER);
+		container.revalidate();
+	}
+
+	private void createBrowser() {
+		browser = engines.get();
+		resource.engine = browser;
+		browser.setAPI(forwarder);
+		browser.addConsoleListener(forwarder);
+		if (container.isDisplayable()) {
+			container.add(browser.asComponent(), BorderLayout.CENTER);
+			container.revalidate();
+		}
+		browser.loadURL(url);
+	}
+
+	/**
+	 * Unloads the page, which stores the flow through SetValue, and closes the engine. The unload and the
+	 * wait for Terminate happen off the event dispatch thread; a panel shown again meanwhile gets its page back.
+	 */
+	private void releaseHidden() {
+		SwingBrowser engine = browser;
+		if (engine == null || container.isShowing())
+			return;
+		RELEASER.execute(() -> {
+			engine.loadURL(null);
+			waitTerminate();
+			SwingUtilities.invokeLater(() -> {
+				if (browser != engine)
+					return;
+				if (container.isShowing())
+					engine.loadURL(url);
+				else
+					closeBrowser();
+			});
+		});
+	}
+
+	private void closeBrowser() {
+		container.remove(browser.asComponent());
+		browser.removeConsoleListener(forwarder);
+		resource.engine = null;
+		try {
+			browser.close();
+		} catch (IOException e) {
+			LOG.log(Level.SEVERE, "destroy browser", e);
 		}
+		browser = null;
+	}
 
 	@Override
 	public synchronized String Initialize(String dummy) {
@@ -42,11 +197,13 @@ public class HTMLBrowser implements SCORM2004APIInterface, ConsoleListener {
 
 	@Override
 	public String Commit(String dummy) {
+		exportTrace();
 		return "true";
 	}
 
 	@Override
 	public synchronized String Terminate(String dummy) {
+		exportTrace();
 		inited = false;
 		notifyAll();
 		return "true";
@@ -65,13 +222,22 @@ public class HTMLBrowser implements SCORM2004APIInterface, ConsoleListener {
 	public String GetValue(String key) {
 		if (StreamInteractiePanel.FLOW.equals(key))
 				return flow;
+		if (StreamInteractiePanel.TRACE.equals(key)) {
+			// asked once per page load: whether this session subscribes to the trace port
+			TraceBuffer buffer = traceBuffer;
+			return Boolean.toString(buffer != null && buffer.startSession());
+		}
 		return "";
 	}
 
 	@Override
 	public String SetValue(String key, String value) {
 		if (StreamInteractiePanel.FLOW.equals(key))
-			flow = value;
+			setFlowFromPage(value);
+		else if (StreamInteractiePanel.LAYOUT.equals(key))
+			setLayout(value);
+		else if (StreamInteractiePanel.TRACE.equals(key))
+			addTrace(value);
 		return "true";
 	}
 
@@ -98,14 +264,95 @@ public class HTMLBrowser implements SCORM2004APIInterface, ConsoleListener {
 		return flow;
 	}
 
-	public void destroy() {
+	private volatile Consumer<String> flowListener;
+
+	/**
+	 * The listener gets every flow the page stores, on the event dispatch thread.
+	 */
+	public void setFlowListener(Consumer<String> listener) {
+		flowListener = listener;
+	}
+
+	private void setFlowFromPage(String value) {
+		flow = value;
+		Consumer<String> listener = flowListener;
+		if (listener != null)
+			SwingUtilities.invokeLater(() -> listener.accept(value));
+	}
+
+	private volatile Dimension layout;
+	private volatile Consumer<Dimension> layoutListener;
+
+	/**
+	 * Size of the drawing as published by the layout port, or null before the first page load.
+	 */
+	public Dimension getLayout() {
+		return layout;
+	}
+
+	/**
+	 * The listener is called on the event dispatch thread.
+	 */
+	public void setLayoutListener(Consumer<Dimension> listener) {
+		layoutListener = listener;
+	}
+
+	private void setLayout(String value) {
+		int comma = value.indexOf(',');
 		try {
-			browser.close();
-		} catch (IOException e) {
-			LOG.log(Level.SEVERE, "destroy browser", e);
+			double w = Double.parseDouble(value.substring(0, comma));
+			double h = Double.parseDouble(value.substring(comma + 1));
+			Dimension size = new Dimension((int) Math.ceil(w), (int) Math.ceil(h) + 1);
+			layout = size;
+			Consumer<Dimension> listener = layoutListener;
+			if (listener != null)
+				SwingUtilities.invokeLater(() -> listener.accept(size));
+		} catch (RuntimeException oops) {
+			LOG.log(Level.WARNING, "layout " + value, oops);
 		}
-		browser = null;
-		
+	}
+
+	private volatile TraceBuffer traceBuffer;
+	private volatile Consumer<List<TraceBuffer.Event>> traceExporter;
+
+	/**
+	 * Traces edits into the buffer; the exporter gets the buffered events on every Commit and Terminate.
+	 * Takes effect on the next page load; a null buffer turns tracing off.
+	 */
+	public void setTrace(TraceBuffer buffer, Consumer<List<TraceBuffer.Event>> exporter) {
+		traceBuffer = buffer;
+		traceExporter = exporter;
+	}
+
+	private void addTrace(String batch) {
+		TraceBuffer buffer = traceBuffer;
+		if (buffer == null)
+			return;
+		try {
+			buffer.addBatch(batch);
+		} catch (RuntimeException oops) {
+			LOG.log(Level.WARNING, "trace " + batch, oops);
+		}
+	}
+
+	private void exportTrace() {
+		TraceBuffer buffer = traceBuffer;
+		Consumer<List<TraceBuffer.Event>> exporter = traceExporter;
+		if (buffer == null || exporter == null)
+			return;
+		List<TraceBuffer.Event> events = buffer.drain();
+		if (!events.isEmpty())
+			exporter.accept(events);
+	}
+
+	public void destroy() {
+		releaseTimer.stop();
+		url = null;
+		onEventThread(() -> {
+			if (browser != null)
+				closeBrowser();
+			BrowserRegistry.unregister(resource);
+		});
 	}
 
 	@Override
@@ -116,5 +363,87 @@ public class HTMLBrowser implements SCORM2004APIInterface, ConsoleListener {
 			System.out.println(event.getMessage());
 	}
 
+	/**
+	 * Passes the calls of the page, of Swing and of the release timer on while the browser is reachable.
+	 */
+	private static final class Forwarder
+			implements SCORM2004APIInterface, ConsoleListener, HierarchyListener, ActionListener {
+		private final WeakReference<HTMLBrowser> target;
+
+		Forwarder(HTMLBrowser browser) {
+			target = new WeakReference<>(browser);
+		}
+
+		@Override
+		public String Initialize(String dummy) {
+			HTMLBrowser browser = target.get();
+			return browser == null ? "false" : browser.Initialize(dummy);
+		}
+
+		@Override
+		public String Commit(String dummy) {
+			HTMLBrowser browser = target.get();
+			return browser == null ? "false" : browser.Commit(dummy);
+		}
+
+		@Override
+		public String Terminate(String dummy) {
+			HTMLBrowser browser = target.get();
+			return browser == null ? "false" : browser.Terminate(dummy);
+		}
+
+		@Override
+		public String GetValue(String key) {
+			HTMLBrowser browser = target.get();
+			return browser == null ? "" : browser.GetValue(key);
+		}
+
+		@Override
+		public String SetValue(String key, String value) {
+			HTMLBrowser browser = target.get();
+			return browser == null ? "false" : browser.SetValue(key, value);
+		}
+
+		@Override
+		public String GetLastError() {
+			return "0";
+		}
+
+		@Override
+		public String GetDiagnostic(String iErrorCode) {
+			return "No Error";
+		}
+
+		@Override
+		public String GetErrorString(String iErrorCode) {
+			return "No Error";
+		}
+
+		@Override
+		public void onConsole(ConsoleEvent event) {
+			HTMLBrowser browser = target.get();
+			if (browser != null)
+				browser.onConsole(event);
+		}
+
+		@Override
+		public void hierarchyChanged(HierarchyEvent e) {
+			HTMLBrowser browser = target.get();
+			if (browser == null)
+				return;
+			if ((e.getChangeFlags() & HierarchyEvent.DISPLAYABILITY_CHANGED) != 0)
+				browser.displayabilityChanged();
+			if ((e.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) != 0)
+				browser.showingChanged();
+		}
+
+		@Override
+		public void actionPerformed(ActionEvent e) {
+			HTMLBrowser browser = target.get();
+			if (browser != null)
+				browser.releaseHidden();
+		}
+	}
+
     
 }
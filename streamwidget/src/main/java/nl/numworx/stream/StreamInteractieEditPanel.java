@@ -13,15 +13,25 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.MessageFormat;
 import java.util.Collections;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.swing.BorderFactory;
 import javax.swing.Box;
 import javax.swing.JComponent;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JSplitPane;
+import javax.swing.JTextArea;
+import javax.swing.Timer;
 import javax.swing.filechooser.FileFilter;
 
 import org.cbook.cbookif.CBookWidgetEditIF;
@@ -34,6 +44,10 @@ import fi.beans.numworxlf.JFormattedTextField;
 import fi.beans.numworxlf.JLabel;
 import fi.beans.numworxlf.JScrollPane;
 import fi.beans.wiskopdrbeans.InteractieEditPanel;
+import nl.numworx.stream.archive.FlowArchive;
+import nl.numworx.stream.archive.FlowArchiveWriter;
+import nl.numworx.stream.flow.FlowJson;
+import nl.numworx.stream.flow.JavaGenerator;
 
 @SuppressWarnings({ "rawtypes", "serial" })
 public class StreamInteractieEditPanel extends JPanel implements InteractieEditPanel, CBookWidgetEditIF, ActionListener {
@@ -44,15 +58,25 @@ public class StreamInteractieEditPanel extends JPanel implements InteractieEditP
 	private static final String NO_TITLE = "noTitle";
 	private static final String WIDTH = "width";
 	private static final String HAS_WIDTH = "hasWidth";
+	private static final String HAS_DETAIL = "hasDetail";
+	/** Milliseconds without edits before the Java preview follows. */
+	private static final int PREVIEW_DELAY = 300;
+	/** Extension of {@link FlowArchive} files, which hold the flows of a whole course. */
+	private static final String ARCHIVE = ".sfa";
+	private static final Logger LOG = Logger.getLogger(StreamInteractieEditPanel.class.getName());
 	int instanceWidth = 600, instanceHeight = 400;
 	private Map<String, ?> launchData  = Collections.emptyMap();
 	private final Stream parent;
 	HTMLBrowser browser;
 	JScrollPane scroll;
+	JTextArea javaPreview;
+	private final JavaGenerator generator = new JavaGenerator();
+	private final Timer previewTimer = new Timer(PREVIEW_DELAY, e -> updatePreview());
+	private String previewedFlow;
 	Box east;
-	JButton open, save;
-	JFormattedTextField maxScore, widgetWidth;
-	JCheckBox readonlyCB, pastHoogteAanCB,noTitleCB, widthCB;
+	JButton open, save, saveAll;
+	JFormattedTextField maxScore, widgetWidth, detail;
+	JCheckBox readonlyCB, pastHoogteAanCB,noTitleCB, widthCB, detailCB;
 	private String  noname = "";
 	
 	
@@ -62,13 +86,24 @@ public class StreamInteractieEditPanel extends JPanel implements InteractieEditP
 		browser = new HTMLBrowser();
 		
 		scroll = new JScrollPane();
-		add(scroll, BorderLayout.CENTER);
 		scroll.setPreferredSize(new Dimension(600,400));
+		javaPreview = new JTextArea();
+		javaPreview.setEditable(false);
+		javaPreview.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+		JScrollPane preview = new JScrollPane();
+		preview.setViewportView(javaPreview);
+		preview.setBorder(BorderFactory.createTitledBorder(stream.getString("javaPreview")));
+		preview.setPreferredSize(new Dimension(300, 400));
+		JSplitPane split = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, scroll, preview);
+		split.setResizeWeight(1);
+		add(split, BorderLayout.CENTER);
+		previewTimer.setRepeats(false);
 		east = Box.createVerticalBox();
 		east.setBorder(BorderFactory.createEmptyBorder(0, 10, 0, 0));
 		east.setPreferredSize(new Dimension(200, 400));
 		open = new JButton(stream.getString("import"));
 		save = new JButton(stream.getString("export"));
+		saveAll = new JButton(stream.getString("exportAll"));
 		maxScore = new JFormattedTextField();
 		maxScore.setColumns(5);
 		maxScore.setValue(0);
@@ -110,6 +145,16 @@ public class StreamInteractieEditPanel extends JPanel implements InteractieEditP
 		widthBox.add(widgetWidth);
 		widthBox.setAlignmentX(LEFT_ALIGNMENT);
 		east.add(widthBox);
+		Box detailBox = Box.createHorizontalBox();
+		detailCB = new JCheckBox(stream.getString(StreamInteractiePanel.DETAIL));
+		detailBox.add(detailCB);
+		detail = new JFormattedTextField();
+		detail.setColumns(3);
+		detail.setValue(1);
+		detail.setMaximumSize(detail.getPreferredSize());
+		detailBox.add(detail);
+		detailBox.setAlignmentX(LEFT_ALIGNMENT);
+		east.add(detailBox);
 		
 		
 		
@@ -120,9 +165,12 @@ public class StreamInteractieEditPanel extends JPanel implements InteractieEditP
 		east.add(Box.createVerticalStrut(10));
 		open.setAlignmentX(0);
 		save.setAlignmentX(0);
+		saveAll.setAlignmentX(0);
 		east.add(open);
 		east.add(Box.createVerticalStrut(5));
 		east.add(save);
+		east.add(Box.createVerticalStrut(5));
+		east.add(saveAll);
 		east.add(Box.createVerticalGlue());
 		add(east, BorderLayout.EAST);
 		scroll.setViewportView(browser.getBrowserPanel());
@@ -132,8 +180,12 @@ public class StreamInteractieEditPanel extends JPanel implements InteractieEditP
 		add(label, BorderLayout.SOUTH);
 		open.addActionListener(this);
 		save.addActionListener(this);
+		saveAll.addActionListener(this);
 		noTitleCB.addItemListener(this::listenNoTitle);
 		widthCB.addItemListener(this::listenWidth);
+		detailCB.addItemListener(this::listenDetail);
+		browser.setLayoutListener(this::listenLayout);
+		browser.setFlowListener(flow -> previewTimer.restart());
 	}
 
 	@Override
@@ -148,6 +200,8 @@ public class StreamInteractieEditPanel extends JPanel implements InteractieEditP
 		state.put(NO_TITLE, noTitleCB.isSelected());
 		state.put(WIDTH, getWidgetWidth());
 		state.put(HAS_WIDTH, widthCB.isSelected());
+		state.put(StreamInteractiePanel.DETAIL, Math.max(0, ((Number) detail.getValue()).intValue()));
+		state.put(HAS_DETAIL, detailCB.isSelected());
 		launchData = state;
 		return state;
 	}
@@ -165,6 +219,7 @@ public class StreamInteractieEditPanel extends JPanel implements InteractieEditP
 	public void start() {
 		String flow = Objects.toString(launchData.get(StreamInteractiePanel.FLOW), parent.getDefaultFlow());
 		browser.setFlow(flow);
+		previewTimer.restart();
 		loadStreamWidget();
 	}
 
@@ -235,13 +290,30 @@ public class StreamInteractieEditPanel extends JPanel implements InteractieEditP
 	@Override
 	public void setInstanceHeight(int h) {
 		instanceHeight = h;
-		browser.getBrowserPanel().setSize(getInstanceSize());
+		resizeBrowser();
 	}
 
 	@Override
 	public void setInstanceWidth(int w) {
 		instanceWidth = w;	
-		browser.getBrowserPanel().setSize(getInstanceSize());
+		resizeBrowser();
+	}
+
+	/**
+	 * The browser is at least the instance size, and grows to the size of the drawing
+	 * so the scroll pane can show all of it.
+	 */
+	private void resizeBrowser() {
+		Dimension size = getInstanceSize();
+		Dimension layout = browser.getLayout();
+		if (layout != null) {
+			size.width = Math.max(size.width, layout.width);
+			size.height = Math.max(size.height, layout.height);
+		}
+		JComponent panel = browser.getBrowserPanel();
+		panel.setPreferredSize(size);
+		panel.setSize(size);
+		scroll.revalidate();
 	}
 
 	@Override
@@ -261,6 +333,12 @@ public class StreamInteractieEditPanel extends JPanel implements InteractieEditP
 		}
 		widthCB.setSelected(Boolean.TRUE.equals(map.get(HAS_WIDTH)));
 		widgetWidth.setVisible(widthCB.isSelected());
+		if (map.containsKey(StreamInteractiePanel.DETAIL))
+			detail.setValue(map.get(StreamInteractiePanel.DETAIL));
+		else
+			detail.setValue(1);
+		detailCB.setSelected(Boolean.TRUE.equals(map.get(HAS_DETAIL)));
+		detail.setVisible(detailCB.isSelected());
 		pastHoogteAanCB.setSelected(Boolean.TRUE.equals(map.get(PAS_AAN_H)));
 		readonlyCB.setSelected(Boolean.TRUE.equals(map.get(READONLY)));
 		noTitleCB.setSelected(Boolean.TRUE.equals(map.get(NO_TITLE)));
@@ -287,7 +365,18 @@ public class StreamInteractieEditPanel extends JPanel implements InteractieEditP
 				
 			};
 			chooser.addChoosableFileFilter(filter);
-			
+			chooser.addChoosableFileFilter(new FileFilter() {
+
+				@Override
+				public boolean accept(File f) {
+					return f.getName().endsWith(ARCHIVE) || f.isDirectory();
+				}
+
+				@Override
+				public String getDescription() {
+					return "Flow archives";
+				}
+			});
 		}
 		return chooser;
 	}
@@ -295,10 +384,15 @@ public class StreamInteractieEditPanel extends JPanel implements InteractieEditP
 	@Override
 	public void actionPerformed(ActionEvent e) {
 		if (e.getSource() == save) {
+			getChooser().setMultiSelectionEnabled(false);
 			int result = getChooser().showSaveDialog(this);
 			if (result == JFileChooser.APPROVE_OPTION) {
 				File output = getChooser().getSelectedFile();
 				String json = browser.getFlow();
+				if (output.getName().endsWith(ARCHIVE)) {
+					exportToArchive(output, json);
+					return;
+				}
 				try (FileOutputStream out = new FileOutputStream(output)) {
 					OutputStreamWriter writer = new OutputStreamWriter(out, "UTF-8");
 					writer.write(json);
@@ -308,10 +402,24 @@ public class StreamInteractieEditPanel extends JPanel implements InteractieEditP
 			}
 			return;
 		}
+		if (e.getSource() == saveAll) {
+			exportAll();
+			return;
+		}
 		if (e.getSource() == open) {
+			getChooser().setMultiSelectionEnabled(true);
 			int result = getChooser().showOpenDialog(this);
 			if (result == JFileChooser.APPROVE_OPTION) {
+				File[] inputs = getChooser().getSelectedFiles();
+				if (inputs.length > 1) {
+					importAll(inputs);
+					return;
+				}
 				File input = getChooser().getSelectedFile();
+				if (input.getName().endsWith(ARCHIVE)) {
+					importFromArchive(input);
+					return;
+				}
 				try (FileInputStream in = new FileInputStream(input)) {
 					InputStreamReader reader = new InputStreamReader(in, "UTF-8");
 					int length = in.available();
@@ -321,6 +429,7 @@ public class StreamInteractieEditPanel extends JPanel implements InteractieEditP
 					browser.waitTerminate();
 					buffer.flip();
 					browser.setFlow(buffer.toString());
+					previewTimer.restart();
 					loadStreamWidget();
 				} catch (IOException ioe) {
 					
@@ -329,14 +438,146 @@ public class StreamInteractieEditPanel extends JPanel implements InteractieEditP
 		}
 	}
 
+	/**
+	 * Adds the flow to the archive under a name the author picks, replacing a flow of that name.
+	 */
+	private void exportToArchive(File output, String json) {
+		String name;
+		try {
+			name = FlowJson.read(json).getName() + ".json";
+		} catch (RuntimeException oops) {
+			name = "flowchart.json";
+		}
+		name = JOptionPane.showInputDialog(this, parent.getString("archiveEntry"), name);
+		if (name == null || name.trim().isEmpty())
+			return;
+		try {
+			FlowArchiveWriter.put(output.toPath(), name.trim(), json);
+		} catch (IOException | RuntimeException oops) {
+			LOG.log(Level.WARNING, "export to " + output, oops);
+		}
+	}
+
+	/**
+	 * Opens one flow of the archive; only that entry is read.
+	 */
+	private void importFromArchive(File input) {
+		try (FlowArchive archive = FlowArchive.open(input.toPath())) {
+			if (archive.size() == 0)
+				return;
+			String name = archive.getName(0);
+			if (archive.size() > 1) {
+				Object[] names = archive.names().toArray();
+				name = (String) JOptionPane.showInputDialog(this, parent.getString("archiveEntry"), input.getName(),
+						JOptionPane.QUESTION_MESSAGE, null, names, names[0]);
+				if (name == null)
+					return;
+			}
+			String flow = archive.get(name);
+			browser.loadURL(null);
+			browser.waitTerminate();
+			browser.setFlow(flow);
+			previewTimer.restart();
+			loadStreamWidget();
+		} catch (IOException oops) {
+			LOG.log(Level.WARNING, "import from " + input, oops);
+		}
+	}
+
+	/**
+	 * Packs the chosen flow documents into an archive the author picks, next to the flows already in it.
+	 * Entries are named as by {@link FlowArchive#pack}; archives among the files are left out.
+	 */
+	private void importAll(File[] inputs) {
+		JFileChooser chooser = getChooser();
+		chooser.setMultiSelectionEnabled(false);
+		chooser.setSelectedFile(new File(inputs[0].getParentFile(), "flows" + ARCHIVE));
+		if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION)
+			return;
+		File output = chooser.getSelectedFile();
+		if (!output.getName().endsWith(ARCHIVE))
+			output = new File(output.getPath() + ARCHIVE);
+		Map<String, String> flows = new LinkedHashMap<>();
+		try {
+			for (File input : inputs) {
+				if (input.getName().endsWith(ARCHIVE))
+					continue;
+				String document = new String(Files.readAllBytes(input.toPath()), StandardCharsets.UTF_8);
+				flows.putAll(FlowArchive.entries(input.getName(), document));
+			}
+			FlowArchiveWriter.put(output.toPath(), flows);
+		} catch (IOException | RuntimeException oops) {
+			LOG.log(Level.WARNING, "import into " + output, oops);
+			return;
+		}
+		JOptionPane.showMessageDialog(this, MessageFormat.format(parent.getString("archived"), flows.size(), output.getName()));
+	}
+
+	/**
+	 * Writes every flow of an archive the author picks as a JSON file in a directory, as {@link FlowArchive#unpack}.
+	 */
+	private void exportAll() {
+		JFileChooser chooser = getChooser();
+		chooser.setMultiSelectionEnabled(false);
+		if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION)
+			return;
+		File archive = chooser.getSelectedFile();
+		JFileChooser directories = new JFileChooser();
+		directories.setCurrentDirectory(archive.getParentFile());
+		directories.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+		if (directories.showSaveDialog(this) != JFileChooser.APPROVE_OPTION)
+			return;
+		File directory = directories.getSelectedFile();
+		int count;
+		try {
+			count = FlowArchive.unpack(archive.toPath(), directory.toPath());
+		} catch (IOException | RuntimeException oops) {
+			LOG.log(Level.WARNING, "export from " + archive, oops);
+			return;
+		}
+		JOptionPane.showMessageDialog(this, MessageFormat.format(parent.getString("archived"), count, directory.getName()));
+	}
+
+	/**
+	 * Shows the Java of the latest flow; only the boxes changed since the last time are generated again.
+	 */
+	private void updatePreview() {
+		String flow = browser.getFlow();
+		if (flow == null || flow.equals(previewedFlow))
+			return;
+		previewedFlow = flow;
+		String java;
+		try {
+			java = generator.generate(FlowJson.read(flow));
+		} catch (RuntimeException oops) {
+			LOG.log(Level.FINE, "java preview", oops);
+			return;
+		}
+		if (java.equals(javaPreview.getText()))
+			return;
+		int caret = javaPreview.getCaretPosition();
+		javaPreview.setText(java);
+		javaPreview.setCaretPosition(Math.min(caret, java.length()));
+	}
+
 	private void listenNoTitle(ItemEvent itemevent1) {
 		startNoName();
 	}
 
+	private void listenLayout(Dimension layout) {
+		resizeBrowser();
+	}
+
 	private void listenWidth(ItemEvent ev) {
 		widgetWidth.setVisible(ev.getStateChange() == ItemEvent.SELECTED);
 		widgetWidth.invalidate();
 		validate();
 	}
 
+	private void listenDetail(ItemEvent ev) {
+		detail.setVisible(ev.getStateChange() == ItemEvent.SELECTED);
+		detail.invalidate();
+		validate();
+	}
+
 }
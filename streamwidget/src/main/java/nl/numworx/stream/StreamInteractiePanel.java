@@ -2,9 +2,13 @@ package nl.numworx.stream;
 
 import java.awt.BorderLayout;
 import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.StringJoiner;
 import java.util.logging.Logger;
 
 import javax.swing.JComponent;
@@ -24,6 +28,14 @@ import fi.beans.wiskopdrbeans.InteractiePanel;
 public class StreamInteractiePanel extends JPanel implements InteractiePanel, CBookWidgetInstanceIF, CBookEventListener {
 
 	public static final String FLOW = "flowchart";
+	public static final String LAYOUT = "layout";
+	/** SCORM key of the edit trace, see {@link TraceBuffer}. */
+	public static final String TRACE = "trace";
+	/** Launch data: percentage of the sessions whose edits are traced. */
+	static final String TRACE_PERCENT = "tracePercent";
+	/** Launch data: nesting depth from which If, While and ForEach boxes are drawn as a summary. */
+	static final String DETAIL = "detail";
+	private static final int TRACE_CAPACITY = 4096;
 	private static final Logger LOG = Logger.getLogger(StreamInteractiePanel.class.getName());
 	private final CBookEventHandler handler = new CBookEventHandler(this);
 	
@@ -192,13 +204,44 @@ public class StreamInteractiePanel extends JPanel implements InteractiePanel, CB
 		browser.loadURL(null);
 		browser.waitTerminate();
 		String flow = Objects.toString(launchdata.get(FLOW), parent.getDefaultFlow());
+		Object tracePercent = launchdata.get(TRACE_PERCENT);
+		if (tracePercent instanceof Number && ((Number) tracePercent).doubleValue() > 0) {
+			TraceBuffer buffer = new TraceBuffer(TRACE_CAPACITY, ((Number) tracePercent).doubleValue() / 100);
+			browser.setTrace(buffer, events -> exportTrace(buffer, events));
+		} else {
+			browser.setTrace(null, null);
+		}
 		boolean noTitle = Boolean.TRUE.equals(launchdata.get("noTitle"));
-		String noname = noTitle ? "#noname": "";
+		boolean readonly = Boolean.TRUE.equals(launchdata.get("readonly"));
+		// classes for #outer, separated by dots; readonly also makes the page load the viewer
+		List<String> classes = new ArrayList<>();
+		if (noTitle)
+			classes.add("noname");
+		if (readonly)
+			classes.add("readonly");
+		Object detail = launchdata.get(DETAIL);
+		if (Boolean.TRUE.equals(launchdata.get("hasDetail")) && detail instanceof Number)
+			classes.add(DETAIL + Math.max(0, ((Number) detail).intValue()));
+		String hash = classes.isEmpty() ? "" : "#" + String.join(".", classes);
 		browser.setFlow(flow);
-		browser.loadURL(parent.getBase().resolve("StreamWidget.html" + noname).toString());
+		browser.loadURL(parent.getBase().resolve("StreamWidget.html" + hash).toString());
 		
 	}
 
+	/**
+	 * Hands the traced edits to the host in one "trace" event, as StreamGWT does: the events as a JSON
+	 * array of <code>[time, kind, id, detail]</code> and the number dropped so far.
+	 */
+	private void exportTrace(TraceBuffer buffer, List<TraceBuffer.Event> events) {
+		StringJoiner json = new StringJoiner(",", "[", "]");
+		for (TraceBuffer.Event event : events)
+			json.add(event.toString());
+		Map<String, Object> h = new HashMap<>();
+		h.put("dropped", buffer.getDropped());
+		h.put("events", json.toString());
+		handler.fire(TRACE, h);
+	}
+
 	@Override
 	public void setState(Map<String, ?> arg0) {		
 	}
@@ -0,0 +1,149 @@
+package nl.numworx.stream;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import nl.numworx.stream.flow.Json;
+
+/**
+ * Bounded ring of edit events from the <code>trace</code> port. When full, the oldest events are
+ * overwritten and counted as dropped.
+ * <p>
+ * Sampling is per session, not per event, so a traced session keeps the whole sequence of its edits:
+ * {@link #startSession} decides whether the next page load is traced at all.
+ */
+public final class TraceBuffer {
+
+	/**
+	 * One edit. Kind, id and detail are as in <code>Tree.State.traceEvent</code>.
+	 */
+	public static final class Event {
+		private final long time;
+		private final String kind;
+		private final int id;
+		private final Object detail;
+
+		Event(long time, String kind, int id, Object detail) {
+			this.time = time;
+			this.kind = kind;
+			this.id = id;
+			this.detail = detail;
+		}
+
+		/**
+		 * Milliseconds since the epoch, from the browser's clock.
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		public String getKind() {
+			return kind;
+		}
+
+		public int getId() {
+			return id;
+		}
+
+		/**
+		 * Node type, tree operation or content length, or null.
+		 */
+		public Object getDetail() {
+			return detail;
+		}
+
+		@Override
+		public String toString() {
+			List<Object> array = new ArrayList<>(4);
+			Collections.addAll(array, time, kind, (long) id, detail);
+			return Json.write(array, 0);
+		}
+	}
+
+	private final Event[] ring;
+	private final double sampleRate;
+	private int start;
+	private int size;
+	private long dropped;
+	private boolean sampled;
+
+	/**
+	 * @param sampleRate fraction of the sessions that is traced, 0 turns tracing off
+	 */
+	public TraceBuffer(int capacity, double sampleRate) {
+		this.ring = new Event[capacity];
+		this.sampleRate = sampleRate;
+	}
+
+	/**
+	 * Decides whether the session that starts now is traced. Returns the decision.
+	 */
+	public synchronized boolean startSession() {
+		sampled = sampleRate > 0 && Math.random() < sampleRate;
+		return sampled;
+	}
+
+	public synchronized boolean isSampled() {
+		return sampled;
+	}
+
+	/**
+	 * Adds a batch as sent by StreamWidget.html: <code>{"t0": ms, "e": [[dt, kind, id, detail], ...]}</code>.
+	 * Ignored when the session is not sampled.
+	 */
+	@SuppressWarnings("unchecked")
+	public void addBatch(String json) {
+		if (!isSampled())
+			return;
+		Map<String, Object> batch = Json.parseObject(json);
+		long t0 = ((Number) batch.get("t0")).longValue();
+		List<Event> events = new ArrayList<>();
+		for (Object e : (List<Object>) batch.get("e")) {
+			List<Object> a = (List<Object>) e;
+			events.add(new Event(t0 + ((Number) a.get(0)).longValue(), (String) a.get(1),
+					((Number) a.get(2)).intValue(), a.get(3)));
+		}
+		synchronized (this) {
+			for (Event event : events)
+				add(event);
+		}
+	}
+
+	private void add(Event event) {
+		if (ring.length == 0) {
+			dropped++;
+			return;
+		}
+		if (size == ring.length) {
+			ring[start] = event;
+			start = (start + 1) % ring.length;
+			dropped++;
+		} else {
+			ring[(start + size++) % ring.length] = event;
+		}
+	}
+
+	/**
+	 * Takes out all buffered events, oldest first.
+	 */
+	public synchronized List<Event> drain() {
+		List<Event> events = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			int j = (start + i) % ring.length;
+			events.add(ring[j]);
+			ring[j] = null;
+		}
+		start = 0;
+		size = 0;
+		return events;
+	}
+
+	/**
+	 * Events overwritten before they were drained, since the buffer was made.
+	 */
+	public synchronized long getDropped() {
+		return dropped;
+	}
+}
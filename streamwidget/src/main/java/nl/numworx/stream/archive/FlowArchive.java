@@ -0,0 +1,347 @@
+package nl.numworx.stream.archive;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import nl.numworx.stream.flow.FlowJson;
+
+/**
+ * Many flows in one file, each deflated on its own, read through a memory map.
+ * <p>
+ * The file starts with a header that points to the index at the end: a hash table of the entry
+ * names, the offsets of the entry records, and the records themselves (where the data is, its
+ * stored and inflated length, CRC and name). Finding an entry reads one slot and, barring collisions,
+ * one record, whatever the size of the archive; only the entry asked for is inflated.
+ * All numbers are big-endian.
+ * <pre>
+ * header   magic "SFAR", format, entries, slots, index offset (long), reserved (long)
+ * data     deflated entries
+ * index    slots x (entry + 1, 0 is free) | entries x record offset | records
+ * record   data offset (long), stored length, length, CRC-32, name length (short), UTF-8 name
+ * </pre>
+ * Written by {@link FlowArchiveWriter}. Archives are limited to 2 GB, the most one map can hold.
+ * <pre>
+ * java nl.numworx.stream.archive.FlowArchive pack directory archive | unpack archive directory | list archive | get archive name
+ * </pre>
+ */
+public final class FlowArchive implements Closeable {
+
+	static final int MAGIC = 0x53464152; // SFAR
+	static final int FORMAT = 1;
+	static final int HEADER = 32;
+	/** Largest archive, the most one map can hold. */
+	static final long LIMIT = Integer.MAX_VALUE;
+	/** Name that is not in the archive. */
+	static final int NONE = -1;
+
+	private final FileChannel channel;
+	private final boolean mapped;
+	/** The whole file, or only the index when not mapped. */
+	private final ByteBuffer map;
+	private final int count;
+	private final int slots;
+	private final int slotTable;
+	private final int offsetTable;
+	private final int records;
+
+	private FlowArchive(FileChannel channel, boolean mapped) throws IOException {
+		this.channel = channel;
+		this.mapped = mapped;
+		long size = channel.size();
+		if (size > LIMIT)
+			throw new IOException("archive over 2 GB");
+		if (size < HEADER)
+			throw new IOException("not a flow archive");
+		ByteBuffer header = mapped ? channel.map(FileChannel.MapMode.READ_ONLY, 0, size) : read(channel, 0, HEADER);
+		if (header.getInt(0) != MAGIC)
+			throw new IOException("not a flow archive");
+		if (header.getInt(4) != FORMAT)
+			throw new IOException("flow archive format " + header.getInt(4));
+		count = header.getInt(8);
+		slots = header.getInt(12);
+		long index = header.getLong(16);
+		if (index < HEADER || index + 4L * (slots + count) > size || Integer.bitCount(slots) != 1)
+			throw new IOException("damaged flow archive");
+		// without the map only the index is kept, and positions in it count from its start
+		int base = mapped ? 0 : (int) index;
+		map = mapped ? header : read(channel, index, (int) (size - index));
+		slotTable = (int) index - base;
+		offsetTable = slotTable + 4 * slots;
+		records = offsetTable + 4 * count;
+	}
+
+	public static FlowArchive open(Path file) throws IOException {
+		return open(file, true);
+	}
+
+	/**
+	 * Opens the archive without a memory map: the index is read into memory and the entries from the
+	 * file as they are asked for. Nothing holds on to the file once it is closed, which Windows needs
+	 * before the file can be replaced; a map stays until it is collected.
+	 */
+	static FlowArchive read(Path file) throws IOException {
+		return open(file, false);
+	}
+
+	private static FlowArchive open(Path file, boolean mapped) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			return new FlowArchive(channel, mapped);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private static ByteBuffer read(FileChannel channel, long at, int length) throws IOException {
+		ByteBuffer bytes = ByteBuffer.allocate(length);
+		while (bytes.hasRemaining()) {
+			if (channel.read(bytes, at + bytes.position()) < 0)
+				throw new IOException("damaged flow archive");
+		}
+		bytes.flip();
+		return bytes;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 3 && args[0].equals("pack")) {
+			pack(Paths.get(args[1]), Paths.get(args[2]));
+		} else if (args.length == 3 && args[0].equals("unpack")) {
+			unpack(Paths.get(args[1]), Paths.get(args[2]));
+		} else if (args.length == 2 && args[0].equals("list")) {
+			try (FlowArchive archive = open(Paths.get(args[1]))) {
+				for (int i = 0; i < archive.size(); i++)
+					System.out.println(archive.getLength(i) + "\t" + archive.getName(i));
+			}
+		} else if (args.length == 3 && args[0].equals("get")) {
+			try (FlowArchive archive = open(Paths.get(args[1]))) {
+				String flow = archive.get(args[2]);
+				if (flow == null) {
+					System.err.println("no " + args[2]);
+					System.exit(1);
+				}
+				System.out.println(flow);
+			}
+		} else {
+			System.err.println("usage: FlowArchive pack directory archive | unpack archive directory | list archive | get archive name");
+			System.exit(2);
+		}
+	}
+
+	/**
+	 * Puts the flows of the <code>.json</code> files under the directory in an archive. A file with one flow
+	 * is stored under its relative path, with more flows as <code>path#1</code>, <code>path#2</code> and so on.
+	 */
+	public static int pack(Path directory, Path archive) throws IOException {
+		int files = 0;
+		try (FlowArchiveWriter writer = FlowArchiveWriter.create(archive);
+				Stream<Path> walk = Files.walk(directory)) {
+			for (Path file : (Iterable<Path>) walk.sorted()::iterator) {
+				if (!Files.isRegularFile(file) || !file.toString().endsWith(".json"))
+					continue;
+				String name = directory.relativize(file).toString().replace('\\', '/');
+				for (Map.Entry<String, String> flow : entries(name, new String(Files.readAllBytes(file), StandardCharsets.UTF_8)).entrySet())
+					writer.add(flow.getKey(), flow.getValue());
+				files++;
+			}
+			System.err.println(files + " files, " + writer.size() + " flows");
+			return writer.size();
+		}
+	}
+
+	/**
+	 * The flows of a flow document by the names they get in an archive: the name itself for one flow,
+	 * <code>name#1</code>, <code>name#2</code> and so on for more.
+	 */
+	public static Map<String, String> entries(String name, String document) {
+		List<String> flows = FlowJson.embedded(document);
+		Map<String, String> entries = new LinkedHashMap<>();
+		if (flows.size() == 1) {
+			entries.put(name, flows.get(0));
+		} else {
+			for (int i = 0; i < flows.size(); i++)
+				entries.put(name + "#" + (i + 1), flows.get(i));
+		}
+		return entries;
+	}
+
+	/**
+	 * Writes every entry as a flow document of its own; <code>#</code> in a name becomes <code>-</code>.
+	 */
+	public static int unpack(Path archive, Path directory) throws IOException {
+		try (FlowArchive in = open(archive)) {
+			for (int i = 0; i < in.size(); i++) {
+				String name = in.getName(i).replace('#', '-');
+				if (!name.endsWith(".json"))
+					name += ".json";
+				Path file = directory.resolve(name).normalize();
+				if (!file.startsWith(directory.normalize()))
+					throw new IOException("entry outside the directory: " + in.getName(i));
+				Files.createDirectories(file.getParent());
+				Files.write(file, in.get(i).getBytes(StandardCharsets.UTF_8));
+			}
+			System.err.println(in.size() + " flows");
+			return in.size();
+		}
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public boolean contains(String name) {
+		return find(name) != NONE;
+	}
+
+	/**
+	 * The flow stored under the name, or null.
+	 */
+	public String get(String name) throws IOException {
+		int entry = find(name);
+		return entry == NONE ? null : get(entry);
+	}
+
+	public String get(int entry) throws IOException {
+		return new String(inflate(entry), StandardCharsets.UTF_8);
+	}
+
+	public String getName(int entry) {
+		int record = record(entry);
+		int length = map.getShort(record + 20) & 0xFFFF;
+		return new String(bytes(record + 22, length), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Inflated length in bytes.
+	 */
+	public int getLength(int entry) {
+		return map.getInt(record(entry) + 12);
+	}
+
+	/**
+	 * The names in the order they were written, read as they are asked for.
+	 */
+	public List<String> names() {
+		return new AbstractList<String>() {
+			@Override
+			public String get(int index) {
+				return getName(index);
+			}
+
+			@Override
+			public int size() {
+				return count;
+			}
+		};
+	}
+
+	/**
+	 * The entry as stored, for copying it into another archive without inflating it.
+	 */
+	byte[] raw(int entry) throws IOException {
+		int record = record(entry);
+		long offset = map.getLong(record);
+		int stored = map.getInt(record + 8);
+		return mapped ? bytes((int) offset, stored) : read(channel, offset, stored).array();
+	}
+
+	int getCrc(int entry) {
+		return map.getInt(record(entry) + 16);
+	}
+
+	int find(String name) {
+		byte[] key = name.getBytes(StandardCharsets.UTF_8);
+		int mask = slots - 1;
+		for (int slot = hash(key) & mask, probes = 0; probes < slots; slot = (slot + 1) & mask, probes++) {
+			int entry = map.getInt(slotTable + 4 * slot) - 1;
+			if (entry == NONE)
+				return NONE;
+			if (nameEquals(record(entry), key))
+				return entry;
+		}
+		return NONE;
+	}
+
+	private boolean nameEquals(int record, byte[] key) {
+		if ((map.getShort(record + 20) & 0xFFFF) != key.length)
+			return false;
+		for (int i = 0; i < key.length; i++)
+			if (map.get(record + 22 + i) != key[i])
+				return false;
+		return true;
+	}
+
+	private int record(int entry) {
+		if (entry < 0 || entry >= count)
+			throw new IndexOutOfBoundsException("entry " + entry + " of " + count);
+		return records + map.getInt(offsetTable + 4 * entry);
+	}
+
+	private byte[] bytes(int position, int length) {
+		ByteBuffer view = map.duplicate();
+		view.position(position);
+		byte[] bytes = new byte[length];
+		view.get(bytes);
+		return bytes;
+	}
+
+	private byte[] inflate(int entry) throws IOException {
+		int record = record(entry);
+		byte[] out = new byte[map.getInt(record + 12)];
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(raw(entry));
+			int n = 0;
+			while (n < out.length && !inflater.finished()) {
+				int k = inflater.inflate(out, n, out.length - n);
+				if (k == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					break;
+				n += k;
+			}
+			if (n != out.length || !inflater.finished())
+				throw new IOException("damaged entry " + getName(entry));
+		} catch (DataFormatException e) {
+			throw new IOException("damaged entry " + getName(entry), e);
+		} finally {
+			inflater.end();
+		}
+		CRC32 crc = new CRC32();
+		crc.update(out);
+		if ((int) crc.getValue() != map.getInt(record + 16))
+			throw new IOException("checksum of entry " + getName(entry));
+		return out;
+	}
+
+	/**
+	 * The 31-polynomial of the UTF-8 name, as String.hashCode, with the high bits folded in.
+	 */
+	static int hash(byte[] name) {
+		int h = 0;
+		for (byte b : name)
+			h = 31 * h + b;
+		return h ^ h >>> 16;
+	}
+
+	/**
+	 * Closes the file; the map goes when it is collected.
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,210 @@
+package nl.numworx.stream.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a {@link FlowArchive}. Entries are deflated and appended as they are added; the index is
+ * written on {@link #close()}, which then puts the archive in place atomically.
+ */
+public final class FlowArchiveWriter implements Closeable {
+
+	private static final class Entry {
+		final byte[] name;
+		final long offset;
+		final int stored;
+		final int length;
+		final int crc;
+
+		Entry(byte[] name, long offset, int stored, int length, int crc) {
+			this.name = name;
+			this.offset = offset;
+			this.stored = stored;
+			this.length = length;
+			this.crc = crc;
+		}
+	}
+
+	private final Path file;
+	private final Path tmp;
+	private final FileChannel channel;
+	private final Deflater deflater = new Deflater();
+	private final byte[] buffer = new byte[8192];
+	private final List<Entry> entries = new ArrayList<>();
+	private final Set<String> names = new HashSet<>();
+	private long position = FlowArchive.HEADER;
+	private boolean closed;
+
+	private FlowArchiveWriter(Path file) throws IOException {
+		this.file = file;
+		this.tmp = file.resolveSibling(file.getFileName() + ".saving");
+		this.channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE);
+	}
+
+	public static FlowArchiveWriter create(Path file) throws IOException {
+		return new FlowArchiveWriter(file);
+	}
+
+	/**
+	 * Stores the flow under the name in the archive, which is made when it does not exist.
+	 */
+	public static void put(Path archive, String name, String flow) throws IOException {
+		put(archive, Collections.singletonMap(name, flow));
+	}
+
+	/**
+	 * Stores the flows under their names in the archive, which is made when it does not exist. The other
+	 * entries are copied as they are stored, read from the file rather than a map so the old archive
+	 * can be replaced on Windows.
+	 */
+	public static void put(Path archive, Map<String, String> flows) throws IOException {
+		FlowArchiveWriter writer = create(archive);
+		try {
+			if (Files.exists(archive)) {
+				try (FlowArchive old = FlowArchive.read(archive)) {
+					for (int i = 0; i < old.size(); i++) {
+						if (!flows.containsKey(old.getName(i)))
+							writer.copy(old, i);
+					}
+				}
+			}
+			for (Map.Entry<String, String> flow : flows.entrySet())
+				writer.add(flow.getKey(), flow.getValue());
+		} catch (IOException | RuntimeException e) {
+			writer.discard();
+			throw e;
+		}
+		writer.close();
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public boolean contains(String name) {
+		return names.contains(name);
+	}
+
+	public void add(String name, String flow) throws IOException {
+		byte[] data = flow.getBytes(StandardCharsets.UTF_8);
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		deflater.reset();
+		deflater.setInput(data);
+		deflater.finish();
+		ByteArrayOutputStream stored = new ByteArrayOutputStream(data.length / 4 + 64);
+		while (!deflater.finished()) {
+			int n = deflater.deflate(buffer);
+			stored.write(buffer, 0, n);
+		}
+		append(name, stored.toByteArray(), data.length, (int) crc.getValue());
+	}
+
+	/**
+	 * Copies an entry of another archive as it is stored, without inflating and deflating it again.
+	 */
+	public void copy(FlowArchive from, int entry) throws IOException {
+		append(from.getName(entry), from.raw(entry), from.getLength(entry), from.getCrc(entry));
+	}
+
+	private void append(String name, byte[] stored, int length, int crc) throws IOException {
+		if (closed)
+			throw new IllegalStateException("archive closed");
+		byte[] key = name.getBytes(StandardCharsets.UTF_8);
+		if (key.length > 0xFFFF)
+			throw new IllegalArgumentException("name too long: " + name);
+		if (position + stored.length > FlowArchive.LIMIT)
+			throw new IOException("archive over 2 GB at " + name);
+		if (!names.add(name))
+			throw new IllegalArgumentException("twice in the archive: " + name);
+		write(ByteBuffer.wrap(stored), position);
+		entries.add(new Entry(key, position, stored.length, length, crc));
+		position += stored.length;
+	}
+
+	private void write(ByteBuffer bytes, long at) throws IOException {
+		while (bytes.hasRemaining())
+			at += channel.write(bytes, at);
+	}
+
+	/**
+	 * Stops without touching the archive.
+	 */
+	public void discard() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		deflater.end();
+		channel.close();
+		Files.deleteIfExists(tmp);
+	}
+
+	/**
+	 * Writes the index and the header and moves the archive in place.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		deflater.end();
+		try {
+			int count = entries.size();
+			// at most half full, so probes stay short
+			int slots = Integer.highestOneBit(Math.max(2 * count, 8) - 1) << 1;
+			int recordBytes = 0;
+			for (Entry e : entries)
+				recordBytes += 22 + e.name.length;
+			ByteBuffer index = ByteBuffer.allocate(4 * (slots + count) + recordBytes);
+			int mask = slots - 1;
+			for (int i = 0; i < count; i++) {
+				int slot = FlowArchive.hash(entries.get(i).name) & mask;
+				while (index.getInt(4 * slot) != 0)
+					slot = (slot + 1) & mask;
+				index.putInt(4 * slot, i + 1);
+			}
+			index.position(4 * slots);
+			int offset = 0;
+			for (Entry e : entries) {
+				index.putInt(offset);
+				offset += 22 + e.name.length;
+			}
+			for (Entry e : entries) {
+				index.putLong(e.offset).putInt(e.stored).putInt(e.length).putInt(e.crc);
+				index.putShort((short) e.name.length).put(e.name);
+			}
+			index.flip();
+			if (position + index.limit() > FlowArchive.LIMIT) {
+				channel.close();
+				Files.deleteIfExists(tmp);
+				throw new IOException("archive over 2 GB");
+			}
+			write(index, position);
+			ByteBuffer header = ByteBuffer.allocate(FlowArchive.HEADER);
+			header.putInt(FlowArchive.MAGIC).putInt(FlowArchive.FORMAT).putInt(count).putInt(slots).putLong(position);
+			header.putLong(0).flip();
+			write(header, 0);
+			channel.force(false);
+		} finally {
+			channel.close();
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
@@ -0,0 +1,220 @@
+package nl.numworx.stream.flow;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Brings stored flows to the current schema version of {@link FlowMigrations}.
+ * <p>
+ * Walks a directory of <code>.json</code> files with stored launch or suspend data. Every string
+ * under a <code>flowchart</code> key is migrated; a file that is itself a flow document is migrated
+ * as a whole. Files are processed in parallel and replaced atomically.
+ * Finished files are appended to a checkpoint file, so an interrupted run continues where it stopped.
+ * <pre>
+ * java nl.numworx.stream.flow.BulkMigrate [--dry-run] [--threads n] [--checkpoint file] directory
+ * </pre>
+ */
+public final class BulkMigrate {
+
+	private static final String FLOWCHART = "flowchart";
+
+	private final Path root;
+	private final boolean dryRun;
+	private final int threads;
+	private final Path checkpoint;
+
+	private final AtomicInteger migrated = new AtomicInteger();
+	private final AtomicInteger unchanged = new AtomicInteger();
+	private final AtomicInteger skipped = new AtomicInteger();
+	private final List<String> failed = Collections.synchronizedList(new ArrayList<>());
+	private BufferedWriter checkpointWriter;
+
+	public BulkMigrate(Path root, boolean dryRun, int threads, Path checkpoint) {
+		this.root = root;
+		this.dryRun = dryRun;
+		this.threads = threads;
+		this.checkpoint = checkpoint;
+	}
+
+	public static void main(String[] args) throws Exception {
+		boolean dryRun = false;
+		int threads = Runtime.getRuntime().availableProcessors();
+		Path checkpoint = null;
+		Path root = null;
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "--dry-run":
+				dryRun = true;
+				break;
+			case "--threads":
+				threads = Integer.parseInt(args[++i]);
+				break;
+			case "--checkpoint":
+				checkpoint = Paths.get(args[++i]);
+				break;
+			default:
+				root = Paths.get(args[i]);
+			}
+		}
+		if (root == null) {
+			System.err.println("usage: BulkMigrate [--dry-run] [--threads n] [--checkpoint file] directory");
+			System.exit(2);
+		}
+		if (checkpoint == null)
+			checkpoint = root.resolve(".migrate-checkpoint");
+		BulkMigrate run = new BulkMigrate(root, dryRun, threads, checkpoint);
+		run.run();
+		System.out.println(run.summary());
+		System.exit(run.failed.isEmpty() ? 0 : 1);
+	}
+
+	public void run() throws IOException, InterruptedException {
+		Set<String> done = readCheckpoint();
+		if (!dryRun)
+			checkpointWriter = Files.newBufferedWriter(checkpoint, StandardCharsets.UTF_8,
+					StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		// bounds the files in flight, the walk would otherwise queue the whole corpus
+		Semaphore inFlight = new Semaphore(threads * 4);
+		try (Stream<Path> files = Files.walk(root)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				if (!Files.isRegularFile(file) || !file.toString().endsWith(".json"))
+					continue;
+				String name = root.relativize(file).toString();
+				if (done.contains(name)) {
+					skipped.incrementAndGet();
+					continue;
+				}
+				inFlight.acquire();
+				executor.execute(() -> {
+					try {
+						process(file, name);
+					} finally {
+						inFlight.release();
+					}
+				});
+			}
+		} finally {
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+			if (checkpointWriter != null)
+				checkpointWriter.close();
+		}
+	}
+
+	public String summary() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(dryRun ? "dry run: " : "").append(migrated).append(dryRun ? " to migrate, " : " migrated, ")
+				.append(unchanged).append(" current, ").append(skipped).append(" done earlier, ")
+				.append(failed.size()).append(" failed");
+		for (String f : failed)
+			sb.append("\n  ").append(f);
+		return sb.toString();
+	}
+
+	private void process(Path file, String name) {
+		try {
+			String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+			String result = migrateDocument(text);
+			if (result.equals(text)) {
+				unchanged.incrementAndGet();
+			} else {
+				migrated.incrementAndGet();
+				if (!dryRun)
+					replace(file, result);
+			}
+			markDone(name);
+		} catch (IOException | RuntimeException e) {
+			failed.add(name + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * The text of a data file with all flows in it migrated, or the text itself when nothing changed.
+	 */
+	static String migrateDocument(String text) {
+		Map<String, Object> document = Json.parseObject(text);
+		if (document.containsKey("model"))
+			return FlowMigrations.migrate(text);
+		Object result = migrateValues(document);
+		return result == document ? text : Json.write(result, 4);
+	}
+
+	/**
+	 * Returns the value itself when no flow in it changed.
+	 */
+	@SuppressWarnings("unchecked")
+	private static Object migrateValues(Object value) {
+		if (value instanceof Map) {
+			Map<String, Object> map = (Map<String, Object>) value;
+			Map<String, Object> copy = null;
+			for (Map.Entry<String, Object> e : map.entrySet()) {
+				Object v = e.getValue();
+				Object w = FLOWCHART.equals(e.getKey()) && v instanceof String && !((String) v).trim().isEmpty()
+						? FlowMigrations.migrate((String) v) : migrateValues(v);
+				if (w != v) {
+					if (copy == null)
+						copy = new LinkedHashMap<>(map);
+					copy.put(e.getKey(), w);
+				}
+			}
+			return copy == null ? map : copy;
+		}
+		if (value instanceof List) {
+			List<Object> list = (List<Object>) value;
+			List<Object> copy = null;
+			for (int i = 0; i < list.size(); i++) {
+				Object w = migrateValues(list.get(i));
+				if (w != list.get(i)) {
+					if (copy == null)
+						copy = new ArrayList<>(list);
+					copy.set(i, w);
+				}
+			}
+			return copy == null ? list : copy;
+		}
+		return value;
+	}
+
+	private static void replace(Path file, String text) throws IOException {
+		Path tmp = file.resolveSibling(file.getFileName() + ".migrating");
+		Files.write(tmp, text.getBytes(StandardCharsets.UTF_8));
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private Set<String> readCheckpoint() throws IOException {
+		Set<String> done = new HashSet<>();
+		if (Files.exists(checkpoint))
+			done.addAll(Files.readAllLines(checkpoint, StandardCharsets.UTF_8));
+		return done;
+	}
+
+	private void markDone(String name) throws IOException {
+		if (checkpointWriter == null)
+			return;
+		synchronized (checkpointWriter) {
+			checkpointWriter.write(name);
+			checkpointWriter.newLine();
+			checkpointWriter.flush();
+		}
+	}
+}
@@ -0,0 +1,287 @@
+package nl.numworx.stream.flow;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * A {@link Flow} in a handful of arrays instead of an object per box, for going through large numbers of flows.
+ * <p>
+ * The boxes are numbered densely from 0, the Start node, in the order a walk of the chart visits them:
+ * a box, then its body, then its false branch, then what follows it. So every box comes after the box that
+ * leads to it, and a scan from 0 up reads the arrays front to back. The Elm ids, which grow in steps of 10
+ * with every edit, are kept in {@link #getId} so the flow can be written back unchanged.
+ * All texts share one char array; a box costs 29 bytes plus its text.
+ */
+public final class CompactFlow {
+
+	/** Index of a missing successor, body or branch. */
+	public static final int NONE = -1;
+
+	private static final Node.Type[] TYPES = Node.Type.values();
+
+	private final String name;
+	private final int currentId;
+	private final Flow.Condition precondition;
+	private final Flow.Condition postcondition;
+	private final Set<Integer> collapsed;
+
+	private final byte[] type;
+	private final int[] next;
+	private final int[] body;
+	private final int[] orElse;
+	private final int[] id;
+	/** Text of box i is <code>text[offset[i]..offset[i + 1])</code>. */
+	private final int[] offset;
+	private final char[] text;
+	/** Elm id in the high half, index in the low half, sorted. */
+	private final long[] byId;
+
+	private CompactFlow(Flow flow, int size, char[] text, byte[] type, int[] next, int[] body, int[] orElse, int[] id,
+			int[] offset) {
+		this.name = flow.getName();
+		this.currentId = flow.getCurrentId();
+		this.precondition = flow.getPrecondition();
+		this.postcondition = flow.getPostcondition();
+		this.collapsed = flow.getCollapsed();
+		this.type = Arrays.copyOf(type, size);
+		this.next = Arrays.copyOf(next, size);
+		this.body = Arrays.copyOf(body, size);
+		this.orElse = Arrays.copyOf(orElse, size);
+		this.id = Arrays.copyOf(id, size);
+		this.offset = Arrays.copyOf(offset, size + 1);
+		this.text = text;
+		this.byId = new long[size];
+		for (int i = 0; i < size; i++)
+			byId[i] = (long) id[i] << 32 | i;
+		Arrays.sort(byId);
+	}
+
+	public static CompactFlow read(String json) {
+		return of(FlowJson.read(json));
+	}
+
+	public static CompactFlow of(Flow flow) {
+		int capacity = 64;
+		byte[] type = new byte[capacity];
+		int[] next = new int[capacity];
+		int[] body = new int[capacity];
+		int[] orElse = new int[capacity];
+		int[] id = new int[capacity];
+		int[] offset = new int[capacity + 1];
+		StringBuilder text = new StringBuilder();
+
+		// boxes still to number, with the slot that gets their index: 3 * index of the box that
+		// leads to them, + 0 for next, 1 for body, 2 for the false branch
+		Node[] stack = new Node[16];
+		int[] slots = new int[16];
+		int depth = 0;
+		int size = 0;
+		if (flow.getTree() != null) {
+			stack[depth] = flow.getTree();
+			slots[depth++] = NONE;
+		}
+		while (depth > 0) {
+			Node node = stack[--depth];
+			int slot = slots[depth];
+			stack[depth] = null;
+			if (size == capacity) {
+				capacity *= 2;
+				type = Arrays.copyOf(type, capacity);
+				next = Arrays.copyOf(next, capacity);
+				body = Arrays.copyOf(body, capacity);
+				orElse = Arrays.copyOf(orElse, capacity);
+				id = Arrays.copyOf(id, capacity);
+				offset = Arrays.copyOf(offset, capacity + 1);
+			}
+			int i = size++;
+			type[i] = (byte) node.getType().ordinal();
+			id[i] = node.getId();
+			next[i] = body[i] = orElse[i] = NONE;
+			offset[i] = text.length();
+			if (node.getContent() != null)
+				text.append(node.getContent());
+			if (slot != NONE) {
+				int from = slot / 3;
+				switch (slot % 3) {
+				case 0:
+					next[from] = i;
+					break;
+				case 1:
+					body[from] = i;
+					break;
+				default:
+					orElse[from] = i;
+				}
+			}
+			if (depth + 3 > stack.length) {
+				stack = Arrays.copyOf(stack, 2 * stack.length);
+				slots = Arrays.copyOf(slots, 2 * slots.length);
+			}
+			// pushed in reverse, so the body is numbered first and what follows last
+			if (node.getNext() != null) {
+				stack[depth] = node.getNext();
+				slots[depth++] = 3 * i;
+			}
+			if (node.getElse() != null) {
+				stack[depth] = node.getElse();
+				slots[depth++] = 3 * i + 2;
+			}
+			if (node.getBody() != null) {
+				stack[depth] = node.getBody();
+				slots[depth++] = 3 * i + 1;
+			}
+		}
+		offset[size] = text.length();
+		char[] chars = new char[text.length()];
+		text.getChars(0, chars.length, chars, 0);
+		return new CompactFlow(flow, size, chars, type, next, body, orElse, id, offset);
+	}
+
+	/**
+	 * Builds the nodes back, later boxes first, so every box finds what it leads to already made.
+	 */
+	public Flow toFlow() {
+		Node[] nodes = new Node[size()];
+		for (int i = nodes.length - 1; i >= 0; i--) {
+			Node n = node(next[i], nodes);
+			Node b = node(body[i], nodes);
+			Node e = node(orElse[i], nodes);
+			switch (getType(i)) {
+			case START:
+				nodes[i] = Node.start(id[i], n);
+				break;
+			case END:
+				nodes[i] = Node.end(id[i]);
+				break;
+			case EMPTY:
+				nodes[i] = Node.empty(id[i], n);
+				break;
+			case VOID:
+				nodes[i] = Node.voidNode(id[i]);
+				break;
+			case STATEMENT:
+				nodes[i] = Node.statement(id[i], getContent(i), n);
+				break;
+			case IF:
+				nodes[i] = Node.ifNode(id[i], getContent(i), e, b, n);
+				break;
+			case WHILE:
+				nodes[i] = Node.whileNode(id[i], getContent(i), b, n);
+				break;
+			case FOREACH:
+				nodes[i] = Node.forEach(id[i], getContent(i), b, n);
+				break;
+			}
+			// only needed until the box leading here is made
+			if (n != null)
+				nodes[next[i]] = null;
+			if (b != null)
+				nodes[body[i]] = null;
+			if (e != null)
+				nodes[orElse[i]] = null;
+		}
+		return new Flow(name, nodes.length == 0 ? null : nodes[0], currentId, precondition, postcondition, collapsed);
+	}
+
+	private static Node node(int index, Node[] nodes) {
+		return index == NONE ? null : nodes[index];
+	}
+
+	public int size() {
+		return type.length;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getCurrentId() {
+		return currentId;
+	}
+
+	public Flow.Condition getPrecondition() {
+		return precondition;
+	}
+
+	public Flow.Condition getPostcondition() {
+		return postcondition;
+	}
+
+	/**
+	 * Elm ids of the collapsed boxes, see {@link Flow#getCollapsed}.
+	 */
+	public Set<Integer> getCollapsed() {
+		return collapsed;
+	}
+
+	public Node.Type getType(int box) {
+		return TYPES[type[box]];
+	}
+
+	/**
+	 * The Elm id of the box.
+	 */
+	public int getId(int box) {
+		return id[box];
+	}
+
+	/**
+	 * The box with the Elm id, or {@link #NONE}.
+	 */
+	public int indexOf(int elmId) {
+		int lo = 0;
+		int hi = byId.length - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int key = (int) (byId[mid] >> 32);
+			if (key < elmId)
+				lo = mid + 1;
+			else if (key > elmId)
+				hi = mid - 1;
+			else
+				return (int) byId[mid];
+		}
+		return NONE;
+	}
+
+	public int getNext(int box) {
+		return next[box];
+	}
+
+	/**
+	 * True branch of an If or body of a loop.
+	 */
+	public int getBody(int box) {
+		return body[box];
+	}
+
+	public int getElse(int box) {
+		return orElse[box];
+	}
+
+	/**
+	 * The text in the box, a view on the shared array. Empty for boxes without content.
+	 */
+	public CharSequence getText(int box) {
+		return CharBuffer.wrap(text, offset[box], offset[box + 1] - offset[box]).asReadOnlyBuffer();
+	}
+
+	/**
+	 * The text in the box as a new string, null for Start, End, Empty and Void like {@link Node#getContent}.
+	 */
+	public String getContent(int box) {
+		return getType(box).hasContent() ? new String(text, offset[box], offset[box + 1] - offset[box]) : null;
+	}
+
+	public int getContentLength(int box) {
+		return offset[box + 1] - offset[box];
+	}
+
+	/**
+	 * Bytes held by the arrays, not counting object headers.
+	 */
+	public long getFootprint() {
+		return (long) size() * (1 + 4 * 5 + 8) + 4 + 2L * text.length;
+	}
+}
@@ -0,0 +1,98 @@
+package nl.numworx.stream.flow;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * A complete flowchart, the Java twin of <code>Tree.State.Model</code>.
+ * The highlighted box is not kept, it is never stored either.
+ */
+public final class Flow {
+
+	/**
+	 * Pre- or postcondition note.
+	 */
+	public static final class Condition {
+		public static final Condition NONE = new Condition("", false);
+
+		private final String content;
+		private final boolean visible;
+
+		public Condition(String content, boolean visible) {
+			this.content = content == null ? "" : content;
+			this.visible = visible;
+		}
+
+		public String getContent() {
+			return content;
+		}
+
+		public boolean isVisible() {
+			return visible;
+		}
+	}
+
+	private final String name;
+	private final Node tree;
+	private final int currentId;
+	private final Condition precondition;
+	private final Condition postcondition;
+	private final Set<Integer> collapsed;
+
+	public Flow(String name, Node tree, int currentId, Condition precondition, Condition postcondition) {
+		this(name, tree, currentId, precondition, postcondition, Collections.<Integer>emptySet());
+	}
+
+	/**
+	 * @param collapsed ids of the If, While and ForEach boxes the student folded away
+	 */
+	public Flow(String name, Node tree, int currentId, Condition precondition, Condition postcondition,
+			Collection<Integer> collapsed) {
+		this.name = name == null ? "" : name;
+		this.tree = tree;
+		this.currentId = currentId;
+		this.precondition = precondition == null ? Condition.NONE : precondition;
+		this.postcondition = postcondition == null ? Condition.NONE : postcondition;
+		this.collapsed = collapsed == null || collapsed.isEmpty() ? Collections.<Integer>emptySet()
+				: Collections.unmodifiableSet(new TreeSet<>(collapsed));
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * The Start node.
+	 */
+	public Node getTree() {
+		return tree;
+	}
+
+	/**
+	 * Next free id, the Elm side hands out ids in steps of 10 from here.
+	 */
+	public int getCurrentId() {
+		return currentId;
+	}
+
+	public Condition getPrecondition() {
+		return precondition;
+	}
+
+	public Condition getPostcondition() {
+		return postcondition;
+	}
+
+	/**
+	 * Ids of the boxes drawn as a summary instead of with their branches, in ascending order.
+	 */
+	public Set<Integer> getCollapsed() {
+		return collapsed;
+	}
+
+	public boolean isCollapsed(int id) {
+		return collapsed.contains(id);
+	}
+}
@@ -0,0 +1,265 @@
+package nl.numworx.stream.flow;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import nl.numworx.stream.archive.FlowArchiveWriter;
+
+/**
+ * Makes flows of a given size for stress tests and benchmarks. The same seed gives the same flow.
+ * <p>
+ * A flow looks like one made in the editor: Start (0), the boxes, End (1); every branch and loop body
+ * ends in Void, and an empty branch holds an Empty box. Boxes get ids in steps of 10, as the editor
+ * hands them out. Box texts compile with {@link nl.numworx.stream.run.FlowCompiler}.
+ * <p>
+ * The corpus main writes flows of several sizes to a directory or to a {@link nl.numworx.stream.archive.FlowArchive}:
+ * <pre>
+ * java nl.numworx.stream.flow.FlowGenerator [--seed n] [--sizes 10,100,1000,10000] [--count n]
+ *     [--depth n] [--mix ifs,whiles,forEachs] [--content chars] directory|archive.sfa
+ * </pre>
+ */
+public final class FlowGenerator {
+
+	public static final FlowGenerator DEFAULT = new FlowGenerator(3, 15, 10, 5, 16);
+
+	/** Largest number of boxes in one branch or loop body, so the nesting stays spread out. */
+	private static final int BRANCH = 12;
+	private static final int VARIABLES = 10;
+
+	private final int maxDepth;
+	private final int ifs;
+	private final int whiles;
+	private final int forEachs;
+	private final int contentLength;
+
+	/**
+	 * @param maxDepth deepest nesting of If, While and ForEach boxes
+	 * @param ifs percentage of the boxes that are If boxes, where the nesting allows
+	 * @param whiles percentage of While boxes
+	 * @param forEachs percentage of ForEach boxes; the rest are statements
+	 * @param contentLength least number of characters in a statement or test
+	 */
+	public FlowGenerator(int maxDepth, int ifs, int whiles, int forEachs, int contentLength) {
+		if (ifs < 0 || whiles < 0 || forEachs < 0 || ifs + whiles + forEachs > 100)
+			throw new IllegalArgumentException("mix out of range: " + ifs + "," + whiles + "," + forEachs);
+		this.maxDepth = maxDepth;
+		this.ifs = ifs;
+		this.whiles = whiles;
+		this.forEachs = forEachs;
+		this.contentLength = contentLength;
+	}
+
+	public static void main(String[] args) throws IOException {
+		long seed = 1;
+		int[] sizes = { 10, 100, 1000, 10000 };
+		int count = 10;
+		int depth = DEFAULT.maxDepth;
+		int[] mix = { DEFAULT.ifs, DEFAULT.whiles, DEFAULT.forEachs };
+		int content = DEFAULT.contentLength;
+		Path target = null;
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "--seed":
+				seed = Long.parseLong(args[++i]);
+				break;
+			case "--sizes":
+				sizes = numbers(args[++i]);
+				break;
+			case "--count":
+				count = Integer.parseInt(args[++i]);
+				break;
+			case "--depth":
+				depth = Integer.parseInt(args[++i]);
+				break;
+			case "--mix":
+				mix = numbers(args[++i]);
+				break;
+			case "--content":
+				content = Integer.parseInt(args[++i]);
+				break;
+			default:
+				target = Paths.get(args[i]);
+			}
+		}
+		if (target == null || mix.length != 3) {
+			System.err.println("usage: FlowGenerator [--seed n] [--sizes 10,100,1000,10000] [--count n] [--depth n] [--mix ifs,whiles,forEachs] [--content chars] directory|archive.sfa");
+			System.exit(2);
+		}
+		FlowGenerator generator = new FlowGenerator(depth, mix[0], mix[1], mix[2], content);
+		boolean archive = target.getFileName().toString().endsWith(".sfa");
+		FlowArchiveWriter writer = null;
+		if (archive)
+			writer = FlowArchiveWriter.create(target);
+		else
+			Files.createDirectories(target);
+		try {
+			for (int size : sizes) {
+				for (int i = 0; i < count; i++) {
+					String name = String.format("flow-%05d-%03d", size, i);
+					String json = FlowJson.write(generator.generate(name, size, seed(seed, size, i)));
+					if (archive)
+						writer.add(name, json);
+					else
+						Files.write(target.resolve(name + ".json"), json.getBytes(StandardCharsets.UTF_8));
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			if (writer != null)
+				writer.discard();
+			throw e;
+		}
+		if (writer != null)
+			writer.close();
+		System.out.println(sizes.length * count + " flows written to " + target);
+	}
+
+	private static int[] numbers(String list) {
+		String[] parts = list.split(",");
+		int[] numbers = new int[parts.length];
+		for (int i = 0; i < parts.length; i++)
+			numbers[i] = Integer.parseInt(parts[i].trim());
+		return numbers;
+	}
+
+	/**
+	 * The seed of one flow of a corpus, so a flow does not change when the sizes or the count do.
+	 */
+	static long seed(long seed, int size, int index) {
+		return seed * 0x9E3779B97F4A7C15L + size * 1_000_003L + index;
+	}
+
+	public Flow generate(int boxes, long seed) {
+		return generate("generated " + boxes, boxes, seed);
+	}
+
+	/**
+	 * A flow with exactly the given number of Statement, If, While and ForEach boxes.
+	 */
+	public Flow generate(String name, int boxes, long seed) {
+		Run run = new Run(new Random(seed));
+		Node first = boxes == 0 ? Node.empty(2, Node.end(1)) : sequence(run, boxes, 0, Node.end(1));
+		return new Flow(name, Node.start(0, first), run.nextId, new Flow.Condition("v0 >= 0", true), Flow.Condition.NONE);
+	}
+
+	private static final class Run {
+		final Random random;
+		int nextId = 10;
+
+		Run(Random random) {
+			this.random = random;
+		}
+
+		int id() {
+			int id = nextId;
+			nextId += 10;
+			return id;
+		}
+	}
+
+	private static final class Box {
+		final Node.Type type;
+		final int id;
+		final String content;
+		Node body;
+		Node orElse;
+
+		Box(Node.Type type, int id, String content) {
+			this.type = type;
+			this.id = id;
+			this.content = content;
+		}
+	}
+
+	/**
+	 * A sequence of the given number of boxes ending in last. The boxes are chosen front to back, so ids
+	 * grow in reading order, and linked back to front; only branches recurse.
+	 */
+	private Node sequence(Run run, int boxes, int depth, Node last) {
+		List<Box> sequence = new ArrayList<>();
+		for (int remaining = boxes; remaining > 0;) {
+			remaining--;
+			Node.Type type = type(run.random, depth < maxDepth && remaining > 0);
+			Box box = new Box(type, run.id(), content(run.random, type, depth));
+			sequence.add(box);
+			if (type == Node.Type.STATEMENT)
+				continue;
+			int inner = run.random.nextInt(Math.min(remaining, BRANCH) + 1);
+			remaining -= inner;
+			if (type == Node.Type.IF) {
+				int trueBoxes = run.random.nextInt(inner + 1);
+				box.body = branch(run, trueBoxes, depth + 1, box.id + 2);
+				box.orElse = branch(run, inner - trueBoxes, depth + 1, box.id + 4);
+			} else {
+				box.body = branch(run, inner, depth + 1, box.id + 2);
+			}
+		}
+		Node next = last;
+		for (int i = sequence.size() - 1; i >= 0; i--) {
+			Box box = sequence.get(i);
+			switch (box.type) {
+			case IF:
+				next = Node.ifNode(box.id, box.content, box.orElse, box.body, next);
+				break;
+			case WHILE:
+				next = Node.whileNode(box.id, box.content, box.body, next);
+				break;
+			case FOREACH:
+				next = Node.forEach(box.id, box.content, box.body, next);
+				break;
+			default:
+				next = Node.statement(box.id, box.content, next);
+				break;
+			}
+		}
+		return next;
+	}
+
+	/**
+	 * A branch or loop body: the boxes and a Void, or an Empty and a Void when there are none.
+	 */
+	private Node branch(Run run, int boxes, int depth, int id) {
+		Node end = Node.voidNode(id + 1);
+		return boxes == 0 ? Node.empty(id, end) : sequence(run, boxes, depth, end);
+	}
+
+	private Node.Type type(Random random, boolean nest) {
+		if (!nest)
+			return Node.Type.STATEMENT;
+		int roll = random.nextInt(100);
+		if (roll < ifs)
+			return Node.Type.IF;
+		if (roll < ifs + whiles)
+			return Node.Type.WHILE;
+		if (roll < ifs + whiles + forEachs)
+			return Node.Type.FOREACH;
+		return Node.Type.STATEMENT;
+	}
+
+	private String content(Random random, Node.Type type, int depth) {
+		StringBuilder text = new StringBuilder();
+		switch (type) {
+		case FOREACH:
+			return "i" + depth + " in 1.." + (2 + random.nextInt(9));
+		case STATEMENT:
+			text.append(variable(random)).append(" := ").append(variable(random)).append(" + ").append(random.nextInt(100));
+			while (text.length() < contentLength)
+				text.append(random.nextBoolean() ? " + " : " * ").append(variable(random));
+			return text.toString();
+		default:
+			text.append(variable(random)).append(" < ").append(random.nextInt(100));
+			while (text.length() < contentLength)
+				text.append(" and ").append(variable(random)).append(" != ").append(random.nextInt(100));
+			return text.toString();
+		}
+	}
+
+	private static String variable(Random random) {
+		return "v" + random.nextInt(VARIABLES);
+	}
+}
@@ -0,0 +1,214 @@
+package nl.numworx.stream.flow;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes flows in the format of <code>Tree.State.toJson</code>.
+ * Older documents are brought to the current schema by {@link FlowMigrations} first.
+ * A sequence is a JSON array of its boxes and is walked with a loop, so only branches recurse.
+ */
+public final class FlowJson {
+
+	private static final String FLOWCHART = "flowchart";
+
+	private FlowJson() {
+	}
+
+	public static Flow read(String json) {
+		return fromJson(Json.parseObject(json));
+	}
+
+	public static String write(Flow flow) {
+		return Json.write(toJson(flow), 4);
+	}
+
+	public static Flow fromJson(Map<String, Object> document) {
+		Map<String, Object> model = map(FlowMigrations.migrate(document), "model");
+		return new Flow(
+				string(model, "flowchartName"),
+				tree(list(model, "tree")),
+				(int) number(model, "currentId"),
+				condition(map(model, "precondition")),
+				condition(map(model, "postcondition")),
+				ids(list(model, "collapsed")));
+	}
+
+	/**
+	 * The flows in a stored launch or suspend data document: the strings under a <code>flowchart</code>
+	 * key in document order, or the document itself when it is a flow.
+	 */
+	public static List<String> embedded(String text) {
+		Map<String, Object> document = Json.parseObject(text);
+		List<String> flows = new ArrayList<>();
+		if (document.containsKey("model"))
+			flows.add(text);
+		else
+			embedded(document, flows);
+		return flows;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void embedded(Object value, List<String> flows) {
+		if (value instanceof Map) {
+			for (Map.Entry<String, Object> e : ((Map<String, Object>) value).entrySet()) {
+				Object v = e.getValue();
+				if (FLOWCHART.equals(e.getKey()) && v instanceof String && !((String) v).trim().isEmpty())
+					flows.add((String) v);
+				else
+					embedded(v, flows);
+			}
+		} else if (value instanceof List) {
+			for (Object v : (List<Object>) value)
+				embedded(v, flows);
+		}
+	}
+
+	public static Map<String, Object> toJson(Flow flow) {
+		Map<String, Object> model = new LinkedHashMap<>();
+		model.put("flowchartName", flow.getName());
+		model.put("tree", tree(flow.getTree()));
+		model.put("currentId", (long) flow.getCurrentId());
+		model.put("highlightedBox", "Nothing");
+		model.put("precondition", condition("PreConditionNode", flow.getPrecondition()));
+		model.put("postcondition", condition("PostConditionNode", flow.getPostcondition()));
+		List<Object> collapsed = new ArrayList<>();
+		for (int id : flow.getCollapsed())
+			collapsed.add((long) id);
+		model.put("collapsed", collapsed);
+		Map<String, Object> document = new LinkedHashMap<>();
+		document.put("_Easter_Egg", "Nothing here");
+		document.put(FlowMigrations.VERSION, (long) FlowMigrations.CURRENT);
+		document.put("model", model);
+		return document;
+	}
+
+	private static Node tree(List<Object> sequence) {
+		// build the sequence back to front, so every box finds the box it leads to
+		Node next = null;
+		for (int i = sequence.size() - 1; i >= 0; i--) {
+			Map<String, Object> box = box(sequence.get(i));
+			int id = (int) number(box, "id");
+			Node.Type type = Node.Type.fromJson(string(box, "basicTreeType"));
+			boolean last = type == Node.Type.END || type == Node.Type.VOID;
+			if (last != (next == null))
+				throw new IllegalArgumentException(last ? "End or Void before the end of a sequence, box " + id
+						: "sequence does not end with End or Void, box " + id);
+			switch (type) {
+			case START:
+				next = Node.start(id, next);
+				break;
+			case END:
+				next = Node.end(id);
+				break;
+			case EMPTY:
+				next = Node.empty(id, next);
+				break;
+			case VOID:
+				next = Node.voidNode(id);
+				break;
+			case STATEMENT:
+				next = Node.statement(id, string(box, "content"), next);
+				break;
+			case IF:
+				next = Node.ifNode(id, string(box, "content"), tree(list(box, "else")), tree(list(box, "then")), next);
+				break;
+			case WHILE:
+				next = Node.whileNode(id, string(box, "content"), tree(list(box, "body")), next);
+				break;
+			case FOREACH:
+				next = Node.forEach(id, string(box, "content"), tree(list(box, "body")), next);
+				break;
+			}
+		}
+		if (next == null)
+			throw new IllegalArgumentException("empty sequence");
+		return next;
+	}
+
+	private static List<Object> tree(Node tree) {
+		List<Object> sequence = new ArrayList<>();
+		for (Node node = tree; node != null; node = node.getNext()) {
+			Map<String, Object> box = new LinkedHashMap<>();
+			box.put("id", (long) node.getId());
+			box.put("basicTreeType", node.getType().getJsonName());
+			if (node.getType().hasContent())
+				box.put("content", node.getContent());
+			switch (node.getType()) {
+			case IF:
+				box.put("then", tree(node.getBody()));
+				box.put("else", tree(node.getElse()));
+				break;
+			case WHILE:
+			case FOREACH:
+				box.put("body", tree(node.getBody()));
+				break;
+			default:
+				break;
+			}
+			sequence.add(box);
+		}
+		return sequence;
+	}
+
+	private static List<Integer> ids(List<Object> list) {
+		List<Integer> ids = new ArrayList<>(list.size());
+		for (Object id : list) {
+			if (!(id instanceof Number))
+				throw new IllegalArgumentException("not an id: " + id);
+			ids.add(((Number) id).intValue());
+		}
+		return ids;
+	}
+
+	private static Flow.Condition condition(Map<String, Object> condition) {
+		return new Flow.Condition(string(condition, "content"), Boolean.TRUE.equals(condition.get("visible")));
+	}
+
+	private static Map<String, Object> condition(String nodeType, Flow.Condition condition) {
+		Map<String, Object> map = new LinkedHashMap<>();
+		map.put("nodeType", nodeType);
+		map.put("content", condition.getContent());
+		map.put("visible", condition.isVisible());
+		return map;
+	}
+
+	@SuppressWarnings("unchecked")
+	static Map<String, Object> map(Map<String, Object> map, String key) {
+		Object value = map.get(key);
+		if (value instanceof Map)
+			return (Map<String, Object>) value;
+		throw new IllegalArgumentException("object expected for " + key);
+	}
+
+	@SuppressWarnings("unchecked")
+	static List<Object> list(Map<String, Object> map, String key) {
+		Object value = map.get(key);
+		if (value instanceof List)
+			return (List<Object>) value;
+		throw new IllegalArgumentException("array expected for " + key);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> box(Object value) {
+		if (value instanceof Map)
+			return (Map<String, Object>) value;
+		throw new IllegalArgumentException("object expected for a box");
+	}
+
+	static String string(Map<String, Object> map, String key) {
+		Object value = map.get(key);
+		if (value instanceof String)
+			return (String) value;
+		throw new IllegalArgumentException("string expected for " + key);
+	}
+
+	static long number(Map<String, Object> map, String key) {
+		Object value = map.get(key);
+		if (value instanceof Number)
+			return ((Number) value).longValue();
+		throw new IllegalArgumentException("number expected for " + key);
+	}
+}
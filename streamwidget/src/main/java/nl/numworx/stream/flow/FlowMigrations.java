@@ -0,0 +1,144 @@
+package nl.numworx.stream.flow;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * Schema versions of the stored flow, the Java twin of the migrators in <code>Tree.State</code>.
+ * Documents without a <code>version</code> field are version 1. Each migration takes a document
+ * of one version to the next; both sides must add the same step when the format changes.
+ * <ol>
+ * <li>no version field</li>
+ * <li>version field in the wrapper</li>
+ * <li>a sequence is a list of boxes instead of every box nesting the next</li>
+ * <li>collapsed boxes in the model</li>
+ * </ol>
+ */
+public final class FlowMigrations {
+
+	public static final String VERSION = "version";
+
+	public static final int CURRENT = 4;
+
+	/** MIGRATIONS.get(i) takes version i + 1 to version i + 2. */
+	private static final List<UnaryOperator<Map<String, Object>>> MIGRATIONS = new ArrayList<>();
+
+	static {
+		MIGRATIONS.add(document -> withVersion(document, 2));
+		MIGRATIONS.add(FlowMigrations::flatten);
+		MIGRATIONS.add(FlowMigrations::addCollapsed);
+	}
+
+	private FlowMigrations() {
+	}
+
+	public static int version(Map<String, Object> document) {
+		Object version = document.get(VERSION);
+		return version instanceof Number ? ((Number) version).intValue() : 1;
+	}
+
+	/**
+	 * Brings a document to {@link #CURRENT}. The argument is not changed.
+	 * @throws IllegalArgumentException when the document is newer than this code
+	 */
+	public static Map<String, Object> migrate(Map<String, Object> document) {
+		return migrate(document, CURRENT);
+	}
+
+	/**
+	 * Brings a document up to the given version, which is left as is when it is that far already.
+	 */
+	static Map<String, Object> migrate(Map<String, Object> document, int target) {
+		int version = version(document);
+		if (version > CURRENT)
+			throw new IllegalArgumentException("schema version " + version + " is newer than " + CURRENT);
+		Map<String, Object> result = document;
+		for (int v = version; v < target; v++) {
+			result = MIGRATIONS.get(v - 1).apply(result);
+		}
+		return result;
+	}
+
+	/**
+	 * Brings the JSON text of a flow to {@link #CURRENT}, written like <code>Tree.State.toJson</code>.
+	 * Text that is already current is returned as is.
+	 */
+	public static String migrate(String json) {
+		Map<String, Object> document = Json.parseObject(json);
+		if (version(document) == CURRENT)
+			return json;
+		return Json.write(migrate(document), 4);
+	}
+
+	private static Map<String, Object> withVersion(Map<String, Object> document, int version) {
+		// keep the order of toJson: the easter egg, the version, the model
+		Map<String, Object> result = new LinkedHashMap<>();
+		for (Map.Entry<String, Object> e : document.entrySet()) {
+			if (VERSION.equals(e.getKey()))
+				continue;
+			if ("model".equals(e.getKey()))
+				result.put(VERSION, (long) version);
+			result.put(e.getKey(), e.getValue());
+		}
+		result.putIfAbsent(VERSION, (long) version);
+		return result;
+	}
+
+	private static Map<String, Object> flatten(Map<String, Object> document) {
+		Map<String, Object> model = new LinkedHashMap<>(FlowJson.map(document, "model"));
+		model.put("tree", sequence(FlowJson.map(model, "tree")));
+		Map<String, Object> result = new LinkedHashMap<>(document);
+		result.put("model", model);
+		return withVersion(result, 3);
+	}
+
+	private static Map<String, Object> addCollapsed(Map<String, Object> document) {
+		Map<String, Object> model = new LinkedHashMap<>(FlowJson.map(document, "model"));
+		model.put("collapsed", new ArrayList<>());
+		Map<String, Object> result = new LinkedHashMap<>(document);
+		result.put("model", model);
+		return withVersion(result, 4);
+	}
+
+	/**
+	 * The boxes of a version 2 sequence, where every box holds the next one in its <code>child</code>.
+	 * Walks the sequence in a loop, so only branches recurse.
+	 */
+	private static List<Object> sequence(Map<String, Object> tree) {
+		List<Object> sequence = new ArrayList<>();
+		for (Map<String, Object> t = tree; t != null;) {
+			Map<String, Object> basic = FlowJson.map(t, "basicTree");
+			String type = FlowJson.string(basic, "basicTreeType");
+			Map<String, Object> box = new LinkedHashMap<>();
+			box.put("id", t.get("id"));
+			box.put("basicTreeType", type);
+			if (basic.containsKey("content"))
+				box.put("content", basic.get("content"));
+			switch (Node.Type.fromJson(type)) {
+			case IF:
+				box.put("then", sequence(FlowJson.map(basic, "child2")));
+				box.put("else", sequence(FlowJson.map(basic, "child1")));
+				t = FlowJson.map(basic, "child3");
+				break;
+			case WHILE:
+			case FOREACH:
+				box.put("body", sequence(FlowJson.map(basic, "child1")));
+				t = FlowJson.map(basic, "child2");
+				break;
+			case START:
+			case EMPTY:
+			case STATEMENT:
+				t = FlowJson.map(basic, "child");
+				break;
+			default:
+				t = null;
+				break;
+			}
+			sequence.add(box);
+		}
+		return sequence;
+	}
+}
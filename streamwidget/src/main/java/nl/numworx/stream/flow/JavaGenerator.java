@@ -0,0 +1,177 @@
+package nl.numworx.stream.flow;
+
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The Java outline of a flow, as <code>Tree.State.modelToJava</code> makes it for the download, without
+ * the escaping of <code>&lt;</code> for HTML.
+ * <p>
+ * Meant to be run again after every edit: the text of each box, with everything inside it, is kept under
+ * its id, content, indentation and a hash of what is inside, so only the boxes on the path to an edit
+ * are made again. Not thread safe.
+ */
+public final class JavaGenerator {
+
+	private static final int CACHE_SIZE = 4096;
+
+	private static final class Key {
+		final int id;
+		final Node.Type type;
+		final String content;
+		final int indent;
+		final long inside;
+
+		Key(Node node, int indent, long inside) {
+			this.id = node.getId();
+			this.type = node.getType();
+			this.content = node.getContent();
+			this.indent = indent;
+			this.inside = inside;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+			Key k = (Key) obj;
+			return id == k.id && type == k.type && indent == k.indent && inside == k.inside
+					&& Objects.equals(content, k.content);
+		}
+
+		@Override
+		public int hashCode() {
+			return (31 * id + indent) * 31 + Long.hashCode(inside);
+		}
+	}
+
+	private final Map<Key, String> fragments = new LinkedHashMap<Key, String>(256, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, String> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+	/** Hash of the sequence starting at a node, for the run in progress. */
+	private final Map<Node, Long> sequences = new IdentityHashMap<>();
+	private int hits;
+	private int misses;
+
+	public String generate(Flow flow) {
+		StringBuilder out = new StringBuilder();
+		out.append("/**\n");
+		out.append(" * <P> Initial:").append(condition(flow.getPrecondition())).append('\n');
+		out.append(" * <P> Final:").append(condition(flow.getPostcondition())).append('\n');
+		out.append(" */\n");
+		out.append("public void ").append(flow.getName().replace(" ", "_")).append("(){\n");
+		sequence(flow.getTree(), 1, out);
+		out.append('}');
+		sequences.clear();
+		return out.toString();
+	}
+
+	private static String condition(Flow.Condition condition) {
+		return condition.getContent().replace("\n", "\n *       ");
+	}
+
+	private void sequence(Node first, int indent, StringBuilder out) {
+		for (Node n = first; n != null; n = n.getNext())
+			out.append(box(n, indent));
+	}
+
+	private String box(Node node, int indent) {
+		switch (node.getType()) {
+		case START:
+		case END:
+		case EMPTY:
+		case VOID:
+			return "";
+		default:
+			break;
+		}
+		Key key = new Key(node, indent, hash(node.getBody()) * 31 + hash(node.getElse()));
+		String fragment = fragments.get(key);
+		if (fragment != null) {
+			hits++;
+			return fragment;
+		}
+		misses++;
+		String indentation = indentation(indent);
+		StringBuilder out = new StringBuilder();
+		switch (node.getType()) {
+		case STATEMENT:
+			out.append(indentation).append("// ").append(node.getContent().replace("\n", ";\n// ")).append('\n');
+			// space to write down the syntactically correct statement
+			out.append(indentation).append('\n');
+			break;
+		case IF:
+			out.append(indentation).append("if(").append(node.getContent().replace('\n', '_')).append(") {\n");
+			sequence(node.getElse(), indent + 1, out);
+			sequence(node.getBody(), indent + 1, out);
+			out.append(indentation).append("}\n");
+			break;
+		case WHILE:
+			out.append(indentation).append("while(").append(node.getContent().replace('\n', '_')).append("){\n");
+			sequence(node.getBody(), indent + 1, out);
+			out.append(indentation).append("}\n");
+			break;
+		case FOREACH:
+			out.append(indentation).append("for(").append(node.getContent().replace('\n', '_')).append("){\n");
+			sequence(node.getBody(), indent + 1, out);
+			out.append(indentation).append("}\n");
+			break;
+		default:
+			break;
+		}
+		fragment = out.toString();
+		fragments.put(key, fragment);
+		return fragment;
+	}
+
+	/**
+	 * Hash of everything in the sequence, boxes inside boxes included.
+	 */
+	private long hash(Node first) {
+		if (first == null)
+			return 0;
+		Long known = sequences.get(first);
+		if (known != null)
+			return known;
+		long h = 1;
+		for (Node n = first; n != null; n = n.getNext()) {
+			h = h * 1_000_003 + n.getId();
+			h = h * 1_000_003 + n.getType().ordinal();
+			h = h * 1_000_003 + Objects.hashCode(n.getContent());
+			if (n.getBody() != null)
+				h = h * 1_000_003 + hash(n.getBody());
+			if (n.getElse() != null)
+				h = h * 1_000_003 + hash(n.getElse());
+		}
+		sequences.put(first, h);
+		return h;
+	}
+
+	private static String indentation(int indent) {
+		StringBuilder sb = new StringBuilder(2 * indent);
+		for (int i = 0; i < indent; i++)
+			sb.append("  ");
+		return sb.toString();
+	}
+
+	/**
+	 * Boxes whose text came from the cache, since this generator was made.
+	 */
+	public int getHits() {
+		return hits;
+	}
+
+	/**
+	 * Boxes whose text was made, since this generator was made.
+	 */
+	public int getMisses() {
+		return misses;
+	}
+}
@@ -0,0 +1,342 @@
+package nl.numworx.stream.flow;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JSON reader and writer for the documents Stream produces.
+ * Objects become {@link LinkedHashMap}s (key order is kept), arrays {@link ArrayList}s,
+ * integral numbers {@link Long}s and other numbers {@link Double}s.
+ * The output of {@link #write(Object, int)} matches <code>JSON.stringify(value, null, indent)</code>,
+ * which is what <code>Json.Encode.encode</code> produces on the Elm side.
+ */
+public final class Json {
+
+	private Json() {
+	}
+
+	public static Object parse(String text) {
+		Json.Reader reader = new Json.Reader(text);
+		reader.skipWhitespace();
+		Object value = reader.value();
+		reader.skipWhitespace();
+		if (reader.pos < text.length())
+			throw reader.error("trailing characters");
+		return value;
+	}
+
+	@SuppressWarnings("unchecked")
+	public static Map<String, Object> parseObject(String text) {
+		Object value = parse(text);
+		if (value instanceof Map)
+			return (Map<String, Object>) value;
+		throw new IllegalArgumentException("JSON object expected");
+	}
+
+	public static String write(Object value, int indent) {
+		StringBuilder out = new StringBuilder();
+		write(value, indent, 0, out);
+		return out.toString();
+	}
+
+	private static void write(Object value, int indent, int depth, StringBuilder out) {
+		if (value == null) {
+			out.append("null");
+		} else if (value instanceof String) {
+			quote((String) value, out);
+		} else if (value instanceof Boolean || value instanceof Long || value instanceof Integer) {
+			out.append(value);
+		} else if (value instanceof Number) {
+			number(((Number) value).doubleValue(), out);
+		} else if (value instanceof Map) {
+			Map<?, ?> map = (Map<?, ?>) value;
+			if (map.isEmpty()) {
+				out.append("{}");
+				return;
+			}
+			out.append('{');
+			boolean first = true;
+			for (Map.Entry<?, ?> entry : map.entrySet()) {
+				if (!first)
+					out.append(',');
+				first = false;
+				newline(indent, depth + 1, out);
+				quote(String.valueOf(entry.getKey()), out);
+				out.append(indent > 0 ? ": " : ":");
+				write(entry.getValue(), indent, depth + 1, out);
+			}
+			newline(indent, depth, out);
+			out.append('}');
+		} else if (value instanceof List) {
+			List<?> list = (List<?>) value;
+			if (list.isEmpty()) {
+				out.append("[]");
+				return;
+			}
+			out.append('[');
+			boolean first = true;
+			for (Object element : list) {
+				if (!first)
+					out.append(',');
+				first = false;
+				newline(indent, depth + 1, out);
+				write(element, indent, depth + 1, out);
+			}
+			newline(indent, depth, out);
+			out.append(']');
+		} else {
+			throw new IllegalArgumentException("not a JSON value: " + value.getClass().getName());
+		}
+	}
+
+	private static void newline(int indent, int depth, StringBuilder out) {
+		if (indent <= 0)
+			return;
+		out.append('\n');
+		for (int i = indent * depth; i > 0; i--)
+			out.append(' ');
+	}
+
+	private static void number(double d, StringBuilder out) {
+		if (Double.isNaN(d) || Double.isInfinite(d))
+			out.append("null");
+		else if (d == Math.rint(d) && Math.abs(d) < 1e15)
+			out.append((long) d);
+		else
+			out.append(d);
+	}
+
+	static void quote(String s, StringBuilder out) {
+		out.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+			case '"':
+				out.append("\\\"");
+				break;
+			case '\\':
+				out.append("\\\\");
+				break;
+			case '\n':
+				out.append("\\n");
+				break;
+			case '\r':
+				out.append("\\r");
+				break;
+			case '\t':
+				out.append("\\t");
+				break;
+			case '\b':
+				out.append("\\b");
+				break;
+			case '\f':
+				out.append("\\f");
+				break;
+			default:
+				if (c < 0x20) {
+					out.append(String.format("\\u%04x", (int) c));
+				} else {
+					out.append(c);
+				}
+			}
+		}
+		out.append('"');
+	}
+
+	private static final class Reader {
+		private final String text;
+		private int pos;
+
+		Reader(String text) {
+			this.text = text;
+		}
+
+		IllegalArgumentException error(String message) {
+			return new IllegalArgumentException(message + " at " + pos);
+		}
+
+		void skipWhitespace() {
+			while (pos < text.length()) {
+				char c = text.charAt(pos);
+				if (c != ' ' && c != '\n' && c != '\r' && c != '\t')
+					break;
+				pos++;
+			}
+		}
+
+		char peek() {
+			if (pos >= text.length())
+				throw error("unexpected end");
+			return text.charAt(pos);
+		}
+
+		void expect(char c) {
+			if (peek() != c)
+				throw error("'" + c + "' expected");
+			pos++;
+		}
+
+		/**
+		 * Reads a value with a stack of the objects and arrays still open instead of recursion, so
+		 * deeply nested documents, such as flows stored before schema version 3, do not overflow.
+		 */
+		@SuppressWarnings("unchecked")
+		Object value() {
+			List<Object> open = new ArrayList<>();
+			// for every open object the key of the value being read, null for arrays
+			List<String> keys = new ArrayList<>();
+			while (true) {
+				Object value;
+				char c = peek();
+				if (c == '{' || c == '[') {
+					pos++;
+					skipWhitespace();
+					boolean object = c == '{';
+					Object container = object ? new LinkedHashMap<String, Object>() : new ArrayList<Object>();
+					if (peek() == (object ? '}' : ']')) {
+						pos++;
+						value = container;
+					} else {
+						open.add(container);
+						keys.add(object ? key() : null);
+						continue;
+					}
+				} else {
+					value = scalar(c);
+				}
+				// store the value and close what ends after it
+				while (!open.isEmpty()) {
+					int top = open.size() - 1;
+					Object container = open.get(top);
+					boolean object = container instanceof Map;
+					if (object)
+						((Map<String, Object>) container).put(keys.get(top), value);
+					else
+						((List<Object>) container).add(value);
+					skipWhitespace();
+					if (peek() == ',') {
+						pos++;
+						skipWhitespace();
+						if (object)
+							keys.set(top, key());
+						break;
+					}
+					expect(object ? '}' : ']');
+					open.remove(top);
+					keys.remove(top);
+					value = container;
+				}
+				if (open.isEmpty())
+					return value;
+			}
+		}
+
+		private String key() {
+			String key = string();
+			skipWhitespace();
+			expect(':');
+			skipWhitespace();
+			return key;
+		}
+
+		private Object scalar(char c) {
+			switch (c) {
+			case '"':
+				return string();
+			case 't':
+				return literal("true", Boolean.TRUE);
+			case 'f':
+				return literal("false", Boolean.FALSE);
+			case 'n':
+				return literal("null", null);
+			default:
+				return number();
+			}
+		}
+
+		Object literal(String word, Object value) {
+			if (!text.startsWith(word, pos))
+				throw error("unexpected character");
+			pos += word.length();
+			return value;
+		}
+
+		Object number() {
+			int start = pos;
+			boolean integral = true;
+			while (pos < text.length()) {
+				char c = text.charAt(pos);
+				if (c == '.' || c == 'e' || c == 'E') {
+					integral = false;
+				} else if (!(c == '-' || c == '+' || (c >= '0' && c <= '9'))) {
+					break;
+				}
+				pos++;
+			}
+			if (start == pos)
+				throw error("unexpected character");
+			String number = text.substring(start, pos);
+			try {
+				if (integral && number.length() < 19)
+					return Long.valueOf(number);
+				return Double.valueOf(number);
+			} catch (NumberFormatException nfe) {
+				throw error("bad number " + number);
+			}
+		}
+
+		String string() {
+			expect('"');
+			StringBuilder sb = null;
+			int start = pos;
+			while (true) {
+				if (pos >= text.length())
+					throw error("unterminated string");
+				char c = text.charAt(pos);
+				if (c == '"') {
+					String s = sb == null ? text.substring(start, pos) : sb.append(text, start, pos).toString();
+					pos++;
+					return s;
+				}
+				if (c == '\\') {
+					if (sb == null)
+						sb = new StringBuilder();
+					sb.append(text, start, pos);
+					pos++;
+					char e = peek();
+					pos++;
+					switch (e) {
+					case 'n':
+						sb.append('\n');
+						break;
+					case 'r':
+						sb.append('\r');
+						break;
+					case 't':
+						sb.append('\t');
+						break;
+					case 'b':
+						sb.append('\b');
+						break;
+					case 'f':
+						sb.append('\f');
+						break;
+					case 'u':
+						if (pos + 4 > text.length())
+							throw error("bad escape");
+						sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+						pos += 4;
+						break;
+					default:
+						sb.append(e);
+					}
+					start = pos;
+				} else {
+					pos++;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package nl.numworx.stream.flow;
+
+/**
+ * One box of a flowchart, the Java twin of <code>Tree.Core.Tree</code>.
+ * <p>
+ * Every node that is followed by something keeps its successor in {@link #getNext()}
+ * (the <code>child</code> of Start, Empty and Statement, <code>child3</code> of If and
+ * <code>child2</code> of While and ForEach). {@link #getBody()} is the true branch of an If
+ * or the body of a loop, {@link #getElse()} the false branch of an If.
+ * Walk a sequence with a loop over <code>getNext()</code>; only recurse into bodies.
+ */
+public final class Node {
+
+	public enum Type {
+		START("Start"), END("End"), EMPTY("Empty"), VOID("Void"), STATEMENT("Statement"), IF("If"), WHILE("While"), FOREACH("ForEach");
+
+		private final String jsonName;
+
+		Type(String jsonName) {
+			this.jsonName = jsonName;
+		}
+
+		/**
+		 * The <code>basicTreeType</code> in the JSON format.
+		 */
+		public String getJsonName() {
+			return jsonName;
+		}
+
+		public boolean hasContent() {
+			return this == STATEMENT || this == IF || this == WHILE || this == FOREACH;
+		}
+
+		public static Type fromJson(String name) {
+			for (Type type : values()) {
+				if (type.jsonName.equals(name))
+					return type;
+			}
+			throw new IllegalArgumentException("Unknown basicTree: " + name);
+		}
+	}
+
+	private final int id;
+	private final Type type;
+	private final String content;
+	private final Node next;
+	private final Node body;
+	private final Node orElse;
+
+	private Node(int id, Type type, String content, Node next, Node body, Node orElse) {
+		this.id = id;
+		this.type = type;
+		this.content = content;
+		this.next = next;
+		this.body = body;
+		this.orElse = orElse;
+	}
+
+	public static Node start(int id, Node next) {
+		return new Node(id, Type.START, null, next, null, null);
+	}
+
+	public static Node end(int id) {
+		return new Node(id, Type.END, null, null, null, null);
+	}
+
+	public static Node empty(int id, Node next) {
+		return new Node(id, Type.EMPTY, null, next, null, null);
+	}
+
+	public static Node voidNode(int id) {
+		return new Node(id, Type.VOID, null, null, null, null);
+	}
+
+	public static Node statement(int id, String content, Node next) {
+		return new Node(id, Type.STATEMENT, content, next, null, null);
+	}
+
+	public static Node ifNode(int id, String content, Node falseBranch, Node trueBranch, Node next) {
+		return new Node(id, Type.IF, content, next, trueBranch, falseBranch);
+	}
+
+	public static Node whileNode(int id, String content, Node body, Node next) {
+		return new Node(id, Type.WHILE, content, next, body, null);
+	}
+
+	public static Node forEach(int id, String content, Node body, Node next) {
+		return new Node(id, Type.FOREACH, content, next, body, null);
+	}
+
+	/**
+	 * Same node with another successor, used to rebuild a sequence back to front.
+	 */
+	public Node withNext(Node newNext) {
+		return new Node(id, type, content, newNext, body, orElse);
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * The text in the box, null for Start, End, Empty and Void.
+	 */
+	public String getContent() {
+		return content;
+	}
+
+	public Node getNext() {
+		return next;
+	}
+
+	public Node getBody() {
+		return body;
+	}
+
+	public Node getElse() {
+		return orElse;
+	}
+
+	@Override
+	public String toString() {
+		return content == null ? type.jsonName + " " + id : type.jsonName + " " + id + " " + content;
+	}
+}
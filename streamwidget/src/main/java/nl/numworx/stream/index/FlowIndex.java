@@ -0,0 +1,424 @@
+package nl.numworx.stream.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import nl.numworx.stream.flow.Flow;
+import nl.numworx.stream.flow.Node;
+
+/**
+ * Inverted index over the texts in stored flows: the content of every box and the pre- and postcondition.
+ * <p>
+ * A query is a phrase: its tokens (see {@link Tokenizer}) must follow each other within one box.
+ * Postings are kept in memory, one sorted <code>long</code> per occurrence holding document, box and position.
+ * {@link #put} appends the postings of a new document number; {@link #remove} only forgets the number, and
+ * searches skip its postings. Once removed documents outnumber the others, the documents are renumbered
+ * without them and their postings dropped, so an index with many updates stays in proportion to what it holds.
+ * {@link #save} writes the postings delta and varint encoded.
+ * Thread safe.
+ */
+public final class FlowIndex {
+
+	/**
+	 * What kind of box a hit is in; the names follow <code>Tree.State.NodeType</code>.
+	 */
+	public enum Kind {
+		STATEMENT, IF, WHILE, FOREACH, PRECONDITION, POSTCONDITION;
+
+		static Kind of(Node.Type type) {
+			switch (type) {
+			case STATEMENT:
+				return STATEMENT;
+			case IF:
+				return IF;
+			case WHILE:
+				return WHILE;
+			case FOREACH:
+				return FOREACH;
+			default:
+				throw new IllegalArgumentException("No text in " + type);
+			}
+		}
+	}
+
+	/**
+	 * A box whose text matches.
+	 */
+	public static final class Hit {
+		private final String key;
+		private final int nodeId;
+		private final Kind kind;
+
+		Hit(String key, int nodeId, Kind kind) {
+			this.key = key;
+			this.nodeId = nodeId;
+			this.kind = kind;
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		/**
+		 * Id of the box, 4 for the precondition and 5 for the postcondition like on the Elm side.
+		 */
+		public int getNodeId() {
+			return nodeId;
+		}
+
+		public Kind getKind() {
+			return kind;
+		}
+
+		@Override
+		public String toString() {
+			return key + " " + nodeId + " " + kind;
+		}
+	}
+
+	private static final class Doc {
+		final int number;
+		final String key;
+		final long stamp;
+		final int[] nodeIds;
+		final Kind[] kinds;
+
+		Doc(int number, String key, long stamp, int[] nodeIds, Kind[] kinds) {
+			this.number = number;
+			this.key = key;
+			this.stamp = stamp;
+			this.nodeIds = nodeIds;
+			this.kinds = kinds;
+		}
+	}
+
+	private static final int MAGIC = 0x53464958; // "SFIX"
+	private static final int FORMAT = 1;
+	static final int PRECONDITION_ID = 4;
+	static final int POSTCONDITION_ID = 5;
+	/** Positions in a box; later tokens are not indexed. */
+	static final int MAX_POSITIONS = 1 << 12;
+	/** Boxes in a document; later boxes are not indexed. */
+	static final int MAX_BOXES = 1 << 20;
+
+	private final Map<String, Postings> terms = new HashMap<>();
+	private final Map<String, Doc> docs = new HashMap<>();
+	/** Documents by number; removed ones leave a null until the next {@link #compact}. */
+	private final List<Doc> numbered = new ArrayList<>();
+
+	static long posting(int doc, int box, int position) {
+		return (long) doc << 32 | (long) box << 12 | position;
+	}
+
+	private static int doc(long posting) {
+		return (int) (posting >>> 32);
+	}
+
+	private static int box(long posting) {
+		return (int) (posting >>> 12) & (MAX_BOXES - 1);
+	}
+
+	private static int position(long posting) {
+		return (int) posting & (MAX_POSITIONS - 1);
+	}
+
+	/**
+	 * Indexes the flow under the key, replacing what was indexed under it before.
+	 * The stamp is for the caller, to see whether the source changed; see {@link #stamp}.
+	 */
+	public synchronized void put(String key, long stamp, Flow flow) {
+		remove(key);
+		List<Integer> nodeIds = new ArrayList<>();
+		List<Kind> kinds = new ArrayList<>();
+		List<String> texts = new ArrayList<>();
+		collect(flow, nodeIds, kinds, texts);
+		int number = numbered.size();
+		int boxes = Math.min(texts.size(), MAX_BOXES);
+		for (int box = 0; box < boxes; box++) {
+			List<String> tokens = Tokenizer.tokens(texts.get(box));
+			int positions = Math.min(tokens.size(), MAX_POSITIONS);
+			for (int position = 0; position < positions; position++) {
+				String term = tokens.get(position);
+				terms.computeIfAbsent(term, t -> new Postings()).add(posting(number, box, position));
+			}
+		}
+		int[] ids = new int[boxes];
+		for (int box = 0; box < boxes; box++)
+			ids[box] = nodeIds.get(box);
+		Doc doc = new Doc(number, key, stamp, ids, kinds.subList(0, boxes).toArray(new Kind[0]));
+		numbered.add(doc);
+		docs.put(key, doc);
+	}
+
+	/**
+	 * Boxes with text in the order the postings number them: the conditions first, then the tree.
+	 */
+	private static void collect(Flow flow, List<Integer> nodeIds, List<Kind> kinds, List<String> texts) {
+		if (!flow.getPrecondition().getContent().isEmpty()) {
+			nodeIds.add(PRECONDITION_ID);
+			kinds.add(Kind.PRECONDITION);
+			texts.add(flow.getPrecondition().getContent());
+		}
+		if (!flow.getPostcondition().getContent().isEmpty()) {
+			nodeIds.add(POSTCONDITION_ID);
+			kinds.add(Kind.POSTCONDITION);
+			texts.add(flow.getPostcondition().getContent());
+		}
+		// a stack of sequences still to walk, so long programs do not recurse
+		Deque<Node> pending = new ArrayDeque<>();
+		pending.push(flow.getTree());
+		while (!pending.isEmpty()) {
+			for (Node n = pending.pop(); n != null; n = n.getNext()) {
+				if (n.getType().hasContent() && !n.getContent().isEmpty()) {
+					nodeIds.add(n.getId());
+					kinds.add(Kind.of(n.getType()));
+					texts.add(n.getContent());
+				}
+				if (n.getElse() != null)
+					pending.push(n.getElse());
+				if (n.getBody() != null)
+					pending.push(n.getBody());
+			}
+		}
+	}
+
+	public synchronized boolean remove(String key) {
+		Doc doc = docs.remove(key);
+		if (doc == null)
+			return false;
+		numbered.set(doc.number, null);
+		// each compaction follows at least as many removals as it keeps documents
+		if (numbered.size() - docs.size() > docs.size())
+			compact();
+		return true;
+	}
+
+	/**
+	 * Renumbers the documents without the removed ones and drops their postings, and the terms left without any.
+	 */
+	synchronized void compact() {
+		if (numbered.size() == docs.size())
+			return;
+		int[] renumber = new int[numbered.size()];
+		List<Doc> live = new ArrayList<>(docs.size());
+		for (int i = 0; i < numbered.size(); i++) {
+			Doc doc = numbered.get(i);
+			renumber[i] = doc == null ? -1 : live.size();
+			if (doc != null)
+				live.add(new Doc(live.size(), doc.key, doc.stamp, doc.nodeIds, doc.kinds));
+		}
+		numbered.clear();
+		numbered.addAll(live);
+		for (Doc doc : live)
+			docs.put(doc.key, doc);
+		for (Iterator<Postings> it = terms.values().iterator(); it.hasNext();) {
+			Postings postings = it.next();
+			postings.renumber(renumber);
+			if (postings.size() == 0)
+				it.remove();
+		}
+	}
+
+	/**
+	 * Document numbers in use, removed ones included.
+	 */
+	synchronized int numbers() {
+		return numbered.size();
+	}
+
+	/**
+	 * Postings held, those of removed documents included.
+	 */
+	synchronized long postings() {
+		long count = 0;
+		for (Postings postings : terms.values())
+			count += postings.size();
+		return count;
+	}
+
+	/**
+	 * The stamp the key was put with, or null when it is not in the index.
+	 */
+	public synchronized Long stamp(String key) {
+		Doc doc = docs.get(key);
+		return doc == null ? null : doc.stamp;
+	}
+
+	public synchronized Set<String> keys() {
+		return new TreeSet<>(docs.keySet());
+	}
+
+	public synchronized int size() {
+		return docs.size();
+	}
+
+	public List<Hit> search(String phrase) {
+		return search(phrase, EnumSet.allOf(Kind.class));
+	}
+
+	/**
+	 * Boxes of the given kinds in which the tokens of the phrase follow each other, in index order.
+	 */
+	public synchronized List<Hit> search(String phrase, Set<Kind> kinds) {
+		List<String> tokens = Tokenizer.tokens(phrase);
+		if (tokens.isEmpty() || tokens.size() > MAX_POSITIONS)
+			return Collections.emptyList();
+		Postings[] lists = new Postings[tokens.size()];
+		int rarest = 0;
+		for (int i = 0; i < lists.length; i++) {
+			lists[i] = terms.get(tokens.get(i));
+			if (lists[i] == null)
+				return Collections.emptyList();
+			if (lists[i].size() < lists[rarest].size())
+				rarest = i;
+		}
+		// walk the shortest list and look the other tokens up at their offset from it
+		List<Hit> hits = new ArrayList<>();
+		long lastBox = -1;
+		Postings walk = lists[rarest];
+		for (int p = 0; p < walk.size(); p++) {
+			long posting = walk.get(p);
+			int position = position(posting) - rarest;
+			if (position < 0 || position + lists.length > MAX_POSITIONS)
+				continue;
+			long start = posting - rarest;
+			long box = start >>> 12;
+			if (box == lastBox)
+				continue;
+			Doc doc = numbered.get(doc(start));
+			if (doc == null)
+				continue;
+			Kind kind = doc.kinds[box(start)];
+			if (!kinds.contains(kind) || !matches(lists, start, rarest))
+				continue;
+			lastBox = box;
+			hits.add(new Hit(doc.key, doc.nodeIds[box(start)], kind));
+		}
+		return hits;
+	}
+
+	private static boolean matches(Postings[] lists, long start, int skip) {
+		for (int i = 0; i < lists.length; i++) {
+			if (i != skip && !lists[i].contains(start + i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the index to the file, replacing it atomically. The index is compacted first,
+	 * so the file has no gaps that removals left.
+	 */
+	public synchronized void save(Path file) throws IOException {
+		compact();
+		Path tmp = file.resolveSibling(file.getFileName() + ".saving");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT);
+			writeVarLong(out, numbered.size());
+			for (Doc doc : numbered) {
+				out.writeUTF(doc.key);
+				writeVarLong(out, doc.stamp);
+				writeVarLong(out, doc.nodeIds.length);
+				for (int box = 0; box < doc.nodeIds.length; box++) {
+					writeVarLong(out, doc.nodeIds[box]);
+					out.writeByte(doc.kinds[box].ordinal());
+				}
+			}
+			writeVarLong(out, terms.size());
+			for (Map.Entry<String, Postings> e : terms.entrySet()) {
+				Postings postings = e.getValue();
+				out.writeUTF(e.getKey());
+				writeVarLong(out, postings.size());
+				long previous = 0;
+				for (int i = 0; i < postings.size(); i++) {
+					long p = postings.get(i);
+					writeVarLong(out, p - previous);
+					previous = p;
+				}
+			}
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Reads an index written by {@link #save}, or returns an empty index when the file does not exist.
+	 */
+	public static FlowIndex load(Path file) throws IOException {
+		FlowIndex index = new FlowIndex();
+		if (!Files.exists(file))
+			return index;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC)
+				throw new IOException(file + " is not a flow index");
+			int format = in.readInt();
+			if (format != FORMAT)
+				throw new IOException(file + " has index format " + format + ", expected " + FORMAT);
+			Kind[] kindValues = Kind.values();
+			int docCount = (int) readVarLong(in);
+			for (int number = 0; number < docCount; number++) {
+				String key = in.readUTF();
+				long stamp = readVarLong(in);
+				int boxes = (int) readVarLong(in);
+				int[] nodeIds = new int[boxes];
+				Kind[] kinds = new Kind[boxes];
+				for (int box = 0; box < boxes; box++) {
+					nodeIds[box] = (int) readVarLong(in);
+					kinds[box] = kindValues[in.readUnsignedByte()];
+				}
+				Doc doc = new Doc(number, key, stamp, nodeIds, kinds);
+				index.numbered.add(doc);
+				index.docs.put(key, doc);
+			}
+			int termCount = (int) readVarLong(in);
+			for (int t = 0; t < termCount; t++) {
+				String term = in.readUTF();
+				int count = (int) readVarLong(in);
+				Postings postings = new Postings();
+				long p = 0;
+				for (int i = 0; i < count; i++) {
+					p += readVarLong(in);
+					postings.add(p);
+				}
+				index.terms.put(term, postings);
+			}
+		}
+		return index;
+	}
+
+	private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	private static long readVarLong(DataInputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("malformed varint");
+	}
+}
@@ -0,0 +1,149 @@
+package nl.numworx.stream.index;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import nl.numworx.stream.flow.FlowJson;
+
+/**
+ * Keeps a {@link FlowIndex} of a directory of stored launch or suspend data up to date, and searches it.
+ * <p>
+ * Like {@link nl.numworx.stream.flow.BulkMigrate} it reads every string under a <code>flowchart</code>
+ * key of the <code>.json</code> files, or the file itself when it is a flow document. Only files whose
+ * modification time changed since the last run are indexed again; deleted files are dropped.
+ * A file with one flow is indexed under its relative path, with more flows as <code>path#1</code>, <code>path#2</code> and so on.
+ * <pre>
+ * java nl.numworx.stream.index.FlowIndexer [--index file] [--kind statement|if|while|foreach|precondition|postcondition]... directory [phrase]
+ * </pre>
+ */
+public final class FlowIndexer {
+
+	private final Path root;
+	private final FlowIndex index;
+	private int indexed;
+	private int unchanged;
+	private int dropped;
+	private final List<String> failed = new ArrayList<>();
+
+	public FlowIndexer(Path root, FlowIndex index) {
+		this.root = root;
+		this.index = index;
+	}
+
+	public static void main(String[] args) throws IOException {
+		Path file = null;
+		Path root = null;
+		String phrase = null;
+		Set<FlowIndex.Kind> kinds = EnumSet.noneOf(FlowIndex.Kind.class);
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "--index":
+				file = Paths.get(args[++i]);
+				break;
+			case "--kind":
+				kinds.add(FlowIndex.Kind.valueOf(args[++i].toUpperCase(Locale.ROOT)));
+				break;
+			default:
+				if (root == null)
+					root = Paths.get(args[i]);
+				else
+					phrase = args[i];
+			}
+		}
+		if (root == null) {
+			System.err.println("usage: FlowIndexer [--index file] [--kind kind]... directory [phrase]");
+			System.exit(2);
+		}
+		if (file == null)
+			file = root.resolve(".flow-index");
+		if (kinds.isEmpty())
+			kinds = EnumSet.allOf(FlowIndex.Kind.class);
+		FlowIndex index = FlowIndex.load(file);
+		FlowIndexer indexer = new FlowIndexer(root, index);
+		indexer.update();
+		index.save(file);
+		System.err.println(indexer.summary());
+		if (phrase != null) {
+			long start = System.nanoTime();
+			List<FlowIndex.Hit> hits = index.search(phrase, kinds);
+			long micros = (System.nanoTime() - start) / 1000;
+			for (FlowIndex.Hit hit : hits)
+				System.out.println(hit);
+			System.err.println(hits.size() + " hits in " + micros + " us");
+		}
+	}
+
+	/**
+	 * Brings the index in line with the directory.
+	 */
+	public void update() throws IOException {
+		Set<String> seen = new HashSet<>();
+		try (Stream<Path> files = Files.walk(root)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				if (!Files.isRegularFile(file) || !file.toString().endsWith(".json"))
+					continue;
+				String name = root.relativize(file).toString();
+				seen.add(name);
+				long stamp = Files.getLastModifiedTime(file).toMillis();
+				Long known = index.stamp(name);
+				if (known == null)
+					known = index.stamp(name + "#1");
+				if (known != null && known == stamp) {
+					unchanged++;
+					continue;
+				}
+				try {
+					index(file, name, stamp);
+					indexed++;
+				} catch (IOException | RuntimeException e) {
+					failed.add(name + ": " + e.getMessage());
+				}
+			}
+		}
+		for (String key : index.keys()) {
+			int hash = key.lastIndexOf('#');
+			if (!seen.contains(hash < 0 ? key : key.substring(0, hash)) && index.remove(key))
+				dropped++;
+		}
+		// what the files that changed left behind
+		index.compact();
+	}
+
+	private void index(Path file, String name, long stamp) throws IOException {
+		removeFile(name);
+		String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+		List<String> flows = FlowJson.embedded(text);
+		if (flows.size() == 1) {
+			index.put(name, stamp, FlowJson.read(flows.get(0)));
+		} else {
+			for (int i = 0; i < flows.size(); i++)
+				index.put(name + "#" + (i + 1), stamp, FlowJson.read(flows.get(i)));
+		}
+	}
+
+	private void removeFile(String name) {
+		index.remove(name);
+		for (int i = 1; index.remove(name + "#" + i); i++)
+			;
+	}
+
+	public String summary() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(indexed).append(" indexed, ").append(unchanged).append(" unchanged, ")
+				.append(dropped).append(" dropped, ").append(failed.size()).append(" failed, ")
+				.append(index.size()).append(" flows in the index");
+		for (String f : failed)
+			sb.append("\n  ").append(f);
+		return sb.toString();
+	}
+}
@@ -0,0 +1,47 @@
+package nl.numworx.stream.index;
+
+import java.util.Arrays;
+
+/**
+ * Sorted, growable list of encoded postings of one term, see {@link FlowIndex#posting}.
+ * Documents get increasing numbers, so new postings are always appended.
+ */
+final class Postings {
+
+	private long[] values = new long[4];
+	private int size;
+
+	void add(long value) {
+		if (size == values.length)
+			values = Arrays.copyOf(values, size * 2);
+		values[size++] = value;
+	}
+
+	long get(int i) {
+		return values[i];
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean contains(long value) {
+		return Arrays.binarySearch(values, 0, size, value) >= 0;
+	}
+
+	/**
+	 * Gives the postings of document <code>d</code> the number <code>numbers[d]</code>, and drops them when that is -1.
+	 * The numbering keeps the order of the documents, so the list stays sorted.
+	 */
+	void renumber(int[] numbers) {
+		int kept = 0;
+		for (int i = 0; i < size; i++) {
+			int number = numbers[(int) (values[i] >>> 32)];
+			if (number >= 0)
+				values[kept++] = (long) number << 32 | values[i] & 0xFFFFFFFFL;
+		}
+		size = kept;
+		if (size < values.length / 4)
+			values = Arrays.copyOf(values, Math.max(4, size * 2));
+	}
+}
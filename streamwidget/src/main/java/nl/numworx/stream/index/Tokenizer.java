@@ -0,0 +1,45 @@
+package nl.numworx.stream.index;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Splits box contents into lower case tokens. Words and numbers are one token each, as are runs of
+ * operator characters (<code>&lt;=</code>, <code>:=</code>); any other symbol is a token on its own.
+ * Queries go through the same split, so <code>i&lt;n</code> finds <code>i &lt; n</code>.
+ */
+final class Tokenizer {
+
+	private static final String OPERATOR = "<>=!&|:+-*/%^";
+
+	private Tokenizer() {
+	}
+
+	static List<String> tokens(String text) {
+		List<String> tokens = new ArrayList<>();
+		int n = text.length();
+		int i = 0;
+		while (i < n) {
+			char c = text.charAt(i);
+			int start = i;
+			if (isWord(c)) {
+				while (i < n && isWord(text.charAt(i)))
+					i++;
+			} else if (OPERATOR.indexOf(c) >= 0) {
+				while (i < n && OPERATOR.indexOf(text.charAt(i)) >= 0)
+					i++;
+			} else {
+				i++;
+				if (Character.isWhitespace(c))
+					continue;
+			}
+			tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+		}
+		return tokens;
+	}
+
+	private static boolean isWord(char c) {
+		return Character.isLetterOrDigit(c) || c == '_';
+	}
+}
@@ -0,0 +1,24 @@
+package nl.numworx.stream.render;
+
+import java.awt.Color;
+import java.awt.Font;
+
+/**
+ * Drawing target of the renderer. Coordinates are pixels with the y-axis pointing down.
+ * A <code>null</code> fill or pen leaves that part out.
+ */
+public interface Canvas {
+
+	void rectangle(double x, double y, double w, double h, Color fill, Pen pen);
+
+	void ellipse(double cx, double cy, double rx, double ry, Color fill, Pen pen);
+
+	void polygon(double[] xs, double[] ys, Color fill, Pen pen);
+
+	void polyline(double[] xs, double[] ys, Pen pen);
+
+	/**
+	 * One line of text, vertically centered on y and starting at, or centered on, x.
+	 */
+	void text(double x, double y, String text, Font font, Color color, boolean centered);
+}
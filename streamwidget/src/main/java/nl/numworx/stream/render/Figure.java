@@ -0,0 +1,192 @@
+package nl.numworx.stream.render;
+
+import java.util.List;
+
+/**
+ * Immutable drawing with an envelope, modelled on elm-collage so {@link FlowDrawing} can follow
+ * <code>Tree.Draw</code> call for call. Coordinates are y-up around the origin of the figure;
+ * the envelope gives the distances from the origin to each side and may exclude the origin.
+ */
+final class Figure {
+
+	/**
+	 * Draws a leaf. (x, y) is where the origin lands on the canvas, whose y-axis points down.
+	 */
+	interface Mark {
+		void draw(Canvas canvas, double x, double y);
+	}
+
+	enum Anchor {
+		TOP, TOP_RIGHT, RIGHT, BOTTOM_RIGHT, BOTTOM, BOTTOM_LEFT, LEFT, TOP_LEFT, CENTER, BASE;
+
+		double[] of(Figure f) {
+			double midX = (f.right - f.left) / 2;
+			double midY = (f.up - f.down) / 2;
+			switch (this) {
+			case TOP:
+				return new double[] { midX, f.up };
+			case TOP_RIGHT:
+				return new double[] { f.right, f.up };
+			case RIGHT:
+				return new double[] { f.right, midY };
+			case BOTTOM_RIGHT:
+				return new double[] { f.right, -f.down };
+			case BOTTOM:
+				return new double[] { midX, -f.down };
+			case BOTTOM_LEFT:
+				return new double[] { -f.left, -f.down };
+			case LEFT:
+				return new double[] { -f.left, midY };
+			case TOP_LEFT:
+				return new double[] { -f.left, f.up };
+			case CENTER:
+				return new double[] { midX, midY };
+			default:
+				return new double[] { 0, 0 };
+			}
+		}
+	}
+
+	static final Figure EMPTY = new Figure(0, 0, 0, 0, null, null, null, null, null);
+
+	final double up;
+	final double down;
+	final double left;
+	final double right;
+
+	private final Mark mark;
+	private final Figure[] parts;
+	private final double[] dx;
+	private final double[] dy;
+	private final String name;
+
+	private Figure(double up, double down, double left, double right, Mark mark,
+			Figure[] parts, double[] dx, double[] dy, String name) {
+		this.up = up;
+		this.down = down;
+		this.left = left;
+		this.right = right;
+		this.mark = mark;
+		this.parts = parts;
+		this.dx = dx;
+		this.dy = dy;
+		this.name = name;
+	}
+
+	static Figure mark(double up, double down, double left, double right, Mark mark) {
+		return new Figure(up, down, left, right, mark, null, null, null, null);
+	}
+
+	static Figure spacer(double w, double h) {
+		return mark(h / 2, h / 2, w / 2, w / 2, null);
+	}
+
+	double width() {
+		return left + right;
+	}
+
+	double height() {
+		return up + down;
+	}
+
+	/**
+	 * The first figure ends up on top, like <code>Collage.group</code>.
+	 */
+	static Figure stack(Figure... figures) {
+		return place(figures, new double[figures.length], new double[figures.length]);
+	}
+
+	private static Figure place(Figure[] figures, double[] dx, double[] dy) {
+		if (figures.length == 0)
+			return EMPTY;
+		double up = Double.NEGATIVE_INFINITY;
+		double down = Double.NEGATIVE_INFINITY;
+		double left = Double.NEGATIVE_INFINITY;
+		double right = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < figures.length; i++) {
+			Figure f = figures[i];
+			up = Math.max(up, f.up + dy[i]);
+			down = Math.max(down, f.down - dy[i]);
+			left = Math.max(left, f.left - dx[i]);
+			right = Math.max(right, f.right + dx[i]);
+		}
+		return new Figure(up, down, left, right, null, figures, dx, dy, null);
+	}
+
+	Figure shift(double x, double y) {
+		if (x == 0 && y == 0)
+			return this;
+		return place(new Figure[] { this }, new double[] { x }, new double[] { y });
+	}
+
+	Figure align(Anchor anchor) {
+		double[] a = anchor.of(this);
+		return shift(-a[0], -a[1]);
+	}
+
+	/**
+	 * <code>Collage.Layout.at</code>: puts <code>fore</code> on top, its origin at the anchor of this figure.
+	 */
+	Figure at(Anchor anchor, Figure fore) {
+		double[] a = anchor.of(this);
+		return stack(fore.shift(a[0], a[1]), this);
+	}
+
+	Figure above(Figure upper) {
+		return stack(this, upper.shift(0, up + upper.down));
+	}
+
+	/**
+	 * Top to bottom, the origins on one vertical line; the origin is that of the first figure.
+	 */
+	static Figure vertical(List<Figure> figures) {
+		Figure[] fs = figures.toArray(new Figure[0]);
+		double[] dy = new double[fs.length];
+		for (int i = 1; i < fs.length; i++) {
+			dy[i] = dy[i - 1] - fs[i - 1].down - fs[i].up;
+		}
+		return place(fs, new double[fs.length], dy);
+	}
+
+	/**
+	 * Left to right, the origins on one horizontal line; the origin is that of the first figure.
+	 */
+	static Figure horizontal(List<Figure> figures) {
+		Figure[] fs = figures.toArray(new Figure[0]);
+		double[] dx = new double[fs.length];
+		for (int i = 1; i < fs.length; i++) {
+			dx[i] = dx[i - 1] + fs[i - 1].right + fs[i].left;
+		}
+		return place(fs, dx, new double[fs.length]);
+	}
+
+	Figure named(String newName) {
+		return new Figure(up, down, left, right, mark, parts, dx, dy, newName);
+	}
+
+	/**
+	 * Position of the anchor of the first part with that name, or null.
+	 */
+	double[] locate(String target, Anchor anchor) {
+		if (target.equals(name))
+			return anchor.of(this);
+		if (parts == null)
+			return null;
+		for (int i = 0; i < parts.length; i++) {
+			double[] p = parts[i].locate(target, anchor);
+			if (p != null)
+				return new double[] { p[0] + dx[i], p[1] + dy[i] };
+		}
+		return null;
+	}
+
+	void draw(Canvas canvas, double x, double y) {
+		if (mark != null)
+			mark.draw(canvas, x, y);
+		if (parts != null) {
+			for (int i = parts.length - 1; i >= 0; i--) {
+				parts[i].draw(canvas, x + dx[i], y - dy[i]);
+			}
+		}
+	}
+}
@@ -0,0 +1,527 @@
+package nl.numworx.stream.render;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+import nl.numworx.stream.flow.Flow;
+import nl.numworx.stream.flow.Node;
+import nl.numworx.stream.render.Figure.Anchor;
+
+/**
+ * Port of <code>Tree.Draw</code> onto {@link Figure}, function for function, without the mouse-over
+ * menus. Their hitboxes are kept since they take up room. Text areas are sized on the same character
+ * grid as <code>multilineEditableTextBox</code> and their text is drawn as plain lines.
+ */
+final class FlowDrawing {
+
+	static final double UNIT = 10;
+
+	static final Font TEXT = new Font(Font.SANS_SERIF, Font.PLAIN, 16);
+	static final Font LABEL = new Font(Font.SANS_SERIF, Font.ITALIC, 13);
+	static final Font TITLE = new Font(Font.SANS_SERIF, Font.BOLD, 16);
+	static final Font CONTENT = new Font(Font.MONOSPACED, Font.PLAIN, 13);
+	static final double LINE_HEIGHT = 15;
+
+	static final Color STUB = new Color(208, 198, 243);
+	static final Color EMPTY = new Color(255, 202, 255);
+	static final Color STATEMENT = new Color(244, 171, 211);
+	static final Color IF = new Color(241, 190, 244);
+	static final Color WHILE = new Color(181, 199, 245);
+	static final Color FOREACH = new Color(255, 232, 255);
+	static final Color NAME = new Color(193, 212, 255);
+	static final Color NOTE = new Color(220, 237, 248);
+	static final Color PLACEHOLDER = new Color(117, 117, 117);
+	static final Color SUMMARY = new Color(240, 240, 240);
+
+	static final Pen DASHED = new Pen(new Color(186, 189, 182), 2, true);
+	static final Pen CONNECTOR = new Pen(Color.BLACK, 1, true);
+
+	private FlowDrawing() {
+	}
+
+	/**
+	 * Which If, While and ForEach boxes are drawn as a summary, <code>Tree.State.isCollapsed</code>.
+	 */
+	static final class Detail {
+		private final Flow flow;
+		private final int level;
+
+		/**
+		 * @param level boxes this many levels deep are summarized; below 0 only the collapsed ones
+		 */
+		Detail(Flow flow, int level) {
+			this.flow = flow;
+			this.level = level;
+		}
+
+		boolean collapsed(int depth, int id) {
+			return flow.isCollapsed(id) || (level >= 0 && depth >= level);
+		}
+	}
+
+	/**
+	 * <code>completeTree model |&gt; addConditions model</code>
+	 */
+	static Figure complete(Flow flow) {
+		return complete(flow, -1);
+	}
+
+	static Figure complete(Flow flow, int level) {
+		Figure tree = sequence(flow.getTree(), new Detail(flow, level), 0)
+				.at(Anchor.TOP, gap())
+				.at(Anchor.RIGHT, gap());
+		return addConditions(flow, tree);
+	}
+
+	// Basic shapes
+
+	private static Figure gap() {
+		return Figure.spacer(UNIT, UNIT);
+	}
+
+	private static Figure text(String s, Font font) {
+		double w = s.length() * font.getSize() / 2.0;
+		double h = font.getSize();
+		return Figure.mark(h / 2, h / 2, w / 2, w / 2, (c, x, y) -> c.text(x, y, s, font, Color.BLACK, true));
+	}
+
+	private static Figure label(String s) {
+		return text(s, LABEL);
+	}
+
+	private static Figure hline(double length) {
+		return Figure.mark(0, 0, length / 2, length / 2,
+				(c, x, y) -> c.polyline(new double[] { x - length / 2, x + length / 2 }, new double[] { y, y }, Pen.THIN));
+	}
+
+	private static Figure vline(double length) {
+		return Figure.mark(length / 2, length / 2, 0, 0,
+				(c, x, y) -> c.polyline(new double[] { x, x }, new double[] { y - length / 2, y + length / 2 }, Pen.THIN));
+	}
+
+	private static Figure rectangle(double w, double h, Color fill, Pen pen) {
+		return Figure.mark(h / 2, h / 2, w / 2, w / 2, (c, x, y) -> c.rectangle(x - w / 2, y - h / 2, w, h, fill, pen));
+	}
+
+	private static Figure ellipse(double rx, double ry, Color fill, Pen pen) {
+		return Figure.mark(ry, ry, rx, rx, (c, x, y) -> c.ellipse(x, y, rx, ry, fill, pen));
+	}
+
+	/**
+	 * Polygon (fill != null) or open path through points in y-up coordinates.
+	 */
+	private static Figure shape(double[] px, double[] py, Color fill, Pen pen) {
+		double minX = Arrays.stream(px).min().orElse(0);
+		double maxX = Arrays.stream(px).max().orElse(0);
+		double minY = Arrays.stream(py).min().orElse(0);
+		double maxY = Arrays.stream(py).max().orElse(0);
+		return Figure.mark(maxY, -minY, -minX, maxX, (c, x, y) -> {
+			double[] xs = new double[px.length];
+			double[] ys = new double[py.length];
+			for (int i = 0; i < xs.length; i++) {
+				xs[i] = x + px[i];
+				ys[i] = y - py[i];
+			}
+			if (fill != null)
+				c.polygon(xs, ys, fill, pen);
+			else
+				c.polyline(xs, ys, pen);
+		});
+	}
+
+	private static Figure triangle(boolean right) {
+		double b = 15;
+		double y = b * Math.sqrt(3) / 4;
+		return right
+				? shape(new double[] { -y, -y, y }, new double[] { b / 2, -b / 2, 0 }, Color.BLACK, null)
+				: shape(new double[] { b / 2, -b / 2, 0 }, new double[] { y, y, -y }, Color.BLACK, null);
+	}
+
+	private static Figure arrow(double length) {
+		return vline(Math.max(length, UNIT * 3))
+				.at(Anchor.BOTTOM, triangle(false).align(Anchor.BOTTOM));
+	}
+
+	private static Figure addBottomArrow(double reqLength, Node child, Figure figure) {
+		double length = Math.max(reqLength, UNIT * 3);
+		boolean isVoid = child == null || child.getType() == Node.Type.VOID;
+		return Figure.stack(figure.align(Anchor.BOTTOM),
+				(isVoid ? vline(length) : arrow(length)).align(Anchor.TOP));
+	}
+
+	/**
+	 * <code>addOverlayMenu</code> when nothing is highlighted: only the hitbox.
+	 */
+	private static Figure hitbox(Figure figure) {
+		return Figure.stack(figure, Figure.spacer(figure.width() + UNIT * 2, figure.height() + UNIT * 2));
+	}
+
+	/**
+	 * The delete button of a condition note; not drawn, but it counts for the size.
+	 */
+	private static Figure deleteButton() {
+		return Figure.spacer(16, 16);
+	}
+
+	// Text areas
+
+	/**
+	 * Size in characters and lines as computed by <code>multilineEditableTextBox</code>, with the lines.
+	 */
+	static final class Grid {
+		final double width;
+		final double height;
+		final List<String> lines;
+
+		Grid(double width, double height, List<String> lines) {
+			this.width = width;
+			this.height = height;
+			this.lines = lines;
+		}
+	}
+
+	static Grid grid(String content, int minWidth, int minHeight, int maxWidth) {
+		List<String> lines = new ArrayList<>();
+		StringBuilder line = new StringBuilder();
+		int current = 1;
+		int max = 1;
+		int height = 1;
+		for (int i = 0; i < content.length(); i++) {
+			char c = content.charAt(i);
+			int cw = c == '\t' ? 4 : c == '\n' ? 0 : 1;
+			if (c == '\n') {
+				// the first character gets one extra, so a scrollbar does not appear upon enter
+				current = 1;
+				height++;
+				lines.add(line.toString());
+				line.setLength(0);
+			} else if (i == 0) {
+				current = cw + 1;
+				max = cw + 1;
+				line.append(c);
+			} else if (current + cw > maxWidth) {
+				current = cw;
+				height++;
+				lines.add(line.toString());
+				line.setLength(0);
+				line.append(c);
+			} else {
+				current += cw;
+				max = Math.max(max, current);
+				line.append(c);
+			}
+		}
+		lines.add(line.toString());
+		return new Grid(Math.max(minWidth, max), Math.max(minHeight, height) + 0.15, lines);
+	}
+
+	private static Figure textArea(double w, double h, List<String> lines, boolean centered, String placeholder) {
+		boolean empty = lines.size() == 1 && lines.get(0).isEmpty();
+		List<String> shown = empty ? Arrays.asList(placeholder) : lines;
+		Color color = empty ? PLACEHOLDER : Color.BLACK;
+		return Figure.mark(h / 2, h / 2, w / 2, w / 2, (c, x, y) -> {
+			double top = y - h / 2 + 2;
+			for (int i = 0; i < shown.size(); i++) {
+				String s = shown.get(i).replace("\t", "    ");
+				double ly = top + (i + 0.5) * LINE_HEIGHT;
+				if (centered)
+					c.text(x, ly, s, CONTENT, color, true);
+				else
+					c.text(x - w / 2 + 2, ly, s, CONTENT, color, false);
+			}
+		});
+	}
+
+	// Boxes
+
+	private static Figure stubBox(String s) {
+		return Figure.stack(text(s, TEXT), ellipse(50, 25, STUB, Pen.THIN)).named(s);
+	}
+
+	private static Figure emptyBox() {
+		List<Figure> options = new ArrayList<>();
+		options.add(boxNonEditable("statement", Node.Type.STATEMENT));
+		options.add(gap());
+		options.add(boxNonEditable("if", Node.Type.IF));
+		options.add(gap());
+		options.add(boxNonEditable("while", Node.Type.WHILE));
+		options.add(gap());
+		options.add(boxNonEditable("forEach", Node.Type.FOREACH));
+		Figure row = Figure.horizontal(options).align(Anchor.CENTER);
+		return Figure.stack(row, rectangle(row.width() + UNIT, row.height() + UNIT, EMPTY, DASHED));
+	}
+
+	private static Figure boxNonEditable(String label, Node.Type type) {
+		Figure text = text(label, TEXT);
+		double w = Math.max(text.width(), 40);
+		double h = 19;
+		Figure shape;
+		switch (type) {
+		case STATEMENT:
+			shape = statementShape(w, h);
+			break;
+		case IF:
+			shape = ifShape(w, h);
+			break;
+		default:
+			shape = loopShape(type, w, h);
+		}
+		return Figure.stack(text, shape);
+	}
+
+	private static Figure statementShape(double w, double h) {
+		return rectangle(w + 2 * UNIT, h + 3 * UNIT, STATEMENT, Pen.THIN);
+	}
+
+	private static Figure statementBox(String content) {
+		Grid g = grid(content, 10, 1, 22);
+		double w = g.width * 9;
+		double h = g.height * 13;
+		return Figure.stack(textArea(w, h * 1.3, g.lines, false, "Statement"), statementShape(w, h));
+	}
+
+	private static Figure ifShape(double w, double h) {
+		return shape(
+				new double[] { 0, -UNIT * 2, 0, w, w + UNIT * 2, w },
+				new double[] { h, 0, -h, -h, 0, h },
+				IF, Pen.THIN).align(Anchor.CENTER);
+	}
+
+	private static Figure ifBox(String content) {
+		Grid g = grid(content, 10, 1, 23);
+		double w = g.width * 9;
+		double h = g.height * 7.8 + 10;
+		return Figure.stack(textArea(w, h * 2, g.lines, true, "If").shift(0, -7), ifShape(w, h));
+	}
+
+	private static Figure loopShape(Node.Type type, double w, double h) {
+		return shape(
+				new double[] { 0, 0, (w + UNIT) / 2, w + UNIT, w + UNIT },
+				new double[] { h, -h, -(h * 1.5), -h, h },
+				type == Node.Type.WHILE ? WHILE : FOREACH, Pen.THIN).align(Anchor.CENTER);
+	}
+
+	private static Figure loopBox(Node.Type type, String content) {
+		Grid g = grid(content, 10, 1, 25);
+		double w = g.width * 9;
+		double h = g.height * 7.8 + 5;
+		String placeholder = type == Node.Type.WHILE ? "While" : "ForEach";
+		return Figure.stack(textArea(w, h * 2, g.lines, true, placeholder), loopShape(type, w, h));
+	}
+
+	// The tree
+
+	/**
+	 * <code>drawNode</code> for a node and everything after it. A sequence is a flat
+	 * <code>vertical</code>, which is what the nested calls in Elm amount to.
+	 */
+	static Figure sequence(Node first, Detail detail, int depth) {
+		List<Figure> parts = new ArrayList<>();
+		for (Node n = first; n != null; n = n.getNext()) {
+			parts.add(node(n, detail, depth));
+		}
+		return parts.isEmpty() ? Figure.EMPTY : Figure.vertical(parts);
+	}
+
+	private static Figure node(Node n, Detail detail, int depth) {
+		switch (n.getType()) {
+		case START:
+			return addBottomArrow(0, n.getNext(), hitbox(stubBox("Start")));
+		case END:
+			return hitbox(stubBox("End"));
+		case EMPTY:
+			return addBottomArrow(0, n.getNext(), hitbox(emptyBox()));
+		case STATEMENT:
+			return addBottomArrow(0, n.getNext(), hitbox(statementBox(n.getContent())));
+		case IF:
+			if (detail.collapsed(depth, n.getId()))
+				return addBottomArrow(0, n.getNext(), collapsedHelper(decoratedIfBox(n), n.getBody(), n.getElse()));
+			return addBottomArrow(0, n.getNext(), ifHelper(n, detail, depth));
+		case WHILE:
+		case FOREACH:
+			if (detail.collapsed(depth, n.getId()))
+				return addBottomArrow(0, n.getNext(), collapsedHelper(hitbox(loopBox(n.getType(), n.getContent()))
+						.at(Anchor.TOP_LEFT, label(n.getType() == Node.Type.WHILE ? "while" : "for each").align(Anchor.BOTTOM)),
+						n.getBody(), null));
+			return loopHelper(n, detail, depth);
+		default:
+			return Figure.EMPTY;
+		}
+	}
+
+	private static Figure lineToBottom(double max, Figure tree) {
+		return Figure.vertical(Arrays.asList(tree, vline(max - tree.height())));
+	}
+
+	private static Figure topArrow(Node child, Anchor dir, double length, Figure figure) {
+		boolean isVoid = child == null || child.getType() == Node.Type.VOID;
+		return figure.at(dir, isVoid ? vline(length) : arrow(length)).align(Anchor.TOP);
+	}
+
+	private static Figure ifHelper(Node node, Detail detail, int depth) {
+		Figure leftPiece = sequence(node.getElse(), detail, depth + 1);
+		Figure rightPiece = sequence(node.getBody(), detail, depth + 1);
+		double maxHeight = Math.max(leftPiece.height(), rightPiece.height()) + UNIT * 5;
+		Figure decorated = decoratedIfBox(node);
+		double midLength = Math.max(rightPiece.left + leftPiece.right + UNIT * 2, decorated.width() + 6 * UNIT);
+		double midGap = midLength - rightPiece.left - leftPiece.right;
+		Figure midPiece = Figure.horizontal(Arrays.asList(
+				lineToBottom(maxHeight, leftPiece).named("leftPiece").align(Anchor.TOP),
+				Figure.spacer(midGap, 0).align(Anchor.TOP),
+				lineToBottom(maxHeight, rightPiece).named("rightPiece").align(Anchor.TOP)))
+				.shift(-midLength / 2, 0);
+		double armLength = decorated.height() / 2 + 2 * UNIT;
+		Figure bar = hline(midLength)
+				.at(Anchor.TOP_RIGHT, label("true").align(Anchor.BOTTOM_RIGHT))
+				.at(Anchor.TOP_LEFT, label("false").align(Anchor.BOTTOM_LEFT))
+				.align(Anchor.LEFT);
+		Figure topArrows = Figure.spacer(0, armLength).above(bar);
+		topArrows = topArrow(node.getElse(), Anchor.LEFT, armLength, topArrows).align(Anchor.CENTER);
+		topArrows = topArrow(node.getBody(), Anchor.RIGHT, armLength, topArrows).align(Anchor.CENTER);
+		Figure bottomLine = hitbox(hline(midLength));
+		return Figure.vertical(Arrays.asList(topArrows, midPiece, bottomLine))
+				.at(Anchor.TOP, decorated);
+	}
+
+	private static Figure decoratedIfBox(Node node) {
+		return hitbox(ifBox(node.getContent()))
+				.at(Anchor.TOP_LEFT, label("if").align(Anchor.LEFT));
+	}
+
+	private static Figure loopHelper(Node node, Detail detail, int depth) {
+		boolean isWhile = node.getType() == Node.Type.WHILE;
+		String typeLabel = isWhile ? "while" : "for each";
+		String leftTag = isWhile ? "false   " : "done   ";
+		String bottomTag = isWhile ? "   true" : "  repeat";
+		Figure decorated = hitbox(loopBox(node.getType(), node.getContent())
+				.at(Anchor.RIGHT, triangle(true).align(Anchor.LEFT)))
+				.at(Anchor.TOP_LEFT, label(typeLabel).align(Anchor.BOTTOM))
+				.at(Anchor.LEFT, label(leftTag).align(Anchor.BOTTOM_RIGHT))
+				.at(Anchor.BOTTOM, label(bottomTag).align(Anchor.TOP_LEFT));
+		Figure inner = Figure.vertical(Arrays.asList(arrow(decorated.height() / 2), sequence(node.getBody(), detail, depth + 1)));
+		double topInner = inner.up + UNIT;
+		double leftInner = Math.max(inner.left + UNIT, decorated.width() / 2 + 2 * UNIT);
+		double downInner = inner.down;
+		double rightInner = Math.max(inner.right + UNIT, decorated.width() / 2 + 2 * UNIT);
+		Figure superPathOne = shape(
+				new double[] { 0, rightInner, rightInner, rightInner, -leftInner, -leftInner, -UNIT, 0 },
+				new double[] { -downInner, -downInner, topInner, topInner, topInner,
+						-(downInner + 2 * UNIT), -(downInner + 2 * UNIT), -(downInner + 2 * UNIT) },
+				null, Pen.THIN);
+		Figure superPath = Figure.vertical(Arrays.asList(superPathOne, hitbox(Figure.spacer(1, 0))));
+		return addBottomArrow(0, node.getNext(), Figure.stack(superPath, inner).at(Anchor.TOP, decorated));
+	}
+
+	// Collapsed subtrees
+
+	private static Figure collapsedHelper(Figure decorated, Node first, Node second) {
+		int count = boxCount(first) + boxCount(second);
+		return Figure.vertical(Arrays.asList(decorated, vline(2 * UNIT), hitbox(summaryBox(count))));
+	}
+
+	private static Figure summaryBox(int count) {
+		Figure text = text(count + (count == 1 ? " box" : " boxes"), TEXT);
+		double w = Math.max(text.width(), 60);
+		return Figure.stack(text, rectangle(w + 2 * UNIT, text.height() + 2 * UNIT, SUMMARY, DASHED));
+	}
+
+	/**
+	 * Statement, If, While and ForEach boxes in a sequence and its branches, with a work list
+	 * like <code>boxCount</code>.
+	 */
+	private static int boxCount(Node first) {
+		int count = 0;
+		Deque<Node> work = new ArrayDeque<>();
+		if (first != null)
+			work.push(first);
+		while (!work.isEmpty()) {
+			for (Node n = work.pop(); n != null; n = n.getNext()) {
+				switch (n.getType()) {
+				case STATEMENT:
+				case IF:
+				case WHILE:
+				case FOREACH:
+					count++;
+					break;
+				default:
+					break;
+				}
+				if (n.getBody() != null)
+					work.push(n.getBody());
+				if (n.getElse() != null)
+					work.push(n.getElse());
+			}
+		}
+		return count;
+	}
+
+	// Name and conditions
+
+	private static Figure flowchartNameBox(String name) {
+		double w = UNIT * 16;
+		double h = UNIT * 2;
+		Figure field = Figure.mark(h / 2, h / 2, w / 2, w / 2, (c, x, y) -> {
+			if (name.isEmpty())
+				c.text(x, y, "Flowchart name", CONTENT, PLACEHOLDER, true);
+			else
+				c.text(x, y, name, CONTENT, Color.BLACK, true);
+		});
+		return Figure.stack(field, rectangle(w + 2 * UNIT, 4 * UNIT, NAME, Pen.THIN)).named("flowchartNameBox");
+	}
+
+	private static Figure noteBox(String conditionType, String content) {
+		Grid g = grid(content, 30, 4, 30);
+		double w = g.width * 5;
+		double h = g.height * 7.8 + 15;
+		Figure title = text(conditionType, TITLE).align(Anchor.TOP_RIGHT);
+		Figure note = shape(
+				new double[] { w, w, -w, -w, -w + UNIT * 8 },
+				new double[] { h, -h, -h, h - UNIT * 2, h },
+				NOTE, Pen.THIN)
+				.align(Anchor.TOP_RIGHT)
+				.shift(UNIT, UNIT);
+		note = Figure.stack(title, note)
+				.align(Anchor.TOP_LEFT)
+				.shift(-UNIT, UNIT * 2.5);
+		Figure text = textArea(w * 2, h * 2, g.lines, false, conditionType).align(Anchor.TOP_LEFT);
+		return Figure.stack(text, note).named(conditionType);
+	}
+
+	private static Figure connect(Figure figure, String from, Anchor fromAnchor, String to, Anchor toAnchor) {
+		double[] a = figure.locate(from, fromAnchor);
+		double[] b = figure.locate(to, toAnchor);
+		if (a == null || b == null)
+			return figure;
+		return Figure.stack(shape(new double[] { a[0], b[0] }, new double[] { a[1], b[1] }, null, CONNECTOR), figure);
+	}
+
+	private static Figure addConditions(Flow flow, Figure tree) {
+		Figure col = Figure.stack(flowchartNameBox(flow.getName()).align(Anchor.RIGHT), tree.shift(6.5 * UNIT, -2.6 * UNIT));
+		col = connect(col, "Start", Anchor.LEFT, "flowchartNameBox", Anchor.RIGHT).align(Anchor.RIGHT);
+		if (flow.getPrecondition().isVisible()) {
+			Figure note = noteBox("Precondition", flow.getPrecondition().getContent())
+					.at(Anchor.TOP_RIGHT, deleteButton())
+					.align(Anchor.LEFT);
+			col = connect(Figure.stack(note, col), "Start", Anchor.RIGHT, "Precondition", Anchor.LEFT);
+		}
+		if (flow.getPostcondition().isVisible()) {
+			double[] end = tree.locate("End", Anchor.BASE);
+			if (end == null)
+				end = new double[2];
+			Figure note = noteBox("Postcondition", flow.getPostcondition().getContent())
+					.align(Anchor.BOTTOM_LEFT)
+					.shift(0, -3 * UNIT)
+					.at(Anchor.TOP_RIGHT, deleteButton());
+			col = col.shift(-end[0], -end[1]).shift(0, 2.6 * UNIT);
+			col = connect(Figure.stack(note, col), "End", Anchor.RIGHT, "Postcondition", Anchor.LEFT);
+		}
+		return col.at(Anchor.RIGHT, gap())
+				.at(Anchor.RIGHT, gap())
+				.at(Anchor.TOP, gap());
+	}
+}
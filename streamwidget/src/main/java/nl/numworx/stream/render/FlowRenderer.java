@@ -0,0 +1,95 @@
+package nl.numworx.stream.render;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import javax.imageio.ImageIO;
+
+import nl.numworx.stream.flow.Flow;
+
+/**
+ * Draws a flowchart without a browser, with the geometry of <code>Tree.Draw</code>:
+ * the size matches what the Elm app reports through its layout port.
+ * Works on a headless JVM.
+ */
+public final class FlowRenderer {
+
+	private final Figure figure;
+
+	private FlowRenderer(Figure figure) {
+		this.figure = figure;
+	}
+
+	public static FlowRenderer layout(Flow flow) {
+		return new FlowRenderer(FlowDrawing.complete(flow));
+	}
+
+	/**
+	 * An overview: If, While and ForEach boxes <code>detail</code> levels deep are drawn as a box that
+	 * counts what they hold, as the Elm app does with the level it gets through its detail port.
+	 * Below 0 is the full drawing, as {@link #layout(Flow)}.
+	 */
+	public static FlowRenderer layout(Flow flow, int detail) {
+		return new FlowRenderer(FlowDrawing.complete(flow, detail));
+	}
+
+	public double getWidth() {
+		return figure.width();
+	}
+
+	public double getHeight() {
+		return figure.height();
+	}
+
+	/**
+	 * Draws with the top left corner at (0, 0).
+	 */
+	public void draw(Canvas canvas) {
+		figure.draw(canvas, figure.left, figure.up);
+	}
+
+	public String toSvg() {
+		SvgCanvas canvas = new SvgCanvas(Math.ceil(getWidth()), Math.ceil(getHeight()));
+		draw(canvas);
+		return canvas.toString();
+	}
+
+	/**
+	 * Largest scale, at most 1, at which the drawing fits the box.
+	 */
+	public double fitScale(int maxWidth, int maxHeight) {
+		return Math.min(1, Math.min(maxWidth / getWidth(), maxHeight / getHeight()));
+	}
+
+	public BufferedImage toImage(double scale) {
+		int w = Math.max(1, (int) Math.ceil(getWidth() * scale));
+		int h = Math.max(1, (int) Math.ceil(getHeight() * scale));
+		BufferedImage image = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = image.createGraphics();
+		try {
+			g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+			g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+			g.scale(scale, scale);
+			draw(new Graphics2DCanvas(g));
+		} finally {
+			g.dispose();
+		}
+		return image;
+	}
+
+	public byte[] toPng(double scale) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			ImageIO.write(toImage(scale), "png", out);
+		} catch (IOException e) {
+			// cannot happen writing to memory
+			throw new UncheckedIOException(e);
+		}
+		return out.toByteArray();
+	}
+}
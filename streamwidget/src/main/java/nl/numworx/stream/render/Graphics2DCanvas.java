@@ -0,0 +1,77 @@
+package nl.numworx.stream.render;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.Shape;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+
+/**
+ * Draws on a Java2D {@link Graphics2D}, for instance of a {@link java.awt.image.BufferedImage}.
+ */
+public class Graphics2DCanvas implements Canvas {
+
+	private static final float[] DASH = { 10, 5 };
+
+	private final Graphics2D g;
+
+	public Graphics2DCanvas(Graphics2D g) {
+		this.g = g;
+	}
+
+	@Override
+	public void rectangle(double x, double y, double w, double h, Color fill, Pen pen) {
+		paint(new Rectangle2D.Double(x, y, w, h), fill, pen);
+	}
+
+	@Override
+	public void ellipse(double cx, double cy, double rx, double ry, Color fill, Pen pen) {
+		paint(new Ellipse2D.Double(cx - rx, cy - ry, 2 * rx, 2 * ry), fill, pen);
+	}
+
+	@Override
+	public void polygon(double[] xs, double[] ys, Color fill, Pen pen) {
+		Path2D.Double path = path(xs, ys);
+		path.closePath();
+		paint(path, fill, pen);
+	}
+
+	@Override
+	public void polyline(double[] xs, double[] ys, Pen pen) {
+		paint(path(xs, ys), null, pen);
+	}
+
+	@Override
+	public void text(double x, double y, String text, Font font, Color color, boolean centered) {
+		g.setFont(font);
+		g.setColor(color);
+		FontMetrics fm = g.getFontMetrics();
+		double left = centered ? x - fm.stringWidth(text) / 2.0 : x;
+		g.drawString(text, (float) left, (float) (y + (fm.getAscent() - fm.getDescent()) / 2.0));
+	}
+
+	private static Path2D.Double path(double[] xs, double[] ys) {
+		Path2D.Double path = new Path2D.Double();
+		path.moveTo(xs[0], ys[0]);
+		for (int i = 1; i < xs.length; i++)
+			path.lineTo(xs[i], ys[i]);
+		return path;
+	}
+
+	private void paint(Shape shape, Color fill, Pen pen) {
+		if (fill != null) {
+			g.setColor(fill);
+			g.fill(shape);
+		}
+		if (pen != null) {
+			g.setColor(pen.getColor());
+			g.setStroke(new BasicStroke((float) pen.getWidth(), BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 10,
+					pen.isDashed() ? DASH : null, 0));
+			g.draw(shape);
+		}
+	}
+}
@@ -0,0 +1,34 @@
+package nl.numworx.stream.render;
+
+import java.awt.Color;
+
+/**
+ * Outline style: color, thickness and whether it is dashed.
+ */
+public final class Pen {
+
+	/** <code>solid thin (uniform black)</code>, elm-collage's default line style. */
+	public static final Pen THIN = new Pen(Color.BLACK, 2, false);
+
+	private final Color color;
+	private final double width;
+	private final boolean dashed;
+
+	public Pen(Color color, double width, boolean dashed) {
+		this.color = color;
+		this.width = width;
+		this.dashed = dashed;
+	}
+
+	public Color getColor() {
+		return color;
+	}
+
+	public double getWidth() {
+		return width;
+	}
+
+	public boolean isDashed() {
+		return dashed;
+	}
+}
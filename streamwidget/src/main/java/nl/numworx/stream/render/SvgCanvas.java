@@ -0,0 +1,123 @@
+package nl.numworx.stream.render;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.util.Locale;
+
+/**
+ * Writes SVG markup. {@link #toString()} gives the complete document.
+ */
+public class SvgCanvas implements Canvas {
+
+	private final StringBuilder svg = new StringBuilder();
+	private final double width;
+	private final double height;
+
+	public SvgCanvas(double width, double height) {
+		this.width = width;
+		this.height = height;
+	}
+
+	@Override
+	public void rectangle(double x, double y, double w, double h, Color fill, Pen pen) {
+		svg.append("<rect x=\"").append(n(x)).append("\" y=\"").append(n(y))
+				.append("\" width=\"").append(n(w)).append("\" height=\"").append(n(h)).append('"');
+		style(fill, pen);
+		svg.append("/>\n");
+	}
+
+	@Override
+	public void ellipse(double cx, double cy, double rx, double ry, Color fill, Pen pen) {
+		svg.append("<ellipse cx=\"").append(n(cx)).append("\" cy=\"").append(n(cy))
+				.append("\" rx=\"").append(n(rx)).append("\" ry=\"").append(n(ry)).append('"');
+		style(fill, pen);
+		svg.append("/>\n");
+	}
+
+	@Override
+	public void polygon(double[] xs, double[] ys, Color fill, Pen pen) {
+		svg.append("<polygon");
+		points(xs, ys);
+		style(fill, pen);
+		svg.append("/>\n");
+	}
+
+	@Override
+	public void polyline(double[] xs, double[] ys, Pen pen) {
+		svg.append("<polyline");
+		points(xs, ys);
+		style(null, pen);
+		svg.append("/>\n");
+	}
+
+	@Override
+	public void text(double x, double y, String text, Font font, Color color, boolean centered) {
+		svg.append("<text x=\"").append(n(x)).append("\" y=\"").append(n(y))
+				.append("\" dominant-baseline=\"central\" xml:space=\"preserve\"");
+		if (centered)
+			svg.append(" text-anchor=\"middle\"");
+		svg.append(" font-family=\"").append(Font.MONOSPACED.equals(font.getName()) ? "monospace" : "sans-serif")
+				.append("\" font-size=\"").append(font.getSize()).append('"');
+		if (font.isItalic())
+			svg.append(" font-style=\"italic\"");
+		if (font.isBold())
+			svg.append(" font-weight=\"bold\"");
+		svg.append(" fill=\"").append(color(color)).append("\">");
+		escape(text);
+		svg.append("</text>\n");
+	}
+
+	@Override
+	public String toString() {
+		return "<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"" + n(width) + "\" height=\"" + n(height)
+				+ "\" viewBox=\"0 0 " + n(width) + " " + n(height) + "\">\n" + svg + "</svg>\n";
+	}
+
+	private void points(double[] xs, double[] ys) {
+		svg.append(" points=\"");
+		for (int i = 0; i < xs.length; i++) {
+			if (i > 0)
+				svg.append(' ');
+			svg.append(n(xs[i])).append(',').append(n(ys[i]));
+		}
+		svg.append('"');
+	}
+
+	private void style(Color fill, Pen pen) {
+		svg.append(" fill=\"").append(fill == null ? "none" : color(fill)).append('"');
+		if (pen != null) {
+			svg.append(" stroke=\"").append(color(pen.getColor())).append("\" stroke-width=\"").append(n(pen.getWidth())).append('"');
+			if (pen.isDashed())
+				svg.append(" stroke-dasharray=\"10,5\"");
+		}
+	}
+
+	private void escape(String text) {
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+			case '<':
+				svg.append("&lt;");
+				break;
+			case '>':
+				svg.append("&gt;");
+				break;
+			case '&':
+				svg.append("&amp;");
+				break;
+			default:
+				svg.append(c);
+			}
+		}
+	}
+
+	private static String color(Color c) {
+		return String.format("#%02x%02x%02x", c.getRed(), c.getGreen(), c.getBlue());
+	}
+
+	private static String n(double d) {
+		if (d == Math.rint(d))
+			return Long.toString((long) d);
+		return String.format(Locale.ROOT, "%.2f", d);
+	}
+}
@@ -0,0 +1,102 @@
+package nl.numworx.stream.render;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import nl.numworx.stream.flow.Flow;
+import nl.numworx.stream.flow.FlowJson;
+
+/**
+ * PNG thumbnails of flows, least recently used first out once the total size passes the bound.
+ * The key is the SHA-256 of the flow as {@link FlowJson} writes it and the box size, so the same flow
+ * shares a thumbnail however its JSON was laid out, old schema versions included.
+ * Thread safe; two threads missing the same key at once both render it.
+ */
+public final class ThumbnailCache {
+
+	private final long maxBytes;
+	private final Map<String, byte[]> entries = new LinkedHashMap<>(64, 0.75f, true);
+	private long bytes;
+	private long hits;
+	private long misses;
+
+	public ThumbnailCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * PNG of the flow, scaled down to fit the box when it is larger.
+	 * @throws IllegalArgumentException when the JSON is not a flow
+	 */
+	public byte[] get(String flowJson, int maxWidth, int maxHeight) {
+		Flow flow = FlowJson.read(flowJson);
+		String key = key(FlowJson.write(flow), maxWidth, maxHeight);
+		synchronized (this) {
+			byte[] png = entries.get(key);
+			if (png != null) {
+				hits++;
+				return png;
+			}
+			misses++;
+		}
+		FlowRenderer renderer = FlowRenderer.layout(flow);
+		byte[] png = renderer.toPng(renderer.fitScale(maxWidth, maxHeight));
+		put(key, png);
+		return png;
+	}
+
+	private synchronized void put(String key, byte[] png) {
+		if (png.length > maxBytes)
+			return;
+		byte[] old = entries.put(key, png);
+		if (old != null)
+			bytes -= old.length;
+		bytes += png.length;
+		Iterator<byte[]> it = entries.values().iterator();
+		while (bytes > maxBytes && it.hasNext()) {
+			bytes -= it.next().length;
+			it.remove();
+		}
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		bytes = 0;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	static String key(String canonicalJson, int maxWidth, int maxHeight) {
+		try {
+			MessageDigest sha = MessageDigest.getInstance("SHA-256");
+			sha.update(canonicalJson.getBytes(StandardCharsets.UTF_8));
+			sha.update((byte) 0);
+			sha.update((maxWidth + "x" + maxHeight).getBytes(StandardCharsets.US_ASCII));
+			StringBuilder sb = new StringBuilder();
+			for (byte b : sha.digest())
+				sb.append(String.format("%02x", b));
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// every JVM has SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package nl.numworx.stream.run;
+
+/**
+ * The text of a box could not be compiled.
+ */
+@SuppressWarnings("serial")
+public class CompileException extends Exception {
+
+	private final int position;
+	private int nodeId = -1;
+
+	CompileException(String message, int position) {
+		super(message);
+		this.position = position;
+	}
+
+	CompileException at(int id) {
+		if (nodeId < 0)
+			nodeId = id;
+		return this;
+	}
+
+	/**
+	 * Id of the box, the pre- and postcondition use 4 and 5 like on the Elm side.
+	 */
+	public int getNodeId() {
+		return nodeId;
+	}
+
+	/**
+	 * Character offset in the text of the box.
+	 */
+	public int getPosition() {
+		return position;
+	}
+
+	@Override
+	public String getMessage() {
+		return super.getMessage() + " (box " + nodeId + ", position " + position + ")";
+	}
+}
@@ -0,0 +1,9 @@
+package nl.numworx.stream.run;
+
+/**
+ * Compiled expression.
+ */
+@FunctionalInterface
+interface Expr {
+	Object eval(Frame frame);
+}
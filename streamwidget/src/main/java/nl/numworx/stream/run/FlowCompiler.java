@@ -0,0 +1,115 @@
+package nl.numworx.stream.run;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import nl.numworx.stream.flow.Flow;
+import nl.numworx.stream.flow.Node;
+
+/**
+ * Compiles a flowchart once into a tree of closures, see {@link Program}.
+ * Statement boxes hold assignments, If and While boxes a test and ForEach boxes
+ * <code>x in list</code> or <code>x in a..b</code>; see {@link Parser} for the syntax.
+ * Pre- and postconditions are only checked when they are shown.
+ */
+public final class FlowCompiler {
+
+	/** Ids of the pre- and postcondition notes, as on the Elm side. */
+	static final int PRECONDITION = 4, POSTCONDITION = 5;
+
+	private final Map<String, Integer> slots = new LinkedHashMap<>();
+
+	private FlowCompiler() {
+	}
+
+	public static Program compile(Flow flow) throws CompileException {
+		FlowCompiler compiler = new FlowCompiler();
+		Expr pre = compiler.condition(flow.getPrecondition(), PRECONDITION);
+		Stmt body = compiler.sequence(flow.getTree());
+		Expr post = compiler.condition(flow.getPostcondition(), POSTCONDITION);
+		return new Program(compiler.slots, pre, body, post);
+	}
+
+	private Expr condition(Flow.Condition condition, int id) throws CompileException {
+		if (!condition.isVisible())
+			return null;
+		try {
+			return new Parser(condition.getContent(), slots).condition();
+		} catch (CompileException ce) {
+			throw ce.at(id);
+		}
+	}
+
+	private Stmt sequence(Node first) throws CompileException {
+		List<Stmt> stmts = new ArrayList<>();
+		for (Node node = first; node != null; node = node.getNext()) {
+			try {
+				compile(node, stmts);
+			} catch (CompileException ce) {
+				throw ce.at(node.getId());
+			}
+		}
+		if (stmts.isEmpty())
+			return f -> { };
+		if (stmts.size() == 1)
+			return stmts.get(0);
+		Stmt[] block = stmts.toArray(new Stmt[0]);
+		return f -> {
+			for (Stmt s : block)
+				s.exec(f);
+		};
+	}
+
+	private void compile(Node node, List<Stmt> stmts) throws CompileException {
+		int id = node.getId();
+		switch (node.getType()) {
+		case STATEMENT:
+			stmts.addAll(new Parser(node.getContent(), slots).statements(id));
+			break;
+		case IF: {
+			Expr test = test(node);
+			Stmt then = sequence(node.getBody());
+			Stmt otherwise = sequence(node.getElse());
+			stmts.add(f -> {
+				f.step(id);
+				if (Ops.truth(test.eval(f)))
+					then.exec(f);
+				else
+					otherwise.exec(f);
+			});
+			break;
+		}
+		case WHILE: {
+			Expr test = test(node);
+			Stmt body = sequence(node.getBody());
+			stmts.add(f -> {
+				while (true) {
+					f.step(id);
+					if (!Ops.truth(test.eval(f)))
+						break;
+					body.exec(f);
+				}
+			});
+			break;
+		}
+		case FOREACH: {
+			Parser parser = new Parser(node.getContent(), slots);
+			Stmt body = sequence(node.getBody());
+			stmts.add(parser.forEach(id, body));
+			break;
+		}
+		default:
+			// Start, End, Empty and Void do nothing
+			break;
+		}
+	}
+
+	private Expr test(Node node) throws CompileException {
+		Expr test = new Parser(node.getContent(), slots).condition();
+		if (test == null)
+			throw new CompileException("empty test", 0);
+		return test;
+	}
+}
@@ -0,0 +1,38 @@
+package nl.numworx.stream.run;
+
+/**
+ * Variables and counters of one run.
+ */
+final class Frame {
+
+	final Object[] slots;
+	private final long maxSteps;
+	private final long deadline;
+	private long steps;
+	private int node = -1;
+
+	Frame(int size, Limits limits) {
+		slots = new Object[size];
+		maxSteps = limits.getMaxSteps();
+		deadline = System.nanoTime() + limits.getTimeoutMillis() * 1_000_000L;
+	}
+
+	/**
+	 * Counts one step in box <code>id</code>. The clock is only read every 1024 steps.
+	 */
+	void step(int id) {
+		node = id;
+		if (++steps > maxSteps)
+			throw new RunException(Outcome.Status.STEP_LIMIT, "more than " + maxSteps + " steps");
+		if ((steps & 1023) == 0 && System.nanoTime() > deadline)
+			throw new RunException(Outcome.Status.TIMEOUT, "time limit exceeded");
+	}
+
+	long getSteps() {
+		return steps;
+	}
+
+	int getNode() {
+		return node;
+	}
+}
@@ -0,0 +1,103 @@
+package nl.numworx.stream.run;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits the text of a box into tokens. Newlines and ';' become {@link Kind#SEPARATOR} tokens.
+ */
+final class Lexer {
+
+	enum Kind {
+		NUMBER, STRING, NAME, OPERATOR, SEPARATOR, END
+	}
+
+	static final class Token {
+		final Kind kind;
+		final String text;
+		final int pos;
+
+		Token(Kind kind, String text, int pos) {
+			this.kind = kind;
+			this.text = text;
+			this.pos = pos;
+		}
+
+		boolean is(String s) {
+			return (kind == Kind.OPERATOR || kind == Kind.NAME) && text.equals(s);
+		}
+
+		@Override
+		public String toString() {
+			return kind == Kind.END ? "end of text" : "'" + text + "'";
+		}
+	}
+
+	private static final String[] OPERATORS = {
+		":=", "+=", "-=", "*=", "/=", "==", "!=", "<=", ">=", "&&", "||", "..", "<>",
+		"\u2190", "\u2264", "\u2265", "\u2260", "\u2227", "\u2228", "\u00ac",
+		"+", "-", "*", "/", "%", "<", ">", "=", "!", "(", ")", "[", "]", ",", ":"
+	};
+
+	private Lexer() {
+	}
+
+	static List<Token> tokenize(String text) throws CompileException {
+		List<Token> tokens = new ArrayList<>();
+		int i = 0;
+		int n = text.length();
+		while (i < n) {
+			char c = text.charAt(i);
+			if (c == '\n' || c == ';') {
+				tokens.add(new Token(Kind.SEPARATOR, String.valueOf(c), i));
+				i++;
+			} else if (Character.isWhitespace(c)) {
+				i++;
+			} else if (Character.isDigit(c)) {
+				int start = i;
+				while (i < n && Character.isDigit(text.charAt(i)))
+					i++;
+				// a '.' followed by a digit makes a decimal, "1..n" is a range
+				if (i + 1 < n && text.charAt(i) == '.' && Character.isDigit(text.charAt(i + 1))) {
+					i++;
+					while (i < n && Character.isDigit(text.charAt(i)))
+						i++;
+				}
+				tokens.add(new Token(Kind.NUMBER, text.substring(start, i), start));
+			} else if (Character.isLetter(c) || c == '_') {
+				int start = i;
+				while (i < n && (Character.isLetterOrDigit(text.charAt(i)) || text.charAt(i) == '_'))
+					i++;
+				tokens.add(new Token(Kind.NAME, text.substring(start, i), start));
+			} else if (c == '"' || c == '\'') {
+				int start = i;
+				StringBuilder sb = new StringBuilder();
+				i++;
+				while (i < n && text.charAt(i) != c) {
+					if (text.charAt(i) == '\\' && i + 1 < n)
+						i++;
+					sb.append(text.charAt(i));
+					i++;
+				}
+				if (i >= n)
+					throw new CompileException("unterminated string", start);
+				i++;
+				tokens.add(new Token(Kind.STRING, sb.toString(), start));
+			} else {
+				String op = null;
+				for (String candidate : OPERATORS) {
+					if (text.startsWith(candidate, i)) {
+						op = candidate;
+						break;
+					}
+				}
+				if (op == null)
+					throw new CompileException("unexpected character '" + c + "'", i);
+				tokens.add(new Token(Kind.OPERATOR, op, i));
+				i += op.length();
+			}
+		}
+		tokens.add(new Token(Kind.END, "", n));
+		return tokens;
+	}
+}
@@ -0,0 +1,29 @@
+package nl.numworx.stream.run;
+
+/**
+ * Guards against flowcharts that do not terminate.
+ */
+public final class Limits {
+
+	public static final Limits DEFAULT = new Limits(100_000, 1_000);
+
+	private final long maxSteps;
+	private final long timeoutMillis;
+
+	/**
+	 * @param maxSteps every executed assignment, test and loop iteration is a step
+	 * @param timeoutMillis wall clock limit of one run
+	 */
+	public Limits(long maxSteps, long timeoutMillis) {
+		this.maxSteps = maxSteps;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	public long getMaxSteps() {
+		return maxSteps;
+	}
+
+	public long getTimeoutMillis() {
+		return timeoutMillis;
+	}
+}
@@ -0,0 +1,214 @@
+package nl.numworx.stream.run;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Operations on values. Values are {@link Long}, {@link Double}, {@link Boolean},
+ * {@link String} and {@link List}s of values; integers follow Java arithmetic.
+ */
+final class Ops {
+
+	private Ops() {
+	}
+
+	static boolean truth(Object v) {
+		if (v instanceof Boolean)
+			return (Boolean) v;
+		throw new RunException("true or false expected, found " + show(v));
+	}
+
+	static Object add(Object a, Object b) {
+		if (a instanceof Long && b instanceof Long)
+			return (Long) a + (Long) b;
+		if (a instanceof Number && b instanceof Number)
+			return ((Number) a).doubleValue() + ((Number) b).doubleValue();
+		if (a instanceof String || b instanceof String)
+			return show(a) + show(b);
+		if (a instanceof List && b instanceof List) {
+			List<Object> list = new ArrayList<>((List<?>) a);
+			list.addAll((List<?>) b);
+			return list;
+		}
+		throw type("+", a, b);
+	}
+
+	static Object subtract(Object a, Object b) {
+		if (a instanceof Long && b instanceof Long)
+			return (Long) a - (Long) b;
+		if (a instanceof Number && b instanceof Number)
+			return ((Number) a).doubleValue() - ((Number) b).doubleValue();
+		throw type("-", a, b);
+	}
+
+	static Object multiply(Object a, Object b) {
+		if (a instanceof Long && b instanceof Long)
+			return (Long) a * (Long) b;
+		if (a instanceof Number && b instanceof Number)
+			return ((Number) a).doubleValue() * ((Number) b).doubleValue();
+		throw type("*", a, b);
+	}
+
+	static Object divide(Object a, Object b) {
+		if (a instanceof Long && b instanceof Long) {
+			if ((Long) b == 0)
+				throw new RunException("division by zero");
+			return (Long) a / (Long) b;
+		}
+		if (a instanceof Number && b instanceof Number)
+			return ((Number) a).doubleValue() / ((Number) b).doubleValue();
+		throw type("/", a, b);
+	}
+
+	static Object remainder(Object a, Object b) {
+		if (a instanceof Long && b instanceof Long) {
+			if ((Long) b == 0)
+				throw new RunException("division by zero");
+			return (Long) a % (Long) b;
+		}
+		if (a instanceof Number && b instanceof Number)
+			return ((Number) a).doubleValue() % ((Number) b).doubleValue();
+		throw type("%", a, b);
+	}
+
+	static Object negate(Object a) {
+		if (a instanceof Long)
+			return -(Long) a;
+		if (a instanceof Double)
+			return -(Double) a;
+		throw new RunException("cannot negate " + show(a));
+	}
+
+	static boolean equal(Object a, Object b) {
+		if (a instanceof Number && b instanceof Number) {
+			if (a instanceof Long && b instanceof Long)
+				return ((Long) a).longValue() == ((Long) b).longValue();
+			return ((Number) a).doubleValue() == ((Number) b).doubleValue();
+		}
+		if (a instanceof List && b instanceof List) {
+			List<?> x = (List<?>) a;
+			List<?> y = (List<?>) b;
+			if (x.size() != y.size())
+				return false;
+			for (int i = 0; i < x.size(); i++) {
+				if (!equal(x.get(i), y.get(i)))
+					return false;
+			}
+			return true;
+		}
+		return a == null ? b == null : a.equals(b);
+	}
+
+	static int compare(Object a, Object b) {
+		if (a instanceof Long && b instanceof Long)
+			return Long.compare((Long) a, (Long) b);
+		if (a instanceof Number && b instanceof Number)
+			return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+		if (a instanceof String && b instanceof String)
+			return ((String) a).compareTo((String) b);
+		throw type("<", a, b);
+	}
+
+	static Object index(Object a, Object i) {
+		int index = toIndex(i);
+		if (a instanceof List) {
+			List<?> list = (List<?>) a;
+			if (index < 0 || index >= list.size())
+				throw new RunException("index " + index + " outside 0.." + (list.size() - 1));
+			return list.get(index);
+		}
+		if (a instanceof String) {
+			String s = (String) a;
+			if (index < 0 || index >= s.length())
+				throw new RunException("index " + index + " outside 0.." + (s.length() - 1));
+			return String.valueOf(s.charAt(index));
+		}
+		throw new RunException("cannot index " + show(a));
+	}
+
+	@SuppressWarnings("unchecked")
+	static void setIndex(Object a, Object i, Object value) {
+		int index = toIndex(i);
+		if (!(a instanceof List))
+			throw new RunException("cannot index " + show(a));
+		List<Object> list = (List<Object>) a;
+		if (index < 0 || index > list.size())
+			throw new RunException("index " + index + " outside 0.." + list.size());
+		if (index == list.size())
+			list.add(value);
+		else
+			list.set(index, value);
+	}
+
+	/**
+	 * No list or string is longer than an int can count, so an index beyond that is out of range anywhere.
+	 */
+	static int toIndex(Object i) {
+		if (i instanceof Long) {
+			long index = (Long) i;
+			if (index != (int) index)
+				throw new RunException("index " + index + " out of range");
+			return (int) index;
+		}
+		throw new RunException("integer index expected, found " + show(i));
+	}
+
+	static long length(Object a) {
+		if (a instanceof List)
+			return ((List<?>) a).size();
+		if (a instanceof String)
+			return ((String) a).length();
+		throw new RunException("no length for " + show(a));
+	}
+
+	static double toDouble(Object a) {
+		if (a instanceof Number)
+			return ((Number) a).doubleValue();
+		throw new RunException("number expected, found " + show(a));
+	}
+
+	/**
+	 * Converts host values (Integer, arrays, collections) to values and copies lists,
+	 * so runs never share mutable state.
+	 */
+	static Object importValue(Object v) {
+		if (v instanceof Long || v instanceof Double || v instanceof Boolean || v instanceof String)
+			return v;
+		if (v instanceof Integer || v instanceof Short || v instanceof Byte)
+			return ((Number) v).longValue();
+		if (v instanceof Number)
+			return ((Number) v).doubleValue();
+		if (v instanceof Character)
+			return v.toString();
+		if (v instanceof Collection) {
+			List<Object> list = new ArrayList<>(((Collection<?>) v).size());
+			for (Object element : (Collection<?>) v)
+				list.add(importValue(element));
+			return list;
+		}
+		if (v instanceof int[]) {
+			List<Object> list = new ArrayList<>();
+			for (int element : (int[]) v)
+				list.add((long) element);
+			return list;
+		}
+		if (v instanceof Object[]) {
+			List<Object> list = new ArrayList<>();
+			for (Object element : (Object[]) v)
+				list.add(importValue(element));
+			return list;
+		}
+		throw new IllegalArgumentException("unsupported value " + v);
+	}
+
+	static String show(Object v) {
+		if (v == null)
+			return "nothing";
+		return v.toString();
+	}
+
+	private static RunException type(String op, Object a, Object b) {
+		return new RunException("cannot apply " + op + " to " + show(a) + " and " + show(b));
+	}
+}
@@ -0,0 +1,63 @@
+package nl.numworx.stream.run;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Result of one run of a {@link Program}.
+ */
+public final class Outcome {
+
+	public enum Status {
+		FINISHED, PRECONDITION_FAILED, POSTCONDITION_FAILED, STEP_LIMIT, TIMEOUT, ERROR
+	}
+
+	private final Status status;
+	private final Map<String, Object> variables;
+	private final long steps;
+	private final int nodeId;
+	private final String message;
+
+	Outcome(Status status, Map<String, Object> variables, long steps, int nodeId, String message) {
+		this.status = status;
+		this.variables = Collections.unmodifiableMap(variables);
+		this.steps = steps;
+		this.nodeId = nodeId;
+		this.message = message;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public boolean isFinished() {
+		return status == Status.FINISHED;
+	}
+
+	/**
+	 * Variables with a value at the end of the run, in order of first use.
+	 */
+	public Map<String, Object> getVariables() {
+		return variables;
+	}
+
+	public long getSteps() {
+		return steps;
+	}
+
+	/**
+	 * Box that was executing when the run stopped, -1 if it finished.
+	 */
+	public int getNodeId() {
+		return nodeId;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	@Override
+	public String toString() {
+		return status + (message == null ? "" : ": " + message) + " " + variables;
+	}
+}
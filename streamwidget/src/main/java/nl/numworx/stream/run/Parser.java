@@ -0,0 +1,477 @@
+package nl.numworx.stream.run;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import nl.numworx.stream.run.Lexer.Kind;
+import nl.numworx.stream.run.Lexer.Token;
+
+/**
+ * Compiles the text of one box straight into closures. Variable names are
+ * resolved to slots here, so a run only indexes an array.
+ *
+ * <pre>
+ * statement  := target (':=' | '=' | '\u2190' | '+=' | '-=' | '*=' | '/=') expr
+ * target     := name ('[' expr ']')*
+ * expr       := and (('or' | '||' | '\u2228') and)*
+ * and        := not (('and' | '&amp;&amp;' | '\u2227') not)*
+ * not        := ('not' | '!' | '\u00ac') not | comparison
+ * comparison := sum (('&lt;' | '&lt;=' | '&gt;' | '&gt;=' | '==' | '!=' | '=') sum)?
+ * sum        := term (('+' | '-') term)*
+ * term       := unary (('*' | '/' | '%' | 'div' | 'mod') unary)*
+ * unary      := '-' unary | primary ('[' expr ']')*
+ * primary    := number | string | 'true' | 'false' | name | name '(' args ')' | '(' expr ')' | '[' args ']'
+ * </pre>
+ * A single '=' is an assignment in a statement and a comparison in a condition.
+ */
+final class Parser {
+
+	private final List<Token> tokens;
+	private final Map<String, Integer> slots;
+	private int pos;
+
+	Parser(String text, Map<String, Integer> slots) throws CompileException {
+		this.tokens = Lexer.tokenize(text == null ? "" : text);
+		this.slots = slots;
+	}
+
+	/**
+	 * All statements of a Statement box, separated by newlines or ';'.
+	 */
+	List<Stmt> statements(int id) throws CompileException {
+		List<Stmt> result = new ArrayList<>();
+		while (true) {
+			skipSeparators();
+			if (peek().kind == Kind.END)
+				return result;
+			result.add(assignment(id));
+			if (peek().kind != Kind.END && peek().kind != Kind.SEPARATOR)
+				throw unexpected();
+		}
+	}
+
+	/**
+	 * A test; several lines must all hold. Returns null for an empty text.
+	 */
+	Expr condition() throws CompileException {
+		Expr result = null;
+		while (true) {
+			skipSeparators();
+			if (peek().kind == Kind.END)
+				return result;
+			Expr e = expression();
+			if (peek().kind != Kind.END && peek().kind != Kind.SEPARATOR)
+				throw unexpected();
+			if (result == null) {
+				result = e;
+			} else {
+				Expr a = result;
+				result = f -> Ops.truth(a.eval(f)) && Ops.truth(e.eval(f));
+			}
+		}
+	}
+
+	/**
+	 * The text of a ForEach box: <code>x in list</code>, <code>x : list</code> or <code>x in a..b</code>.
+	 */
+	Stmt forEach(int id, Stmt body) throws CompileException {
+		skipSeparators();
+		Token name = next();
+		if (name.kind != Kind.NAME)
+			throw new CompileException("loop variable expected", name.pos);
+		Token in = next();
+		if (!(in.is("in") || in.is(":")))
+			throw new CompileException("'in' expected", in.pos);
+		int slot = slot(name.text);
+		Expr source = expression();
+		Stmt loop;
+		if (peek().is("..")) {
+			next();
+			Expr from = source;
+			Expr to = expression();
+			loop = f -> {
+				long hi = (Long) integer(to.eval(f));
+				for (long i = (Long) integer(from.eval(f)); i <= hi; i++) {
+					f.step(id);
+					f.slots[slot] = i;
+					body.exec(f);
+				}
+			};
+		} else {
+			loop = f -> {
+				Object value = source.eval(f);
+				List<?> items;
+				if (value instanceof List) {
+					items = new ArrayList<>((List<?>) value);
+				} else if (value instanceof String) {
+					List<Object> chars = new ArrayList<>();
+					for (char c : ((String) value).toCharArray())
+						chars.add(String.valueOf(c));
+					items = chars;
+				} else {
+					throw new RunException("cannot loop over " + Ops.show(value));
+				}
+				for (Object item : items) {
+					f.step(id);
+					f.slots[slot] = item;
+					body.exec(f);
+				}
+			};
+		}
+		skipSeparators();
+		if (peek().kind != Kind.END)
+			throw unexpected();
+		return loop;
+	}
+
+	private static Object integer(Object v) {
+		if (v instanceof Long)
+			return v;
+		throw new RunException("integer expected, found " + Ops.show(v));
+	}
+
+	private Stmt assignment(int id) throws CompileException {
+		Token name = next();
+		if (name.kind != Kind.NAME || isKeyword(name.text))
+			throw new CompileException("assignment expected", name.pos);
+		int slot = slot(name.text);
+		List<Expr> indices = new ArrayList<>();
+		while (peek().is("[")) {
+			next();
+			indices.add(expression());
+			expect("]");
+		}
+		Token op = next();
+		String operator;
+		if (op.is(":=") || op.is("=") || op.is("\u2190")) {
+			operator = null;
+		} else if (op.is("+=") || op.is("-=") || op.is("*=") || op.is("/=")) {
+			operator = op.text.substring(0, 1);
+		} else {
+			throw new CompileException("':=' expected", op.pos);
+		}
+		Expr value = expression();
+		if (operator != null) {
+			Expr current = variable(name.text, slot);
+			for (Expr index : indices) {
+				Expr base = current;
+				current = f -> Ops.index(base.eval(f), index.eval(f));
+			}
+			value = binary(operator, current, value);
+		}
+		Expr rhs = value;
+		if (indices.isEmpty()) {
+			return f -> {
+				f.step(id);
+				f.slots[slot] = rhs.eval(f);
+			};
+		}
+		Expr container = variable(name.text, slot);
+		for (int i = 0; i < indices.size() - 1; i++) {
+			Expr base = container;
+			Expr index = indices.get(i);
+			container = f -> Ops.index(base.eval(f), index.eval(f));
+		}
+		Expr target = container;
+		Expr last = indices.get(indices.size() - 1);
+		return f -> {
+			f.step(id);
+			Ops.setIndex(target.eval(f), last.eval(f), rhs.eval(f));
+		};
+	}
+
+	private Expr expression() throws CompileException {
+		Expr left = and();
+		while (peek().is("or") || peek().is("||") || peek().is("\u2228")) {
+			next();
+			Expr a = left;
+			Expr b = and();
+			left = f -> Ops.truth(a.eval(f)) || Ops.truth(b.eval(f));
+		}
+		return left;
+	}
+
+	private Expr and() throws CompileException {
+		Expr left = not();
+		while (peek().is("and") || peek().is("&&") || peek().is("\u2227")) {
+			next();
+			Expr a = left;
+			Expr b = not();
+			left = f -> Ops.truth(a.eval(f)) && Ops.truth(b.eval(f));
+		}
+		return left;
+	}
+
+	private Expr not() throws CompileException {
+		if (peek().is("not") || peek().is("!") || peek().is("\u00ac")) {
+			next();
+			Expr a = not();
+			return f -> !Ops.truth(a.eval(f));
+		}
+		return comparison();
+	}
+
+	private Expr comparison() throws CompileException {
+		Expr a = sum();
+		Token op = peek();
+		if (op.kind != Kind.OPERATOR)
+			return a;
+		switch (op.text) {
+		case "<":
+		case "<=":
+		case ">":
+		case ">=":
+		case "\u2264":
+		case "\u2265":
+		case "==":
+		case "=":
+		case "!=":
+		case "<>":
+		case "\u2260":
+			next();
+			Expr b = sum();
+			return compare(op.text, a, b);
+		default:
+			return a;
+		}
+	}
+
+	private static Expr compare(String op, Expr a, Expr b) {
+		switch (op) {
+		case "<":
+			return f -> Ops.compare(a.eval(f), b.eval(f)) < 0;
+		case "<=":
+		case "\u2264":
+			return f -> Ops.compare(a.eval(f), b.eval(f)) <= 0;
+		case ">":
+			return f -> Ops.compare(a.eval(f), b.eval(f)) > 0;
+		case ">=":
+		case "\u2265":
+			return f -> Ops.compare(a.eval(f), b.eval(f)) >= 0;
+		case "==":
+		case "=":
+			return f -> Ops.equal(a.eval(f), b.eval(f));
+		default:
+			return f -> !Ops.equal(a.eval(f), b.eval(f));
+		}
+	}
+
+	private Expr sum() throws CompileException {
+		Expr left = term();
+		while (peek().is("+") || peek().is("-")) {
+			String op = next().text;
+			left = binary(op, left, term());
+		}
+		return left;
+	}
+
+	private Expr term() throws CompileException {
+		Expr left = unary();
+		while (peek().is("*") || peek().is("/") || peek().is("%") || peek().is("div") || peek().is("mod")) {
+			String op = next().text;
+			left = binary(op, left, unary());
+		}
+		return left;
+	}
+
+	private static Expr binary(String op, Expr a, Expr b) {
+		switch (op) {
+		case "+":
+			return f -> Ops.add(a.eval(f), b.eval(f));
+		case "-":
+			return f -> Ops.subtract(a.eval(f), b.eval(f));
+		case "*":
+			return f -> Ops.multiply(a.eval(f), b.eval(f));
+		case "/":
+		case "div":
+			return f -> Ops.divide(a.eval(f), b.eval(f));
+		default:
+			return f -> Ops.remainder(a.eval(f), b.eval(f));
+		}
+	}
+
+	private Expr unary() throws CompileException {
+		if (peek().is("-")) {
+			next();
+			Expr a = unary();
+			return f -> Ops.negate(a.eval(f));
+		}
+		Expr e = primary();
+		while (peek().is("[")) {
+			next();
+			Expr base = e;
+			Expr index = expression();
+			expect("]");
+			e = f -> Ops.index(base.eval(f), index.eval(f));
+		}
+		return e;
+	}
+
+	private Expr primary() throws CompileException {
+		Token t = next();
+		switch (t.kind) {
+		case NUMBER: {
+			Object value;
+			try {
+				value = t.text.indexOf('.') >= 0 ? (Object) Double.valueOf(t.text) : (Object) Long.valueOf(t.text);
+			} catch (NumberFormatException tooLarge) {
+				throw new CompileException("integer too large: " + t.text, t.pos);
+			}
+			return f -> value;
+		}
+		case STRING: {
+			String value = t.text;
+			return f -> value;
+		}
+		case NAME:
+			if (t.text.equals("true"))
+				return f -> Boolean.TRUE;
+			if (t.text.equals("false"))
+				return f -> Boolean.FALSE;
+			if (isKeyword(t.text))
+				throw new CompileException("unexpected " + t, t.pos);
+			if (peek().is("("))
+				return call(t);
+			return variable(t.text, slot(t.text));
+		case OPERATOR:
+			if (t.is("(")) {
+				Expr e = expression();
+				expect(")");
+				return e;
+			}
+			if (t.is("[")) {
+				List<Expr> elements = arguments("]");
+				return f -> {
+					List<Object> list = new ArrayList<>(elements.size());
+					for (Expr element : elements)
+						list.add(element.eval(f));
+					return list;
+				};
+			}
+			throw new CompileException("unexpected " + t, t.pos);
+		default:
+			throw new CompileException("unexpected " + t, t.pos);
+		}
+	}
+
+	private Expr call(Token name) throws CompileException {
+		next();
+		List<Expr> args = arguments(")");
+		switch (name.text) {
+		case "len":
+		case "length":
+		case "size":
+			arity(name, args, 1);
+			return f -> Ops.length(args.get(0).eval(f));
+		case "abs":
+			arity(name, args, 1);
+			return f -> {
+				Object v = args.get(0).eval(f);
+				return v instanceof Long ? (Object) Math.abs((Long) v) : (Object) Math.abs(Ops.toDouble(v));
+			};
+		case "sqrt":
+			arity(name, args, 1);
+			return f -> Math.sqrt(Ops.toDouble(args.get(0).eval(f)));
+		case "min":
+			arity(name, args, 2);
+			return f -> {
+				Object a = args.get(0).eval(f);
+				Object b = args.get(1).eval(f);
+				return Ops.compare(a, b) <= 0 ? a : b;
+			};
+		case "max":
+			arity(name, args, 2);
+			return f -> {
+				Object a = args.get(0).eval(f);
+				Object b = args.get(1).eval(f);
+				return Ops.compare(a, b) >= 0 ? a : b;
+			};
+		default:
+			throw new CompileException("unknown function " + name.text, name.pos);
+		}
+	}
+
+	private static void arity(Token name, List<Expr> args, int n) throws CompileException {
+		if (args.size() != n)
+			throw new CompileException(name.text + " takes " + n + " argument(s)", name.pos);
+	}
+
+	private List<Expr> arguments(String close) throws CompileException {
+		List<Expr> args = new ArrayList<>();
+		if (peek().is(close)) {
+			next();
+			return args;
+		}
+		while (true) {
+			args.add(expression());
+			if (peek().is(",")) {
+				next();
+			} else {
+				expect(close);
+				return args;
+			}
+		}
+	}
+
+	private static Expr variable(String name, int slot) {
+		return f -> {
+			Object v = f.slots[slot];
+			if (v == null)
+				throw new RunException(name + " has no value");
+			return v;
+		};
+	}
+
+	private int slot(String name) {
+		Integer slot = slots.get(name);
+		if (slot == null) {
+			slot = slots.size();
+			slots.put(name, slot);
+		}
+		return slot;
+	}
+
+	private static boolean isKeyword(String name) {
+		switch (name) {
+		case "and":
+		case "or":
+		case "not":
+		case "in":
+		case "div":
+		case "mod":
+		case "true":
+		case "false":
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private void skipSeparators() {
+		while (peek().kind == Kind.SEPARATOR)
+			pos++;
+	}
+
+	private Token peek() {
+		return tokens.get(pos);
+	}
+
+	private Token next() {
+		Token t = tokens.get(pos);
+		if (t.kind != Kind.END)
+			pos++;
+		return t;
+	}
+
+	private void expect(String s) throws CompileException {
+		Token t = next();
+		if (!t.is(s))
+			throw new CompileException("'" + s + "' expected instead of " + t, t.pos);
+	}
+
+	private CompileException unexpected() {
+		Token t = peek();
+		return new CompileException("unexpected " + t, t.pos);
+	}
+}
@@ -0,0 +1,86 @@
+package nl.numworx.stream.run;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A compiled flowchart. A program is immutable and can be run any number of
+ * times, also from several threads at once; each run gets its own variables.
+ */
+public final class Program {
+
+	private final String[] names;
+	private final Map<String, Integer> slots;
+	private final Expr precondition;
+	private final Stmt body;
+	private final Expr postcondition;
+
+	Program(Map<String, Integer> slots, Expr precondition, Stmt body, Expr postcondition) {
+		this.slots = Collections.unmodifiableMap(new LinkedHashMap<>(slots));
+		this.names = slots.keySet().toArray(new String[0]);
+		this.precondition = precondition;
+		this.body = body;
+		this.postcondition = postcondition;
+	}
+
+	/**
+	 * All variable names used in the flowchart.
+	 */
+	public Set<String> getVariables() {
+		return slots.keySet();
+	}
+
+	public Outcome run(Map<String, ?> inputs, Limits limits) {
+		Frame frame = new Frame(names.length, limits);
+		for (Map.Entry<String, ?> input : inputs.entrySet()) {
+			Integer slot = slots.get(input.getKey());
+			if (slot != null)
+				frame.slots[slot] = Ops.importValue(input.getValue());
+		}
+		try {
+			if (precondition != null && !Ops.truth(precondition.eval(frame)))
+				return outcome(frame, Outcome.Status.PRECONDITION_FAILED, FlowCompiler.PRECONDITION, "precondition does not hold");
+			body.exec(frame);
+			if (postcondition != null && !Ops.truth(postcondition.eval(frame)))
+				return outcome(frame, Outcome.Status.POSTCONDITION_FAILED, FlowCompiler.POSTCONDITION, "postcondition does not hold");
+			return outcome(frame, Outcome.Status.FINISHED, -1, null);
+		} catch (RunException stop) {
+			return outcome(frame, stop.status, frame.getNode(), stop.getMessage());
+		} catch (ClassCastException | ArithmeticException | IndexOutOfBoundsException oops) {
+			return outcome(frame, Outcome.Status.ERROR, frame.getNode(), oops.toString());
+		}
+	}
+
+	public TestResult test(TestCase testCase, Limits limits) {
+		Outcome outcome = run(testCase.getInputs(), limits);
+		List<String> mismatches = new ArrayList<>();
+		if (outcome.isFinished()) {
+			for (Map.Entry<String, Object> e : testCase.getExpected().entrySet()) {
+				Object actual = outcome.getVariables().get(e.getKey());
+				if (!Ops.equal(e.getValue(), actual))
+					mismatches.add(e.getKey() + ": expected " + Ops.show(e.getValue()) + ", found " + Ops.show(actual));
+			}
+		}
+		return new TestResult(testCase, outcome, mismatches);
+	}
+
+	public List<TestResult> testAll(List<TestCase> testCases, Limits limits) {
+		List<TestResult> results = new ArrayList<>(testCases.size());
+		for (TestCase testCase : testCases)
+			results.add(test(testCase, limits));
+		return results;
+	}
+
+	private Outcome outcome(Frame frame, Outcome.Status status, int nodeId, String message) {
+		Map<String, Object> variables = new LinkedHashMap<>();
+		for (int i = 0; i < names.length; i++) {
+			if (frame.slots[i] != null)
+				variables.put(names[i], frame.slots[i]);
+		}
+		return new Outcome(status, variables, frame.getSteps(), nodeId, message);
+	}
+}
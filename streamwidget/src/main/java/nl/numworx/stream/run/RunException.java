@@ -0,0 +1,19 @@
+package nl.numworx.stream.run;
+
+/**
+ * Stops a run. Carries no stack trace, step limits are hit often when grading.
+ */
+@SuppressWarnings("serial")
+final class RunException extends RuntimeException {
+
+	final Outcome.Status status;
+
+	RunException(Outcome.Status status, String message) {
+		super(message, null, false, false);
+		this.status = status;
+	}
+
+	RunException(String message) {
+		this(Outcome.Status.ERROR, message);
+	}
+}
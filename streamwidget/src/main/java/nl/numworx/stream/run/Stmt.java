@@ -0,0 +1,9 @@
+package nl.numworx.stream.run;
+
+/**
+ * Compiled box or sequence of boxes.
+ */
+@FunctionalInterface
+interface Stmt {
+	void exec(Frame frame);
+}
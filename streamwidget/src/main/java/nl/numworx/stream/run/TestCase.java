@@ -0,0 +1,41 @@
+package nl.numworx.stream.run;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Input values and expected final values for one run.
+ * Values may be Integer, Long, Double, Boolean, String, arrays or collections of these.
+ */
+public final class TestCase {
+
+	private final String name;
+	private final Map<String, Object> inputs;
+	private final Map<String, Object> expected;
+
+	public TestCase(String name, Map<String, ?> inputs, Map<String, ?> expected) {
+		this.name = name;
+		this.inputs = Collections.unmodifiableMap(new LinkedHashMap<>(inputs));
+		this.expected = Collections.unmodifiableMap(imported(expected));
+	}
+
+	private static Map<String, Object> imported(Map<String, ?> values) {
+		Map<String, Object> result = new LinkedHashMap<>();
+		for (Map.Entry<String, ?> e : values.entrySet())
+			result.put(e.getKey(), Ops.importValue(e.getValue()));
+		return result;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Map<String, Object> getInputs() {
+		return inputs;
+	}
+
+	public Map<String, Object> getExpected() {
+		return expected;
+	}
+}
@@ -0,0 +1,44 @@
+package nl.numworx.stream.run;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a {@link TestCase}; it passes when the run finished and every expected value matched.
+ */
+public final class TestResult {
+
+	private final TestCase testCase;
+	private final Outcome outcome;
+	private final List<String> mismatches;
+
+	TestResult(TestCase testCase, Outcome outcome, List<String> mismatches) {
+		this.testCase = testCase;
+		this.outcome = outcome;
+		this.mismatches = Collections.unmodifiableList(mismatches);
+	}
+
+	public TestCase getTestCase() {
+		return testCase;
+	}
+
+	public Outcome getOutcome() {
+		return outcome;
+	}
+
+	/**
+	 * One line per expected variable with another value.
+	 */
+	public List<String> getMismatches() {
+		return mismatches;
+	}
+
+	public boolean isPassed() {
+		return outcome.isFinished() && mismatches.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return testCase.getName() + (isPassed() ? ": passed" : ": failed " + outcome + " " + mismatches);
+	}
+}
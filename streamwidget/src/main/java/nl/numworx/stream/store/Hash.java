@@ -0,0 +1,61 @@
+package nl.numworx.stream.store;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * SHA-256 of an entry, the address it is stored under.
+ */
+final class Hash {
+
+	static final int LENGTH = 32;
+
+	private final byte[] bytes;
+
+	Hash(byte[] bytes) {
+		if (bytes.length != LENGTH)
+			throw new IllegalArgumentException("hash of " + bytes.length + " bytes");
+		this.bytes = bytes;
+	}
+
+	static Hash of(byte[] payload) {
+		try {
+			return new Hash(MessageDigest.getInstance("SHA-256").digest(payload));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static Hash parse(String hex) {
+		if (hex.length() != 2 * LENGTH)
+			throw new IllegalArgumentException("not a hash: " + hex);
+		byte[] bytes = new byte[LENGTH];
+		for (int i = 0; i < LENGTH; i++)
+			bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+		return new Hash(bytes);
+	}
+
+	byte[] bytes() {
+		return bytes;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof Hash && Arrays.equals(bytes, ((Hash) obj).bytes);
+	}
+
+	@Override
+	public int hashCode() {
+		// already uniformly distributed
+		return (bytes[0] & 0xFF) << 24 | (bytes[1] & 0xFF) << 16 | (bytes[2] & 0xFF) << 8 | bytes[3] & 0xFF;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(2 * LENGTH);
+		for (byte b : bytes)
+			sb.append(Character.forDigit(b >> 4 & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		return sb.toString();
+	}
+}
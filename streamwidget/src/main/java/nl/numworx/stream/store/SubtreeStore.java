@@ -0,0 +1,605 @@
+package nl.numworx.stream.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import nl.numworx.stream.flow.Flow;
+import nl.numworx.stream.flow.FlowJson;
+import nl.numworx.stream.flow.Node;
+
+/**
+ * Flows stored as content-addressed subtrees. Every box is kept once under the SHA-256 of its encoding,
+ * which holds its type, id and content and the hashes of its body and else branch, but not what follows it.
+ * A sequence of boxes, such as the tree or the body of a loop, is an entry of its own that lists the hashes
+ * of its boxes. So flows that share a box or a branch share those entries, and an edit stores the box, its
+ * sequence and the boxes and sequences it lies in: entries in proportion to its depth, not to the length of
+ * its sequence. Submissions that all started from one launch flow mostly add their own edits.
+ * <p>
+ * {@link #put} returns the hash of the root record of a flow, {@link #get} rebuilds the flow from it.
+ * Every entry counts its references: one per parent entry and one per <code>put</code> of a root.
+ * {@link #release} drops a root reference; entries that reach zero stay in the data file until {@link #compact}.
+ * <p>
+ * The directory holds two append-only files: <code>data</code> with the entries and <code>refs</code> with every
+ * change of a reference count, of which the last one counts. Entries without a count, after a crash between
+ * the two writes, are unreferenced. Thread safe.
+ * <pre>
+ * java nl.numworx.stream.store.SubtreeStore store-directory data-directory
+ * </pre>
+ * imports the flows of a directory of launch or suspend data and reports the sizes.
+ */
+public final class SubtreeStore implements Closeable {
+
+	private static final String DATA = "data";
+	private static final String REFS = "refs";
+	private static final int DATA_MAGIC = 0x53535444; // "SSTD"
+	private static final int REFS_MAGIC = 0x53535452; // "SSTR"
+	private static final int FORMAT = 2;
+	private static final int HEADER = 8;
+	private static final byte BOX = 1;
+	private static final byte FLOW = 2;
+	private static final byte SEQUENCE = 3;
+
+	private static final class Entry {
+		long offset;
+		int length;
+		int refs;
+
+		Entry(long offset, int length) {
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	/**
+	 * Decoded entry: a box, a sequence or the root record of a flow.
+	 * For a root, <code>tree</code> is the sequence of the tree and <code>id</code> the current id.
+	 */
+	private static final class Record {
+		byte kind;
+		Node.Type type;
+		int id;
+		String content;
+		Hash body;
+		Hash orElse;
+		List<Hash> boxes;
+		String name;
+		Hash tree;
+		Flow.Condition precondition;
+		Flow.Condition postcondition;
+
+		/**
+		 * The entries this one refers to, a box as often as it occurs in a sequence.
+		 */
+		List<Hash> children() {
+			if (kind == SEQUENCE)
+				return boxes;
+			List<Hash> children = new ArrayList<>(2);
+			if (tree != null)
+				children.add(tree);
+			if (body != null)
+				children.add(body);
+			if (orElse != null)
+				children.add(orElse);
+			return children;
+		}
+	}
+
+	private final Path dir;
+	private final Map<Hash, Entry> entries = new HashMap<>();
+	private FileChannel data;
+	private FileChannel refs;
+
+	private SubtreeStore(Path dir) {
+		this.dir = dir;
+	}
+
+	public static SubtreeStore open(Path dir) throws IOException {
+		Files.createDirectories(dir);
+		SubtreeStore store = new SubtreeStore(dir);
+		store.openFiles();
+		return store;
+	}
+
+	private void openFiles() throws IOException {
+		data = open(dir.resolve(DATA), DATA_MAGIC);
+		refs = open(dir.resolve(REFS), REFS_MAGIC);
+		scanData();
+		scanRefs();
+	}
+
+	private static FileChannel open(Path file, int magic) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		if (channel.size() == 0) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER).putInt(magic).putInt(FORMAT);
+			header.flip();
+			channel.write(header, 0);
+		} else {
+			ByteBuffer header = read(channel, 0, HEADER);
+			if (header.getInt() != magic || header.getInt() != FORMAT) {
+				channel.close();
+				throw new IOException(file + " is not a subtree store file of format " + FORMAT);
+			}
+		}
+		return channel;
+	}
+
+	/**
+	 * Indexes the entries; a record cut off by a crash is dropped.
+	 */
+	private void scanData() throws IOException {
+		long size = data.size();
+		long pos = HEADER;
+		while (pos + Hash.LENGTH + 4 <= size) {
+			ByteBuffer head = read(data, pos, Hash.LENGTH + 4);
+			byte[] hash = new byte[Hash.LENGTH];
+			head.get(hash);
+			int length = head.getInt();
+			long offset = pos + Hash.LENGTH + 4;
+			if (offset + length > size)
+				break;
+			entries.put(new Hash(hash), new Entry(offset, length));
+			pos = offset + length;
+		}
+		data.truncate(pos);
+	}
+
+	private void scanRefs() throws IOException {
+		long size = refs.size();
+		long pos = HEADER;
+		int recordLength = Hash.LENGTH + 4;
+		for (; pos + recordLength <= size; pos += recordLength) {
+			ByteBuffer record = read(refs, pos, recordLength);
+			byte[] hash = new byte[Hash.LENGTH];
+			record.get(hash);
+			Entry entry = entries.get(new Hash(hash));
+			if (entry != null)
+				entry.refs = record.getInt();
+		}
+		refs.truncate(pos);
+	}
+
+	/**
+	 * Stores the flow and adds a reference to it. Returns the hash to get it back with.
+	 */
+	public synchronized String put(Flow flow) throws IOException {
+		// every sequence after the sequences in its boxes, so their hashes are known when it is encoded
+		Map<Node, Hash> sequences = new IdentityHashMap<>();
+		Map<Hash, byte[]> payloads = new HashMap<>();
+		Map<Hash, List<Hash>> children = new HashMap<>();
+		for (Node head : innermostFirst(flow.getTree())) {
+			List<Hash> boxes = new ArrayList<>();
+			for (Node n = head; n != null; n = n.getNext()) {
+				Hash body = n.getBody() == null ? null : sequences.get(n.getBody());
+				Hash orElse = n.getElse() == null ? null : sequences.get(n.getElse());
+				boxes.add(add(encode(n, body, orElse), nonNull(body, orElse), payloads, children));
+			}
+			sequences.put(head, add(encode(boxes), boxes, payloads, children));
+		}
+		Hash tree = sequences.get(flow.getTree());
+		Hash root = add(encode(flow, tree), Collections.singletonList(tree), payloads, children);
+		Set<Hash> changed = new LinkedHashSet<>();
+		// an entry that is new references its children, one that was stored already has done so
+		Deque<Hash> pending = new ArrayDeque<>();
+		pending.push(root);
+		while (!pending.isEmpty()) {
+			Hash hash = pending.pop();
+			if (reference(hash, payloads.get(hash), changed)) {
+				for (Hash child : children.get(hash))
+					pending.push(child);
+			}
+		}
+		writeRefs(changed);
+		return root.toString();
+	}
+
+	private static Hash add(byte[] payload, List<Hash> references, Map<Hash, byte[]> payloads, Map<Hash, List<Hash>> children) {
+		Hash hash = Hash.of(payload);
+		payloads.put(hash, payload);
+		children.put(hash, references);
+		return hash;
+	}
+
+	private static List<Hash> nonNull(Hash body, Hash orElse) {
+		List<Hash> hashes = new ArrayList<>(2);
+		if (body != null)
+			hashes.add(body);
+		if (orElse != null)
+			hashes.add(orElse);
+		return hashes;
+	}
+
+	/**
+	 * The first node of every sequence in the tree, each once, after the sequences nested in its boxes.
+	 */
+	private static List<Node> innermostFirst(Node tree) {
+		List<Node> order = new ArrayList<>();
+		Set<Node> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+		Deque<Node> pending = new ArrayDeque<>();
+		pending.push(tree);
+		while (!pending.isEmpty()) {
+			Node head = pending.pop();
+			if (!seen.add(head))
+				continue;
+			order.add(head);
+			for (Node n = head; n != null; n = n.getNext()) {
+				if (n.getBody() != null)
+					pending.push(n.getBody());
+				if (n.getElse() != null)
+					pending.push(n.getElse());
+			}
+		}
+		Collections.reverse(order);
+		return order;
+	}
+
+	/**
+	 * Adds a reference, storing the entry when it is new. Returns whether its children need a reference too.
+	 */
+	private boolean reference(Hash hash, byte[] payload, Set<Hash> changed) throws IOException {
+		changed.add(hash);
+		Entry entry = entries.get(hash);
+		if (entry != null) {
+			// released but not yet compacted: its children were released with it
+			return entry.refs++ == 0;
+		}
+		long pos = data.size();
+		ByteBuffer record = ByteBuffer.allocate(Hash.LENGTH + 4 + payload.length);
+		record.put(hash.bytes()).putInt(payload.length).put(payload);
+		record.flip();
+		write(data, record, pos);
+		entry = new Entry(pos + Hash.LENGTH + 4, payload.length);
+		entry.refs = 1;
+		entries.put(hash, entry);
+		return true;
+	}
+
+	private void writeRefs(Set<Hash> changed) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(changed.size() * (Hash.LENGTH + 4));
+		for (Hash hash : changed)
+			buffer.put(hash.bytes()).putInt(entries.get(hash).refs);
+		buffer.flip();
+		write(refs, buffer, refs.size());
+	}
+
+	/**
+	 * The flow that was put under the hash.
+	 * @throws IllegalArgumentException when there is no flow under it
+	 */
+	public synchronized Flow get(String root) throws IOException {
+		Record record = record(Hash.parse(root));
+		if (record.kind != FLOW)
+			throw new IllegalArgumentException(root + " is not a flow");
+		// rebuild the inner sequences first with an explicit stack; a sequence is built back to front,
+		// and shared sequences become shared nodes
+		Map<Hash, Node> built = new HashMap<>();
+		Map<Hash, Record> records = new HashMap<>();
+		Deque<Hash> pending = new ArrayDeque<>();
+		pending.push(record.tree);
+		while (!pending.isEmpty()) {
+			Hash hash = pending.peek();
+			if (built.containsKey(hash)) {
+				pending.pop();
+				continue;
+			}
+			Record sequence = record(hash, records);
+			if (sequence.kind != SEQUENCE)
+				throw new IllegalArgumentException(hash + " is not a sequence");
+			boolean ready = true;
+			for (Hash box : sequence.boxes) {
+				for (Hash branch : record(box, records).children()) {
+					if (!built.containsKey(branch)) {
+						pending.push(branch);
+						ready = false;
+					}
+				}
+			}
+			if (ready) {
+				Node next = null;
+				for (int i = sequence.boxes.size() - 1; i >= 0; i--)
+					next = node(records.get(sequence.boxes.get(i)), next, built);
+				built.put(hash, next);
+				pending.pop();
+			}
+		}
+		return new Flow(record.name, built.get(record.tree), record.id, record.precondition, record.postcondition);
+	}
+
+	private Record record(Hash hash, Map<Hash, Record> records) throws IOException {
+		Record r = records.get(hash);
+		if (r == null) {
+			r = record(hash);
+			records.put(hash, r);
+		}
+		return r;
+	}
+
+	private static Node node(Record r, Node next, Map<Hash, Node> built) {
+		Node body = r.body == null ? null : built.get(r.body);
+		Node orElse = r.orElse == null ? null : built.get(r.orElse);
+		switch (r.type) {
+		case START:
+			return Node.start(r.id, next);
+		case END:
+			return Node.end(r.id);
+		case EMPTY:
+			return Node.empty(r.id, next);
+		case VOID:
+			return Node.voidNode(r.id);
+		case STATEMENT:
+			return Node.statement(r.id, r.content, next);
+		case IF:
+			return Node.ifNode(r.id, r.content, orElse, body, next);
+		case WHILE:
+			return Node.whileNode(r.id, r.content, body, next);
+		default:
+			return Node.forEach(r.id, r.content, body, next);
+		}
+	}
+
+	public synchronized boolean contains(String root) {
+		Entry entry = entries.get(Hash.parse(root));
+		return entry != null && entry.refs > 0;
+	}
+
+	/**
+	 * Drops a reference to the flow; entries nothing refers to any more release their children.
+	 * Returns false when the flow was not referenced.
+	 */
+	public synchronized boolean release(String root) throws IOException {
+		Hash hash = Hash.parse(root);
+		Entry entry = entries.get(hash);
+		if (entry == null || entry.refs == 0)
+			return false;
+		Set<Hash> changed = new LinkedHashSet<>();
+		Deque<Hash> pending = new ArrayDeque<>();
+		pending.push(hash);
+		while (!pending.isEmpty()) {
+			Hash h = pending.pop();
+			Entry e = entries.get(h);
+			e.refs--;
+			changed.add(h);
+			if (e.refs == 0) {
+				for (Hash child : record(h).children())
+					pending.push(child);
+			}
+		}
+		writeRefs(changed);
+		return true;
+	}
+
+	/**
+	 * Rewrites both files with only the referenced entries. When putting the new files in place fails,
+	 * the store opens again on what is there, so it stays usable.
+	 */
+	public synchronized void compact() throws IOException {
+		Path newData = dir.resolve(DATA + ".compacting");
+		Path newRefs = dir.resolve(REFS + ".compacting");
+		Files.deleteIfExists(newData);
+		Files.deleteIfExists(newRefs);
+		try (FileChannel d = open(newData, DATA_MAGIC); FileChannel r = open(newRefs, REFS_MAGIC)) {
+			for (Map.Entry<Hash, Entry> e : entries.entrySet()) {
+				Entry entry = e.getValue();
+				if (entry.refs == 0)
+					continue;
+				ByteBuffer record = ByteBuffer.allocate(Hash.LENGTH + 4 + entry.length);
+				record.put(e.getKey().bytes()).putInt(entry.length).put(read(data, entry.offset, entry.length));
+				record.flip();
+				write(d, record, d.size());
+				ByteBuffer count = ByteBuffer.allocate(Hash.LENGTH + 4);
+				count.put(e.getKey().bytes()).putInt(entry.refs);
+				count.flip();
+				write(r, count, r.size());
+			}
+			d.force(false);
+			r.force(false);
+		}
+		try {
+			// the store lets go of the files first, as Windows does not replace a file that is still open;
+			// it never maps them, so closing is enough
+			close();
+			// the old refs still hold for the new data, so a crash between the moves loses nothing
+			Files.move(newData, dir.resolve(DATA), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			Files.move(newRefs, dir.resolve(REFS), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			// whichever files are in place now, compacted or not
+			entries.clear();
+			openFiles();
+		}
+	}
+
+	/**
+	 * Size of the data file.
+	 */
+	public synchronized long getDataSize() throws IOException {
+		return data.size();
+	}
+
+	/**
+	 * Bytes of the data file that {@link #compact} would keep.
+	 */
+	public synchronized long getLiveSize() {
+		long size = HEADER;
+		for (Entry entry : entries.values()) {
+			if (entry.refs > 0)
+				size += Hash.LENGTH + 4 + entry.length;
+		}
+		return size;
+	}
+
+	public synchronized int getEntryCount() {
+		return entries.size();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			data.force(false);
+			refs.force(false);
+		} finally {
+			data.close();
+			refs.close();
+		}
+	}
+
+	private static byte[] encode(Node n, Hash body, Hash orElse) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(BOX);
+		out.writeByte(n.getType().ordinal());
+		out.writeInt(n.getId());
+		writeString(out, n.getContent());
+		out.writeByte((body != null ? 1 : 0) | (orElse != null ? 2 : 0));
+		if (body != null)
+			out.write(body.bytes());
+		if (orElse != null)
+			out.write(orElse.bytes());
+		return bytes.toByteArray();
+	}
+
+	private static byte[] encode(List<Hash> boxes) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(SEQUENCE);
+		out.writeInt(boxes.size());
+		for (Hash box : boxes)
+			out.write(box.bytes());
+		return bytes.toByteArray();
+	}
+
+	private static byte[] encode(Flow flow, Hash tree) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(FLOW);
+		writeString(out, flow.getName());
+		out.writeInt(flow.getCurrentId());
+		writeString(out, flow.getPrecondition().getContent());
+		out.writeBoolean(flow.getPrecondition().isVisible());
+		writeString(out, flow.getPostcondition().getContent());
+		out.writeBoolean(flow.getPostcondition().isVisible());
+		out.write(tree.bytes());
+		return bytes.toByteArray();
+	}
+
+	private Record record(Hash hash) throws IOException {
+		Entry entry = entries.get(hash);
+		if (entry == null)
+			throw new IllegalArgumentException("nothing stored under " + hash);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(read(data, entry.offset, entry.length).array()));
+		Record r = new Record();
+		r.kind = in.readByte();
+		if (r.kind == FLOW) {
+			r.name = readString(in);
+			r.id = in.readInt();
+			r.precondition = new Flow.Condition(readString(in), in.readBoolean());
+			r.postcondition = new Flow.Condition(readString(in), in.readBoolean());
+			r.tree = readHash(in);
+		} else if (r.kind == SEQUENCE) {
+			int count = in.readInt();
+			r.boxes = new ArrayList<>(count);
+			for (int i = 0; i < count; i++)
+				r.boxes.add(readHash(in));
+		} else {
+			r.type = Node.Type.values()[in.readByte()];
+			r.id = in.readInt();
+			r.content = readString(in);
+			int present = in.readByte();
+			r.body = (present & 1) != 0 ? readHash(in) : null;
+			r.orElse = (present & 2) != 0 ? readHash(in) : null;
+		}
+		return r;
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		if (s == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0)
+			return null;
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static Hash readHash(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[Hash.LENGTH];
+		in.readFully(bytes);
+		return new Hash(bytes);
+	}
+
+	private static ByteBuffer read(FileChannel channel, long pos, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, pos + buffer.position()) < 0)
+				throw new EOFException();
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private static void write(FileChannel channel, ByteBuffer buffer, long pos) throws IOException {
+		while (buffer.hasRemaining())
+			channel.write(buffer, pos + buffer.position());
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("usage: SubtreeStore store-directory data-directory");
+			System.exit(2);
+		}
+		Path source = Paths.get(args[1]);
+		long json = 0;
+		int flows = 0;
+		List<String> failed = new ArrayList<>();
+		try (SubtreeStore store = open(Paths.get(args[0])); Stream<Path> files = Files.walk(source)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				if (!Files.isRegularFile(file) || !file.toString().endsWith(".json"))
+					continue;
+				try {
+					for (String flow : FlowJson.embedded(new String(Files.readAllBytes(file), StandardCharsets.UTF_8))) {
+						json += flow.getBytes(StandardCharsets.UTF_8).length;
+						System.out.println(store.put(FlowJson.read(flow)) + " " + source.relativize(file));
+						flows++;
+					}
+				} catch (IOException | RuntimeException e) {
+					failed.add(source.relativize(file) + ": " + e.getMessage());
+				}
+			}
+			System.err.println(flows + " flows, " + json + " bytes of JSON, " + store.getDataSize() + " bytes stored in "
+					+ store.getEntryCount() + " entries, " + failed.size() + " failed");
+		}
+		for (String f : failed)
+			System.err.println("  " + f);
+	}
+}
@@ -0,0 +1,182 @@
+package nl.numworx.stream;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import javax.swing.JComponent;
+import javax.swing.JPanel;
+
+import nl.numworx.swingbrowser.api.ConsoleEvent;
+import nl.numworx.swingbrowser.api.SwingBrowser;
+import nl.numworx.swingbrowser.scorm.ConsoleListener;
+import nl.numworx.swingbrowser.scorm.SCORM2004APIInterface;
+
+/**
+ * Stand-in for the embedded browser, without a screen or a JavaScript engine.
+ * <p>
+ * Loading a page calls the SCORM API the way StreamWidget.html does: after the load latency
+ * Initialize, GetValue of the flow and the trace switch, and SetValue of the layout; unloading,
+ * after the unload latency, SetValue of the flow and Terminate. Every page load and unload is also
+ * reported to the console listeners. Closed engines make no calls any more.
+ */
+final class HeadlessBrowser {
+
+	/** Name of the component of every engine, so a test can find it in a panel. */
+	static final String ENGINE = "headless engine";
+
+	private final ScheduledExecutorService scheduler;
+	private final int loadMillis;
+	private final int unloadMillis;
+	private final int jitterMillis;
+
+	final AtomicInteger created = new AtomicInteger();
+	final AtomicInteger closed = new AtomicInteger();
+	final AtomicInteger pages = new AtomicInteger();
+	/** Calls the engine wanted to make after it was closed, which a real page cannot do. */
+	final AtomicInteger late = new AtomicInteger();
+
+	/**
+	 * @param jitterMillis at most this much is added at random to every latency
+	 */
+	HeadlessBrowser(int threads, int loadMillis, int unloadMillis, int jitterMillis) {
+		this.scheduler = Executors.newScheduledThreadPool(threads, r -> {
+			Thread t = new Thread(r, "headless-browser");
+			t.setDaemon(true);
+			return t;
+		});
+		this.loadMillis = loadMillis;
+		this.unloadMillis = unloadMillis;
+		this.jitterMillis = jitterMillis;
+	}
+
+	/**
+	 * Factory for {@link HTMLBrowser#setEngineFactory}. The engines are proxies, so methods of
+	 * SwingBrowser this class does not know about just return null.
+	 */
+	Supplier<SwingBrowser> factory() {
+		return () -> {
+			Engine engine = new Engine();
+			created.incrementAndGet();
+			return (SwingBrowser) Proxy.newProxyInstance(SwingBrowser.class.getClassLoader(),
+					new Class<?>[] { SwingBrowser.class }, (proxy, method, args) -> {
+						switch (method.getName()) {
+						case "setAPI":
+							engine.api = (SCORM2004APIInterface) args[0];
+							return null;
+						case "addConsoleListener":
+							engine.listeners.add((ConsoleListener) args[0]);
+							return null;
+						case "removeConsoleListener":
+							engine.listeners.remove(args[0]);
+							return null;
+						case "asComponent":
+							return engine.component;
+						case "loadURL":
+							engine.load((String) args[0]);
+							return null;
+						case "close":
+							engine.close();
+							return null;
+						case "hashCode":
+							return System.identityHashCode(proxy);
+						case "equals":
+							return proxy == args[0];
+						case "toString":
+							return "HeadlessBrowser " + engine.page;
+						default:
+							return method.getReturnType() == boolean.class ? Boolean.FALSE : null;
+						}
+					});
+		};
+	}
+
+	void shutdown() {
+		scheduler.shutdownNow();
+	}
+
+	private int latency(int millis) {
+		return millis + (jitterMillis > 0 ? ThreadLocalRandom.current().nextInt(jitterMillis + 1) : 0);
+	}
+
+	private final class Engine {
+		final JComponent component = new JPanel();
+		final List<ConsoleListener> listeners = new CopyOnWriteArrayList<>();
+		volatile SCORM2004APIInterface api;
+		volatile String page;
+		/** What the page would hold: the flow it got, with the edits made to it. */
+		volatile String flow;
+		volatile boolean isClosed;
+
+		Engine() {
+			component.setName(ENGINE);
+		}
+
+		synchronized void load(String url) {
+			if (page != null) {
+				String flow = this.flow;
+				scheduler.schedule(() -> unloaded(flow), latency(unloadMillis), TimeUnit.MILLISECONDS);
+			}
+			page = url;
+			if (url != null)
+				scheduler.schedule(() -> loaded(url), latency(loadMillis), TimeUnit.MILLISECONDS);
+		}
+
+		private void loaded(String url) {
+			SCORM2004APIInterface api = this.api;
+			if (isClosed || api == null) {
+				late.incrementAndGet();
+				return;
+			}
+			pages.incrementAndGet();
+			api.Initialize("");
+			flow = api.GetValue(StreamInteractiePanel.FLOW);
+			api.GetValue(StreamInteractiePanel.TRACE);
+			console(ConsoleEvent.Level.LOG, "loaded " + url);
+			Random random = ThreadLocalRandom.current();
+			api.SetValue(StreamInteractiePanel.LAYOUT, (200 + random.nextInt(400)) + "," + (100 + random.nextInt(800)));
+		}
+
+		private void unloaded(String flow) {
+			SCORM2004APIInterface api = this.api;
+			if (isClosed || api == null) {
+				late.incrementAndGet();
+				return;
+			}
+			api.SetValue(StreamInteractiePanel.FLOW, flow);
+			api.Terminate("");
+			console(ConsoleEvent.Level.INFO, "unloaded");
+		}
+
+		private void console(ConsoleEvent.Level level, String message) {
+			ConsoleEvent event = new ConsoleEvent() {
+				@Override
+				public Level getLevel() {
+					return level;
+				}
+
+				@Override
+				public String getMessage() {
+					return message;
+				}
+			};
+			for (ConsoleListener listener : listeners)
+				listener.onConsole(event);
+		}
+
+		synchronized void close() {
+			if (!isClosed)
+				closed.incrementAndGet();
+			isClosed = true;
+			api = null;
+			listeners.clear();
+		}
+	}
+}
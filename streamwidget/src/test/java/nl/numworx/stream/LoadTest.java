@@ -0,0 +1,312 @@
+package nl.numworx.stream;
+
+import java.awt.BorderLayout;
+import java.awt.Component;
+import java.awt.Container;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+
+import nl.numworx.stream.flow.FlowGenerator;
+import nl.numworx.stream.flow.FlowJson;
+
+/**
+ * Drives many lifecycles of {@link StreamInteractiePanel} at once against a {@link HeadlessBrowser},
+ * and reports latency percentiles and what was left behind. Needs no screen, so it runs on a plain build box:
+ * <pre>
+ * java -Djava.awt.headless=true nl.numworx.stream.LoadTest [--cycles n] [--threads n] [--load ms] [--unload ms] [--jitter ms] [--hold ms] [--release ms] [--drop percent] [--boxes n]
+ * </pre>
+ * A cycle is setLaunchData, start, show, stop, hide and destroy of a new panel, holding it shown for a while
+ * so its page gets to load. A panel is shown by making a parentless host of it displayable, which needs no
+ * screen. In between the panel is hidden and shown again at once, which must keep its engine, and hidden
+ * for longer than the release delay, which must close its engine; the next show must make a new one.
+ * With <code>--drop</code> that share of the cycles is run again afterwards, with the normal release delay,
+ * and its panels are taken out of their host without destroy, as a careless host would; their engines must be
+ * closed by the {@link BrowserRegistry}. Fails with exit code 1 when the engines did not come and go with the
+ * showing, when an engine was not closed or not by the registry, or when a panel can still be reached after the run.
+ * With <code>--boxes</code> the panels get a flow of that size from {@link FlowGenerator} instead of the default flow.
+ */
+public class LoadTest {
+
+	private static final Logger QUIET = Logger.getLogger("nl.numworx.stream");
+	private static final String[] STEPS = { "setLaunchData", "start", "show", "stop", "destroy", "cycle" }; // cycle without the holds and waits
+	/** How long a hidden panel may take to close its engine, past the release delay. */
+	private static final int RELEASE_WAIT = 10_000;
+
+	public static void main(String[] args) throws Exception {
+		int cycles = 2000;
+		int threads = 16;
+		int load = 20;
+		int unload = 5;
+		int jitter = 10;
+		int hold = 50;
+		int release = 100;
+		int drop = 0;
+		int boxes = -1;
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "--cycles":
+				cycles = Integer.parseInt(args[++i]);
+				break;
+			case "--threads":
+				threads = Integer.parseInt(args[++i]);
+				break;
+			case "--load":
+				load = Integer.parseInt(args[++i]);
+				break;
+			case "--unload":
+				unload = Integer.parseInt(args[++i]);
+				break;
+			case "--jitter":
+				jitter = Integer.parseInt(args[++i]);
+				break;
+			case "--hold":
+				hold = Integer.parseInt(args[++i]);
+				break;
+			case "--release":
+				release = Integer.parseInt(args[++i]);
+				break;
+			case "--drop":
+				drop = Integer.parseInt(args[++i]);
+				break;
+			case "--boxes":
+				boxes = Integer.parseInt(args[++i]);
+				break;
+			default:
+				System.err.println("usage: LoadTest [--cycles n] [--threads n] [--load ms] [--unload ms] [--jitter ms] [--hold ms] [--release ms] [--drop percent] [--boxes n]");
+				System.exit(2);
+			}
+		}
+
+		// every start is logged, and HTMLBrowser echoes the console of every page
+		QUIET.setLevel(Level.WARNING);
+		PrintStream out = System.out;
+		AtomicLong consoleBytes = new AtomicLong();
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+				consoleBytes.incrementAndGet();
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				consoleBytes.addAndGet(len);
+			}
+		}));
+
+		HeadlessBrowser engines = new HeadlessBrowser(Math.max(2, threads / 2), load, unload, jitter);
+		HTMLBrowser.setEngineFactory(engines.factory());
+		HTMLBrowser.setReleaseDelay(release);
+		Stream stream = new Stream(Locale.getDefault());
+		String flow = boxes < 0 ? stream.getDefaultFlow() : FlowJson.write(FlowGenerator.DEFAULT.generate(boxes, 1));
+
+		long[][] nanos = new long[STEPS.length][cycles];
+		ConcurrentLinkedQueue<WeakReference<StreamInteractiePanel>> panels = new ConcurrentLinkedQueue<>();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<?>> runs = new ArrayList<>(cycles);
+		int held = hold;
+		int drops = cycles * drop / 100;
+		AtomicLong wrong = new AtomicLong();
+		long releaseWait = release + RELEASE_WAIT;
+		long start = System.nanoTime();
+		for (int c = 0; c < cycles; c++) {
+			int cycle = c;
+			runs.add(pool.submit(() -> {
+				Map<String, Object> launchdata = new HashMap<>();
+				launchdata.put(StreamInteractiePanel.FLOW, flow);
+				launchdata.put(StreamInteractiePanel.TRACE_PERCENT, 10);
+				long t0 = System.nanoTime();
+				StreamInteractiePanel panel = (StreamInteractiePanel) stream.getInstance(null);
+				panels.add(new WeakReference<>(panel));
+				panel.setLaunchData(launchdata, null);
+				long t1 = System.nanoTime();
+				panel.start();
+				long t2 = System.nanoTime();
+				JPanel host = new JPanel(new BorderLayout());
+				SwingUtilities.invokeAndWait(() -> host.add(panel.asComponent()));
+				expect(engine(panel) == null, "engine made before the panel showed", wrong);
+				SwingUtilities.invokeAndWait(host::addNotify);
+				long t3 = System.nanoTime();
+				Component first = engine(panel);
+				expect(first != null, "no engine once the panel showed", wrong);
+				Thread.sleep(held);
+
+				SwingUtilities.invokeAndWait(() -> host.setVisible(false));
+				SwingUtilities.invokeAndWait(() -> host.setVisible(true));
+				expect(engine(panel) == first, "engine closed when shown again within the release delay", wrong);
+				SwingUtilities.invokeAndWait(() -> host.setVisible(false));
+				expect(released(panel, releaseWait), "engine kept while hidden past the release delay", wrong);
+				SwingUtilities.invokeAndWait(() -> host.setVisible(true));
+				Component second = engine(panel);
+				expect(second != null && second != first, "no new engine when shown after the release", wrong);
+				Thread.sleep(held);
+
+				long t4 = System.nanoTime();
+				panel.stop();
+				long t5 = System.nanoTime();
+				SwingUtilities.invokeAndWait(() -> host.setVisible(false));
+				panel.destroy();
+				long t6 = System.nanoTime();
+				nanos[0][cycle] = t1 - t0;
+				nanos[1][cycle] = t2 - t1;
+				nanos[2][cycle] = t3 - t2;
+				nanos[3][cycle] = t5 - t4;
+				nanos[4][cycle] = t6 - t5;
+				nanos[5][cycle] = (t3 - t0) + (t6 - t4);
+				return null;
+			}));
+		}
+		int failed = failures(runs);
+		long wall = System.nanoTime() - start;
+
+		// The dropped panels keep their engines past the end of the run, so that only the registry can close them
+		HTMLBrowser.setReleaseDelay(HTMLBrowser.RELEASE_DELAY);
+		runs.clear();
+		for (int d = 0; d < drops; d++) {
+			runs.add(pool.submit(() -> {
+				Map<String, Object> launchdata = new HashMap<>();
+				launchdata.put(StreamInteractiePanel.FLOW, flow);
+				StreamInteractiePanel panel = (StreamInteractiePanel) stream.getInstance(null);
+				panels.add(new WeakReference<>(panel));
+				panel.setLaunchData(launchdata, null);
+				panel.start();
+				JPanel host = new JPanel(new BorderLayout());
+				SwingUtilities.invokeAndWait(() -> {
+					host.add(panel.asComponent());
+					host.addNotify();
+				});
+				Thread.sleep(held);
+				panel.stop();
+				// the window goes, and the panel with it, without destroy
+				SwingUtilities.invokeAndWait(host::removeNotify);
+				return null;
+			}));
+		}
+		failed += failures(runs);
+		pool.shutdown();
+		pool.awaitTermination(1, TimeUnit.MINUTES);
+		// let the callbacks still scheduled run out before counting
+		Thread.sleep(2L * (Math.max(load, unload) + jitter) + 100);
+		engines.shutdown();
+		System.setOut(out);
+
+		int reachable = 0;
+		for (int i = 0; i < 5 && ((reachable = reachable(panels)) > 0 || BrowserRegistry.size() > 0); i++) {
+			System.gc();
+			Thread.sleep(200);
+		}
+		// the cleaner closes engines on the event dispatch thread
+		SwingUtilities.invokeAndWait(() -> {
+		});
+
+		System.err.printf(Locale.ROOT, "%d cycles on %d threads in %d ms, %d failed%n", cycles, threads,
+				TimeUnit.NANOSECONDS.toMillis(wall), failed);
+		System.err.printf(Locale.ROOT, "%-14s %9s %9s %9s %9s%n", "ms", "p50", "p90", "p99", "max");
+		for (int s = 0; s < STEPS.length; s++) {
+			long[] sorted = nanos[s].clone();
+			Arrays.sort(sorted);
+			System.err.printf(Locale.ROOT, "%-14s %9.3f %9.3f %9.3f %9.3f%n", STEPS[s], percentile(sorted, 50),
+					percentile(sorted, 90), percentile(sorted, 99), percentile(sorted, 100));
+		}
+		int leakedEngines = engines.created.get() - engines.closed.get();
+		// every cycle makes an engine on its first show, and another after the release; a dropped panel one
+		int expectedEngines = 2 * cycles + drops;
+		System.err.printf(Locale.ROOT, "dropped without destroy: %d, reclaimed: %d%n", drops,
+				BrowserRegistry.reclaimed());
+		if (BrowserRegistry.size() > 0)
+			System.err.println(HTMLBrowser.diagnostics());
+		System.err.printf(Locale.ROOT, "engines: %d created, %d closed, %d pages loaded, %d calls after close%n",
+				engines.created.get(), engines.closed.get(), engines.pages.get(), engines.late.get());
+		System.err.printf(Locale.ROOT, "showing: %d wrong, %d engines made where %d were due%n", wrong.get(),
+				engines.created.get(), expectedEngines);
+		System.err.printf(Locale.ROOT, "leaked: %d engines, %d panels; %d bytes of console%n", leakedEngines,
+				reachable, consoleBytes.get());
+		System.exit(failed > 0 || wrong.get() > 0 || engines.created.get() != expectedEngines || leakedEngines > 0 || reachable > 0
+				|| BrowserRegistry.size() > 0 || BrowserRegistry.reclaimed() != drops ? 1 : 0);
+	}
+
+	private static int failures(List<Future<?>> runs) {
+		int failed = 0;
+		for (Future<?> run : runs) {
+			try {
+				run.get();
+			} catch (Exception oops) {
+				if (failed++ == 0)
+					oops.printStackTrace();
+			}
+		}
+		return failed;
+	}
+
+	private static void expect(boolean condition, String what, AtomicLong wrong) {
+		if (!condition && wrong.getAndIncrement() == 0)
+			System.err.println("FAILED " + what);
+	}
+
+	/**
+	 * The component of the panel's engine, or null when it has none. The engine's component is in the
+	 * panel while it has an engine and is displayable.
+	 */
+	private static Component engine(StreamInteractiePanel panel) throws Exception {
+		Component[] found = new Component[1];
+		SwingUtilities.invokeAndWait(() -> found[0] = find(panel.asComponent()));
+		return found[0];
+	}
+
+	private static Component find(Component component) {
+		if (HeadlessBrowser.ENGINE.equals(component.getName()))
+			return component;
+		if (component instanceof Container)
+			for (Component child : ((Container) component).getComponents()) {
+				Component found = find(child);
+				if (found != null)
+					return found;
+			}
+		return null;
+	}
+
+	private static boolean released(StreamInteractiePanel panel, long millis) throws Exception {
+		long end = System.currentTimeMillis() + millis;
+		while (engine(panel) != null) {
+			if (System.currentTimeMillis() > end)
+				return false;
+			Thread.sleep(10);
+		}
+		return true;
+	}
+
+	private static int reachable(Iterable<WeakReference<StreamInteractiePanel>> panels) {
+		int n = 0;
+		for (WeakReference<StreamInteractiePanel> panel : panels)
+			if (panel.get() != null)
+				n++;
+		return n;
+	}
+
+	/**
+	 * Nearest-rank percentile of sorted nanoseconds, in milliseconds.
+	 */
+	private static double percentile(long[] sorted, int p) {
+		if (sorted.length == 0)
+			return 0;
+		int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+		return sorted[Math.max(0, rank - 1)] / 1e6;
+	}
+}
@@ -0,0 +1,216 @@
+package nl.numworx.stream.flow;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Checks the JSON reader and the migration of stored flows from schema version 1 to {@link FlowMigrations#CURRENT}:
+ * every step on its own, the whole chain, and that a migrated flow reads the same as one written now.
+ * Needs the classes under test and, for the default flow, the resources on the class path:
+ * <pre>
+ * java nl.numworx.stream.flow.MigrationTest
+ * </pre>
+ * Prints every failed check and exits with code 1 when there is one.
+ */
+public class MigrationTest {
+
+	/**
+	 * Version 1: no version field, and every box nests the next one. The If has Void at the end of
+	 * both branches; child1 is the false branch, child2 the true branch and child3 what follows.
+	 */
+	private static final String V1 = "{\"_Easter_Egg\": \"Nothing here\", \"model\": {"
+			+ "\"flowchartName\": \"sum\", \"currentId\": 30, \"highlightedBox\": \"Nothing\","
+			+ "\"precondition\": {\"nodeType\": \"PreConditionNode\", \"content\": \"n >= 0\", \"visible\": true},"
+			+ "\"postcondition\": {\"nodeType\": \"PostConditionNode\", \"content\": \"empty\", \"visible\": false},"
+			+ "\"tree\": " + box(0, "Start", null, "\"child\": " + box(10, "Statement", "s := 0; i := 0", "\"child\": "
+					+ box(11, "While", "i < n", "\"child1\": "
+							+ box(12, "If", "i mod 2 = 0",
+									"\"child1\": " + box(13, "Statement", "s -= 1", "\"child\": " + box(14, "Void", null, null))
+									+ ", \"child2\": " + box(15, "Statement", "s += i", "\"child\": " + box(16, "Void", null, null))
+									+ ", \"child3\": " + box(17, "Statement", "i += 1", "\"child\": " + box(18, "Void", null, null)))
+							+ ", \"child2\": " + box(1, "End", null, null))))
+			+ "}}";
+
+	private static int checks;
+	private static int failures;
+
+	public static void main(String[] args) throws IOException {
+		reader();
+		steps();
+		chain();
+		defaultFlow();
+		System.err.println(checks + " checks, " + failures + " failed");
+		System.exit(failures > 0 ? 1 : 0);
+	}
+
+	private static void reader() {
+		Map<String, Object> o = Json.parseObject(" {\"b\": 1, \"a\": [true, false, null], \"c\": {}} ");
+		check("key order", Arrays.asList("b", "a", "c"), Arrays.asList(o.keySet().toArray()));
+		check("literals", Arrays.asList(true, false, null), o.get("a"));
+		check("empty object", Collections.emptyMap(), o.get("c"));
+		check("integer", 42L, Json.parse("42"));
+		check("negative integer", -7L, Json.parse("-7"));
+		check("real", 2.5, Json.parse("2.5"));
+		check("exponent", 1000.0, Json.parse("1e3"));
+		check("integer beyond long", 1e20, Json.parse("100000000000000000000"));
+		check("escapes", "a\"b\\c/d\n\t\u00e9", Json.parse("\"a\\\"b\\\\c\\/d\\n\\t\\u00e9\""));
+		check("text round trip", "x\u2190\"\n", Json.parse(Json.write("x\u2190\"\n", 0)));
+		check("deep nesting", 1L, depth(100_000));
+		fails("trailing characters", "{} x");
+		fails("unterminated string", "\"abc");
+		fails("missing colon", "{\"a\" 1}");
+		fails("missing comma", "[1 2]");
+		fails("bad literal", "[tru]");
+		fails("bad escape", "\"\\u12\"");
+		fails("not an object", "[]");
+	}
+
+	private static void steps() {
+		Map<String, Object> v1 = Json.parseObject(V1);
+		check("v1 has no version", 1, FlowMigrations.version(v1));
+
+		Map<String, Object> v2 = step(v1, 2);
+		check("v2 version before the model", Arrays.asList("_Easter_Egg", "version", "model"), Arrays.asList(v2.keySet().toArray()));
+		check("v2 keeps the nested tree", model(v1).get("tree"), model(v2).get("tree"));
+
+		Map<String, Object> v3 = step(v2, 3);
+		List<Object> tree = FlowJson.list(model(v3), "tree");
+		check("v3 sequence", Arrays.asList("Start", "Statement", "While", "End"), types(tree));
+		Map<String, Object> loop = box(tree.get(2));
+		List<Object> body = FlowJson.list(loop, "body");
+		check("v3 loop body", Arrays.asList("If", "Statement", "Void"), types(body));
+		Map<String, Object> ifBox = box(body.get(0));
+		check("v3 then is child2", Arrays.asList(15L, 16L), ids(FlowJson.list(ifBox, "then")));
+		check("v3 else is child1", Arrays.asList(13L, 14L), ids(FlowJson.list(ifBox, "else")));
+		check("v3 content", "i mod 2 = 0", ifBox.get("content"));
+		check("v3 no content on End", false, box(tree.get(3)).containsKey("content"));
+
+		Map<String, Object> v4 = step(v3, 4);
+		check("v4 collapsed", Collections.emptyList(), model(v4).get("collapsed"));
+		check("v4 keeps the tree", model(v3).get("tree"), model(v4).get("tree"));
+
+		check("migrate leaves its argument", 1, FlowMigrations.version(v1));
+		check("current is left alone", v4, FlowMigrations.migrate(v4));
+		String current = Json.write(v4, 4);
+		check("current text is returned as is", true, current == FlowMigrations.migrate(current));
+		v4.put(FlowMigrations.VERSION, (long) FlowMigrations.CURRENT + 1);
+		try {
+			FlowMigrations.migrate(v4);
+			check("newer version", "IllegalArgumentException", "migrated");
+		} catch (IllegalArgumentException expected) {
+			checks++;
+		}
+	}
+
+	private static void chain() {
+		Map<String, Object> v4 = FlowMigrations.migrate(Json.parseObject(V1));
+		check("chain ends at the current version", FlowMigrations.CURRENT, FlowMigrations.version(v4));
+		Flow flow = FlowJson.read(V1);
+		check("name", "sum", flow.getName());
+		check("current id", 30, flow.getCurrentId());
+		check("precondition", "n >= 0", flow.getPrecondition().getContent());
+		check("precondition shown", true, flow.getPrecondition().isVisible());
+		check("postcondition hidden", false, flow.getPostcondition().isVisible());
+		Node loop = flow.getTree().getNext().getNext();
+		check("loop", Node.Type.WHILE, loop.getType());
+		check("true branch", "s += i", loop.getBody().getBody().getContent());
+		check("false branch", "s -= 1", loop.getBody().getElse().getContent());
+		check("after the if", "i += 1", loop.getBody().getNext().getContent());
+		String written = FlowJson.write(flow);
+		check("migrated reads as written", written, FlowJson.write(FlowJson.read(written)));
+		check("migrated document", FlowJson.toJson(flow), FlowJson.toJson(FlowJson.fromJson(v4)));
+	}
+
+	private static void defaultFlow() throws IOException {
+		try (InputStream in = MigrationTest.class.getResourceAsStream("/nl/numworx/stream/resources/flow.json")) {
+			if (in == null) {
+				check("default flow on the class path", true, false);
+				return;
+			}
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			for (int n; (n = in.read(buffer)) > 0;)
+				bytes.write(buffer, 0, n);
+			String json = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+			Flow flow = FlowJson.read(json);
+			check("default flow starts", Node.Type.START, flow.getTree().getType());
+			check("default flow round trip", FlowJson.write(flow), FlowJson.write(FlowJson.read(FlowJson.write(flow))));
+		}
+	}
+
+	private static Map<String, Object> step(Map<String, Object> document, int version) {
+		Map<String, Object> next = FlowMigrations.migrate(document, version);
+		check("version " + version, version, FlowMigrations.version(next));
+		return next;
+	}
+
+	private static Object depth(int n) {
+		StringBuilder json = new StringBuilder();
+		for (int i = 0; i < n; i++)
+			json.append('[');
+		json.append('1');
+		for (int i = 0; i < n; i++)
+			json.append(']');
+		Object value = Json.parse(json.toString());
+		while (value instanceof List)
+			value = ((List<?>) value).get(0);
+		return value;
+	}
+
+	private static void fails(String what, String json) {
+		try {
+			Json.parseObject(json);
+			check(what, "IllegalArgumentException", "parsed");
+		} catch (IllegalArgumentException expected) {
+			checks++;
+		}
+	}
+
+	private static Map<String, Object> model(Map<String, Object> document) {
+		return FlowJson.map(document, "model");
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> box(Object value) {
+		return (Map<String, Object>) value;
+	}
+
+	private static List<Object> types(List<Object> sequence) {
+		Object[] types = new Object[sequence.size()];
+		for (int i = 0; i < types.length; i++)
+			types[i] = box(sequence.get(i)).get("basicTreeType");
+		return Arrays.asList(types);
+	}
+
+	private static List<Object> ids(List<Object> sequence) {
+		Object[] ids = new Object[sequence.size()];
+		for (int i = 0; i < ids.length; i++)
+			ids[i] = box(sequence.get(i)).get("id");
+		return Arrays.asList(ids);
+	}
+
+	private static String box(int id, String type, String content, String children) {
+		StringBuilder json = new StringBuilder("{\"id\": ").append(id).append(", \"basicTree\": {\"basicTreeType\": \"")
+				.append(type).append('"');
+		if (content != null)
+			json.append(", \"content\": \"").append(content).append('"');
+		if (children != null)
+			json.append(", ").append(children);
+		return json.append("}}").toString();
+	}
+
+	private static void check(String what, Object expected, Object actual) {
+		checks++;
+		if (!Objects.equals(expected, actual)) {
+			failures++;
+			System.err.println("FAILED " + what + ": expected " + expected + ", got " + actual);
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package nl.numworx.stream.index;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import nl.numworx.stream.flow.Flow;
+import nl.numworx.stream.flow.Node;
+
+/**
+ * Checks the flow index: phrase search, the kinds of box, and that a long run of updates and removals
+ * leaves an index no larger than one built from scratch would be, finding the same. Needs nothing but the classes under test:
+ * <pre>
+ * java nl.numworx.stream.index.FlowIndexTest
+ * </pre>
+ * Prints every failed check and exits with code 1 when there is one.
+ */
+public class FlowIndexTest {
+
+	private static final int KEYS = 100;
+	private static final int ROUNDS = 20_000;
+
+	private static int checks;
+	private static int failures;
+
+	public static void main(String[] args) throws IOException {
+		search();
+		churn();
+		System.err.println(checks + " checks, " + failures + " failed");
+		System.exit(failures > 0 ? 1 : 0);
+	}
+
+	private static void search() {
+		FlowIndex index = new FlowIndex();
+		index.put("a", 1, flow("i >= 0", Node.whileNode(11, "i < n", Node.statement(12, "s += i; i += 1", Node.voidNode(13)), Node.end(1))));
+		index.put("b", 2, flow("", Node.statement(10, "i += 1", Node.end(1))));
+		check("phrase", "[a 12 STATEMENT, b 10 STATEMENT]", index.search("i += 1").toString());
+		check("not in order", "[]", index.search("1 += i").toString());
+		check("kind", "[a 4 PRECONDITION]", index.search("i", EnumSet.of(FlowIndex.Kind.PRECONDITION)).toString());
+		check("stamp", 2L, index.stamp("b"));
+		check("removed", true, index.remove("b"));
+		check("removed twice", false, index.remove("b"));
+		check("no hits in a removed flow", "[a 12 STATEMENT]", index.search("i += 1").toString());
+		index.put("a", 3, flow("", Node.statement(10, "x := 1", Node.end(1))));
+		check("replaced", "[]", index.search("i").toString());
+		check("replacement found", "[a 10 STATEMENT]", index.search("x := 1").toString());
+	}
+
+	/**
+	 * Puts and removes flows at random, each with a term of its own, and checks that the numbers and
+	 * postings stay bounded and that every search finds exactly the flows that are in the index.
+	 */
+	private static void churn() throws IOException {
+		FlowIndex index = new FlowIndex();
+		Random random = new Random(35);
+		String[] versions = new String[KEYS];
+		int maxNumbers = 0;
+		long maxPostings = 0;
+		for (int round = 0; round < ROUNDS; round++) {
+			int key = random.nextInt(KEYS);
+			if (random.nextInt(4) == 0) {
+				index.remove("flow" + key);
+				versions[key] = null;
+			} else {
+				versions[key] = "v" + round;
+				index.put("flow" + key, round, churned(versions[key]));
+			}
+			maxNumbers = Math.max(maxNumbers, index.numbers());
+			maxPostings = Math.max(maxPostings, index.postings());
+		}
+		List<String> live = new ArrayList<>();
+		for (int key = 0; key < KEYS; key++) {
+			if (versions[key] != null)
+				live.add("flow" + key);
+		}
+		Collections.sort(live);
+		check("flows after churn", live.size(), index.size());
+		check("numbers stay bounded", true, maxNumbers <= 2 * KEYS + 1);
+		// a flow has 8 postings: "total := total + v..." and "v... := 0"
+		check("postings stay bounded", true, maxPostings <= 8 * (2 * KEYS + 1));
+		index.compact();
+		check("compacted numbers", live.size(), index.numbers());
+		check("compacted postings", 8L * live.size(), index.postings());
+		check("shared phrase", live, keys(index.search("total := total +")));
+		int found = 0;
+		for (int key = 0; key < KEYS; key++) {
+			if (versions[key] != null && keys(index.search(versions[key])).equals(Collections.singletonList("flow" + key)))
+				found++;
+		}
+		check("own term of every flow", live.size(), found);
+		check("old version gone", Collections.emptyList(), keys(index.search("v0")));
+
+		Path file = Files.createTempFile("flow-index", ".bin");
+		try {
+			index.remove(live.get(0));
+			index.save(file);
+			FlowIndex loaded = FlowIndex.load(file);
+			check("loaded flows", live.size() - 1, loaded.size());
+			check("loaded numbers", live.size() - 1, loaded.numbers());
+			check("loaded search", keys(index.search("total := total +")), keys(loaded.search("total := total +")));
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	private static Flow churned(String version) {
+		return flow("", Node.statement(10, "total := total + " + version, Node.statement(11, version + " := 0", Node.end(1))));
+	}
+
+	private static Flow flow(String precondition, Node tree) {
+		return new Flow("test", Node.start(0, tree), 20, new Flow.Condition(precondition, true), Flow.Condition.NONE);
+	}
+
+	/** The flows with a hit, each once, sorted. */
+	private static List<String> keys(List<FlowIndex.Hit> hits) {
+		Set<String> keys = new TreeSet<>();
+		for (FlowIndex.Hit hit : hits)
+			keys.add(hit.getKey());
+		return new ArrayList<>(keys);
+	}
+
+	private static void check(String what, Object expected, Object actual) {
+		checks++;
+		if (!Objects.equals(expected, actual)) {
+			failures++;
+			System.err.println("FAILED " + what + ": expected " + expected + ", got " + actual);
+		}
+	}
+}
@@ -0,0 +1,197 @@
+package nl.numworx.stream.run;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import nl.numworx.stream.flow.Flow;
+import nl.numworx.stream.flow.Node;
+
+/**
+ * Checks the parser and the evaluation of compiled flowcharts: precedence, the operators on numbers,
+ * strings and lists, the boxes, the limits and the errors a box can give at compile and at run time.
+ * Needs nothing but the classes under test:
+ * <pre>
+ * java nl.numworx.stream.run.InterpreterTest
+ * </pre>
+ * Prints every failed check and exits with code 1 when there is one.
+ */
+public class InterpreterTest {
+
+	private static int checks;
+	private static int failures;
+
+	public static void main(String[] args) {
+		precedence();
+		numbers();
+		strings();
+		lists();
+		conditions();
+		boxes();
+		limits();
+		runErrors();
+		compileErrors();
+		System.err.println(checks + " checks, " + failures + " failed");
+		System.exit(failures > 0 ? 1 : 0);
+	}
+
+	private static void precedence() {
+		Outcome o = run("a := 1 + 2 * 3\nb := (1 + 2) * 3\nc := -2 * 3\nd := 10 - 4 - 3\ne := 2 * 3 mod 4");
+		check("* before +", 7L, o.getVariables().get("a"));
+		check("parentheses", 9L, o.getVariables().get("b"));
+		check("unary minus", -6L, o.getVariables().get("c"));
+		check("- to the left", 3L, o.getVariables().get("d"));
+		check("* and mod to the left", 2L, o.getVariables().get("e"));
+		o = run("t := 1 < 2 and not 3 < 2 or false");
+		check("not, and, or", true, o.getVariables().get("t"));
+	}
+
+	private static void numbers() {
+		Outcome o = run("a := 7 / 2; b := 7 div 2; c := 7 mod 3; d := 7.0 / 2; e := 1 + 0.5");
+		check("integer division", 3L, o.getVariables().get("a"));
+		check("div", 3L, o.getVariables().get("b"));
+		check("mod", 1L, o.getVariables().get("c"));
+		check("real division", 3.5, o.getVariables().get("d"));
+		check("integer plus real", 1.5, o.getVariables().get("e"));
+		o = run("a := abs(-3); b := min(4, 2); c := max(4, 2); d := sqrt(9)");
+		check("abs", 3L, o.getVariables().get("a"));
+		check("min", 2L, o.getVariables().get("b"));
+		check("max", 4L, o.getVariables().get("c"));
+		check("sqrt", 3.0, o.getVariables().get("d"));
+		o = run("x := 9223372036854775807");
+		check("largest integer", Long.MAX_VALUE, o.getVariables().get("x"));
+		o = run("x := 5\nx += 2\nx *= 3\nx -= 1\nx /= 4");
+		check("compound assignment", 5L, o.getVariables().get("x"));
+	}
+
+	private static void strings() {
+		Outcome o = run("s := \"ab\" + 'c'; n := len(s); c := s[1]");
+		check("concatenation", "abc", o.getVariables().get("s"));
+		check("length of a string", 3L, o.getVariables().get("n"));
+		check("index in a string", "b", o.getVariables().get("c"));
+	}
+
+	private static void lists() {
+		Outcome o = run("a := [1, 2, 3]\na[3] := 4\na[0] := 0\nn := length(a)");
+		check("list", Arrays.asList(0L, 2L, 3L, 4L), o.getVariables().get("a"));
+		check("appending at the end", 4L, o.getVariables().get("n"));
+		Map<String, Object> inputs = new HashMap<>();
+		inputs.put("a", new int[] { 1, 2 });
+		o = run(inputs, "b := a\nb[0] := 5");
+		check("host array imported as a list", Arrays.asList(5L, 2L), o.getVariables().get("b"));
+		check("assignment shares the list", Arrays.asList(5L, 2L), o.getVariables().get("a"));
+	}
+
+	private static void conditions() {
+		Flow flow = flow(Node.statement(10, "x := 1", Node.end(1)), "x = 1", "x > 0\nx < 2");
+		check("= compares in a condition", Outcome.Status.FINISHED, run(flow, Collections.singletonMap("x", 1)).getStatus());
+		check("precondition", Outcome.Status.PRECONDITION_FAILED, run(flow, Collections.singletonMap("x", 2)).getStatus());
+		flow = flow(Node.statement(10, "x := 5", Node.end(1)), null, "x > 0\nx < 2");
+		Outcome o = run(flow, Collections.emptyMap());
+		check("every line of a postcondition", Outcome.Status.POSTCONDITION_FAILED, o.getStatus());
+		check("postcondition id", FlowCompiler.POSTCONDITION, o.getNodeId());
+	}
+
+	private static void boxes() {
+		// s := 0; i := 0; while i < 5: i += 1; if i mod 2 = 0 then s += i else s -= 1
+		Node ifBox = Node.ifNode(13, "i mod 2 = 0", Node.statement(15, "s -= 1", Node.voidNode(16)),
+				Node.statement(14, "s += i", Node.voidNode(17)), Node.voidNode(18));
+		Node body = Node.statement(12, "i += 1", ifBox);
+		Node tree = Node.statement(10, "s := 0; i := 0", Node.whileNode(11, "i < 5", body, Node.end(1)));
+		Outcome o = run(flow(tree, null, null), Collections.emptyMap());
+		check("while and if", 3L, o.getVariables().get("s"));
+		// one per assignment and per test: 2 + 6 + 5 + 5 + 5
+		check("steps", 23L, o.getSteps());
+
+		tree = Node.statement(10, "s := 0", Node.forEach(11, "x in 1..4", Node.statement(12, "s += x", Node.voidNode(13)), Node.end(1)));
+		check("foreach over a range", 10L, run(flow(tree, null, null), Collections.emptyMap()).getVariables().get("s"));
+		tree = Node.statement(10, "s := ''", Node.forEach(11, "c : ['a', 'b']", Node.statement(12, "s += c", Node.voidNode(13)), Node.end(1)));
+		check("foreach over a list", "ab", run(flow(tree, null, null), Collections.emptyMap()).getVariables().get("s"));
+	}
+
+	private static void limits() {
+		Node tree = Node.whileNode(11, "true", Node.statement(12, "x := 1", Node.voidNode(13)), Node.end(1));
+		Outcome o = compile(flow(tree, null, null)).run(Collections.emptyMap(), new Limits(1000, 10_000));
+		check("step limit", Outcome.Status.STEP_LIMIT, o.getStatus());
+		check("steps at the limit", true, o.getSteps() <= 1001);
+	}
+
+	private static void runErrors() {
+		error("a := [1, 2]; b := a[2]", "index 2 outside 0..1");
+		error("a := [1, 2]; b := a[-1]", "index -1 outside 0..1");
+		error("a := [1, 2]; b := a[4294967296]", "index 4294967296 out of range");
+		error("a := [1, 2]; a[4294967297] := 0", "index 4294967297 out of range");
+		error("a := 1 / 0", "division by zero");
+		error("a := b + 1", null);
+		error("a := 'x' * 2", null);
+		Outcome o = run("a := 1\nb := [][0]");
+		check("error keeps the variables so far", 1L, o.getVariables().get("a"));
+		check("error at the box", 10, o.getNodeId());
+	}
+
+	private static void compileErrors() {
+		compileError("x := 99999999999999999999", 5, "integer too large");
+		compileError("x := 1 +", 8, null);
+		compileError("x := foo(1)", 5, "unknown function");
+		compileError("x := abs(1, 2)", 5, "abs takes 1 argument(s)");
+		compileError("1 := x", 0, null);
+		compileError("x := (1", 7, null);
+	}
+
+	private static Outcome run(String statements) {
+		return run(Collections.emptyMap(), statements);
+	}
+
+	private static Outcome run(Map<String, ?> inputs, String statements) {
+		return run(flow(Node.statement(10, statements, Node.end(1)), null, null), inputs);
+	}
+
+	private static Outcome run(Flow flow, Map<String, ?> inputs) {
+		return compile(flow).run(inputs, Limits.DEFAULT);
+	}
+
+	private static Program compile(Flow flow) {
+		try {
+			return FlowCompiler.compile(flow);
+		} catch (CompileException ce) {
+			throw new AssertionError(ce.getMessage(), ce);
+		}
+	}
+
+	private static Flow flow(Node tree, String precondition, String postcondition) {
+		return new Flow("test", Node.start(0, tree), 20, condition(precondition), condition(postcondition));
+	}
+
+	private static Flow.Condition condition(String content) {
+		return content == null ? Flow.Condition.NONE : new Flow.Condition(content, true);
+	}
+
+	private static void error(String statements, String message) {
+		Outcome o = run(statements);
+		check(statements, Outcome.Status.ERROR, o.getStatus());
+		if (message != null)
+			check(statements, message, o.getMessage());
+	}
+
+	private static void compileError(String statements, int position, String message) {
+		try {
+			FlowCompiler.compile(flow(Node.statement(10, statements, Node.end(1)), null, null));
+			check(statements, "CompileException", "compiled");
+		} catch (CompileException ce) {
+			check(statements + " box", 10, ce.getNodeId());
+			check(statements + " position", position, ce.getPosition());
+			if (message != null)
+				check(statements, true, ce.getMessage().startsWith(message));
+		}
+	}
+
+	private static void check(String what, Object expected, Object actual) {
+		checks++;
+		if (!Objects.equals(expected, actual)) {
+			failures++;
+			System.err.println("FAILED " + what + ": expected " + expected + ", got " + actual);
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package nl.numworx.stream.store;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+import nl.numworx.stream.flow.Flow;
+import nl.numworx.stream.flow.FlowJson;
+import nl.numworx.stream.flow.Node;
+
+/**
+ * Checks the subtree store: flows come back as they were put, copies share their entries, an edit stores
+ * entries in proportion to its depth and not to the length of its sequence, and released flows are compacted away.
+ * Needs nothing but the classes under test:
+ * <pre>
+ * java nl.numworx.stream.store.SubtreeStoreTest
+ * </pre>
+ * Prints every failed check and exits with code 1 when there is one.
+ */
+public class SubtreeStoreTest {
+
+	private static int checks;
+	private static int failures;
+
+	public static void main(String[] args) throws IOException {
+		Path dir = Files.createTempDirectory("subtree-store");
+		try {
+			roundTrip(dir.resolve("round-trip"));
+			edits(dir.resolve("edits"));
+			releases(dir.resolve("releases"));
+		} finally {
+			try (Stream<Path> files = Files.walk(dir)) {
+				files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+			}
+		}
+		System.err.println(checks + " checks, " + failures + " failed");
+		System.exit(failures > 0 ? 1 : 0);
+	}
+
+	private static void roundTrip(Path dir) throws IOException {
+		try (SubtreeStore store = SubtreeStore.open(dir)) {
+			Flow flow = flow(nested(4, false));
+			String root = store.put(flow);
+			check("nested flow", FlowJson.write(flow), FlowJson.write(store.get(root)));
+			check("same flow, same root", root, store.put(flow(nested(4, false))));
+			Flow deep = flow(deep(50_000));
+			check("deep flow", true, same(deep.getTree(), store.get(store.put(deep)).getTree()));
+			Flow sequence = flow(sequence(50_000, -1));
+			check("long sequence", FlowJson.write(sequence), FlowJson.write(store.get(store.put(sequence))));
+		}
+		try (SubtreeStore store = SubtreeStore.open(dir)) {
+			Flow flow = flow(nested(4, false));
+			check("after reopening", FlowJson.write(flow), FlowJson.write(store.get(store.put(flow))));
+		}
+	}
+
+	private static void edits(Path dir) throws IOException {
+		try (SubtreeStore store = SubtreeStore.open(dir)) {
+			store.put(flow(sequence(1000, -1)));
+			int entries = store.getEntryCount();
+			// a box near the end of a long sequence: the box, its sequence and the root
+			store.put(flow(sequence(1000, 990)));
+			check("edit at the end of a sequence", 3, store.getEntryCount() - entries);
+
+			store.put(flow(nested(10, false)));
+			entries = store.getEntryCount();
+			store.put(flow(nested(10, true)));
+			// per level a box and a sequence, and the root
+			check("edit ten levels down", 2 * 10 + 1, store.getEntryCount() - entries);
+		}
+	}
+
+	private static void releases(Path dir) throws IOException {
+		try (SubtreeStore store = SubtreeStore.open(dir)) {
+			String launch = store.put(flow(nested(3, false)));
+			long launchSize = store.getLiveSize();
+			String copy = store.put(flow(nested(3, false)));
+			String edit = store.put(flow(nested(3, true)));
+			check("release a copy", true, store.release(copy));
+			check("still there", true, store.contains(launch));
+			check("release the edit", true, store.release(edit));
+			check("released twice", false, store.release(edit));
+			store.compact();
+			check("only the launch flow left", launchSize, store.getDataSize());
+			check("launch flow after compacting", FlowJson.write(flow(nested(3, false))), FlowJson.write(store.get(launch)));
+			check("edit compacted away", false, store.contains(edit));
+			check("release the last", true, store.release(launch));
+			store.compact();
+			check("empty after compacting", 0, store.getEntryCount());
+		}
+	}
+
+	private static Flow flow(Node tree) {
+		return new Flow("test", Node.start(0, tree), 1_000_000, Flow.Condition.NONE, Flow.Condition.NONE);
+	}
+
+	/** Statements 10.. with box <code>edit</code> changed, then End. */
+	private static Node sequence(int length, int edit) {
+		Node n = Node.end(1);
+		for (int i = length - 1; i >= 0; i--)
+			n = Node.statement(10 + i, i == edit ? "x := -1" : "x := " + i, n);
+		return n;
+	}
+
+	/**
+	 * Loops <code>depth</code> deep, each in a sequence of twenty statements; the innermost body is Void.
+	 * When <code>edited</code>, the last statement of the innermost sequence is changed.
+	 */
+	private static Node nested(int depth, boolean edited) {
+		Node body = Node.voidNode(2);
+		for (int level = depth; level > 0; level--) {
+			Node n = level == 1 ? Node.end(1) : Node.voidNode(1000 * level + 999);
+			for (int i = 19; i >= 0; i--) {
+				int id = 1000 * level + i;
+				if (i == 10)
+					n = Node.whileNode(id, "i < " + level, body, n);
+				else
+					n = Node.statement(id, edited && level == depth && i == 19 ? "x := -1" : "x := " + i, n);
+			}
+			body = n;
+		}
+		return body;
+	}
+
+	/** Loops nested <code>depth</code> deep with a single box in every body. */
+	private static Node deep(int depth) {
+		Node n = Node.voidNode(2);
+		for (int i = 0; i < depth; i++)
+			n = Node.whileNode(i + 3, "true", n, i == depth - 1 ? Node.end(1) : Node.voidNode(depth + i + 3));
+		return n;
+	}
+
+	/** Equal trees, compared with an explicit stack as the JSON writer recurses. */
+	private static boolean same(Node a, Node b) {
+		Deque<Node[]> pending = new ArrayDeque<>();
+		pending.push(new Node[] { a, b });
+		while (!pending.isEmpty()) {
+			Node[] pair = pending.pop();
+			Node x = pair[0];
+			Node y = pair[1];
+			if (x == null || y == null) {
+				if (x != y)
+					return false;
+				continue;
+			}
+			if (x.getType() != y.getType() || x.getId() != y.getId() || !Objects.equals(x.getContent(), y.getContent()))
+				return false;
+			pending.push(new Node[] { x.getNext(), y.getNext() });
+			pending.push(new Node[] { x.getBody(), y.getBody() });
+			pending.push(new Node[] { x.getElse(), y.getElse() });
+		}
+		return true;
+	}
+
+	private static void check(String what, Object expected, Object actual) {
+		checks++;
+		if (!Objects.equals(expected, actual)) {
+			failures++;
+			System.err.println("FAILED " + what + ": expected " + expected + ", got " + actual);
+		}
+	}
+}